@@ -80,6 +80,24 @@ public final class HornetQBuffers
       return new ChannelBufferWrapper(ChannelBuffers.wrappedBuffer(underlying));
    }
 
+   /**
+    * Creates a HornetQBuffer made of the readable bytes of the given buffers, without copying them
+    *
+    * @param buffers the buffers to wrap, in order
+    * @return a HornetQBuffer wrapping the readable bytes of the given buffers
+    */
+   public static HornetQBuffer wrappedBuffer(final HornetQBuffer... buffers)
+   {
+      ChannelBuffer[] channelBuffers = new ChannelBuffer[buffers.length];
+
+      for (int i = 0; i < buffers.length; i++)
+      {
+         channelBuffers[i] = buffers[i].channelBuffer();
+      }
+
+      return new ChannelBufferWrapper(ChannelBuffers.wrappedBuffer(channelBuffers));
+   }
+
    /**
     * Creates a <em>fixed</em> HornetQBuffer of the given size
     *
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent map specialized for primitive long keys.
+ * <p>
+ * The map is split in segments, each one being an open-addressing table (linear probing) made of an
+ * array of keys and an array of values. Writers hold the segment's monitor and lookups are lock free,
+ * validated by a stamp the writers change. No entry objects or boxed keys are created, what makes this a lot cheaper than a
+ * {@code ConcurrentHashMap<Long, V>} when holding millions of elements (as the journal does with
+ * one record per durable message).
+ * <p>
+ * Null values are not supported, a null value is used to identify an empty slot.
+ */
+public class ConcurrentLongHashMap<V>
+{
+   // Constants -----------------------------------------------------
+
+   private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+   private static final int DEFAULT_SEGMENT_CAPACITY = 16;
+
+   private static final float LOAD_FACTOR = 0.66f;
+
+   // Attributes ----------------------------------------------------
+
+   private final Segment<V>[] segments;
+
+   private final int segmentMask;
+
+   // Constructors --------------------------------------------------
+
+   public ConcurrentLongHashMap()
+   {
+      this(DEFAULT_CONCURRENCY_LEVEL);
+   }
+
+   @SuppressWarnings("unchecked")
+   public ConcurrentLongHashMap(final int concurrencyLevel)
+   {
+      if (concurrencyLevel <= 0)
+      {
+         throw new IllegalArgumentException("concurrencyLevel must be > 0");
+      }
+
+      int numberOfSegments = 1;
+
+      while (numberOfSegments < concurrencyLevel)
+      {
+         numberOfSegments <<= 1;
+      }
+
+      segments = new Segment[numberOfSegments];
+
+      for (int i = 0; i < numberOfSegments; i++)
+      {
+         segments[i] = new Segment<V>(DEFAULT_SEGMENT_CAPACITY);
+      }
+
+      segmentMask = numberOfSegments - 1;
+   }
+
+   // Public --------------------------------------------------------
+
+   public V get(final long key)
+   {
+      long hash = hash(key);
+      return segmentFor(hash).get(key, (int)hash);
+   }
+
+   public boolean containsKey(final long key)
+   {
+      return get(key) != null;
+   }
+
+   /**
+    * @return the previous value associated with the key, or {@code null}
+    */
+   public V put(final long key, final V value)
+   {
+      checkValue(value);
+      long hash = hash(key);
+      return segmentFor(hash).put(key, (int)hash, value, false);
+   }
+
+   /**
+    * @return the value already associated with the key, or {@code null} if the value was added
+    */
+   public V putIfAbsent(final long key, final V value)
+   {
+      checkValue(value);
+      long hash = hash(key);
+      return segmentFor(hash).put(key, (int)hash, value, true);
+   }
+
+   /**
+    * @return the removed value, or {@code null} if there was no value for the key
+    */
+   public V remove(final long key)
+   {
+      long hash = hash(key);
+      return segmentFor(hash).remove(key, (int)hash);
+   }
+
+   public int size()
+   {
+      int size = 0;
+      for (Segment<V> segment : segments)
+      {
+         size += segment.size();
+      }
+      return size;
+   }
+
+   public boolean isEmpty()
+   {
+      for (Segment<V> segment : segments)
+      {
+         if (segment.size() != 0)
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   public void clear()
+   {
+      for (Segment<V> segment : segments)
+      {
+         segment.clear();
+      }
+   }
+
+   /**
+    * @return a snapshot of the keys. Changes made after the segment was visited will not be seen.
+    */
+   public long[] keys()
+   {
+      long[] keys = new long[size()];
+      int pos = 0;
+      for (Segment<V> segment : segments)
+      {
+         synchronized (segment)
+         {
+            if (pos + segment.size > keys.length)
+            {
+               keys = Arrays.copyOf(keys, pos + segment.size);
+            }
+            pos = segment.copyKeys(keys, pos);
+         }
+      }
+      return pos == keys.length ? keys : Arrays.copyOf(keys, pos);
+   }
+
+   /**
+    * @return a snapshot of the values. Changes made after the segment was visited will not be seen.
+    */
+   public List<V> values()
+   {
+      List<V> values = new ArrayList<V>(size());
+      for (Segment<V> segment : segments)
+      {
+         segment.copyValues(values);
+      }
+      return values;
+   }
+
+   /**
+    * Visits every entry, one segment at a time. The segment being visited is locked while the
+    * processor is called, so the processor should not access the map.
+    */
+   public void forEach(final EntryProcessor<V> processor)
+   {
+      for (Segment<V> segment : segments)
+      {
+         segment.forEach(processor);
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return "ConcurrentLongHashMap(size=" + size() + ")";
+   }
+
+   // Private -------------------------------------------------------
+
+   private static void checkValue(final Object value)
+   {
+      if (value == null)
+      {
+         throw new NullPointerException("null values are not supported");
+      }
+   }
+
+   private Segment<V> segmentFor(final long hash)
+   {
+      return segments[(int)(hash >>> 32) & segmentMask];
+   }
+
+   /** Murmur3 finalizer, so sequential IDs are spread over segments and buckets */
+   private static long hash(final long key)
+   {
+      long h = key;
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+   }
+
+   // Inner classes -------------------------------------------------
+
+   public interface EntryProcessor<V>
+   {
+      void accept(long key, V value);
+   }
+
+   /**
+    * The keys and values of a segment, replaced as a whole when the segment grows. The slots are read and written as
+    * volatiles so a reader validating its stamp sees either a stable table or a changed stamp.
+    */
+   private static final class Table
+   {
+      final AtomicLongArray keys;
+
+      final AtomicReferenceArray<Object> values;
+
+      Table(final int capacity)
+      {
+         keys = new AtomicLongArray(capacity);
+         values = new AtomicReferenceArray<Object>(capacity);
+      }
+
+      int length()
+      {
+         return values.length();
+      }
+   }
+
+   /**
+    * Writers hold the segment's monitor. Readers don't take it: the stamp is odd while a writer changes the table and
+    * is increased again once it's done, so a reader retries when the stamp it read before the lookup is odd or changed
+    * after it, and takes the monitor if it keeps losing against writers.
+    */
+   private static final class Segment<V>
+   {
+      private static final int MAX_OPTIMISTIC_READS = 4;
+
+      private volatile Table table;
+
+      private volatile int stamp;
+
+      private volatile int size;
+
+      private int resizeThreshold;
+
+      Segment(final int capacity)
+      {
+         allocate(capacity);
+      }
+
+      int size()
+      {
+         return size;
+      }
+
+      V get(final long key, final int hash)
+      {
+         for (int i = 0; i < MAX_OPTIMISTIC_READS; i++)
+         {
+            int before = stamp;
+
+            if ((before & 1) != 0)
+            {
+               continue;
+            }
+
+            V value = find(table, key, hash);
+
+            if (stamp == before)
+            {
+               return value;
+            }
+         }
+
+         synchronized (this)
+         {
+            return find(table, key, hash);
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      private V find(final Table table, final long key, final int hash)
+      {
+         int length = table.length();
+         int mask = length - 1;
+         int bucket = hash & mask;
+
+         // bounded, a racing writer could leave a reader without an empty slot to stop at
+         for (int i = 0; i < length; i++)
+         {
+            Object value = table.values.get(bucket);
+
+            if (value == null)
+            {
+               return null;
+            }
+
+            if (table.keys.get(bucket) == key)
+            {
+               return (V)value;
+            }
+
+            bucket = (bucket + 1) & mask;
+         }
+
+         return null;
+      }
+
+      @SuppressWarnings("unchecked")
+      synchronized V put(final long key, final int hash, final V value, final boolean onlyIfAbsent)
+      {
+         Table table = this.table;
+         int mask = table.length() - 1;
+         int bucket = hash & mask;
+
+         while (true)
+         {
+            Object current = table.values.get(bucket);
+
+            if (current == null)
+            {
+               stamp++;
+               table.keys.set(bucket, key);
+               table.values.set(bucket, value);
+
+               if (++size > resizeThreshold)
+               {
+                  rehash(table.length() << 1);
+               }
+               stamp++;
+
+               return null;
+            }
+
+            if (table.keys.get(bucket) == key)
+            {
+               if (!onlyIfAbsent)
+               {
+                  // a reader sees either value, no need to change the stamp
+                  table.values.set(bucket, value);
+               }
+               return (V)current;
+            }
+
+            bucket = (bucket + 1) & mask;
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      synchronized V remove(final long key, final int hash)
+      {
+         Table table = this.table;
+         int mask = table.length() - 1;
+         int bucket = hash & mask;
+
+         while (true)
+         {
+            Object current = table.values.get(bucket);
+
+            if (current == null)
+            {
+               return null;
+            }
+
+            if (table.keys.get(bucket) == key)
+            {
+               stamp++;
+               size--;
+               shiftBack(table, bucket);
+               stamp++;
+               return (V)current;
+            }
+
+            bucket = (bucket + 1) & mask;
+         }
+      }
+
+      synchronized void clear()
+      {
+         stamp++;
+         allocate(DEFAULT_SEGMENT_CAPACITY);
+         stamp++;
+      }
+
+      /** must be called while holding the segment's monitor */
+      int copyKeys(final long[] target, int pos)
+      {
+         Table table = this.table;
+         for (int i = 0; i < table.length(); i++)
+         {
+            if (table.values.get(i) != null)
+            {
+               target[pos++] = table.keys.get(i);
+            }
+         }
+         return pos;
+      }
+
+      @SuppressWarnings("unchecked")
+      synchronized void copyValues(final List<V> target)
+      {
+         Table table = this.table;
+         for (int i = 0; i < table.length(); i++)
+         {
+            Object value = table.values.get(i);
+            if (value != null)
+            {
+               target.add((V)value);
+            }
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      synchronized void forEach(final EntryProcessor<V> processor)
+      {
+         Table table = this.table;
+         for (int i = 0; i < table.length(); i++)
+         {
+            Object value = table.values.get(i);
+            if (value != null)
+            {
+               processor.accept(table.keys.get(i), (V)value);
+            }
+         }
+      }
+
+      /**
+       * Backward shift deletion: moves the following entries of the same cluster into the freed
+       * slot, so we never need tombstones and lookups stay short.
+       */
+      private void shiftBack(final Table table, int hole)
+      {
+         int mask = table.length() - 1;
+         int bucket = (hole + 1) & mask;
+
+         while (table.values.get(bucket) != null)
+         {
+            long key = table.keys.get(bucket);
+            int ideal = (int)hash(key) & mask;
+
+            // the entry can fill the hole only if its ideal bucket is not between the hole and its position
+            if (((bucket - ideal) & mask) >= ((bucket - hole) & mask))
+            {
+               table.keys.set(hole, key);
+               table.values.set(hole, table.values.get(bucket));
+               hole = bucket;
+            }
+
+            bucket = (bucket + 1) & mask;
+         }
+
+         table.values.set(hole, null);
+      }
+
+      private void rehash(final int newCapacity)
+      {
+         Table oldTable = table;
+         Table newTable = new Table(newCapacity);
+
+         int mask = newCapacity - 1;
+
+         for (int i = 0; i < oldTable.length(); i++)
+         {
+            Object value = oldTable.values.get(i);
+            if (value != null)
+            {
+               long key = oldTable.keys.get(i);
+               int bucket = (int)hash(key) & mask;
+               while (newTable.values.get(bucket) != null)
+               {
+                  bucket = (bucket + 1) & mask;
+               }
+               newTable.keys.lazySet(bucket, key);
+               newTable.values.lazySet(bucket, value);
+            }
+         }
+
+         resizeThreshold = (int)(newCapacity * LOAD_FACTOR);
+
+         // publishes the copied slots
+         table = newTable;
+      }
+
+      private void allocate(final int capacity)
+      {
+         table = new Table(capacity);
+         size = 0;
+         resizeThreshold = (int)(capacity * LOAD_FACTOR);
+      }
+   }
+}
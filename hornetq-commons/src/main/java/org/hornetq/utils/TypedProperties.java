@@ -32,6 +32,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.api.core.HornetQBuffers;
 import org.hornetq.api.core.HornetQPropertyConversionException;
 import org.hornetq.api.core.SimpleString;
 
@@ -42,6 +43,11 @@ import org.hornetq.api.core.SimpleString;
  * This implementation follows section 3.5.4 of the <i>Java Message Service<i> specification
  * (Version 1.1 April 12, 2002).
  * <p>
+ * The properties read by {@link #decode(HornetQBuffer)} are kept encoded, and only decoded into a map when they are
+ * changed or listed. A property looked up before that is read from the encoded form, so a message going through the
+ * server doesn't need a map entry, a key and a value object for each of its properties. The first lookup hashes the
+ * encoded keys into a table of their positions, and the values are decoded once, when they are first looked up.
+ * <p>
  * TODO - should have typed property getters and do conversions herein
  * @author <a href="mailto:tim.fox@jboss.com">Tim Fox</a>
  * @author <a href="mailto:clebert.suconic@jboss.com">Clebert Suconic</a>
@@ -51,8 +57,27 @@ public final class TypedProperties
 
    private static final SimpleString HQ_PROPNAME = new SimpleString("_HQ_");
 
+   // A value of decodedValues not looked up yet
+   private static final Object NOT_DECODED = new Object();
+
+   // A HashMap entry with its slot in the table, the key with the header of its array and the value object, on top of
+   // the encoded key and value
+   private static final int ENTRY_MEMORY_OFFSET = 112;
+
    private Map<SimpleString, PropertyValue> properties;
 
+   // The entries not decoded yet, null once they are in properties
+   private byte[] encoded;
+
+   private int encodedCount;
+
+   // Open addressing table of the encoded entries, by the hash of their keys: the position of the entry + 1, 0 for an
+   // empty slot. Built by the first lookup
+   private int[] encodedIndex;
+
+   // The values of the encoded entries, at the slot of their keys in encodedIndex
+   private Object[] decodedValues;
+
    private volatile int size;
 
    private boolean internalProperties;
@@ -63,17 +88,31 @@ public final class TypedProperties
 
    public int getMemoryOffset()
    {
-      // The estimate is basically the encode size + 2 object references for each entry in the map
+      // The estimate is basically the encode size + the objects of each entry in the map
       // Note we don't include the attributes or anything else since they already included in the memory estimate
       // of the ServerMessage
+      // The entries still encoded are counted as decoded, as they will be once the properties are changed
 
-      return properties == null ? 0 : size + 2 * DataConstants.SIZE_INT * properties.size();
+      if (encoded != null)
+      {
+         return size + ENTRY_MEMORY_OFFSET * encodedCount;
+      }
+
+      return properties == null ? 0 : size + ENTRY_MEMORY_OFFSET * properties.size();
    }
 
    public TypedProperties(final TypedProperties other)
    {
-      properties = other.properties == null ? null : new HashMap<SimpleString, PropertyValue>(other.properties);
-      size = other.size;
+      synchronized (other)
+      {
+         properties = other.properties == null ? null : new HashMap<SimpleString, PropertyValue>(other.properties);
+         // The encoded entries and their index are never changed, they can be shared
+         encoded = other.encoded;
+         encodedCount = other.encodedCount;
+         encodedIndex = other.encodedIndex;
+         decodedValues = other.decodedValues == null ? null : other.decodedValues.clone();
+         size = other.size;
+      }
    }
 
    public boolean hasInternalProperties()
@@ -149,7 +188,14 @@ public final class TypedProperties
 
    public void putTypedProperties(final TypedProperties otherProps)
    {
-      if (otherProps == null || otherProps.properties == null)
+      if (otherProps == null)
+      {
+         return;
+      }
+
+      otherProps.decodeEncoded();
+
+      if (otherProps.properties == null)
       {
          return;
       }
@@ -434,12 +480,14 @@ public final class TypedProperties
       }
       else
       {
-         return properties.containsKey(key);
+         return doContainsProperty(key);
       }
    }
 
    public Set<SimpleString> getPropertyNames()
    {
+      decodeEncoded();
+
       if (size == 0)
       {
          return Collections.emptySet();
@@ -454,6 +502,10 @@ public final class TypedProperties
    {
       byte b = buffer.readByte();
 
+      encoded = null;
+      encodedIndex = null;
+      decodedValues = null;
+
       if (b == DataConstants.NULL)
       {
          properties = null;
@@ -462,100 +514,48 @@ public final class TypedProperties
       {
          int numHeaders = buffer.readInt();
 
-         properties = new HashMap<SimpleString, PropertyValue>(numHeaders);
-         size = 0;
+         int start = buffer.readerIndex();
 
+         // The entries are only walked through here, to know where they end
          for (int i = 0; i < numHeaders; i++)
          {
             int len = buffer.readInt();
-            byte[] data = new byte[len];
-            buffer.readBytes(data);
-            SimpleString key = new SimpleString(data);
+
+            if (!internalProperties && startsWith(buffer, buffer.readerIndex(), len, HQ_PROPNAME.getData()))
+            {
+               internalProperties = true;
+            }
+
+            buffer.skipBytes(len);
 
             byte type = buffer.readByte();
 
-            PropertyValue val;
+            int valueSize = fixedValueSize(type);
 
-            switch (type)
-            {
-               case NULL:
-               {
-                  val = new NullValue();
-                  doPutValue(key, val);
-                  break;
-               }
-               case CHAR:
-               {
-                  val = new CharValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case BOOLEAN:
-               {
-                  val = new BooleanValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case BYTE:
-               {
-                  val = new ByteValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case BYTES:
-               {
-                  val = new BytesValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case SHORT:
-               {
-                  val = new ShortValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case INT:
-               {
-                  val = new IntValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case LONG:
-               {
-                  val = new LongValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case FLOAT:
-               {
-                  val = new FloatValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case DOUBLE:
-               {
-                  val = new DoubleValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case STRING:
-               {
-                  val = new StringValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               default:
-               {
-                  throw HornetQUtilBundle.BUNDLE.invalidType(type);
-               }
-            }
+            buffer.skipBytes(valueSize < 0 ? DataConstants.SIZE_INT + buffer.getInt(buffer.readerIndex()) : valueSize);
          }
+
+         properties = null;
+         encodedIndex = null;
+         decodedValues = null;
+         encoded = new byte[buffer.readerIndex() - start];
+         encodedCount = numHeaders;
+         buffer.getBytes(start, encoded);
+         size = encoded.length;
       }
    }
 
    public synchronized void encode(final HornetQBuffer buffer)
    {
-      if (properties == null)
+      if (encoded != null)
+      {
+         buffer.writeByte(DataConstants.NOT_NULL);
+
+         buffer.writeInt(encodedCount);
+
+         buffer.writeBytes(encoded);
+      }
+      else if (properties == null)
       {
          buffer.writeByte(DataConstants.NULL);
       }
@@ -579,7 +579,7 @@ public final class TypedProperties
 
    public int getEncodeSize()
    {
-      if (properties == null)
+      if (properties == null && encoded == null)
       {
          return DataConstants.SIZE_BYTE;
       }
@@ -591,6 +591,8 @@ public final class TypedProperties
 
    public void clear()
    {
+      decodeEncoded();
+
       if (properties != null)
       {
          properties.clear();
@@ -600,6 +602,8 @@ public final class TypedProperties
    @Override
    public String toString()
    {
+      decodeEncoded();
+
       return "TypedProperties[" + properties + "]";
    }
 
@@ -607,6 +611,8 @@ public final class TypedProperties
 
    private void checkCreateProperties()
    {
+      decodeEncoded();
+
       if (properties == null)
       {
          properties = new HashMap<SimpleString, PropertyValue>();
@@ -633,6 +639,8 @@ public final class TypedProperties
 
    private synchronized Object doRemoveProperty(final SimpleString key)
    {
+      decodeEncoded();
+
       if (properties == null)
       {
          return null;
@@ -659,6 +667,15 @@ public final class TypedProperties
          return null;
       }
 
+      if (encoded != null && key instanceof SimpleString)
+      {
+         int slot = findEncoded((SimpleString)key);
+
+         return slot < 0 ? null : getEncodedValue(slot);
+      }
+
+      decodeEncoded();
+
       PropertyValue val = properties.get(key);
 
       if (val == null)
@@ -671,6 +688,280 @@ public final class TypedProperties
       }
    }
 
+   private synchronized boolean doContainsProperty(final SimpleString key)
+   {
+      if (encoded != null)
+      {
+         return findEncoded(key) >= 0;
+      }
+
+      return properties.containsKey(key);
+   }
+
+   /**
+    * Decodes the entries kept encoded by {@link #decode(HornetQBuffer)}, before they are changed or listed.
+    */
+   private synchronized void decodeEncoded()
+   {
+      if (encoded == null)
+      {
+         return;
+      }
+
+      HornetQBuffer buffer = HornetQBuffers.wrappedBuffer(encoded);
+
+      properties = new HashMap<SimpleString, PropertyValue>(encodedCount);
+      size = 0;
+
+      for (int i = 0; i < encodedCount; i++)
+      {
+         int len = buffer.readInt();
+         byte[] data = new byte[len];
+         buffer.readBytes(data);
+         SimpleString key = new SimpleString(data);
+
+         byte type = buffer.readByte();
+
+         doPutValue(key, readValue(type, buffer));
+      }
+
+      encoded = null;
+      encodedIndex = null;
+      decodedValues = null;
+   }
+
+   /**
+    * Looks a key up in the encoded entries, comparing it with the encoded keys in place.
+    *
+    * @return the slot of the key in encodedIndex, -1 if it isn't there
+    */
+   private int findEncoded(final SimpleString key)
+   {
+      if (encodedIndex == null)
+      {
+         indexEncoded();
+      }
+
+      byte[] keyData = key.getData();
+
+      int mask = encodedIndex.length - 1;
+
+      // the table is never full, there is always an empty slot to stop at
+      for (int slot = spread(key.hashCode()) & mask;; slot = slot + 1 & mask)
+      {
+         int position = encodedIndex[slot] - 1;
+
+         if (position < 0)
+         {
+            return -1;
+         }
+
+         if (keyEquals(encoded, position, keyData))
+         {
+            return slot;
+         }
+      }
+   }
+
+   /**
+    * Hashes the encoded keys into encodedIndex, as SimpleString hashes them.
+    */
+   private void indexEncoded()
+   {
+      int capacity = 2;
+
+      while (capacity < encodedCount * 2)
+      {
+         capacity <<= 1;
+      }
+
+      int[] index = new int[capacity];
+
+      int mask = capacity - 1;
+
+      int position = 0;
+
+      for (int i = 0; i < encodedCount; i++)
+      {
+         int len = readInt(encoded, position);
+
+         int hash = 0;
+
+         for (int j = position + DataConstants.SIZE_INT; j < position + DataConstants.SIZE_INT + len; j++)
+         {
+            hash = (hash << 5) - hash + encoded[j];
+         }
+
+         int slot = spread(hash) & mask;
+
+         while (index[slot] != 0)
+         {
+            slot = slot + 1 & mask;
+         }
+
+         index[slot] = position + 1;
+
+         int typePosition = position + DataConstants.SIZE_INT + len;
+
+         int valueSize = fixedValueSize(encoded[typePosition]);
+
+         if (valueSize < 0)
+         {
+            valueSize = DataConstants.SIZE_INT + readInt(encoded, typePosition + DataConstants.SIZE_BYTE);
+         }
+
+         position = typePosition + DataConstants.SIZE_BYTE + valueSize;
+      }
+
+      decodedValues = new Object[capacity];
+
+      for (int i = 0; i < capacity; i++)
+      {
+         decodedValues[i] = TypedProperties.NOT_DECODED;
+      }
+
+      encodedIndex = index;
+   }
+
+   /**
+    * @return the value of the entry at the slot, decoded the first time it is looked up
+    */
+   private Object getEncodedValue(final int slot)
+   {
+      Object value = decodedValues[slot];
+
+      if (value == TypedProperties.NOT_DECODED)
+      {
+         int position = encodedIndex[slot] - 1;
+
+         int typePosition = position + DataConstants.SIZE_INT + readInt(encoded, position);
+
+         HornetQBuffer buffer = HornetQBuffers.wrappedBuffer(encoded);
+
+         buffer.readerIndex(typePosition + DataConstants.SIZE_BYTE);
+
+         value = readValue(encoded[typePosition], buffer).getValue();
+
+         decodedValues[slot] = value;
+      }
+
+      return value;
+   }
+
+   private static int spread(final int hash)
+   {
+      return hash ^ hash >>> 16;
+   }
+
+   private static boolean keyEquals(final byte[] data, final int position, final byte[] key)
+   {
+      if (readInt(data, position) != key.length)
+      {
+         return false;
+      }
+
+      int start = position + DataConstants.SIZE_INT;
+
+      for (int i = 0; i < key.length; i++)
+      {
+         if (data[start + i] != key[i])
+         {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   private static int readInt(final byte[] data, final int position)
+   {
+      return (data[position] & 0xff) << 24 | (data[position + 1] & 0xff) << 16 |
+             (data[position + 2] & 0xff) << 8 |
+             data[position + 3] & 0xff;
+   }
+
+   private static boolean startsWith(final HornetQBuffer buffer, final int index, final int len, final byte[] prefix)
+   {
+      if (len < prefix.length)
+      {
+         return false;
+      }
+
+      for (int i = 0; i < prefix.length; i++)
+      {
+         if (buffer.getByte(index + i) != prefix[i])
+         {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   private static PropertyValue readValue(final byte type, final HornetQBuffer buffer)
+   {
+      switch (type)
+      {
+         case NULL:
+            return new NullValue();
+         case CHAR:
+            return new CharValue(buffer);
+         case BOOLEAN:
+            return new BooleanValue(buffer);
+         case BYTE:
+            return new ByteValue(buffer);
+         case BYTES:
+            return new BytesValue(buffer);
+         case SHORT:
+            return new ShortValue(buffer);
+         case INT:
+            return new IntValue(buffer);
+         case LONG:
+            return new LongValue(buffer);
+         case FLOAT:
+            return new FloatValue(buffer);
+         case DOUBLE:
+            return new DoubleValue(buffer);
+         case STRING:
+            return new StringValue(buffer);
+         default:
+            throw HornetQUtilBundle.BUNDLE.invalidType(type);
+      }
+   }
+
+   /**
+    * @return the size of an encoded value after its type, or -1 if the value starts with its size as an int
+    */
+   private static int fixedValueSize(final byte type)
+   {
+      switch (type)
+      {
+         case NULL:
+            return 0;
+         case CHAR:
+            return DataConstants.SIZE_CHAR;
+         case BOOLEAN:
+            return DataConstants.SIZE_BOOLEAN;
+         case BYTE:
+            return DataConstants.SIZE_BYTE;
+         case SHORT:
+            return DataConstants.SIZE_SHORT;
+         case INT:
+            return DataConstants.SIZE_INT;
+         case LONG:
+            return DataConstants.SIZE_LONG;
+         case FLOAT:
+            return DataConstants.SIZE_FLOAT;
+         case DOUBLE:
+            return DataConstants.SIZE_DOUBLE;
+         case BYTES:
+         case STRING:
+            return -1;
+         default:
+            throw HornetQUtilBundle.BUNDLE.invalidType(type);
+      }
+   }
+
    // Inner classes ------------------------------------------------------------------------------
 
    private static abstract class PropertyValue
@@ -64,15 +64,23 @@ public final class HornetQDefaultConfiguration
    public static final boolean DEFAULT_CREATE_BINDINGS_DIR = true;
    public static final String DEFAULT_JOURNAL_DIR = "data/journal";
    public static final String DEFAULT_PAGING_DIR = "data/paging";
+   public static final long DEFAULT_GLOBAL_MAX_SIZE = -1;
    public static final String DEFAULT_LARGE_MESSAGES_DIR = "data/largemessages";
    /** Used by the JBoss-AS integration code. */
    public static final int DEFAULT_MAX_CONCURRENT_PAGE_IO = 5;
    public static final boolean DEFAULT_CREATE_JOURNAL_DIR = true;
    public static final boolean DEFAULT_JOURNAL_SYNC_TRANSACTIONAL = true;
    public static final boolean DEFAULT_JOURNAL_SYNC_NON_TRANSACTIONAL = true;
+   public static final boolean DEFAULT_JOURNAL_GROUP_COMMIT = false;
+   public static final int DEFAULT_JOURNAL_GROUP_COMMIT_WINDOW = 100000;
    public static final int DEFAULT_JOURNAL_FILE_SIZE = 10485760;
    public static final int DEFAULT_JOURNAL_COMPACT_MIN_FILES = 10;
    public static final int DEFAULT_JOURNAL_COMPACT_PERCENTAGE = 30;
+   public static final int DEFAULT_JOURNAL_LOAD_THREADS = 1;
+   public static final int DEFAULT_JOURNAL_COMPACT_MAX_FILES = 0;
+   public static final long DEFAULT_JOURNAL_COMPACT_MAX_PAUSE = 10;
+   public static final boolean DEFAULT_JOURNAL_CHECKSUMS = false;
+   public static final int DEFAULT_JOURNAL_WAL_MAX_FILES = 2;
    public static final int DEFAULT_JOURNAL_MIN_FILES = 2;
    public static final int DEFAULT_JOURNAL_MAX_IO_AIO = 500;
    /** Used by the JBoss-AS integration code. */
@@ -85,6 +93,10 @@ public final class HornetQDefaultConfiguration
    /** Used by the JBoss-AS integration code. */
    public static final int DEFAULT_JOURNAL_BUFFER_SIZE_NIO = JournalConstants.DEFAULT_JOURNAL_BUFFER_SIZE_NIO;
    public static final boolean DEFAULT_JOURNAL_LOG_WRITE_RATE = false;
+   public static final boolean DEFAULT_JOURNAL_CONCURRENT_BUFFER = false;
+   public static final boolean DEFAULT_JOURNAL_BUFFER_TIMEOUT_ADAPTIVE = false;
+   public static final int DEFAULT_JOURNAL_BUFFER_TIMEOUT_MIN = 50000;
+   public static final int DEFAULT_JOURNAL_BUFFER_TIMEOUT_MAX = 10000000;
    public static final int DEFAULT_JOURNAL_PERF_BLAST_PAGES = -1;
    /** Used by the JBoss-AS integration code. */
    public static final boolean DEFAULT_RUN_SYNC_SPEED_TEST = false;
@@ -46,6 +46,11 @@ public interface AddressControl
     */
    String[] getQueueNames() throws Exception;
 
+   /**
+    * Returns the number of bytes the messages of this address take up in memory.
+    */
+   long getAddressSize() throws Exception;
+
    /**
     * Returns the number of pages used by this address.
     */
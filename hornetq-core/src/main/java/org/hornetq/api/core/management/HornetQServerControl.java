@@ -121,6 +121,53 @@ public interface HornetQServerControl
     */
    int getJournalBufferTimeout();
 
+   /**
+    * Returns whether the timeout used to flush internal buffers on the journal is chosen from the measured flush
+    * latency and arrival rate.
+    */
+   boolean isJournalBufferTimeoutAdaptive();
+
+   /**
+    * Returns the timeout (in nanoseconds) currently used to flush internal buffers on the journal.
+    * <br>
+    * This is the configured timeout unless the timeout is adaptive.
+    */
+   long getJournalCurrentBufferTimeout();
+
+   /**
+    * Returns the number of bytes which make the journal flush its internal buffer without waiting for the timeout.
+    * <br>
+    * This is the size of the buffer unless the timeout is adaptive.
+    */
+   int getJournalCurrentBatchSize();
+
+   /**
+    * Returns the latencies of the journal flushes as a JSON array of objects with the bound (in microseconds) below
+    * which the flushes were counted and the count.
+    * <br>
+    * Latencies are only measured when the timeout is adaptive, the array is empty otherwise.
+    */
+   String getJournalFlushLatencyHistogramAsJSON() throws Exception;
+
+   /**
+    * Returns whether the commits of concurrent transactions are written to the journal as groups.
+    */
+   boolean isJournalGroupCommit();
+
+   /**
+    * Returns the average number of commits written to the journal by a group.
+    * <br>
+    * This is 0 unless commits are grouped.
+    */
+   double getJournalAverageCommitGroupSize();
+
+   /**
+    * Returns the largest number of commits written to the journal by a group.
+    * <br>
+    * This is 0 unless commits are grouped.
+    */
+   int getJournalMaxCommitGroupSize();
+
    /**
     * do any clients failover on a server shutdown
     */
@@ -203,6 +250,17 @@ public interface HornetQServerControl
     */
    String getPagingDirectory();
 
+   /**
+    * Returns the number of bytes the messages of all the addresses can take up in memory before the addresses start
+    * paging ({@code -1} means no limit).
+    */
+   long getGlobalMaxSize();
+
+   /**
+    * Returns the number of bytes the messages of all the addresses take up in memory.
+    */
+   long getGlobalSize();
+
    /**
     * Returns whether delivery count is persisted before messages are delivered to the consumers.
     */
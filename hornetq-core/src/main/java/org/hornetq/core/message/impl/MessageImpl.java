@@ -23,12 +23,15 @@ import org.hornetq.api.core.HornetQBuffers;
 import org.hornetq.api.core.HornetQException;
 import org.hornetq.api.core.HornetQPropertyConversionException;
 import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.buffers.impl.ChannelBufferWrapper;
 import org.hornetq.core.buffers.impl.ResetLimitWrappedHornetQBuffer;
 import org.hornetq.core.message.BodyEncoder;
 import org.hornetq.core.protocol.core.impl.PacketImpl;
 import org.hornetq.utils.DataConstants;
 import org.hornetq.utils.TypedProperties;
 import org.hornetq.utils.UUID;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 
 /**
  * A concrete implementation of a message
@@ -89,6 +92,8 @@ public abstract class MessageImpl implements MessageInternal
 
    private UUID userID;
 
+   private volatile SharedEncoding sharedEncoding;
+
    // Constructors --------------------------------------------------
 
    protected MessageImpl()
@@ -496,6 +501,40 @@ public abstract class MessageImpl implements MessageInternal
       buff.readerIndex(start + length);
    }
 
+   public HornetQBuffer getSharedEncodedBuffer()
+   {
+      SharedEncoding shared = sharedEncoding;
+
+      // An encoding that was shared is never written again, encodeToBuffer copies the buffer first
+      if (shared == null || !bufferValid || shared.source != buffer)
+      {
+         shared = shareEncoding();
+      }
+
+      return new ChannelBufferWrapper(shared.view.duplicate());
+   }
+
+   private synchronized SharedEncoding shareEncoding()
+   {
+      HornetQBuffer buff = encodeToBuffer();
+
+      SharedEncoding shared = sharedEncoding;
+
+      if (shared == null || shared.source != buff)
+      {
+         bufferUsed = true;
+
+         ChannelBuffer view = buff.channelBuffer().slice(BUFFER_HEADER_SPACE,
+                                                         endOfMessagePosition - BUFFER_HEADER_SPACE);
+
+         shared = new SharedEncoding(buff, ChannelBuffers.unmodifiableBuffer(view));
+
+         sharedEncoding = shared;
+      }
+
+      return shared;
+   }
+
    public synchronized HornetQBuffer getEncodedBuffer()
    {
       HornetQBuffer buff = encodeToBuffer();
@@ -981,6 +1020,19 @@ public abstract class MessageImpl implements MessageInternal
 
    // Inner classes -------------------------------------------------
 
+   private static final class SharedEncoding
+   {
+      private final HornetQBuffer source;
+
+      private final ChannelBuffer view;
+
+      private SharedEncoding(final HornetQBuffer source, final ChannelBuffer view)
+      {
+         this.source = source;
+         this.view = view;
+      }
+   }
+
    private final class DecodingContext implements BodyEncoder
    {
       private int lastPos = 0;
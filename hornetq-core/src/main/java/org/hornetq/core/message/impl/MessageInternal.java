@@ -49,6 +49,12 @@ public interface MessageInternal extends Message
 
    HornetQBuffer getEncodedBuffer();
 
+   /**
+    * Returns a read only view of the encoded message, without the packet headers. The bytes are shared by every
+    * caller until the message changes, only the indexes of the returned buffer are its own.
+    */
+   HornetQBuffer getSharedEncodedBuffer();
+
    int getHeadersAndPropertiesEncodeSize();
 
    HornetQBuffer getWholeBuffer();
@@ -12,6 +12,7 @@
  */
 package org.hornetq.core.protocol.core;
 
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 
 import org.hornetq.api.core.HornetQException;
@@ -54,6 +55,13 @@ public interface Channel
     */
    void sendBatched(Packet packet);
 
+   /**
+    * sends several packets on this channel with a single write to the connection.
+    *
+    * @param packets the packets to send, in order
+    */
+   void sendBatched(List<Packet> packets);
+
    /**
     * sends a packet on this channel and then blocks until it has been written to the connection.
     *
@@ -14,6 +14,7 @@
 package org.hornetq.core.protocol.core.impl;
 
 import java.util.EnumSet;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -216,23 +217,7 @@ public final class ChannelImpl implements Channel
 
          try
          {
-            if (failingOver)
-            {
-               // TODO - don't hardcode this timeout
-               try
-               {
-                  failoverCondition.await(10000, TimeUnit.MILLISECONDS);
-               }
-               catch (InterruptedException e)
-               {
-               }
-            }
-
-            // Sanity check
-            if (transferring)
-            {
-               throw new IllegalStateException("Cannot send a packet while channel is doing failover");
-            }
+            awaitFailover();
 
             if (resendCache != null && packet.isRequiresConfirmations())
             {
@@ -256,6 +241,64 @@ public final class ChannelImpl implements Channel
       }
    }
 
+   public void sendBatched(final List<Packet> packets)
+   {
+      if (packets.size() == 1)
+      {
+         sendBatched(packets.get(0));
+
+         return;
+      }
+
+      synchronized (sendLock)
+      {
+         HornetQBuffer[] buffers = new HornetQBuffer[packets.size()];
+
+         for (int i = 0; i < buffers.length; i++)
+         {
+            Packet packet = packets.get(i);
+
+            packet.setChannelID(id);
+
+            if (isTrace)
+            {
+               HornetQCoreLogger.LOGGER.trace("Sending packet nonblocking " + packet + " on channeID=" + id);
+            }
+
+            buffers[i] = packet.encode(connection);
+         }
+
+         lock.lock();
+
+         try
+         {
+            awaitFailover();
+
+            if (resendCache != null)
+            {
+               for (Packet packet : packets)
+               {
+                  if (packet.isRequiresConfirmations())
+                  {
+                     resendCache.add(packet);
+                  }
+               }
+            }
+         }
+         finally
+         {
+            lock.unlock();
+         }
+
+         if (isTrace)
+         {
+            HornetQCoreLogger.LOGGER.trace("Writing buffers of " + buffers.length + " packets for channelID=" + id);
+         }
+
+         connection.getTransportConnection().write(buffers, true);
+      }
+   }
+
    public Packet sendBlocking(final Packet packet) throws HornetQException
    {
       if (closed)
@@ -550,6 +593,28 @@ public final class ChannelImpl implements Channel
       }
    }
 
+   // Must be called holding the lock
+   private void awaitFailover()
+   {
+      if (failingOver)
+      {
+         // TODO - don't hardcode this timeout
+         try
+         {
+            failoverCondition.await(10000, TimeUnit.MILLISECONDS);
+         }
+         catch (InterruptedException e)
+         {
+         }
+      }
+
+      // Sanity check
+      if (transferring)
+      {
+         throw new IllegalStateException("Cannot send a packet while channel is doing failover");
+      }
+   }
+
    private void doWrite(final Packet packet)
    {
       final HornetQBuffer buffer = packet.encode(connection);
@@ -14,6 +14,7 @@
 package org.hornetq.core.protocol.core.impl.wireformat;
 
 import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.api.core.HornetQBuffers;
 import org.hornetq.core.message.impl.MessageInternal;
 import org.hornetq.core.protocol.core.impl.PacketImpl;
 import org.hornetq.spi.core.protocol.RemotingConnection;
@@ -63,33 +64,31 @@ public class SessionReceiveMessage extends MessagePacket
 
    // Protected -----------------------------------------------------
 
+   /**
+    * The message is sent from its shared encoding, between a header and a trailer of this packet, so a message
+    * delivered to many consumers is neither copied nor locked for each of them.
+    */
    @Override
    public HornetQBuffer encode(final RemotingConnection connection)
    {
-      HornetQBuffer buffer = message.getEncodedBuffer();
+      HornetQBuffer encodedMessage = message.getSharedEncodedBuffer();
 
-      // Sanity check
-      if (buffer.writerIndex() != message.getEndOfMessagePosition())
-      {
-         throw new IllegalStateException("Wrong encode position");
-      }
-
-      buffer.writeLong(consumerID);
-      buffer.writeInt(deliveryCount);
-
-      size = buffer.writerIndex();
+      size = PacketImpl.PACKET_HEADERS_SIZE + encodedMessage.readableBytes() +
+             DataConstants.SIZE_LONG +
+             DataConstants.SIZE_INT;
 
       // Write standard headers
 
-      int len = size - DataConstants.SIZE_INT;
-      buffer.setInt(0, len);
-      buffer.setByte(DataConstants.SIZE_INT, getType());
-      buffer.setLong(DataConstants.SIZE_INT + DataConstants.SIZE_BYTE, channelID);
+      HornetQBuffer header = HornetQBuffers.fixedBuffer(PacketImpl.PACKET_HEADERS_SIZE);
+      header.writeInt(size - DataConstants.SIZE_INT);
+      header.writeByte(getType());
+      header.writeLong(channelID);
 
-      // Position reader for reading by Netty
-      buffer.setIndex(0, size);
+      HornetQBuffer trailer = HornetQBuffers.fixedBuffer(DataConstants.SIZE_LONG + DataConstants.SIZE_INT);
+      trailer.writeLong(consumerID);
+      trailer.writeInt(deliveryCount);
 
-      return buffer;
+      return HornetQBuffers.wrappedBuffer(header, encodedMessage, trailer);
    }
 
    @Override
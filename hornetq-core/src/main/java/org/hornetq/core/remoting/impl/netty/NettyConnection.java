@@ -27,6 +27,7 @@ import org.hornetq.spi.core.remoting.Connection;
 import org.hornetq.spi.core.remoting.ConnectionLifeCycleListener;
 import org.hornetq.spi.core.remoting.ReadyListener;
 import org.hornetq.utils.ConcurrentHashSet;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
@@ -244,6 +245,54 @@ public class NettyConnection implements Connection
       }
    }
 
+   public void write(final HornetQBuffer[] buffers, final boolean batched)
+   {
+      if (batchingEnabled && batched)
+      {
+         // They go to the batch buffer like any other batched write
+         for (HornetQBuffer buffer : buffers)
+         {
+            write(buffer, false, true);
+         }
+
+         return;
+      }
+
+      ChannelBuffer[] channelBuffers = new ChannelBuffer[buffers.length];
+
+      for (int i = 0; i < buffers.length; i++)
+      {
+         channelBuffers[i] = buffers[i].channelBuffer();
+      }
+
+      try
+      {
+         writeLock.acquire();
+
+         try
+         {
+            if (batchBuffer != null && batchBuffer.readable())
+            {
+               // What was batched before has to go first
+               channel.write(batchBuffer.channelBuffer());
+
+               batchBuffer = HornetQBuffers.dynamicBuffer(BATCHING_BUFFER_SIZE);
+            }
+
+            // A composite buffer, written with a single gathering write
+            channel.write(ChannelBuffers.wrappedBuffer(channelBuffers));
+         }
+         finally
+         {
+            writeLock.release();
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
    public String getRemoteAddress()
    {
       return channel.getRemoteAddress().toString();
@@ -56,6 +56,14 @@ public interface Connection
     */
    void write(HornetQBuffer buffer);
 
+   /**
+    * writes several buffers, each holding whole packets, to the connection at once with no flushing.
+    *
+    * @param buffers the buffers to write, in order
+    * @param batched whether the packets are allowed to batched for better performance
+    */
+   void write(HornetQBuffer[] buffers, boolean batched);
+
    /**
     * Closes the connection.
     */
@@ -0,0 +1,598 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.utils;
+
+import java.lang.reflect.Array;
+import java.util.NoSuchElementException;
+
+/**
+ * A linked list keeping its elements in arrays of slots, the chunks, rather than in a node per element.
+ * <p>
+ * A {@link LinkedListImpl} holding millions of message references pays for a node object per reference, here each
+ * reference only takes a slot of an array. The iterators behave as the ones of {@link LinkedListImpl}: several of them
+ * can exist at the same time on the list, and they see any element added or removed from the list either directly or
+ * through another iterator.
+ * <p>
+ * Removing an element from the middle of the list leaves a hole in its chunk. A chunk is dropped once it holds no
+ * element, and it is copied into a smaller array once most of its slots are holes, so a few elements left behind by
+ * the consumers don't keep whole chunks alive.
+ * <p>
+ * This class is not thread safe.
+ */
+public class ChunkedLinkedListImpl<E> implements LinkedList<E>
+{
+   public static final int CHUNK_SIZE = 64;
+
+   // Chunks smaller than this are not worth copying
+   private static final int MIN_COMPACT_SIZE = 8;
+
+   private static final int INITIAL_ITERATOR_ARRAY_SIZE = 10;
+
+   private Chunk head;
+
+   private Chunk tail;
+
+   private int size;
+
+   // We store in an array rather than a Map for the best performance
+   private volatile Iterator[] iters;
+
+   private int numIters;
+
+   public ChunkedLinkedListImpl()
+   {
+      iters = createIteratorArray(INITIAL_ITERATOR_ARRAY_SIZE);
+   }
+
+   public void addHead(final E e)
+   {
+      if (head == null || head.start == 0)
+      {
+         Chunk chunk = new Chunk(CHUNK_SIZE, CHUNK_SIZE);
+
+         chunk.next = head;
+
+         if (head == null)
+         {
+            tail = chunk;
+         }
+         else
+         {
+            head.prev = chunk;
+         }
+
+         head = chunk;
+      }
+
+      head.slots[--head.start] = e;
+
+      head.count++;
+
+      size++;
+   }
+
+   public void addTail(final E e)
+   {
+      if (tail == null || tail.end == tail.slots.length)
+      {
+         Chunk chunk = new Chunk(CHUNK_SIZE, 0);
+
+         chunk.prev = tail;
+
+         if (tail == null)
+         {
+            head = chunk;
+         }
+         else
+         {
+            tail.next = chunk;
+         }
+
+         tail = chunk;
+      }
+
+      tail.slots[tail.end++] = e;
+
+      tail.count++;
+
+      size++;
+   }
+
+   public E poll()
+   {
+      if (head == null)
+      {
+         return null;
+      }
+
+      Chunk chunk = head;
+
+      int index = chunk.start;
+
+      // The start of a chunk is always moved to its first element
+      E e = chunk.get(index);
+
+      remove(chunk, index);
+
+      return e;
+   }
+
+   public void clear()
+   {
+      head = tail = null;
+
+      size = 0;
+
+      resetIterators();
+   }
+
+   public int size()
+   {
+      return size;
+   }
+
+   public LinkedListIterator<E> iterator()
+   {
+      return new Iterator();
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuilder str = new StringBuilder("ChunkedLinkedListImpl [ ");
+
+      boolean first = true;
+
+      for (Chunk chunk = head; chunk != null; chunk = chunk.next)
+      {
+         for (int i = chunk.start; i < chunk.end; i++)
+         {
+            if (chunk.slots[i] != null)
+            {
+               if (!first)
+               {
+                  str.append(", ");
+               }
+
+               str.append(chunk.slots[i]);
+
+               first = false;
+            }
+         }
+      }
+
+      return str.append(" ]").toString();
+   }
+
+   public int numIters()
+   {
+      return numIters;
+   }
+
+   /**
+    * @return the number of chunks, for tests
+    */
+   public int numChunks()
+   {
+      int chunks = 0;
+
+      for (Chunk chunk = head; chunk != null; chunk = chunk.next)
+      {
+         chunks++;
+      }
+
+      return chunks;
+   }
+
+   private Iterator[] createIteratorArray(final int size)
+   {
+      return (Iterator[])Array.newInstance(Iterator.class, size);
+   }
+
+   private void remove(final Chunk chunk, final int index)
+   {
+      chunk.slots[index] = null;
+
+      chunk.count--;
+
+      size--;
+
+      if (numIters != 0)
+      {
+         nudgeIterators(chunk, index);
+      }
+
+      if (chunk.count == 0)
+      {
+         unlink(chunk);
+      }
+      else if (index == chunk.start)
+      {
+         do
+         {
+            chunk.start++;
+         }
+         while (chunk.slots[chunk.start] == null);
+      }
+      else if (chunk.count * 4 < chunk.slots.length && chunk.slots.length >= MIN_COMPACT_SIZE &&
+               (chunk != tail || chunk.end == chunk.slots.length))
+      {
+         // The tail is only compacted once full, as new elements still go to its free slots
+         compact(chunk);
+      }
+   }
+
+   private void unlink(final Chunk chunk)
+   {
+      if (chunk.prev == null)
+      {
+         head = chunk.next;
+      }
+      else
+      {
+         chunk.prev.next = chunk.next;
+      }
+
+      if (chunk.next == null)
+      {
+         tail = chunk.prev;
+      }
+      else
+      {
+         chunk.next.prev = chunk.prev;
+      }
+
+      chunk.next = chunk.prev = null;
+   }
+
+   private void compact(final Chunk chunk)
+   {
+      Object[] slots = new Object[chunk.count];
+
+      int j = 0;
+
+      for (int i = chunk.start; i < chunk.end; i++)
+      {
+         if (chunk.slots[i] != null)
+         {
+            slots[j++] = chunk.slots[i];
+         }
+      }
+
+      remapIterators(chunk);
+
+      chunk.slots = slots;
+
+      chunk.start = 0;
+
+      chunk.end = slots.length;
+   }
+
+   /**
+    * Moves the iterators which were on a removed element as {@link LinkedListImpl} does: onto the next element, or
+    * back onto the previous one if it was the last one.
+    */
+   private synchronized void nudgeIterators(final Chunk chunk, final int index)
+   {
+      for (int i = 0; i < numIters; i++)
+      {
+         Iterator iter = iters[i];
+
+         if (iter != null && iter.chunk == chunk && iter.index == index)
+         {
+            iter.nudged();
+         }
+      }
+   }
+
+   private synchronized void remapIterators(final Chunk chunk)
+   {
+      for (int i = 0; i < numIters; i++)
+      {
+         Iterator iter = iters[i];
+
+         if (iter != null && iter.chunk == chunk)
+         {
+            // The iterators are always on an element, which keeps its rank in the chunk
+            int index = -1;
+
+            for (int j = chunk.start; j <= iter.index; j++)
+            {
+               if (chunk.slots[j] != null)
+               {
+                  index++;
+               }
+            }
+
+            iter.index = index;
+         }
+      }
+   }
+
+   private synchronized void resetIterators()
+   {
+      for (int i = 0; i < numIters; i++)
+      {
+         Iterator iter = iters[i];
+
+         if (iter != null)
+         {
+            iter.chunk = null;
+
+            iter.canRemove = false;
+         }
+      }
+   }
+
+   private synchronized void addIter(final Iterator iter)
+   {
+      if (numIters == iters.length)
+      {
+         resize(2 * numIters);
+      }
+
+      iters[numIters++] = iter;
+   }
+
+   private synchronized void resize(final int newSize)
+   {
+      Iterator[] newIters = createIteratorArray(newSize);
+
+      System.arraycopy(iters, 0, newIters, 0, numIters);
+
+      iters = newIters;
+   }
+
+   private synchronized void removeIter(final Iterator iter)
+   {
+      for (int i = 0; i < numIters; i++)
+      {
+         if (iter == iters[i])
+         {
+            if (i != numIters - 1)
+            {
+               // Fill in the hole
+
+               System.arraycopy(iters, i + 1, iters, i, numIters - i - 1);
+            }
+
+            iters[--numIters] = null;
+
+            if (numIters >= INITIAL_ITERATOR_ARRAY_SIZE && numIters == iters.length / 2)
+            {
+               resize(numIters);
+            }
+
+            return;
+         }
+      }
+
+      throw new IllegalStateException("Cannot find iter to remove");
+   }
+
+   private final class Chunk
+   {
+      Object[] slots;
+
+      // The first slot holding an element, or the first one free for addHead on an empty chunk
+      int start;
+
+      // The slot after the last one ever used for an element
+      int end;
+
+      int count;
+
+      Chunk prev;
+
+      Chunk next;
+
+      Chunk(final int capacity, final int start)
+      {
+         slots = new Object[capacity];
+
+         this.start = end = start;
+      }
+
+      @SuppressWarnings("unchecked")
+      E get(final int index)
+      {
+         return (E)slots[index];
+      }
+   }
+
+   private class Iterator implements LinkedListIterator<E>
+   {
+      // The element the iterator is on, null before the first one
+      Chunk chunk;
+
+      int index;
+
+      // Whether the element the iterator is on was returned by next
+      boolean returned;
+
+      boolean canRemove;
+
+      boolean repeat;
+
+      Iterator()
+      {
+         addIter(this);
+      }
+
+      public void repeat()
+      {
+         repeat = true;
+      }
+
+      public boolean hasNext()
+      {
+         if (getNode() && (!returned || repeat))
+         {
+            return true;
+         }
+
+         return canAdvance();
+      }
+
+      public E next()
+      {
+         boolean onNode = getNode();
+
+         if (repeat)
+         {
+            repeat = false;
+
+            if (onNode)
+            {
+               return chunk.get(index);
+            }
+         }
+
+         if (!onNode || returned)
+         {
+            if (!advance())
+            {
+               throw new NoSuchElementException();
+            }
+         }
+
+         returned = true;
+
+         canRemove = true;
+
+         return chunk.get(index);
+      }
+
+      public void remove()
+      {
+         if (!canRemove || chunk == null)
+         {
+            throw new NoSuchElementException();
+         }
+
+         canRemove = false;
+
+         ChunkedLinkedListImpl.this.remove(chunk, index);
+      }
+
+      public void close()
+      {
+         removeIter(this);
+      }
+
+      /**
+       * Called once the element the iterator is on is removed from the list.
+       */
+      void nudged()
+      {
+         returned = false;
+
+         if (!advance() && !back())
+         {
+            chunk = null;
+         }
+      }
+
+      private boolean getNode()
+      {
+         if (chunk == null && head != null)
+         {
+            chunk = head;
+
+            index = head.start;
+
+            returned = false;
+         }
+
+         return chunk != null;
+      }
+
+      private boolean canAdvance()
+      {
+         return getNode() && find(true, false);
+      }
+
+      private boolean advance()
+      {
+         return chunk != null && find(true, true);
+      }
+
+      private boolean back()
+      {
+         return find(false, true);
+      }
+
+      /**
+       * Looks for the next or the previous element, and moves onto it if asked to.
+       */
+      private boolean find(final boolean forward, final boolean move)
+      {
+         Chunk c = chunk;
+
+         int i = forward ? index + 1 : index - 1;
+
+         while (c != null)
+         {
+            if (forward)
+            {
+               for (; i < c.end; i++)
+               {
+                  if (c.slots[i] != null)
+                  {
+                     return found(c, i, move);
+                  }
+               }
+
+               c = c.next;
+
+               if (c != null)
+               {
+                  i = c.start;
+               }
+            }
+            else
+            {
+               for (; i >= c.start; i--)
+               {
+                  if (c.slots[i] != null)
+                  {
+                     return found(c, i, move);
+                  }
+               }
+
+               c = c.prev;
+
+               if (c != null)
+               {
+                  i = c.end - 1;
+               }
+            }
+         }
+
+         return false;
+      }
+
+      private boolean found(final Chunk c, final int i, final boolean move)
+      {
+         if (move)
+         {
+            chunk = c;
+
+            index = i;
+         }
+
+         return true;
+      }
+   }
+}
@@ -19,7 +19,10 @@ import java.util.NoSuchElementException;
 /**
  * A priority linked list implementation
  * 
- * It implements this by maintaining an individual LinkedBlockingDeque for each priority level.
+ * It implements this by maintaining an individual {@link ChunkedLinkedListImpl} for each priority level.
+ * <p>
+ * A bitmap has a bit set for each level holding elements, so the highest level to poll from, or the next one for an
+ * iterator to move to, is found with a single bit operation rather than by looking at all the levels in turn.
  * 
  * @author <a href="mailto:tim.fox@jboss.com>Tim Fox</a>
  * @author <a href="mailto:jmesnil@redhat.com>Jeff Mesnil</a>
@@ -29,29 +32,51 @@ import java.util.NoSuchElementException;
  */
 public class PriorityLinkedListImpl<T> implements PriorityLinkedList<T>
 {
-   protected LinkedListImpl<T>[] levels;
+   protected ChunkedLinkedListImpl<T>[] levels;
 
    private int size;
 
    private int lastReset;
 
-   private int highestPriority = -1;
+   // Bit i is set when levels[i] is not empty
+   private int nonEmptyLevels;
 
    private int lastPriority = -1;
 
    public PriorityLinkedListImpl(final int priorities)
    {
-      levels = (LinkedListImpl<T>[])Array.newInstance(LinkedListImpl.class, priorities);
+      if (priorities > Integer.SIZE)
+      {
+         throw new IllegalArgumentException("No more than " + Integer.SIZE + " priorities are supported: " + priorities);
+      }
+
+      levels = (ChunkedLinkedListImpl<T>[])Array.newInstance(ChunkedLinkedListImpl.class, priorities);
 
       for (int i = 0; i < priorities; i++)
       {
-         levels[i] = new LinkedListImpl<T>();
+         levels[i] = new ChunkedLinkedListImpl<T>();
       }
    }
 
+   /**
+    * @return the highest level set in the bitmap, -1 if there is none
+    */
+   private static int highest(final int bitmap)
+   {
+      return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(bitmap);
+   }
+
+   /**
+    * @return a bitmap of the levels from 0 to priority included
+    */
+   private static int upTo(final int priority)
+   {
+      return -1 >>> Integer.SIZE - 1 - priority;
+   }
+
    private void checkHighest(final int priority)
    {
-      if (lastPriority != priority || priority > highestPriority)
+      if (lastPriority != priority || priority > highest(nonEmptyLevels))
       {
          lastPriority = priority;
          if (lastReset == Integer.MAX_VALUE)
@@ -64,9 +89,14 @@ public class PriorityLinkedListImpl<T> implements PriorityLinkedList<T>
          }
       }
 
-      if (priority > highestPriority)
+      nonEmptyLevels |= 1 << priority;
+   }
+
+   private void checkEmpty(final int priority)
+   {
+      if (levels[priority].size() == 0)
       {
-         highestPriority = priority;
+         nonEmptyLevels &= ~(1 << priority);
       }
    }
 
@@ -90,50 +120,38 @@ public class PriorityLinkedListImpl<T> implements PriorityLinkedList<T>
 
    public T poll()
    {
-      T t = null;
-
       // We are just using a simple prioritization algorithm:
       // Highest priority refs always get returned first.
       // This could cause starvation of lower priority refs.
 
       // TODO - A better prioritization algorithm
 
-      for (int i = highestPriority; i >= 0; i--)
+      if (nonEmptyLevels == 0)
       {
-         LinkedListImpl<T> ll = levels[i];
+         return null;
+      }
 
-         if (ll.size() != 0)
-         {
-            t = ll.poll();
+      int priority = highest(nonEmptyLevels);
 
-            if (t != null)
-            {
-               size--;
+      T t = levels[priority].poll();
 
-               if (ll.size() == 0)
-               {
-                  if (highestPriority == i)
-                  {
-                     highestPriority--;
-                  }
-               }
-            }
+      size--;
 
-            break;
-         }
-      }
+      checkEmpty(priority);
 
       return t;
    }
 
    public void clear()
    {
-      for (LinkedListImpl<T> list : levels)
+      for (ChunkedLinkedListImpl<T> list : levels)
       {
          list.clear();
       }
 
       size = 0;
+
+      nonEmptyLevels = 0;
    }
 
    public int size()
@@ -205,7 +223,7 @@ public class PriorityLinkedListImpl<T> implements PriorityLinkedList<T>
       {
          if (lastReset != resetCount)
          {
-            index = highestPriority;
+            index = highest(nonEmptyLevels);
 
             resetCount = lastReset;
          }
@@ -215,8 +233,13 @@ public class PriorityLinkedListImpl<T> implements PriorityLinkedList<T>
       {
          checkReset();
 
-         while (index >= 0)
+         // The levels left to look at, the empty ones are skipped
+         int candidates = index < 0 ? 0 : nonEmptyLevels & upTo(index);
+
+         while (candidates != 0)
          {
+            index = highest(candidates);
+
             lastIter = cachedIters[index];
 
             if (lastIter == null)
@@ -224,22 +247,16 @@ public class PriorityLinkedListImpl<T> implements PriorityLinkedList<T>
                lastIter = cachedIters[index] = levels[index].iterator();
             }
 
-            boolean b = lastIter.hasNext();
-
-            if (b)
+            if (lastIter.hasNext())
             {
                return true;
             }
 
-            index--;
+            candidates &= ~(1 << index);
+         }
 
-            if (index < 0)
-            {
-               index = levels.length - 1;
+         index = levels.length - 1;
 
-               break;
-            }
-         }
          return false;
       }
 
@@ -262,17 +279,8 @@ public class PriorityLinkedListImpl<T> implements PriorityLinkedList<T>
 
          lastIter.remove();
 
-         // This next statement would be the equivalent of:
-         // if (index == highestPriority && levels[index].size() == 0)
-         // However we have to keep checking all the previous levels
-         // otherwise we would cache a max that will not exist
-         // what would make us eventually having hasNext() returning false 
-         // as a bug
-         // Part of the fix for HORNETQ-705
-         for (int i = index; i >= 0 && levels[index].size() == 0; i--)
-         {
-            highestPriority = i;
-         }
+         // The bitmap is always exact, which is also what HORNETQ-705 needed
+         checkEmpty(index);
 
          size--;
       }
@@ -213,6 +213,121 @@ public class TypedPropertiesTest extends TestCase
       Assert.assertEquals(props.getEncodeSize(), buffer.writerIndex());
    }
 
+   public void testRepeatedLookupsBeforeDecoding() throws Exception
+   {
+      final int numProperties = 50;
+
+      for (int i = 0; i < numProperties; i++)
+      {
+         props.putIntProperty(new SimpleString("key" + i), i);
+      }
+
+      props.putBytesProperty(key, RandomUtil.randomBytes());
+
+      HornetQBuffer buffer = HornetQBuffers.dynamicBuffer(1024);
+      props.encode(buffer);
+
+      TypedProperties decodedProps = new TypedProperties();
+      decodedProps.decode(buffer);
+
+      for (int round = 0; round < 3; round++)
+      {
+         for (int i = 0; i < numProperties; i++)
+         {
+            Assert.assertTrue(decodedProps.containsProperty(new SimpleString("key" + i)));
+            Assert.assertEquals(i, decodedProps.getIntProperty(new SimpleString("key" + i)).intValue());
+         }
+
+         Assert.assertFalse(decodedProps.containsProperty(new SimpleString("key" + numProperties)));
+         Assert.assertNull(decodedProps.getProperty(new SimpleString("key" + numProperties)));
+      }
+
+      // a value is decoded once, and then found as it was decoded
+      Assert.assertSame(decodedProps.getBytesProperty(key), decodedProps.getBytesProperty(key));
+
+      // a copy shares the index of the encoded properties
+      TypedProperties copiedProps = new TypedProperties(decodedProps);
+      Assert.assertEquals(7, copiedProps.getIntProperty(new SimpleString("key7")).intValue());
+      copiedProps.putIntProperty(new SimpleString("key7"), 70);
+      Assert.assertEquals(70, copiedProps.getIntProperty(new SimpleString("key7")).intValue());
+      Assert.assertEquals(7, decodedProps.getIntProperty(new SimpleString("key7")).intValue());
+
+      // decoded again into a new message, the index is rebuilt
+      buffer.readerIndex(0);
+      decodedProps.decode(buffer);
+      Assert.assertEquals(numProperties - 1,
+                          decodedProps.getIntProperty(new SimpleString("key" + (numProperties - 1))).intValue());
+
+      TypedPropertiesTest.assertEqualsTypeProperties(props, decodedProps);
+   }
+
+   public void testLookupBeforeDecoding() throws Exception
+   {
+      SimpleString intKey = RandomUtil.randomSimpleString();
+      SimpleString stringKey = RandomUtil.randomSimpleString();
+      SimpleString bytesKey = RandomUtil.randomSimpleString();
+      SimpleString nullKey = RandomUtil.randomSimpleString();
+      SimpleString stringValue = RandomUtil.randomSimpleString();
+
+      props.putIntProperty(intKey, 10);
+      props.putBytesProperty(bytesKey, RandomUtil.randomBytes());
+      props.putSimpleStringProperty(stringKey, stringValue);
+      props.putSimpleStringProperty(nullKey, null);
+      props.putLongProperty(RandomUtil.randomSimpleString(), RandomUtil.randomLong());
+
+      HornetQBuffer buffer = HornetQBuffers.dynamicBuffer(1024);
+      props.encode(buffer);
+
+      TypedProperties decodedProps = new TypedProperties();
+      decodedProps.decode(buffer);
+
+      Assert.assertEquals(props.getEncodeSize(), decodedProps.getEncodeSize());
+      Assert.assertEquals(props.getMemoryOffset(), decodedProps.getMemoryOffset());
+
+      // looked up from the encoded properties
+      Assert.assertEquals(10, decodedProps.getIntProperty(intKey).intValue());
+      Assert.assertEquals(stringValue, decodedProps.getSimpleStringProperty(stringKey));
+      Assert.assertTrue(decodedProps.containsProperty(nullKey));
+      Assert.assertNull(decodedProps.getProperty(nullKey));
+      Assert.assertFalse(decodedProps.containsProperty(key));
+      Assert.assertNull(decodedProps.getProperty(key));
+
+      // encoded again as they were received
+      HornetQBuffer copy = HornetQBuffers.dynamicBuffer(1024);
+      decodedProps.encode(copy);
+      Assert.assertEquals(buffer.writerIndex(), copy.writerIndex());
+      for (int i = 0; i < buffer.writerIndex(); i++)
+      {
+         Assert.assertEquals(buffer.getByte(i), copy.getByte(i));
+      }
+
+      // a copy shares the encoded properties, and decodes them on its own once changed
+      TypedProperties copiedProps = new TypedProperties(decodedProps);
+      copiedProps.putIntProperty(intKey, 20);
+      copiedProps.removeProperty(stringKey);
+
+      Assert.assertEquals(10, decodedProps.getIntProperty(intKey).intValue());
+      Assert.assertEquals(stringValue, decodedProps.getSimpleStringProperty(stringKey));
+      Assert.assertEquals(20, copiedProps.getIntProperty(intKey).intValue());
+      Assert.assertFalse(copiedProps.containsProperty(stringKey));
+      Assert.assertEquals(4, copiedProps.getPropertyNames().size());
+
+      TypedPropertiesTest.assertEqualsTypeProperties(props, decodedProps);
+   }
+
+   public void testInternalPropertiesBeforeDecoding() throws Exception
+   {
+      props.putIntProperty(new SimpleString("_HQ_ROUTE_TO"), 1);
+
+      HornetQBuffer buffer = HornetQBuffers.dynamicBuffer(1024);
+      props.encode(buffer);
+
+      TypedProperties decodedProps = new TypedProperties();
+      decodedProps.decode(buffer);
+
+      Assert.assertTrue(decodedProps.hasInternalProperties());
+   }
+
    public void testEncodeDecodeEmpty() throws Exception
    {
       TypedProperties emptyProps = new TypedProperties();
@@ -111,6 +111,17 @@ public interface Journal extends HornetQComponent
     */
    void appendCommitRecord(long txID, boolean sync, IOCompletion callback, boolean lineUpContext) throws Exception;
 
+   /**
+    * Commits several transactions, writing their commit records together when they fit on the current file.
+    * <p>
+    * Nothing is written or lined up, and an {@link IllegalStateException} is thrown, if one of the transactions is not
+    * found.
+    * @param callbacks the completion of each transaction, at the position of its ID. Each one is lined up once all the
+    *           transactions are found, as {@link #appendCommitRecord(long, boolean, IOCompletion, boolean)} does when
+    *           asked to.
+    */
+   void appendCommitRecords(long[] txIDs, boolean sync, IOCompletion[] callbacks) throws Exception;
+
    /**
     *
     * <p>If the system crashed after a prepare was called, it should store information that is required to bring the transaction
@@ -134,6 +145,22 @@ public interface Journal extends HornetQComponent
 
    void appendRollbackRecord(long txID, boolean sync, IOCompletion callback) throws Exception;
 
+   /**
+    * Appends every record of the batch at once, instead of taking the journal locks and reserving space on the buffer
+    * for each of them.
+    * <p>
+    * The records of a transactional batch are only added to its transaction, so sync is ignored for them.
+    * @see JournalBatch
+    */
+   void appendBatch(JournalBatch batch, boolean sync) throws Exception;
+
+   /**
+    * @param callback on a non transactional batch, completed once every record is written. Ignored on a
+    *           transactional batch.
+    * @see #appendBatch(JournalBatch, boolean)
+    */
+   void appendBatch(JournalBatch batch, boolean sync, IOCompletion callback) throws Exception;
+
    // Load
 
    JournalLoadInformation load(LoaderCallback reloadManager) throws Exception;
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records appended together by {@link Journal#appendBatch(JournalBatch, boolean, IOCompletion)}.
+ * <p>
+ * The records are written in the order they were added to the batch, and a record added by the batch can be updated
+ * or deleted further on the same batch. A batch created with a transaction ID only adds its records to that
+ * transaction, which is committed, prepared or rolled back as usual.
+ */
+public final class JournalBatch
+{
+   public enum OperationType
+   {
+      ADD, UPDATE, DELETE
+   }
+
+   /**
+    * One record of a batch. The record type and the record are not used by non transactional deletes.
+    */
+   public static final class Operation
+   {
+      private final OperationType type;
+
+      private final long id;
+
+      private final byte recordType;
+
+      private final EncodingSupport record;
+
+      private Operation(final OperationType type, final long id, final byte recordType, final EncodingSupport record)
+      {
+         this.type = type;
+         this.id = id;
+         this.recordType = recordType;
+         this.record = record;
+      }
+
+      public OperationType getType()
+      {
+         return type;
+      }
+
+      public long getId()
+      {
+         return id;
+      }
+
+      public byte getRecordType()
+      {
+         return recordType;
+      }
+
+      public EncodingSupport getRecord()
+      {
+         return record;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "Operation [type=" + type + ", id=" + id + ", recordType=" + recordType + "]";
+      }
+   }
+
+   private static final long NO_TRANSACTION = -1;
+
+   private final long txID;
+
+   private final List<Operation> operations;
+
+   public JournalBatch()
+   {
+      this(NO_TRANSACTION, 4);
+   }
+
+   /**
+    * @param txID the transaction of the records. It must not be negative.
+    */
+   public JournalBatch(final long txID)
+   {
+      this(txID, 4);
+   }
+
+   /**
+    * @param txID the transaction of the records, or a negative value for a non transactional batch
+    * @param expectedSize the number of records expected on the batch
+    */
+   public JournalBatch(final long txID, final int expectedSize)
+   {
+      this.txID = txID < 0 ? NO_TRANSACTION : txID;
+      operations = new ArrayList<Operation>(expectedSize);
+   }
+
+   public JournalBatch addRecord(final long id, final byte recordType, final EncodingSupport record)
+   {
+      operations.add(new Operation(OperationType.ADD, id, recordType, record));
+      return this;
+   }
+
+   public JournalBatch updateRecord(final long id, final byte recordType, final EncodingSupport record)
+   {
+      operations.add(new Operation(OperationType.UPDATE, id, recordType, record));
+      return this;
+   }
+
+   public JournalBatch deleteRecord(final long id)
+   {
+      operations.add(new Operation(OperationType.DELETE, id, (byte)0, null));
+      return this;
+   }
+
+   /**
+    * Deletes a record on a transactional batch, with extra data on the delete record.
+    */
+   public JournalBatch deleteRecord(final long id, final EncodingSupport record)
+   {
+      operations.add(new Operation(OperationType.DELETE, id, (byte)0, record));
+      return this;
+   }
+
+   public boolean isTransactional()
+   {
+      return txID != NO_TRANSACTION;
+   }
+
+   /**
+    * @return the transaction ID of a transactional batch
+    */
+   public long getTxID()
+   {
+      return txID;
+   }
+
+   public List<Operation> getOperations()
+   {
+      return operations;
+   }
+
+   public int size()
+   {
+      return operations.size();
+   }
+
+   public boolean isEmpty()
+   {
+      return operations.isEmpty();
+   }
+
+   @Override
+   public String toString()
+   {
+      return "JournalBatch [txID=" + txID + ", operations=" + operations + "]";
+   }
+}
@@ -30,6 +30,11 @@ public class JournalLoadInformation
 
    private long maxID = -1;
 
+   // Load statistics, not part of the replication comparison (equals / hashCode)
+   private long bytesLoaded = 0;
+
+   private long loadTime = 0;
+
    // Static --------------------------------------------------------
 
    // Constructors --------------------------------------------------
@@ -84,6 +89,48 @@ public class JournalLoadInformation
       this.maxID = maxID;
    }
 
+   /**
+    * @param bytesLoaded the number of bytes decoded from the journal files, up to the last valid record of each one
+    * @param loadTime the time spent loading the journal, in milliseconds
+    */
+   public void setLoadStatistics(final long bytesLoaded, final long loadTime)
+   {
+      this.bytesLoaded = bytesLoaded;
+      this.loadTime = loadTime;
+   }
+
+   /**
+    * @return the number of bytes decoded from the journal files during load, up to the last valid record of each one
+    */
+   public long getBytesLoaded()
+   {
+      return bytesLoaded;
+   }
+
+   /**
+    * @return the time spent loading the journal, in milliseconds
+    */
+   public long getLoadTime()
+   {
+      return loadTime;
+   }
+
+   /**
+    * @return the number of records loaded per second, or 0 if the load statistics are not available
+    */
+   public long getRecordsPerSecond()
+   {
+      return perSecond(numberOfRecords);
+   }
+
+   /**
+    * @return the number of bytes decoded per second, or 0 if the load statistics are not available
+    */
+   public long getBytesPerSecond()
+   {
+      return perSecond(bytesLoaded);
+   }
+
    /* (non-Javadoc)
     * @see java.lang.Object#hashCode()
     */
@@ -133,7 +180,14 @@ public class JournalLoadInformation
    @Override
    public String toString()
    {
-      return "JournalLoadInformation [maxID=" + maxID + ", numberOfRecords=" + numberOfRecords + "]";
+      return "JournalLoadInformation [maxID=" + maxID +
+             ", numberOfRecords=" +
+             numberOfRecords +
+             ", bytesLoaded=" +
+             bytesLoaded +
+             ", loadTime=" +
+             loadTime +
+             "]";
    }
 
    // Package protected ---------------------------------------------
@@ -142,6 +196,12 @@ public class JournalLoadInformation
 
    // Private -------------------------------------------------------
 
+   private long perSecond(final long value)
+   {
+      // anything under a millisecond is reported as 1ms
+      return loadTime == 0 && bytesLoaded == 0 ? 0 : value * 1000 / Math.max(1, loadTime);
+   }
+
    // Inner classes -------------------------------------------------
 
 }
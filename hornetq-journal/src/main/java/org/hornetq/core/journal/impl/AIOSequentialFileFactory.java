@@ -83,7 +83,20 @@ public class AIOSequentialFileFactory extends AbstractSequentialFileFactory
                                    final boolean logRates,
                                    final IOCriticalErrorListener listener)
    {
-      super(journalDir, true, bufferSize, bufferTimeout, logRates, listener);
+      this(journalDir, bufferSize, bufferTimeout, logRates, false, listener);
+   }
+
+   /**
+    * @param concurrentBuffer use a {@link ConcurrentTimedBuffer}, where writers don't share a monitor
+    */
+   public AIOSequentialFileFactory(final String journalDir,
+                                   final int bufferSize,
+                                   final int bufferTimeout,
+                                   final boolean logRates,
+                                   final boolean concurrentBuffer,
+                                   final IOCriticalErrorListener listener)
+   {
+      super(journalDir, true, bufferSize, bufferTimeout, logRates, concurrentBuffer, listener);
    }
 
    public SequentialFile createSequentialFile(final String fileName, final int maxIO)
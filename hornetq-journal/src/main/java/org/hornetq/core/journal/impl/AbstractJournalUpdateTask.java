@@ -16,7 +16,6 @@ package org.hornetq.core.journal.impl;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.api.core.HornetQBuffers;
@@ -25,7 +24,7 @@ import org.hornetq.core.journal.SequentialFileFactory;
 import org.hornetq.core.journal.impl.dataformat.ByteArrayEncoding;
 import org.hornetq.core.journal.impl.dataformat.JournalAddRecord;
 import org.hornetq.core.journal.impl.dataformat.JournalInternalRecord;
-import org.hornetq.utils.ConcurrentHashSet;
+import org.hornetq.utils.ConcurrentLongHashMap;
 import org.hornetq.utils.Pair;
 
 /**
@@ -56,9 +55,13 @@ public abstract class AbstractJournalUpdateTask implements JournalReaderCallback
 
    protected long nextOrderingID;
 
+   // format of the files written by this task
+   private final int fileVersion;
+
    private HornetQBuffer writingChannel;
 
-   private final Set<Long> recordsSnapshot = new ConcurrentHashSet<Long>();
+   // Used as a set of primitive IDs, as this is a snapshot of every live record on the journal
+   private final ConcurrentLongHashMap<Boolean> recordsSnapshot = new ConcurrentLongHashMap<Boolean>();
 
    protected final List<JournalFile> newDataFiles = new ArrayList<JournalFile>();
 
@@ -69,7 +72,7 @@ public abstract class AbstractJournalUpdateTask implements JournalReaderCallback
    protected AbstractJournalUpdateTask(final SequentialFileFactory fileFactory,
                                        final JournalImpl journal,
                                        final JournalFilesRepository filesRepository,
-                                       final Set<Long> recordsSnapshot,
+                                       final long[] recordsSnapshot,
                                        final long nextOrderingID)
    {
       super();
@@ -77,7 +80,11 @@ public abstract class AbstractJournalUpdateTask implements JournalReaderCallback
       this.filesRepository = filesRepository;
       this.fileFactory = fileFactory;
       this.nextOrderingID = nextOrderingID;
-      this.recordsSnapshot.addAll(recordsSnapshot);
+      fileVersion = journal.getFileVersion();
+      for (long id : recordsSnapshot)
+      {
+         this.recordsSnapshot.put(id, Boolean.TRUE);
+      }
    }
 
    // Public --------------------------------------------------------
@@ -193,7 +200,7 @@ public abstract class AbstractJournalUpdateTask implements JournalReaderCallback
 
    public boolean lookupRecord(final long id)
    {
-      return recordsSnapshot.contains(id);
+      return recordsSnapshot.containsKey(id);
    }
 
    // Package protected ---------------------------------------------
@@ -217,14 +224,14 @@ public abstract class AbstractJournalUpdateTask implements JournalReaderCallback
 
       sequentialFile.open(1, false);
 
-      currentFile = new JournalFileImpl(sequentialFile, nextOrderingID++, JournalImpl.FORMAT_VERSION);
+      currentFile = new JournalFileImpl(sequentialFile, nextOrderingID++, fileVersion);
 
-      JournalImpl.writeHeader(writingChannel, journal.getUserVersion(), currentFile.getFileID());
+      JournalImpl.writeHeader(writingChannel, fileVersion, journal.getUserVersion(), currentFile.getFileID());
    }
 
    protected void addToRecordsSnaptshot(final long id)
    {
-      recordsSnapshot.add(id);
+      recordsSnapshot.put(id, Boolean.TRUE);
    }
 
    /**
@@ -235,8 +242,18 @@ public abstract class AbstractJournalUpdateTask implements JournalReaderCallback
       return writingChannel;
    }
 
+   /**
+    * @return the size the record will have on the files written by this task
+    */
+   protected int getRecordSize(final JournalInternalRecord record)
+   {
+      record.setChecksum(fileVersion >= JournalImpl.CHECKSUM_FORMAT_VERSION);
+      return record.getEncodeSize();
+   }
+
    protected void writeEncoder(final JournalInternalRecord record) throws Exception
    {
+      record.setChecksum(fileVersion >= JournalImpl.CHECKSUM_FORMAT_VERSION);
       record.setFileID(currentFile.getRecordID());
       record.encode(getWritingChannel());
    }
@@ -40,7 +40,7 @@ import org.hornetq.utils.HornetQThreadFactory;
  * @author <a href="mailto:clebert.suconic@jboss.com">Clebert Suconic</a>
  *
  */
-abstract class AbstractSequentialFileFactory implements SequentialFileFactory
+public abstract class AbstractSequentialFileFactory implements SequentialFileFactory
 {
 
    // Timeout used to wait executors to shutdown
@@ -68,11 +68,16 @@ abstract class AbstractSequentialFileFactory implements SequentialFileFactory
                                         final int bufferSize,
                                         final int bufferTimeout,
                                         final boolean logRates,
+                                        final boolean concurrentBuffer,
                                         final IOCriticalErrorListener criticalErrorListener)
    {
       this.journalDir = journalDir;
 
-      if (buffered)
+      if (buffered && concurrentBuffer)
+      {
+         timedBuffer = new ConcurrentTimedBuffer(bufferSize, bufferTimeout, logRates);
+      }
+      else if (buffered)
       {
          timedBuffer = new TimedBuffer(bufferSize, bufferTimeout, logRates);
       }
@@ -109,6 +114,45 @@ abstract class AbstractSequentialFileFactory implements SequentialFileFactory
       }
    }
 
+   /**
+    * Lets the buffer choose its timeout between the given bounds, from the latency of its flushes and the rate of
+    * the records being added. It does nothing if the factory isn't buffered.
+    * @param minTimeout in nanoseconds
+    * @param maxTimeout in nanoseconds
+    */
+   public void enableAdaptiveBufferTimeout(final long minTimeout, final long maxTimeout)
+   {
+      if (timedBuffer != null)
+      {
+         timedBuffer.setAdaptiveTimeout(new AdaptiveBufferTimeout(bufferTimeout, minTimeout, maxTimeout, bufferSize));
+      }
+   }
+
+   /**
+    * @return null unless the buffer timeout is adaptive
+    */
+   public AdaptiveBufferTimeout getAdaptiveBufferTimeout()
+   {
+      return timedBuffer == null ? null : timedBuffer.getAdaptiveTimeout();
+   }
+
+   /**
+    * @return the largest write the buffer takes at once, or -1 if the factory isn't buffered
+    */
+   public int getBufferedWriteLimit()
+   {
+      return timedBuffer == null ? -1 : bufferSize;
+   }
+
+   /**
+    * @return the buffer if writers can encode their records on the space reserved by checkSize without holding the
+    *         lock they checked it with, null otherwise
+    */
+   ConcurrentTimedBuffer getConcurrentBuffer()
+   {
+      return timedBuffer instanceof ConcurrentTimedBuffer ? (ConcurrentTimedBuffer)timedBuffer : null;
+   }
+
    public String getDirectory()
    {
       return journalDir;
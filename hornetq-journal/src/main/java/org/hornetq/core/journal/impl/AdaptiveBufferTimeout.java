@@ -0,0 +1,294 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.hornetq.core.journal.IOAsyncTask;
+
+/**
+ * Chooses the timeout and the batch size of a {@link TimedBuffer} from what the buffer sees.
+ * <p>
+ * The latency of the flushes that had a sync requested is measured from the flush to the completion of its
+ * callbacks, and the rate of sync requests and of flushed bytes is measured over periods of
+ * {@link #RECALCULATE_INTERVAL} nanoseconds. When at least one more sync is expected to arrive during a flush, the
+ * buffer waits about as long as a flush takes, so the syncs arriving meanwhile share the next one. Otherwise waiting
+ * would only add latency, and the minimum timeout is used. The batch size is what is expected to arrive during the
+ * timeout: a buffer holding that much is flushed without waiting for the timer.
+ * <p>
+ * Both values are kept within the bounds given on the constructor.
+ */
+public class AdaptiveBufferTimeout
+{
+   // Constants -----------------------------------------------------
+
+   /** Nanoseconds between two recalculations of the timeout */
+   public static final long RECALCULATE_INTERVAL = 100000000L;
+
+   /** Number of buckets on the latency histogram */
+   public static final int HISTOGRAM_BUCKETS = 24;
+
+   // the smallest batch worth flushing before the timeout
+   private static final int MIN_BATCH_SIZE = 4 * 1024;
+
+   // weight of a new measure on the average latency, as a shift: 1/8
+   private static final int AVERAGE_SHIFT = 3;
+
+   // Attributes ----------------------------------------------------
+
+   private final long minTimeout;
+
+   private final long maxTimeout;
+
+   private final int minBatchSize;
+
+   private final int maxBatchSize;
+
+   private volatile long timeout;
+
+   private volatile int batchSize;
+
+   // bucket i counts the flushes that took less than 2^(i + 1) microseconds, and at least 2^i from bucket 1 on
+   private final AtomicLongArray latencyHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+   private final AtomicLong syncRequests = new AtomicLong(0);
+
+   private final AtomicLong bytesFlushed = new AtomicLong(0);
+
+   // guarded by this
+   private long averageLatency = -1;
+
+   private long periodStart;
+
+   private long periodSyncRequests;
+
+   private long periodBytesFlushed;
+
+   // Constructors --------------------------------------------------
+
+   /**
+    * @param timeout the timeout used until the first measures, in nanoseconds
+    * @param minTimeout the smallest timeout that can be chosen, in nanoseconds
+    * @param maxTimeout the largest timeout that can be chosen, in nanoseconds
+    * @param bufferSize the size of the buffer, which is also the largest batch
+    */
+   public AdaptiveBufferTimeout(final long timeout, final long minTimeout, final long maxTimeout, final int bufferSize)
+   {
+      if (minTimeout <= 0 || maxTimeout < minTimeout)
+      {
+         throw new IllegalArgumentException("Invalid timeout bounds: min=" + minTimeout + ", max=" + maxTimeout);
+      }
+
+      this.minTimeout = minTimeout;
+
+      this.maxTimeout = maxTimeout;
+
+      maxBatchSize = bufferSize;
+
+      minBatchSize = Math.min(MIN_BATCH_SIZE, bufferSize);
+
+      this.timeout = clamp(timeout, minTimeout, maxTimeout);
+
+      batchSize = maxBatchSize;
+
+      periodStart = System.nanoTime();
+   }
+
+   // Public --------------------------------------------------------
+
+   /**
+    * @return the current timeout, in nanoseconds
+    */
+   public long getTimeout()
+   {
+      return timeout;
+   }
+
+   /**
+    * @return the number of bytes that triggers a flush of a buffer with a pending sync before the timeout
+    */
+   public int getBatchSize()
+   {
+      return batchSize;
+   }
+
+   public long getMinTimeout()
+   {
+      return minTimeout;
+   }
+
+   public long getMaxTimeout()
+   {
+      return maxTimeout;
+   }
+
+   /**
+    * @return the average latency of the flushes with a sync, in nanoseconds. -1 if nothing was measured yet.
+    */
+   public synchronized long getAverageLatency()
+   {
+      return averageLatency;
+   }
+
+   /**
+    * @return a copy of the latency histogram. See {@link #getBucketUpperBound(int)}.
+    */
+   public long[] getLatencyHistogram()
+   {
+      long[] histogram = new long[HISTOGRAM_BUCKETS];
+
+      for (int i = 0; i < HISTOGRAM_BUCKETS; i++)
+      {
+         histogram[i] = latencyHistogram.get(i);
+      }
+
+      return histogram;
+   }
+
+   /**
+    * @return the latency, in microseconds, below which a flush is counted on the given bucket of the histogram. The
+    *         last bucket also counts anything above it.
+    */
+   public static long getBucketUpperBound(final int bucket)
+   {
+      return 1L << (bucket + 1);
+   }
+
+   /**
+    * Accounts a record that requested a sync.
+    */
+   public void syncRequested()
+   {
+      syncRequests.incrementAndGet();
+   }
+
+   /**
+    * Accounts the bytes sent on a flush.
+    */
+   public void flushed(final int bytes)
+   {
+      bytesFlushed.addAndGet(bytes);
+   }
+
+   /**
+    * Returns a callback to be added to the callbacks of a flush with a pending sync. The latency is measured from
+    * now until the callback is done.
+    */
+   public IOAsyncTask newFlushProbe()
+   {
+      final long start = System.nanoTime();
+
+      return new IOAsyncTask()
+      {
+         public void done()
+         {
+            flushCompleted(System.nanoTime() - start);
+         }
+
+         public void onError(final int errorCode, final String errorMessage)
+         {
+         }
+      };
+   }
+
+   @Override
+   public String toString()
+   {
+      return "AdaptiveBufferTimeout [timeout=" + timeout + ", batchSize=" + batchSize + "]";
+   }
+
+   // Package protected ---------------------------------------------
+
+   void flushCompleted(final long latency)
+   {
+      latencyHistogram.incrementAndGet(getBucket(latency));
+
+      long now = System.nanoTime();
+
+      synchronized (this)
+      {
+         if (averageLatency < 0)
+         {
+            averageLatency = latency;
+         }
+         else
+         {
+            averageLatency += (latency - averageLatency) >> AVERAGE_SHIFT;
+         }
+
+         long elapsed = now - periodStart;
+
+         if (elapsed >= RECALCULATE_INTERVAL)
+         {
+            long syncs = syncRequests.get();
+
+            long bytes = bytesFlushed.get();
+
+            recalculate(elapsed, syncs - periodSyncRequests, bytes - periodBytesFlushed);
+
+            periodStart = now;
+
+            periodSyncRequests = syncs;
+
+            periodBytesFlushed = bytes;
+         }
+      }
+   }
+
+   /**
+    * Chooses the timeout and batch size for the rates measured during the period. Needs the monitor.
+    */
+   void recalculate(final long elapsed, final long syncs, final long bytes)
+   {
+      long newTimeout;
+
+      // syncs expected to arrive while a flush is being done
+      if (syncs > 0 && averageLatency * syncs >= elapsed)
+      {
+         newTimeout = clamp(averageLatency, minTimeout, maxTimeout);
+      }
+      else
+      {
+         newTimeout = minTimeout;
+      }
+
+      long expectedBytes = (long)((double)bytes * newTimeout / elapsed);
+
+      timeout = newTimeout;
+
+      batchSize = (int)clamp(expectedBytes, minBatchSize, maxBatchSize);
+   }
+
+   // Private -------------------------------------------------------
+
+   private static int getBucket(final long latency)
+   {
+      long micros = latency / 1000;
+
+      if (micros <= 1)
+      {
+         return 0;
+      }
+
+      int bucket = 63 - Long.numberOfLeadingZeros(micros);
+
+      return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+   }
+
+   private static long clamp(final long value, final long min, final long max)
+   {
+      return Math.max(min, Math.min(max, value));
+   }
+}
@@ -0,0 +1,654 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.api.core.HornetQBuffers;
+import org.hornetq.core.journal.EncodingSupport;
+import org.hornetq.core.journal.IOAsyncTask;
+import org.hornetq.core.journal.impl.dataformat.ByteArrayEncoding;
+
+/**
+ * A {@link TimedBuffer} where writers don't share a monitor.
+ * <p>
+ * Writers claim a range of the active buffer with a CAS on its claimed size and encode their record
+ * into that range concurrently. A flush seals the active buffer, makes the second buffer active so
+ * writers can continue while the first one is sent to the {@link TimedBufferObserver}, and waits
+ * for the writers still encoding into the sealed range. Flushes themselves are serialized, so the
+ * buffers reach the file in the order they were filled.
+ * <p>
+ * The contract is the same as {@link TimedBuffer}: a {@link #checkSize(int)} returning true has to
+ * be followed by the {@link #addBytes(EncodingSupport, boolean, IOAsyncTask)} of the same record,
+ * on the same thread. Here the range is already reserved by checkSize, so concurrent writers can't
+ * take the space that was verified. A record that never comes is written as a hole of zeros, which
+ * is skipped when the journal is loaded.
+ * <p>
+ * {@link JournalImpl} checks the size of a record while holding its append lock, so the records are
+ * placed on the buffer in the order they are appended, and calls addBytes once the lock is
+ * released. The lock is then only held to reserve the space and for the bookkeeping of the record.
+ */
+public class ConcurrentTimedBuffer extends TimedBuffer
+{
+   // Constants -----------------------------------------------------
+
+   // set on the claimed size of a buffer being flushed, bufferSize is always smaller than this
+   private static final int SEALED = 1 << 30;
+
+   // Attributes ----------------------------------------------------
+
+   private final int bufferSize;
+
+   private final Slab[] slabs;
+
+   private volatile Slab current;
+
+   private final ReentrantLock flushLock = new ReentrantLock();
+
+   private volatile TimedBufferObserver bufferObserver;
+
+   private final ThreadLocal<Reservation> reservations = new ThreadLocal<Reservation>()
+   {
+      @Override
+      protected Reservation initialValue()
+      {
+         return new Reservation();
+      }
+   };
+
+   private volatile long lastFlushTime = 0;
+
+   private volatile boolean started;
+
+   // true while the timer thread is checking for pending syncs, false when it is parked
+   private final AtomicBoolean spinning = new AtomicBoolean(false);
+
+   private FlushTimer timerRunnable;
+
+   private Thread timerThread;
+
+   // Constructors --------------------------------------------------
+
+   public ConcurrentTimedBuffer(final int size, final int timeout, final boolean logRates)
+   {
+      super(size, timeout, logRates, false);
+
+      if (size >= SEALED)
+      {
+         throw new IllegalArgumentException("bufferSize must be smaller than " + SEALED);
+      }
+
+      bufferSize = size;
+
+      slabs = new Slab[] { new Slab(0, size), new Slab(1, size) };
+
+      slabs[0].activate(-1, size);
+
+      current = slabs[0];
+   }
+
+   // Public --------------------------------------------------------
+
+   @Override
+   public synchronized void start()
+   {
+      if (started)
+      {
+         return;
+      }
+
+      timerRunnable = new FlushTimer();
+
+      timerThread = new Thread(timerRunnable, "hornetq-buffer-timeout");
+
+      timerThread.start();
+
+      startLogRates();
+
+      started = true;
+   }
+
+   @Override
+   public synchronized void stop()
+   {
+      if (!started)
+      {
+         return;
+      }
+
+      flush();
+
+      bufferObserver = null;
+
+      timerRunnable.close();
+
+      LockSupport.unpark(timerThread);
+
+      stopLogRates();
+
+      while (timerThread.isAlive())
+      {
+         try
+         {
+            timerThread.join();
+         }
+         catch (InterruptedException e)
+         {
+         }
+      }
+
+      started = false;
+   }
+
+   @Override
+   public void setObserver(final TimedBufferObserver observer)
+   {
+      releaseReservation();
+
+      flushLock.lock();
+      try
+      {
+         // what was written so far belongs to the previous observer
+         rotate(bufferObserver, observer);
+
+         bufferObserver = observer;
+      }
+      finally
+      {
+         flushLock.unlock();
+      }
+   }
+
+   /**
+    * Verifies if the size fits the file, reserving the space on the buffer if it does.
+    */
+   @Override
+   public boolean checkSize(final int sizeChecked)
+   {
+      if (!started)
+      {
+         throw new IllegalStateException("TimedBuffer is not started");
+      }
+
+      if (sizeChecked > bufferSize)
+      {
+         throw new IllegalStateException("Can't write records bigger than the bufferSize(" + bufferSize +
+                                         ") on the journal");
+      }
+
+      releaseReservation();
+
+      Reservation reservation = reservations.get();
+
+      while (true)
+      {
+         Slab slab = current;
+
+         int claimed = slab.claimed.get();
+
+         if ((claimed & SEALED) != 0)
+         {
+            // a flush is switching the buffers
+            Thread.yield();
+            continue;
+         }
+
+         if (claimed + sizeChecked <= slab.limit)
+         {
+            if (slab.claimed.compareAndSet(claimed, claimed + sizeChecked))
+            {
+               reservation.reserve(slab, claimed, sizeChecked);
+               return true;
+            }
+            continue;
+         }
+
+         if (slab.limit >= 0 && sizeChecked > slab.fileRemaining - claimed)
+         {
+            // there is not enough space left in the file for the record
+            return false;
+         }
+
+         if (bufferObserver == null)
+         {
+            throw new IllegalStateException("TimedBuffer has no observer");
+         }
+
+         // the record doesn't fit in what is left of the buffer
+         flush();
+      }
+   }
+
+   @Override
+   public void addBytes(final HornetQBuffer bytes, final boolean sync, final IOAsyncTask callback)
+   {
+      addBytes(new ByteArrayEncoding(bytes.toByteBuffer().array()), sync, callback);
+   }
+
+   @Override
+   public void addBytes(final EncodingSupport bytes, final boolean sync, final IOAsyncTask callback)
+   {
+      if (!started)
+      {
+         throw new IllegalStateException("TimedBuffer is not started");
+      }
+
+      final int size = bytes.getEncodeSize();
+
+      Reservation reservation = reservations.get();
+
+      if (reservation.slab != null && reservation.size != size)
+      {
+         reservation.release();
+      }
+
+      if (reservation.slab == null)
+      {
+         // addBytes without checkSize, the size is checked against the buffer only, as on TimedBuffer
+         claim(reservation, size);
+      }
+
+      Slab slab = reservation.slab;
+
+      int position = reservation.position;
+
+      reservation.slab = null;
+
+      boolean written = false;
+
+      try
+      {
+         HornetQBuffer target = reservation.view(slab);
+
+         target.writerIndex(position);
+
+         bytes.encode(target);
+
+         if (target.writerIndex() != position + size)
+         {
+            throw new IllegalStateException("Record encoded " + (target.writerIndex() - position) +
+                                            " bytes, expected " +
+                                            size);
+         }
+
+         if (callback != null)
+         {
+            slab.callbacks.add(callback);
+         }
+
+         if (sync)
+         {
+            slab.pendingSync = true;
+         }
+
+         written = true;
+      }
+      finally
+      {
+         if (!written)
+         {
+            Arrays.fill(slab.data, position, position + size, (byte)0);
+         }
+
+         // publishes the record to the flusher
+         slab.written.addAndGet(size);
+      }
+
+      if (sync)
+      {
+         AdaptiveBufferTimeout adaptive = getAdaptiveTimeout();
+
+         if (adaptive != null)
+         {
+            adaptive.syncRequested();
+         }
+      }
+
+      if (sync && !spinning.get() && spinning.compareAndSet(false, true))
+      {
+         LockSupport.unpark(timerThread);
+      }
+   }
+
+   @Override
+   public void flush()
+   {
+      flush(false);
+   }
+
+   /**
+    * Writers don't hold the space they checked in between checkSize and addBytes, so force doesn't
+    * make a difference here: a flush always waits for the records whose space was reserved.
+    */
+   @Override
+   public void flush(final boolean force)
+   {
+      if (!started)
+      {
+         throw new IllegalStateException("TimedBuffer is not started");
+      }
+
+      // otherwise we would wait for ourselves
+      releaseReservation();
+
+      flushLock.lock();
+      try
+      {
+         TimedBufferObserver observer = bufferObserver;
+         rotate(observer, observer);
+      }
+      finally
+      {
+         flushLock.unlock();
+      }
+   }
+
+   // Package protected ---------------------------------------------
+
+   /**
+    * Gives up the space this thread reserved on checkSize when it wasn't followed by addBytes.
+    */
+   void releaseReservation()
+   {
+      Reservation reservation = reservations.get();
+
+      if (reservation.slab != null)
+      {
+         reservation.release();
+      }
+   }
+
+   // Protected -----------------------------------------------------
+
+   // Private -------------------------------------------------------
+
+   private void claim(final Reservation reservation, final int size)
+   {
+      if (size > bufferSize)
+      {
+         throw new IllegalStateException("Can't write records bigger than the bufferSize(" + bufferSize +
+                                         ") on the journal");
+      }
+
+      while (true)
+      {
+         Slab slab = current;
+
+         int claimed = slab.claimed.get();
+
+         if ((claimed & SEALED) != 0)
+         {
+            Thread.yield();
+            continue;
+         }
+
+         if (claimed + size <= bufferSize)
+         {
+            if (slab.claimed.compareAndSet(claimed, claimed + size))
+            {
+               reservation.reserve(slab, claimed, size);
+               return;
+            }
+            continue;
+         }
+
+         flush();
+      }
+   }
+
+   /**
+    * Seals the active buffer, activates the other one for the new observer and writes the sealed
+    * one to the old observer. Needs the flushLock.
+    */
+   private void rotate(final TimedBufferObserver oldObserver, final TimedBufferObserver newObserver)
+   {
+      Slab slab = current;
+
+      int size = slab.seal();
+
+      ByteBuffer bufferToFlush = null;
+
+      if (size > 0)
+      {
+         if (oldObserver == null)
+         {
+            slab.claimed.set(size);
+            throw new IllegalStateException("TimedBuffer has no observer");
+         }
+
+         // the limit is the size the write will take on the file, aligned to the file's block size
+         bufferToFlush = oldObserver.newBuffer(bufferSize, size);
+      }
+
+      int remaining = -1;
+
+      if (newObserver != null)
+      {
+         remaining = newObserver.getRemainingBytes();
+
+         if (newObserver == oldObserver && bufferToFlush != null)
+         {
+            // the observer only counts the sealed buffer once it's written
+            remaining -= bufferToFlush.limit();
+         }
+      }
+
+      Slab next = slabs[slab.index ^ 1];
+
+      next.activate(remaining, bufferSize);
+
+      current = next;
+
+      if (bufferToFlush != null)
+      {
+         slab.awaitWriters(size);
+
+         bufferToFlush.put(slab.data, 0, size);
+
+         oldObserver.flushBuffer(bufferToFlush, slab.pendingSync, probeFlush(slab.pendingSync, slab.drainCallbacks()));
+
+         lastFlushTime = System.nanoTime();
+
+         flushed(size);
+      }
+   }
+
+   // Inner classes -------------------------------------------------
+
+   /**
+    * One of the two buffers. The claimed size is only reset when the buffer is activated, while no
+    * writer can reserve space on it.
+    */
+   private static final class Slab
+   {
+      final int index;
+
+      final byte[] data;
+
+      final AtomicInteger claimed = new AtomicInteger(SEALED);
+
+      final AtomicInteger written = new AtomicInteger(0);
+
+      final ConcurrentLinkedQueue<IOAsyncTask> callbacks = new ConcurrentLinkedQueue<IOAsyncTask>();
+
+      volatile boolean pendingSync;
+
+      // limit for checkSize: the buffer size or the space left in the file, whatever is smaller. -1 if unknown.
+      volatile int limit;
+
+      // space left in the file when the buffer was activated, -1 if unknown
+      volatile int fileRemaining;
+
+      Slab(final int index, final int size)
+      {
+         this.index = index;
+         data = new byte[size];
+      }
+
+      void activate(final int fileRemaining, final int bufferSize)
+      {
+         written.set(0);
+         pendingSync = false;
+         this.fileRemaining = fileRemaining;
+         limit = fileRemaining < 0 ? -1 : Math.min(fileRemaining, bufferSize);
+
+         // open for writers
+         claimed.set(0);
+      }
+
+      /**
+       * @return the size claimed before the buffer was sealed
+       */
+      int seal()
+      {
+         while (true)
+         {
+            int value = claimed.get();
+
+            if (claimed.compareAndSet(value, value | SEALED))
+            {
+               return value;
+            }
+         }
+      }
+
+      void awaitWriters(final int size)
+      {
+         while (written.get() != size)
+         {
+            Thread.yield();
+         }
+      }
+
+      List<IOAsyncTask> drainCallbacks()
+      {
+         List<IOAsyncTask> list = new ArrayList<IOAsyncTask>(callbacks.size());
+
+         IOAsyncTask callback;
+
+         while ((callback = callbacks.poll()) != null)
+         {
+            list.add(callback);
+         }
+
+         return list;
+      }
+   }
+
+   /**
+    * The space reserved by a thread, plus one view per buffer so encoding doesn't allocate
+    */
+   private static final class Reservation
+   {
+      Slab slab;
+
+      int position;
+
+      int size;
+
+      private final HornetQBuffer[] views = new HornetQBuffer[2];
+
+      void reserve(final Slab slab, final int position, final int size)
+      {
+         this.slab = slab;
+         this.position = position;
+         this.size = size;
+      }
+
+      HornetQBuffer view(final Slab slab)
+      {
+         HornetQBuffer view = views[slab.index];
+
+         if (view == null)
+         {
+            view = HornetQBuffers.wrappedBuffer(slab.data);
+            views[slab.index] = view;
+         }
+
+         return view;
+      }
+
+      /** fills the reserved space with a hole and gives it to the flusher */
+      void release()
+      {
+         Arrays.fill(slab.data, position, position + size, (byte)0);
+
+         slab.written.addAndGet(size);
+
+         slab = null;
+      }
+   }
+
+   private class FlushTimer implements Runnable
+   {
+      private volatile boolean closed = false;
+
+      public void run()
+      {
+         while (!closed)
+         {
+            // We flush on the timer if there are pending syncs there and we've waited at least one
+            // timeout since the time of the last flush.
+            // Effectively flushing "resets" the timer
+            // With an adaptive timeout, a buffer holding a whole batch is flushed without waiting
+
+            Slab slab = current;
+
+            if (slab.pendingSync)
+            {
+               if (bufferObserver != null &&
+                   (System.nanoTime() > lastFlushTime + getFlushTimeout() || isBatchComplete(slab)))
+               {
+                  flush();
+               }
+               else
+               {
+                  Thread.yield();
+               }
+            }
+            else
+            {
+               spinning.set(false);
+
+               // a writer that set pendingSync before seeing spinning == false didn't wake us up
+               if (!current.pendingSync && !closed)
+               {
+                  LockSupport.park(this);
+               }
+            }
+         }
+      }
+
+      public void close()
+      {
+         closed = true;
+      }
+
+      private boolean isBatchComplete(final Slab slab)
+      {
+         AdaptiveBufferTimeout adaptive = getAdaptiveTimeout();
+
+         return adaptive != null && (slab.claimed.get() & ~SEALED) >= adaptive.getBatchSize();
+      }
+   }
+}
@@ -12,6 +12,7 @@ import org.hornetq.api.core.HornetQUnsupportedPacketException;
 import org.hornetq.core.journal.EncodingSupport;
 import org.hornetq.core.journal.IOCompletion;
 import org.hornetq.core.journal.Journal;
+import org.hornetq.core.journal.JournalBatch;
 import org.hornetq.core.journal.JournalLoadInformation;
 import org.hornetq.core.journal.LoaderCallback;
 import org.hornetq.core.journal.PreparedTransactionInfo;
@@ -97,7 +98,10 @@ public final class FileWrapperJournal extends JournalBase
          {
             callback.storeLineUp();
          }
+         encoder.setChecksum(journal.isChecksums() ||
+                             currentFile.getJournalVersion() >= JournalImpl.CHECKSUM_FORMAT_VERSION);
          currentFile = journal.switchFileIfNecessary(encoder.getEncodeSize());
+         encoder.setChecksum(currentFile.getJournalVersion() >= JournalImpl.CHECKSUM_FORMAT_VERSION);
          encoder.setFileID(currentFile.getRecordID());
 
          if (callback != null)
@@ -171,6 +175,15 @@ public final class FileWrapperJournal extends JournalBase
       writeRecord(commitRecord, true, callback);
    }
 
+   @Override
+   public void appendCommitRecords(long[] txIDs, boolean sync, IOCompletion[] callbacks) throws Exception
+   {
+      for (int i = 0; i < txIDs.length; i++)
+      {
+         appendCommitRecord(txIDs[i], sync, callbacks[i], true);
+      }
+   }
+
    @Override
    public void appendPrepareRecord(long txID, EncodingSupport transactionData, boolean sync, IOCompletion callback)
             throws Exception
@@ -184,6 +197,60 @@ public final class FileWrapperJournal extends JournalBase
       writeRecord(prepareRecord, sync, callback);
    }
 
+   @Override
+   public void appendBatch(JournalBatch batch, boolean sync, IOCompletion callback) throws Exception
+   {
+      List<JournalBatch.Operation> operations = batch.getOperations();
+
+      lockAppend.lock();
+      try
+      {
+         for (int i = 0; i < operations.size(); i++)
+         {
+            JournalBatch.Operation operation = operations.get(i);
+            boolean last = i == operations.size() - 1;
+            IOCompletion lastCallback = last ? callback : null;
+
+            if (batch.isTransactional())
+            {
+               switch (operation.getType())
+               {
+                  case ADD:
+                     appendAddRecordTransactional(batch.getTxID(), operation.getId(), operation.getRecordType(),
+                                                  operation.getRecord());
+                     break;
+                  case UPDATE:
+                     appendUpdateRecordTransactional(batch.getTxID(), operation.getId(), operation.getRecordType(),
+                                                     operation.getRecord());
+                     break;
+                  default:
+                     appendDeleteRecordTransactional(batch.getTxID(), operation.getId(), operation.getRecord());
+               }
+            }
+            else
+            {
+               switch (operation.getType())
+               {
+                  case ADD:
+                     appendAddRecord(operation.getId(), operation.getRecordType(), operation.getRecord(), sync && last,
+                                     lastCallback);
+                     break;
+                  case UPDATE:
+                     appendUpdateRecord(operation.getId(), operation.getRecordType(), operation.getRecord(),
+                                        sync && last, lastCallback);
+                     break;
+                  default:
+                     appendDeleteRecord(operation.getId(), sync && last, lastCallback);
+               }
+            }
+         }
+      }
+      finally
+      {
+         lockAppend.unlock();
+      }
+   }
+
    private int count(long txID) throws HornetQException
    {
       AtomicInteger defaultValue = new AtomicInteger(1);
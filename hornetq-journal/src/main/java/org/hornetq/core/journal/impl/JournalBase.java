@@ -4,6 +4,7 @@ import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.core.journal.EncodingSupport;
 import org.hornetq.core.journal.IOCompletion;
 import org.hornetq.core.journal.Journal;
+import org.hornetq.core.journal.JournalBatch;
 import org.hornetq.core.journal.impl.dataformat.ByteArrayEncoding;
 
 abstract class JournalBase implements Journal
@@ -31,6 +32,9 @@ abstract class JournalBase implements Journal
    abstract public void appendCommitRecord(final long txID, final boolean sync, final IOCompletion callback,
             boolean lineUpContext) throws Exception;
 
+   abstract public void appendCommitRecords(final long[] txIDs, final boolean sync, final IOCompletion[] callbacks)
+            throws Exception;
+
    abstract public void appendDeleteRecord(final long id, final boolean sync, final IOCompletion callback)
             throws Exception;
 
@@ -49,6 +53,9 @@ abstract class JournalBase implements Journal
    abstract public void appendRollbackRecord(final long txID, final boolean sync, final IOCompletion callback)
             throws Exception;
 
+   abstract public void appendBatch(final JournalBatch batch, final boolean sync, final IOCompletion callback)
+            throws Exception;
+
 
    public void appendAddRecord(long id, byte recordType, byte[] record, boolean sync) throws Exception
    {
@@ -186,6 +193,18 @@ abstract class JournalBase implements Journal
       }
    }
 
+   public void appendBatch(final JournalBatch batch, final boolean sync) throws Exception
+   {
+      SyncIOCompletion callback = batch.isTransactional() ? null : getSyncCallback(sync);
+
+      appendBatch(batch, sync, callback);
+
+      if (callback != null)
+      {
+         callback.waitCompletion();
+      }
+   }
+
    abstract void scheduleReclaim();
 
    protected SyncIOCompletion getSyncCallback(final boolean sync)
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal.impl;
+
+/**
+ * What was done by one run of the compactor of a {@link JournalImpl}.
+ * <p>
+ * The pause is the time the journal was locked for appends by the compactor. Times are in nanoseconds.
+ */
+public class JournalCompactionInfo
+{
+   private final boolean incremental;
+
+   private final int filesProcessed;
+
+   private final int filesWritten;
+
+   private final long bytesReclaimed;
+
+   private final int recordsMoved;
+
+   private final long totalPause;
+
+   private final long maxPause;
+
+   private final long duration;
+
+   public JournalCompactionInfo(final boolean incremental,
+                                final int filesProcessed,
+                                final int filesWritten,
+                                final long bytesReclaimed,
+                                final int recordsMoved,
+                                final long totalPause,
+                                final long maxPause,
+                                final long duration)
+   {
+      this.incremental = incremental;
+      this.filesProcessed = filesProcessed;
+      this.filesWritten = filesWritten;
+      this.bytesReclaimed = bytesReclaimed;
+      this.recordsMoved = recordsMoved;
+      this.totalPause = totalPause;
+      this.maxPause = maxPause;
+      this.duration = duration;
+   }
+
+   /**
+    * @return true if only some of the data files were compacted
+    */
+   public boolean isIncremental()
+   {
+      return incremental;
+   }
+
+   /**
+    * @return the number of data files that were compacted
+    */
+   public int getFilesProcessed()
+   {
+      return filesProcessed;
+   }
+
+   /**
+    * @return the number of data files written with the live records of the compacted files
+    */
+   public int getFilesWritten()
+   {
+      return filesWritten;
+   }
+
+   /**
+    * @return the disk space given back to the journal, in bytes
+    */
+   public long getBytesReclaimed()
+   {
+      return bytesReclaimed;
+   }
+
+   public int getRecordsMoved()
+   {
+      return recordsMoved;
+   }
+
+   public long getTotalPause()
+   {
+      return totalPause;
+   }
+
+   public long getMaxPause()
+   {
+      return maxPause;
+   }
+
+   public long getDuration()
+   {
+      return duration;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "JournalCompactionInfo [incremental=" + incremental +
+             ", filesProcessed=" +
+             filesProcessed +
+             ", filesWritten=" +
+             filesWritten +
+             ", bytesReclaimed=" +
+             bytesReclaimed +
+             ", recordsMoved=" +
+             recordsMoved +
+             ", totalPause=" +
+             totalPause +
+             ", maxPause=" +
+             maxPause +
+             ", duration=" +
+             duration +
+             "]";
+   }
+}
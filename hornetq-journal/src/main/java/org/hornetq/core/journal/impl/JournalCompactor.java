@@ -18,8 +18,6 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.api.core.HornetQBuffers;
@@ -35,6 +33,7 @@ import org.hornetq.core.journal.impl.dataformat.JournalDeleteRecordTX;
 import org.hornetq.core.journal.impl.dataformat.JournalInternalRecord;
 import org.hornetq.core.journal.impl.dataformat.JournalRollbackRecordTX;
 import org.hornetq.journal.HornetQJournalLogger;
+import org.hornetq.utils.ConcurrentLongHashMap;
 import org.hornetq.utils.Pair;
 
 /**
@@ -52,9 +51,9 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
    private static final short COMPACT_SPLIT_LINE = 2;
 
    // Snapshot of transactions that were pending when the compactor started
-   private final Map<Long, PendingTransaction> pendingTransactions = new ConcurrentHashMap<Long, PendingTransaction>();
+   private final ConcurrentLongHashMap<PendingTransaction> pendingTransactions = new ConcurrentLongHashMap<PendingTransaction>();
 
-   private final Map<Long, JournalRecord> newRecords = new HashMap<Long, JournalRecord>();
+   private final ConcurrentLongHashMap<JournalRecord> newRecords = new ConcurrentLongHashMap<JournalRecord>();
 
    private final Map<Long, JournalTransaction> newTransactions = new HashMap<Long, JournalTransaction>();
 
@@ -130,7 +129,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
       return newDataFiles;
    }
 
-   public Map<Long, JournalRecord> getNewRecords()
+   public ConcurrentLongHashMap<JournalRecord> getNewRecords()
    {
       return newRecords;
    }
@@ -143,7 +142,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
    public JournalCompactor(final SequentialFileFactory fileFactory,
                            final JournalImpl journal,
                            final JournalFilesRepository filesRepository,
-                           final Set<Long> recordsSnapshot,
+                           final long[] recordsSnapshot,
                            final long firstFileID)
    {
       super(fileFactory, journal, filesRepository, recordsSnapshot, firstFileID);
@@ -304,7 +303,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
                                                                 new ByteArrayEncoding(info.data));
          addRecord.setCompactCount((short)(info.compactCount + 1));
 
-         checkSize(addRecord.getEncodeSize(), info.compactCount);
+         checkSize(getRecordSize(addRecord), info.compactCount);
 
          writeEncoder(addRecord);
 
@@ -326,7 +325,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
 
          record.setCompactCount((short)(info.compactCount + 1));
 
-         checkSize(record.getEncodeSize(), info.compactCount);
+         checkSize(getRecordSize(record), info.compactCount);
 
          newTransaction.addPositive(currentFile, info.id, record.getEncodeSize());
 
@@ -350,7 +349,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
             JournalInternalRecord commitRecord =
                      new JournalCompleteRecordTX(TX_RECORD_TYPE.COMMIT, transactionID, null);
 
-            checkSize(commitRecord.getEncodeSize());
+            checkSize(getRecordSize(commitRecord));
 
             writeEncoder(commitRecord, newTransaction.getCounter(currentFile));
 
@@ -379,7 +378,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
                                                                   info.id,
                                                                   new ByteArrayEncoding(info.data));
 
-         checkSize(record.getEncodeSize());
+         checkSize(getRecordSize(record));
 
          writeEncoder(record);
 
@@ -403,7 +402,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
          JournalInternalRecord prepareRecord =
                   new JournalCompleteRecordTX(TX_RECORD_TYPE.PREPARE, transactionID, new ByteArrayEncoding(extraData));
 
-         checkSize(prepareRecord.getEncodeSize());
+         checkSize(getRecordSize(prepareRecord));
 
          writeEncoder(prepareRecord, newTransaction.getCounter(currentFile));
 
@@ -428,7 +427,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
 
             JournalInternalRecord rollbackRecord = new JournalRollbackRecordTX(transactionID);
 
-            checkSize(rollbackRecord.getEncodeSize());
+            checkSize(getRecordSize(rollbackRecord));
 
             writeEncoder(rollbackRecord);
 
@@ -449,7 +448,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
 
          updateRecord.setCompactCount((short)(info.compactCount + 1));
 
-         checkSize(updateRecord.getEncodeSize(), info.compactCount);
+         checkSize(getRecordSize(updateRecord), info.compactCount);
 
          JournalRecord newRecord = newRecords.get(info.id);
 
@@ -480,7 +479,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
 
          updateRecordTX.setCompactCount((short)(info.compactCount + 1));
 
-         checkSize(updateRecordTX.getEncodeSize(), info.compactCount);
+         checkSize(getRecordSize(updateRecordTX), info.compactCount);
 
          writeEncoder(updateRecordTX);
 
@@ -636,7 +635,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
    /* (non-Javadoc)
     * @see org.hornetq.core.journal.impl.JournalRecordsProvider#getRecords()
     */
-   public Map<Long, JournalRecord> getRecords()
+   public ConcurrentLongHashMap<JournalRecord> getRecords()
    {
       return newRecords;
    }
@@ -73,4 +73,10 @@ public interface JournalFile
    int getJournalVersion();
 
    SequentialFile getFile();
+
+   /**
+    * @return {@code true} if the file was moved from the journal directory to the data file directory
+    * @see JournalImpl#setMigration(org.hornetq.core.journal.SequentialFileFactory, int)
+    */
+   boolean isMigrated();
 }
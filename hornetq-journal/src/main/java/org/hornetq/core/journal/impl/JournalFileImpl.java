@@ -30,7 +30,9 @@ import org.hornetq.core.journal.SequentialFile;
  */
 public class JournalFileImpl implements JournalFile
 {
-   private final SequentialFile file;
+   private volatile SequentialFile file;
+
+   private volatile boolean migrated;
 
    private final long fileID;
 
@@ -159,6 +161,20 @@ public class JournalFileImpl implements JournalFile
       return file;
    }
 
+   public boolean isMigrated()
+   {
+      return migrated;
+   }
+
+   /**
+    * Replaces the file by its copy on the data file directory. The records and counters stay with this instance.
+    */
+   void setMigratedFile(final SequentialFile migratedFile)
+   {
+      file = migratedFile;
+      migrated = true;
+   }
+
    @Override
    public String toString()
    {
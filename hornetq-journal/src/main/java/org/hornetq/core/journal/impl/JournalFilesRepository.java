@@ -13,6 +13,7 @@
 
 package org.hornetq.core.journal.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.BlockingDeque;
@@ -281,6 +282,36 @@ public class JournalFilesRepository
       }
    }
 
+   /**
+    * Replaces a contiguous run of data files by the files they were compacted into, keeping the order of the data
+    * files.
+    */
+   public void replaceDataFiles(final List<JournalFile> oldFiles, final List<JournalFile> newFiles)
+   {
+      List<JournalFile> files = new ArrayList<JournalFile>(dataFiles);
+
+      int position = files.indexOf(oldFiles.get(0));
+
+      if (position < 0 || position + oldFiles.size() > files.size() ||
+          !files.subList(position, position + oldFiles.size()).equals(oldFiles))
+      {
+         throw new IllegalStateException("The files " + oldFiles + " are not on the data files " + files);
+      }
+
+      files.subList(position, position + oldFiles.size()).clear();
+
+      files.addAll(position, newFiles);
+
+      dataFiles.clear();
+
+      dataFiles.addAll(files);
+
+      if (CHECK_CONSISTENCE)
+      {
+         checkDataFiles();
+      }
+   }
+
    public String debugFiles()
    {
       StringBuffer buffer = new StringBuffer();
@@ -388,6 +419,19 @@ public class JournalFilesRepository
     */
    public synchronized void addFreeFile(final JournalFile file, final boolean renameTmp, final boolean checkDelete) throws Exception
    {
+      if (file.isMigrated())
+      {
+         // the free files are only kept on the journal directory, where the records are written
+         if (JournalFilesRepository.trace)
+         {
+            JournalFilesRepository.trace("Deleting migrated file " + file);
+         }
+
+         file.getFile().delete();
+
+         return;
+      }
+
       long calculatedSize = 0;
       try
       {
@@ -446,6 +490,32 @@ public class JournalFilesRepository
       }
    }
 
+   /**
+    * Takes back the file left on the journal directory by a data file that was moved to the data file directory.
+    * <p>
+    * The file is renamed before being reused, so its old name only exists on the data file directory.
+    */
+   public synchronized void addMigratedFile(final SequentialFile file) throws Exception
+   {
+      if (file.size() != fileSize || freeFiles.size() >= minFiles)
+      {
+         file.delete();
+
+         return;
+      }
+
+      file.renameTo(createFileName(false, generateFileID()));
+
+      JournalFile jf = reinitializeFile(new JournalFileImpl(file, -1, journal.getFileVersion()));
+
+      if (JournalFilesRepository.trace)
+      {
+         JournalFilesRepository.trace("Adding migrated file as free file " + jf);
+      }
+
+      freeFiles.add(jf);
+   }
+
    public Collection<JournalFile> getFreeFiles()
    {
       return freeFiles;
@@ -592,6 +662,8 @@ public class JournalFilesRepository
    {
       long fileID = fileIdPreSet != -1 ? fileIdPreSet : generateFileID();
 
+      final int journalVersion = journal.getFileVersion();
+
       final String fileName = createFileName(tmpCompact, fileID);
 
       if (JournalFilesRepository.trace)
@@ -609,7 +681,7 @@ public class JournalFilesRepository
       {
          sequentialFile.fill(0, fileSize, JournalImpl.FILL_CHARACTER);
 
-         JournalImpl.initFileHeader(fileFactory, sequentialFile, userVersion, fileID);
+         JournalImpl.initFileHeader(fileFactory, sequentialFile, journalVersion, userVersion, fileID);
       }
 
       long position = sequentialFile.position();
@@ -636,7 +708,7 @@ public class JournalFilesRepository
          sequentialFile.position(position);
       }
 
-      return new JournalFileImpl(sequentialFile, fileID, JournalImpl.FORMAT_VERSION);
+      return new JournalFileImpl(sequentialFile, fileID, journalVersion);
    }
 
    /**
@@ -686,9 +758,11 @@ public class JournalFilesRepository
 
       sf.open(1, false);
 
-      int position = JournalImpl.initFileHeader(fileFactory, sf, userVersion, newFileID);
+      int journalVersion = journal.getFileVersion();
+
+      int position = JournalImpl.initFileHeader(fileFactory, sf, journalVersion, userVersion, newFileID);
 
-      JournalFile jf = new JournalFileImpl(sf, newFileID, JournalImpl.FORMAT_VERSION);
+      JournalFile jf = new JournalFileImpl(sf, newFileID, journalVersion);
 
       sf.position(position);
 
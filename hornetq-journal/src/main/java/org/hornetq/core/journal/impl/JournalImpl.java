@@ -26,8 +26,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -39,12 +37,14 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
 
 import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.api.core.HornetQBuffers;
 import org.hornetq.core.journal.EncodingSupport;
 import org.hornetq.core.journal.IOAsyncTask;
 import org.hornetq.core.journal.IOCompletion;
+import org.hornetq.core.journal.JournalBatch;
 import org.hornetq.core.journal.JournalLoadInformation;
 import org.hornetq.core.journal.LoaderCallback;
 import org.hornetq.core.journal.PreparedTransactionInfo;
@@ -64,6 +64,7 @@ import org.hornetq.core.journal.impl.dataformat.JournalInternalRecord;
 import org.hornetq.core.journal.impl.dataformat.JournalRollbackRecordTX;
 import org.hornetq.journal.HornetQJournalBundle;
 import org.hornetq.journal.HornetQJournalLogger;
+import org.hornetq.utils.ConcurrentLongHashMap;
 import org.hornetq.utils.DataConstants;
 import org.hornetq.utils.Pair;
 
@@ -85,7 +86,13 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
    public static final int FORMAT_VERSION = 2;
 
-   private static final int COMPATIBLE_VERSIONS[] = new int[] { 1 };
+   /** Same as {@link #FORMAT_VERSION}, with a checksum at the end of every record */
+   public static final int CHECKSUM_FORMAT_VERSION = 3;
+
+   private static final int COMPATIBLE_VERSIONS[] = new int[] { 1, JournalImpl.CHECKSUM_FORMAT_VERSION };
+
+   // Size of the copies used to calculate checksums on buffers that aren't on the heap
+   private static final int CHECKSUM_CHUNK = 4 * 1024;
 
    // Static --------------------------------------------------------
    private static final boolean trace = HornetQJournalLogger.LOGGER.isTraceEnabled();
@@ -162,6 +169,9 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
    protected static final byte FILL_CHARACTER = (byte)'J';
 
+   // Runs of files tried by one incremental compaction before giving up
+   private static final int MAX_INCREMENTAL_COMPACT_ATTEMPTS = 3;
+
    // Attributes ----------------------------------------------------
 
    private volatile boolean autoReclaim = true;
@@ -179,10 +189,11 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
    private final JournalFilesRepository filesRepository;
 
    // Compacting may replace this structure
-   private final ConcurrentMap<Long, JournalRecord> records = new ConcurrentHashMap<Long, JournalRecord>();
+   // Keyed by primitive longs as this holds one entry per live record, what could mean millions of entries
+   private final ConcurrentLongHashMap<JournalRecord> records = new ConcurrentLongHashMap<JournalRecord>();
 
    // Compacting may replace this structure
-   private final ConcurrentMap<Long, JournalTransaction> transactions = new ConcurrentHashMap<Long, JournalTransaction>();
+   private final ConcurrentLongHashMap<JournalTransaction> transactions = new ConcurrentLongHashMap<JournalTransaction>();
 
    // This will be set only while the JournalCompactor is being executed
    private volatile JournalCompactor compactor;
@@ -198,6 +209,19 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
    // After a record is appended, the usedFile can't be changed until the positives and negatives are updated
    private final ReentrantLock lockAppend = new ReentrantLock();
 
+   // Set when the buffer lets a record be encoded after lockAppend is released, on the space reserved under it
+   private final ConcurrentTimedBuffer concurrentBuffer;
+
+   // The record of each thread waiting for lockAppend to be released, only used with the concurrentBuffer
+   private final ThreadLocal<DeferredWrite> deferredWrites = new ThreadLocal<DeferredWrite>()
+   {
+      @Override
+      protected DeferredWrite initialValue()
+      {
+         return new DeferredWrite();
+      }
+   };
+
    /**
     * We don't lock the journal during the whole compacting operation. During compacting we only
     * lock it (i) when gathering the initial structure, and (ii) when replicating the structures
@@ -214,6 +238,28 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
    private final Reclaimer reclaimer = new Reclaimer();
 
+   // Number of threads used to read and decode the files during load, 1 means the files are read serially
+   private volatile int loadThreads = 1;
+
+   // Maximum number of data files rewritten by one compaction, 0 means the whole journal is compacted at once
+   private volatile int compactMaxFiles = 0;
+
+   // Longest time the incremental compactor holds the journal locked, in nanoseconds
+   private volatile long compactMaxPause = TimeUnit.MILLISECONDS.toNanos(10);
+
+   private volatile JournalCompactionInfo lastCompactionInfo;
+
+   // New files are written on the CHECKSUM_FORMAT_VERSION
+   private volatile boolean checksums = false;
+
+   // Closed data files are moved to the directory of this factory, null when they stay on the journal directory
+   private volatile SequentialFileFactory dataFileFactory;
+
+   // Number of closed data files left on the journal directory when moving files to the data file directory
+   private volatile int walMaxFiles;
+
+   private final AtomicLong migratedFiles = new AtomicLong();
+
    // Constructors --------------------------------------------------
 
    public JournalImpl(final int fileSize,
@@ -267,6 +313,15 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
       this.fileFactory = fileFactory;
 
+      if (fileFactory instanceof AbstractSequentialFileFactory)
+      {
+         concurrentBuffer = ((AbstractSequentialFileFactory)fileFactory).getConcurrentBuffer();
+      }
+      else
+      {
+         concurrentBuffer = null;
+      }
+
       filesRepository = new JournalFilesRepository(fileFactory,
                                                    this,
                                                    filePrefix,
@@ -346,7 +401,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       latch.await();
    }
 
-   public Map<Long, JournalRecord> getRecords()
+   public ConcurrentLongHashMap<JournalRecord> getRecords()
    {
       return records;
    }
@@ -361,17 +416,206 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       return compactor;
    }
 
+   /**
+    * Sets the number of threads used to read and decode the data files during {@link #load(LoaderCallback)}.
+    * <p>
+    * With more than one thread the files are decoded in parallel, but their records are still applied one file at
+    * the time, in the fileID order, so the result of the load is the same as with a serial load.
+    */
+   public void setLoadThreads(final int loadThreads)
+   {
+      if (loadThreads < 1)
+      {
+         throw new IllegalArgumentException("loadThreads must be at least 1, was " + loadThreads);
+      }
+      this.loadThreads = loadThreads;
+   }
+
+   public int getLoadThreads()
+   {
+      return loadThreads;
+   }
+
+   /**
+    * Sets the maximum number of data files rewritten by one compaction.
+    * <p>
+    * With 0 the compaction rewrites every data file at once. Otherwise only the run of at most this many data files
+    * that gives back the most files is compacted, without stopping appends for longer than the
+    * {@link #setCompactMaxPause(long) maximum pause}, and the next run is left for the next check.
+    */
+   public void setCompactMaxFiles(final int compactMaxFiles)
+   {
+      if (compactMaxFiles < 0)
+      {
+         throw new IllegalArgumentException("compactMaxFiles can't be negative, was " + compactMaxFiles);
+      }
+      this.compactMaxFiles = compactMaxFiles;
+   }
+
+   public int getCompactMaxFiles()
+   {
+      return compactMaxFiles;
+   }
+
+   /**
+    * Sets the longest time, in milliseconds, the incremental compaction keeps the journal locked at once.
+    */
+   public void setCompactMaxPause(final long compactMaxPause)
+   {
+      if (compactMaxPause <= 0)
+      {
+         throw new IllegalArgumentException("compactMaxPause must be positive, was " + compactMaxPause);
+      }
+      this.compactMaxPause = TimeUnit.MILLISECONDS.toNanos(compactMaxPause);
+   }
+
+   public long getCompactMaxPause()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(compactMaxPause);
+   }
+
+   /**
+    * Sets whether the files created from now on store a checksum with every record.
+    * <p>
+    * A record that doesn't match its checksum on load is taken as the end of its file: it and the records after it on
+    * the same file are ignored. Files that were already created keep their format, so both kinds of files can be found
+    * on a journal.
+    */
+   public void setChecksums(final boolean checksums)
+   {
+      this.checksums = checksums;
+   }
+
+   public boolean isChecksums()
+   {
+      return checksums;
+   }
+
+   /**
+    * @return the format version of the files created from now on
+    */
+   public int getFileVersion()
+   {
+      return checksums ? JournalImpl.CHECKSUM_FORMAT_VERSION : JournalImpl.FORMAT_VERSION;
+   }
+
+   /**
+    * @return what was done by the last compaction that rewrote files, or null if none did
+    */
+   public JournalCompactionInfo getLastCompactionInfo()
+   {
+      return lastCompactionInfo;
+   }
+
+   /**
+    * Writes the records on the journal directory only, and moves the closed data files to the directory of the given
+    * factory in the background. The journal directory can then be on a small and fast device, as it only needs to
+    * hold the current, free and newest data files.
+    * <p>
+    * The newest {@code walMaxFiles} closed data files stay on the journal directory, as they are the most likely to be
+    * reclaimed before it would pay to move them. Both factories have to be of the same kind, and the journal has to be
+    * stopped.
+    * @param dataFileFactory null to keep every file on the journal directory
+    */
+   public synchronized void setMigration(final SequentialFileFactory dataFileFactory, final int walMaxFiles)
+   {
+      if (state != JournalState.STOPPED)
+      {
+         throw new IllegalStateException("Journal " + this + " must be stopped to change its data file directory");
+      }
+      if (walMaxFiles < 0)
+      {
+         throw new IllegalArgumentException("walMaxFiles can't be negative, was " + walMaxFiles);
+      }
+      this.dataFileFactory = dataFileFactory;
+      this.walMaxFiles = walMaxFiles;
+   }
+
+   /**
+    * @return the factory of the directory the closed data files are moved to, or null
+    */
+   public SequentialFileFactory getDataFileFactory()
+   {
+      return dataFileFactory;
+   }
+
+   public int getWalMaxFiles()
+   {
+      return walMaxFiles;
+   }
+
+   /**
+    * @return the number of files moved to the data file directory since the journal was created
+    */
+   public long getMigratedFiles()
+   {
+      return migratedFiles.get();
+   }
+
    /** this method is used internally only however tools may use it to maintenance.
     *  It won't be part of the interface as the tools should be specific to the implementation */
    public List<JournalFile> orderFiles() throws Exception
    {
-      List<String> fileNames = fileFactory.listFiles(filesRepository.getFileExtension());
+      return orderFiles(false);
+   }
+
+   /**
+    * @param deleteDuplicates whether the files left on the journal directory by an interrupted move are deleted
+    */
+   private List<JournalFile> orderFiles(final boolean deleteDuplicates) throws Exception
+   {
+      List<JournalFile> orderedFiles = readFileHeaders(fileFactory, false);
+
+      if (dataFileFactory != null)
+      {
+         List<JournalFile> migratedFiles = readFileHeaders(dataFileFactory, true);
+
+         Set<Long> migratedIDs = new HashSet<Long>();
+
+         for (JournalFile file : migratedFiles)
+         {
+            migratedIDs.add(file.getFileID());
+         }
+
+         Iterator<JournalFile> iterator = orderedFiles.iterator();
+
+         while (iterator.hasNext())
+         {
+            JournalFile file = iterator.next();
+
+            // A copy is only renamed once complete, so the original is the one left over
+            if (migratedIDs.contains(file.getFileID()))
+            {
+               iterator.remove();
+
+               if (deleteDuplicates)
+               {
+                  HornetQJournalLogger.LOGGER.deletingOrphanedFile(file.getFile().getFileName());
+                  file.getFile().delete();
+               }
+            }
+         }
+
+         orderedFiles.addAll(migratedFiles);
+      }
+
+      // Now order them by ordering id - we can't use the file name for ordering
+      // since we can re-use dataFiles
+
+      Collections.sort(orderedFiles, new JournalFileComparator());
+
+      return orderedFiles;
+   }
+
+   private List<JournalFile> readFileHeaders(final SequentialFileFactory factory, final boolean migrated) throws Exception
+   {
+      List<String> fileNames = factory.listFiles(filesRepository.getFileExtension());
 
-      List<JournalFile> orderedFiles = new ArrayList<JournalFile>(fileNames.size());
+      List<JournalFile> files = new ArrayList<JournalFile>(fileNames.size());
 
       for (String fileName : fileNames)
       {
-         SequentialFile file = fileFactory.createSequentialFile(fileName, filesRepository.getMaxAIO());
+         SequentialFile file = factory.createSequentialFile(fileName, filesRepository.getMaxAIO());
 
          file.open(1, false);
 
@@ -380,7 +624,12 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
             JournalFileImpl jrnFile = readFileHeader(file);
 
-            orderedFiles.add(jrnFile);
+            if (migrated)
+            {
+               jrnFile.setMigratedFile(file);
+            }
+
+            files.add(jrnFile);
          }
          finally
          {
@@ -388,12 +637,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
       }
 
-      // Now order them by ordering id - we can't use the file name for ordering
-      // since we can re-use dataFiles
-
-      Collections.sort(orderedFiles, new JournalFileComparator());
-
-      return orderedFiles;
+      return files;
    }
 
    /** this method is used internally only however tools may use it to maintenance.  */
@@ -403,13 +647,28 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
    {
       file.getFile().open(1, false);
       ByteBuffer wholeFileBuffer = null;
+      boolean mapped = false;
       try
       {
          final int filesize = (int)file.getFile().size();
 
-         wholeFileBuffer = fileFactory.newBuffer(filesize);
+         final int journalFileSize;
+
+         if (file.getFile() instanceof MappedSequentialFile)
+         {
+            // reading straight from the mapped file, without copying it
+            wholeFileBuffer = ((MappedSequentialFile)file.getFile()).asReadOnlyBuffer();
+
+            mapped = true;
+
+            journalFileSize = wholeFileBuffer.limit();
+         }
+         else
+         {
+            wholeFileBuffer = fileFactory.newBuffer(filesize);
 
-         final int journalFileSize = file.getFile().read(wholeFileBuffer);
+            journalFileSize = file.getFile().read(wholeFileBuffer);
+         }
 
          if (journalFileSize != filesize)
          {
@@ -421,6 +680,12 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
          int lastDataPos = JournalImpl.SIZE_HEADER;
 
+         final boolean checksums = file.getJournalVersion() >= JournalImpl.CHECKSUM_FORMAT_VERSION;
+
+         final CRC32 crc = checksums ? new CRC32() : null;
+
+         final byte[] crcChunk = checksums && !wholeFileBuffer.hasArray() ? new byte[JournalImpl.CHECKSUM_CHUNK] : null;
+
          while (wholeFileBuffer.hasRemaining())
          {
             final int pos = wholeFileBuffer.position();
@@ -639,6 +904,31 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                continue;
             }
 
+            // VIII - The checksum covers the record up to itself. A record that passed every check above but doesn't
+            // match its checksum was only partially written, or was damaged afterwards, so we can't trust what
+            // follows it on the file either.
+            if (checksums)
+            {
+               int checksumPos = pos + variableSize +
+                                 recordSize +
+                                 preparedTransactionExtraDataSize -
+                                 DataConstants.SIZE_INT -
+                                 DataConstants.SIZE_INT;
+
+               wholeFileBuffer.position(checksumPos);
+
+               int checksum = wholeFileBuffer.getInt();
+
+               if (checksum != JournalImpl.checksum(crc, crcChunk, wholeFileBuffer, pos, checksumPos - pos))
+               {
+                  HornetQJournalLogger.LOGGER.journalChecksumMismatch(file.getFile().getFileName(), pos);
+
+                  reader.markAsDataFile(file);
+
+                  break;
+               }
+            }
+
             wholeFileBuffer.position(oldPos);
 
             // At this point everything is checked. So we relax and just load
@@ -724,6 +1014,12 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                }
             }
 
+            if (checksums)
+            {
+               // already verified
+               wholeFileBuffer.getInt();
+            }
+
             checkSize = wholeFileBuffer.getInt();
 
             // This is a sanity check about the loading code itself.
@@ -749,7 +1045,12 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       }
       finally
       {
-         if (wholeFileBuffer != null)
+         if (mapped)
+         {
+            // before closing, the records were copied out of the view
+            ((MappedSequentialFile)file.getFile()).releaseReadOnlyBuffer(wholeFileBuffer);
+         }
+         else if (wholeFileBuffer != null)
          {
             fileFactory.releaseBuffer(wholeFileBuffer);
          }
@@ -764,6 +1065,43 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       }
    }
 
+   /**
+    * Calculates the checksum of a record the way {@link JournalInternalRecord} does, reading direct buffers through
+    * the chunk array instead of copying the record. The position of the buffer is changed.
+    */
+   private static int checksum(final CRC32 crc,
+                               final byte[] chunk,
+                               final ByteBuffer buffer,
+                               final int start,
+                               final int length)
+   {
+      crc.reset();
+
+      if (buffer.hasArray())
+      {
+         crc.update(buffer.array(), buffer.arrayOffset() + start, length);
+      }
+      else
+      {
+         buffer.position(start);
+
+         int remaining = length;
+
+         while (remaining > 0)
+         {
+            int bytes = Math.min(remaining, chunk.length);
+
+            buffer.get(chunk, 0, bytes);
+
+            crc.update(chunk, 0, bytes);
+
+            remaining -= bytes;
+         }
+      }
+
+      return (int)crc.getValue();
+   }
+
    // Journal implementation
    // ----------------------------------------------------------------
 
@@ -805,7 +1143,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
          finally
          {
-            lockAppend.unlock();
+            unlockAppend();
          }
       }
       finally
@@ -871,7 +1209,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
          finally
          {
-            lockAppend.unlock();
+            unlockAppend();
          }
       }
       finally
@@ -940,7 +1278,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
          finally
          {
-            lockAppend.unlock();
+            unlockAppend();
          }
       }
       finally
@@ -985,7 +1323,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
          finally
          {
-            lockAppend.unlock();
+            unlockAppend();
          }
       }
       finally
@@ -1043,7 +1381,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
          finally
          {
-            lockAppend.unlock();
+            unlockAppend();
          }
       }
       finally
@@ -1084,7 +1422,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
          finally
          {
-            lockAppend.unlock();
+            unlockAppend();
          }
       }
       finally
@@ -1143,7 +1481,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
          finally
          {
-            lockAppend.unlock();
+            unlockAppend();
          }
 
       }
@@ -1202,7 +1540,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
          finally
          {
-            lockAppend.unlock();
+            unlockAppend();
          }
 
       }
@@ -1212,6 +1550,66 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       }
    }
 
+   @Override
+   public void appendCommitRecords(final long[] txIDs, final boolean sync, final IOCompletion[] callbacks) throws Exception
+   {
+      checkJournalIsLoaded();
+
+      journalLock.readLock().lock();
+
+      try
+      {
+         JournalTransaction[] txs = new JournalTransaction[txIDs.length];
+
+         List<JournalInternalRecord> encoders = new ArrayList<JournalInternalRecord>(txIDs.length);
+
+         lockAppend.lock();
+         try
+         {
+            // nothing is written when one of the transactions is missing
+            for (long txID : txIDs)
+            {
+               if (!transactions.containsKey(txID))
+               {
+                  throw new IllegalStateException("Cannot find tx with id " + txID);
+               }
+            }
+
+            for (int i = 0; i < txIDs.length; i++)
+            {
+               txs[i] = transactions.remove(txIDs[i]);
+
+               encoders.add(new JournalCompleteRecordTX(TX_RECORD_TYPE.COMMIT, txIDs[i], null));
+
+               if (callbacks[i] != null)
+               {
+                  callbacks[i].storeLineUp();
+               }
+            }
+
+            JournalFile[] usedFiles = appendCommitRecords(encoders, sync, txs, callbacks);
+
+            for (int i = 0; i < txs.length; i++)
+            {
+               if (JournalImpl.TRACE_RECORDS)
+               {
+                  JournalImpl.traceRecord("appendCommitRecords::txID=" + txIDs[i] + ", usedFile = " + usedFiles[i]);
+               }
+
+               txs[i].commit(usedFiles[i]);
+            }
+         }
+         finally
+         {
+            unlockAppend();
+         }
+      }
+      finally
+      {
+         journalLock.readLock().unlock();
+      }
+   }
+
    @Override
    public void appendRollbackRecord(final long txID, final boolean sync, final IOCompletion callback) throws Exception
    {
@@ -1246,7 +1644,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
          finally
          {
-            lockAppend.unlock();
+            unlockAppend();
          }
 
       }
@@ -1256,21 +1654,260 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       }
    }
 
-   // XXX make it protected?
-   public int getAlignment() throws Exception
+   @Override
+   public void appendBatch(final JournalBatch batch, final boolean sync, final IOCompletion callback) throws Exception
    {
-      return fileFactory.getAlignment();
-   }
+      checkJournalIsLoaded();
 
-   private static class DummyLoader implements LoaderCallback
-   {
-      static final LoaderCallback INSTANCE = new DummyLoader();
-      public void failedTransaction(final long transactionID, final List<RecordInfo> records,
-                                       final List<RecordInfo> recordsToDelete)
-         {
-         }
+      final boolean transactional = batch.isTransactional();
 
-         public void updateRecord(final RecordInfo info)
+      final List<JournalBatch.Operation> operations = batch.getOperations();
+
+      if (operations.isEmpty())
+      {
+         if (callback != null && !transactional)
+         {
+            callback.storeLineUp();
+            callback.done();
+         }
+         return;
+      }
+
+      final List<JournalInternalRecord> encoders = new ArrayList<JournalInternalRecord>(operations.size());
+
+      for (JournalBatch.Operation operation : operations)
+      {
+         encoders.add(createBatchRecord(batch, operation));
+      }
+
+      journalLock.readLock().lock();
+
+      try
+      {
+         JournalTransaction tx = transactional ? getTransactionInfo(batch.getTxID()) : null;
+
+         lockAppend.lock();
+         try
+         {
+            // the deleted records are taken out of the records before anything is written, as appendDeleteRecord does
+            JournalRecord[] deletedRecords = transactional ? null : checkBatch(operations);
+
+            if (callback != null && !transactional)
+            {
+               callback.storeLineUp();
+            }
+
+            JournalFile[] usedFiles = appendRecords(encoders, sync, tx, transactional ? null : callback);
+
+            for (int i = 0; i < encoders.size(); i++)
+            {
+               JournalBatch.Operation operation = operations.get(i);
+
+               long id = operation.getId();
+
+               int size = encoders.get(i).getEncodeSize();
+
+               if (JournalImpl.TRACE_RECORDS)
+               {
+                  JournalImpl.traceRecord("appendBatch::txID=" + batch.getTxID() +
+                                          ", " +
+                                          operation +
+                                          ", usedFile = " +
+                                          usedFiles[i]);
+               }
+
+               if (transactional)
+               {
+                  if (operation.getType() == JournalBatch.OperationType.DELETE)
+                  {
+                     tx.addNegative(usedFiles[i], id);
+                  }
+                  else
+                  {
+                     tx.addPositive(usedFiles[i], id, size);
+                  }
+               }
+               else if (operation.getType() == JournalBatch.OperationType.ADD)
+               {
+                  records.put(id, new JournalRecord(usedFiles[i], size));
+               }
+               else if (operation.getType() == JournalBatch.OperationType.UPDATE)
+               {
+                  JournalRecord jrnRecord = records.get(id);
+
+                  // as on appendUpdateRecord, a missing record means it is being compacted
+                  if (jrnRecord == null)
+                  {
+                     compactor.addCommandUpdate(id, usedFiles[i], size);
+                  }
+                  else
+                  {
+                     jrnRecord.addUpdateFile(usedFiles[i], size);
+                  }
+               }
+               else
+               {
+                  JournalRecord record = deletedRecords[i];
+
+                  if (record == null && compactor == null)
+                  {
+                     // added by this batch
+                     record = records.remove(id);
+                  }
+
+                  if (record == null)
+                  {
+                     compactor.addCommandDelete(id, usedFiles[i]);
+                  }
+                  else
+                  {
+                     record.delete(usedFiles[i]);
+                  }
+               }
+            }
+         }
+         finally
+         {
+            unlockAppend();
+         }
+      }
+      finally
+      {
+         journalLock.readLock().unlock();
+      }
+   }
+
+   private JournalInternalRecord createBatchRecord(final JournalBatch batch, final JournalBatch.Operation operation)
+   {
+      final long id = operation.getId();
+
+      switch (operation.getType())
+      {
+         case ADD:
+         case UPDATE:
+         {
+            boolean add = operation.getType() == JournalBatch.OperationType.ADD;
+
+            if (batch.isTransactional())
+            {
+               return new JournalAddRecordTX(add, batch.getTxID(), id, operation.getRecordType(), operation.getRecord());
+            }
+            return new JournalAddRecord(add, id, operation.getRecordType(), operation.getRecord());
+         }
+         default:
+         {
+            if (batch.isTransactional())
+            {
+               return new JournalDeleteRecordTX(batch.getTxID(), id, operation.getRecord());
+            }
+            return new JournalDeleteRecord(id);
+         }
+      }
+   }
+
+   /**
+    * Checks the updates and deletes of a non transactional batch refer to existing records, or to records added
+    * earlier on the batch, and takes the deleted records out of {@link #records} when there's no compactor.
+    * <p>
+    * You need to guarantee lockAppend.acquire() before calling this method!
+    * @return the records taken out, at the position of their delete on the batch
+    */
+   private JournalRecord[] checkBatch(final List<JournalBatch.Operation> operations)
+   {
+      final int count = operations.size();
+
+      for (int i = 0; i < count; i++)
+      {
+         JournalBatch.Operation operation = operations.get(i);
+
+         if (operation.getType() == JournalBatch.OperationType.ADD)
+         {
+            continue;
+         }
+
+         long id = operation.getId();
+
+         JournalBatch.OperationType previous = findPreviousOperation(operations, i, id);
+
+         if (previous == JournalBatch.OperationType.DELETE)
+         {
+            throw new IllegalStateException("Cannot find add info " + id + ", it was deleted earlier on the batch");
+         }
+
+         if (previous == null && !records.containsKey(id) && !(compactor != null && compactor.lookupRecord(id)))
+         {
+            throw new IllegalStateException("Cannot find add info " + id);
+         }
+      }
+
+      JournalRecord[] deletedRecords = new JournalRecord[count];
+
+      if (compactor == null)
+      {
+         for (int i = 0; i < count; i++)
+         {
+            JournalBatch.Operation operation = operations.get(i);
+
+            if (operation.getType() == JournalBatch.OperationType.DELETE &&
+                findPreviousOperation(operations, i, operation.getId()) == null)
+            {
+               deletedRecords[i] = records.remove(operation.getId());
+
+               if (deletedRecords[i] == null)
+               {
+                  // deleted by someone else after the check
+                  for (int j = 0; j < i; j++)
+                  {
+                     if (deletedRecords[j] != null)
+                     {
+                        records.put(operations.get(j).getId(), deletedRecords[j]);
+                     }
+                  }
+
+                  throw new IllegalStateException("Cannot find add info " + operation.getId());
+               }
+            }
+         }
+      }
+
+      return deletedRecords;
+   }
+
+   /**
+    * @return the type of the last operation on the same ID before the given position, or null if there is none
+    */
+   private static JournalBatch.OperationType findPreviousOperation(final List<JournalBatch.Operation> operations,
+                                                                   final int position,
+                                                                   final long id)
+   {
+      for (int i = position - 1; i >= 0; i--)
+      {
+         JournalBatch.Operation operation = operations.get(i);
+
+         if (operation.getId() == id)
+         {
+            return operation.getType();
+         }
+      }
+
+      return null;
+   }
+
+   // XXX make it protected?
+   public int getAlignment() throws Exception
+   {
+      return fileFactory.getAlignment();
+   }
+
+   private static class DummyLoader implements LoaderCallback
+   {
+      static final LoaderCallback INSTANCE = new DummyLoader();
+      public void failedTransaction(final long transactionID, final List<RecordInfo> records,
+                                       final List<RecordInfo> recordsToDelete)
+         {
+         }
+
+         public void updateRecord(final RecordInfo info)
          {
          }
 
@@ -1411,7 +2048,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
             try
             {
-               JournalImpl.this.compact();
+               JournalImpl.this.runCompact();
             }
             catch (Throwable e)
             {
@@ -1471,11 +2108,16 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       {
          HornetQJournalLogger.LOGGER.debug("Starting compacting operation on journal");
 
+         long start = System.nanoTime();
+
+         long firstPause;
+
          onCompactStart();
 
          // We need to guarantee that the journal is frozen for this short time
          // We don't freeze the journal as we compact, only for the short time where we replace records
          journalLock.writeLock().lock();
+         long lockStart = System.nanoTime();
          try
          {
             if (state != JournalState.LOADED)
@@ -1505,13 +2147,13 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             compactor = new JournalCompactor(fileFactory,
                                              this,
                                              filesRepository,
-                                             records.keySet(),
+                                             records.keys(),
                                              dataFilesToProcess.get(0).getFileID());
 
-            for (Map.Entry<Long, JournalTransaction> entry : transactions.entrySet())
+            for (JournalTransaction transaction : transactions.values())
             {
-               compactor.addPendingTransaction(entry.getKey(), entry.getValue().getPositiveArray());
-               entry.getValue().setCompacting();
+               compactor.addPendingTransaction(transaction.getId(), transaction.getPositiveArray());
+               transaction.setCompacting();
             }
 
             // We will calculate the new records during compacting, what will take the position the records will take
@@ -1521,6 +2163,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          finally
          {
             journalLock.writeLock().unlock();
+            firstPause = System.nanoTime() - lockStart;
          }
 
          Collections.sort(dataFilesToProcess, new JournalFileComparator());
@@ -1556,7 +2199,10 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
          SequentialFile controlFile = createControlFile(dataFilesToProcess, compactor.getNewDataFiles(), null);
 
+         long secondPause;
+
          journalLock.writeLock().lock();
+         lockStart = System.nanoTime();
          try
          {
             // Need to clear the compactor here, or the replay commands will send commands back (infinite loop)
@@ -1567,10 +2213,13 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             newDatafiles = localCompactor.getNewDataFiles();
 
             // Restore newRecords created during compacting
-            for (Map.Entry<Long, JournalRecord> newRecordEntry : localCompactor.getNewRecords().entrySet())
+            localCompactor.getNewRecords().forEach(new ConcurrentLongHashMap.EntryProcessor<JournalRecord>()
             {
-               records.put(newRecordEntry.getKey(), newRecordEntry.getValue());
-            }
+               public void accept(final long id, final JournalRecord record)
+               {
+                  records.put(id, record);
+               }
+            });
 
             // Restore compacted dataFiles
             for (int i = newDatafiles.size() - 1; i >= 0; i--)
@@ -1621,13 +2270,24 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          finally
          {
             journalLock.writeLock().unlock();
+            secondPause = System.nanoTime() - lockStart;
          }
 
          // At this point the journal is unlocked. We keep renaming files while the journal is already operational
          renameFiles(dataFilesToProcess, newDatafiles);
          deleteControlFile(controlFile);
 
-         HornetQJournalLogger.LOGGER.debug("Finished compacting on journal");
+         lastCompactionInfo = new JournalCompactionInfo(false,
+                                                        dataFilesToProcess.size(),
+                                                        newDatafiles.size(),
+                                                        (dataFilesToProcess.size() - newDatafiles.size()) *
+                                                                 (long)fileSize,
+                                                        localCompactor.getNewRecords().size(),
+                                                        firstPause + secondPause,
+                                                        Math.max(firstPause, secondPause),
+                                                        System.nanoTime() - start);
+
+         HornetQJournalLogger.LOGGER.debug("Finished compacting on journal: " + lastCompactionInfo);
 
       }
       finally
@@ -1656,353 +2316,677 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
    }
 
    /**
-    * <p>Load data accordingly to the record layouts</p>
-    *
-    * <p>Basic record layout:</p>
-    * <table border=1>
-    *   <tr><td><b>Field Name</b></td><td><b>Size</b></td></tr>
-    *   <tr><td>RecordType</td><td>Byte (1)</td></tr>
-    *   <tr><td>FileID</td><td>Integer (4 bytes)</td></tr>
-    *   <tr><td>Compactor Counter</td><td>1 byte</td></tr>
-    *   <tr><td>TransactionID <i>(if record is transactional)</i></td><td>Long (8 bytes)</td></tr>
-    *   <tr><td>RecordID</td><td>Long (8 bytes)</td></tr>
-    *   <tr><td>BodySize(Add, update and delete)</td><td>Integer (4 bytes)</td></tr>
-    *   <tr><td>UserDefinedRecordType (If add/update only)</td><td>Byte (1)</td</tr>
-    *   <tr><td>RecordBody</td><td>Byte Array (size=BodySize)</td></tr>
-    *   <tr><td>Check Size</td><td>Integer (4 bytes)</td></tr>
-    * </table>
-    *
-    * <p> The check-size is used to validate if the record is valid and complete </p>
-    *
-    * <p>Commit/Prepare record layout:</p>
-    * <table border=1>
-    *   <tr><td><b>Field Name</b></td><td><b>Size</b></td></tr>
-    *   <tr><td>RecordType</td><td>Byte (1)</td></tr>
-    *   <tr><td>FileID</td><td>Integer (4 bytes)</td></tr>
-    *   <tr><td>Compactor Counter</td><td>1 byte</td></tr>
-    *   <tr><td>TransactionID <i>(if record is transactional)</i></td><td>Long (8 bytes)</td></tr>
-    *   <tr><td>ExtraDataLength (Prepares only)</td><td>Integer (4 bytes)</td></tr>
-    *   <tr><td>Number Of Files (N)</td><td>Integer (4 bytes)</td></tr>
-    *   <tr><td>ExtraDataBytes</td><td>Bytes (sized by ExtraDataLength)</td></tr>
-    *   <tr><td>* FileID(n)</td><td>Integer (4 bytes)</td></tr>
-    *   <tr><td>* NumberOfElements(n)</td><td>Integer (4 bytes)</td></tr>
-    *   <tr><td>CheckSize</td><td>Integer (4 bytes)</td</tr>
-    * </table>
-    *
-    * <p> * FileID and NumberOfElements are the transaction summary, and they will be repeated (N)umberOfFiles times </p>
-    *
-    * */
-   public JournalLoadInformation load(final LoaderCallback loadManager) throws Exception
-   {
-      return load(loadManager, true, null);
-   }
-
-   /**
-    * @param loadManager
-    * @param changeData
-    * @param replicationSync {@code true} will place
-    * @return
-    * @throws Exception
+    * Compacts the run of at most {@link #getCompactMaxFiles()} data files that gives back the most files, while the
+    * journal keeps working.
+    * <p>
+    * The files are rewritten without locks by a {@link JournalIncrementalCompactor}. The journal is then locked a few
+    * times, never for longer than {@link #getCompactMaxPause()}, to point the records to their copies and to replace
+    * the files. If the files can't be compacted, the next best run is tried.
     */
-   private synchronized JournalLoadInformation load(final LoaderCallback loadManager, final boolean changeData,
-                                                    final JournalState replicationSync) throws Exception
+   protected synchronized void compactIncrementally() throws Exception
    {
-      if (state == JournalState.STOPPED || state == JournalState.LOADED)
-      {
-         throw new IllegalStateException("Journal " + this + " must be in " + JournalState.STARTED + " state, was " +
-                  state);
-      }
-      if (state == replicationSync)
+      if (compactor != null)
       {
-         throw new IllegalStateException("Journal cannot be in state " + JournalState.STARTED);
+         throw new IllegalStateException("There is pending compacting operation");
       }
 
-      checkControlFile();
-
-      records.clear();
-
-      filesRepository.clear();
-
-      transactions.clear();
-      currentFile = null;
-
-      final Map<Long, TransactionHolder> loadTransactions = new LinkedHashMap<Long, TransactionHolder>();
-
-      final List<JournalFile> orderedFiles = orderFiles();
-
-      filesRepository.calculateNextfileID(orderedFiles);
-
-      int lastDataPos = JournalImpl.SIZE_HEADER;
-
-      // AtomicLong is used only as a reference, not as an Atomic value
-      final AtomicLong maxID = new AtomicLong(-1);
-
-      for (final JournalFile file : orderedFiles)
+      compactorLock.writeLock().lock();
+      try
       {
-         JournalImpl.trace("Loading file " + file.getFile().getFileName());
+         boolean previousReclaimValue = isAutoReclaim();
 
-         final AtomicBoolean hasData = new AtomicBoolean(false);
+         // the files being compacted can't be reclaimed meanwhile
+         setAutoReclaim(false);
 
-         int resultLastPost = JournalImpl.readJournalFile(fileFactory, file, new JournalReaderCallback()
+         try
          {
+            Set<JournalFile> discardedFiles = new HashSet<JournalFile>();
 
-            private void checkID(final long id)
+            for (int i = 0; i < JournalImpl.MAX_INCREMENTAL_COMPACT_ATTEMPTS && state == JournalState.LOADED; i++)
             {
-               if (id > maxID.longValue())
+               List<JournalFile> files = selectFilesToCompact(discardedFiles);
+
+               if (files == null)
                {
-                  maxID.set(id);
+                  trace("Finishing compacting, no files can be compacted");
+                  return;
                }
-            }
-
-            public void onReadAddRecord(final RecordInfo info) throws Exception
-            {
-               checkID(info.id);
-
-               hasData.set(true);
-
-               loadManager.addRecord(info);
-
-               records.put(info.id, new JournalRecord(file, info.data.length + JournalImpl.SIZE_ADD_RECORD + 1));
-            }
-
-            public void onReadUpdateRecord(final RecordInfo info) throws Exception
-            {
-               checkID(info.id);
-
-               hasData.set(true);
-
-               loadManager.updateRecord(info);
-
-               JournalRecord posFiles = records.get(info.id);
 
-               if (posFiles != null)
+               if (compactFiles(files))
                {
-                  // It's legal for this to be null. The file(s) with the may
-                  // have been deleted
-                  // just leaving some updates in this file
-
-                  posFiles.addUpdateFile(file, info.data.length + JournalImpl.SIZE_ADD_RECORD + 1); // +1 = compact
-                  // count
+                  return;
                }
-            }
 
-            public void onReadDeleteRecord(final long recordID) throws Exception
-            {
-               hasData.set(true);
+               discardedFiles.addAll(files);
+            }
+         }
+         finally
+         {
+            setAutoReclaim(previousReclaimValue);
+         }
+      }
+      finally
+      {
+         compactorLock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Chooses the run of data files the incremental compaction will rewrite: the one whose live records fit on the
+    * fewest files, compared to its own size.
+    * <p>
+    * Deletes, commits and rollbacks are dropped by the compaction, so a file is only taken with the files its
+    * negatives point to, and the files of pending transactions are skipped.
+    *
+    * @return null if no run would give back any file
+    */
+   private List<JournalFile> selectFilesToCompact(final Set<JournalFile> discardedFiles)
+   {
+      JournalFile[] files = getDataFiles();
 
-               loadManager.deleteRecord(recordID);
+      // The files holding records of pending transactions are left for a later compaction
+      Set<JournalFile> excludedFiles = new HashSet<JournalFile>(discardedFiles);
 
-               JournalRecord posFiles = records.remove(recordID);
+      lockAppend.lock();
+      try
+      {
+         for (JournalTransaction transaction : transactions.values())
+         {
+            transaction.collectFiles(excludedFiles);
+         }
+      }
+      finally
+      {
+         lockAppend.unlock();
+      }
 
-               if (posFiles != null)
-               {
-                  posFiles.delete(file);
-               }
+      // The lowest index of a file the negatives of each file point to
+      int[] firstNegative = new int[files.length];
+
+      for (int i = 0; i < files.length; i++)
+      {
+         firstNegative[i] = i;
+
+         for (int j = 0; j < i; j++)
+         {
+            if (files[i].getNegCount(files[j]) > 0)
+            {
+               firstNegative[i] = j;
+               break;
             }
+         }
+      }
+
+      long usableSize = fileSize - JournalImpl.SIZE_HEADER;
+
+      int bestStart = -1;
+      int bestLength = 0;
+      long bestFilesFreed = 0;
+      long bestLiveSize = 0;
 
-            public void onReadUpdateRecordTX(final long transactionID, final RecordInfo info) throws Exception
+      for (int start = 0; start < files.length; start++)
+      {
+         long liveSize = 0;
+
+         for (int end = start; end < files.length && end - start < compactMaxFiles; end++)
+         {
+            if (firstNegative[end] < start || excludedFiles.contains(files[end]))
             {
-               onReadAddRecordTX(transactionID, info);
+               break;
             }
 
-            public void onReadAddRecordTX(final long transactionID, final RecordInfo info) throws Exception
+            liveSize += files[end].getLiveSize();
+
+            int length = end - start + 1;
+
+            long filesFreed = length - (liveSize + usableSize - 1) / usableSize;
+
+            if (filesFreed > bestFilesFreed || filesFreed == bestFilesFreed && filesFreed > 0 && liveSize < bestLiveSize)
             {
+               bestStart = start;
+               bestLength = length;
+               bestFilesFreed = filesFreed;
+               bestLiveSize = liveSize;
+            }
+         }
+      }
 
-               checkID(info.id);
+      if (bestStart < 0)
+      {
+         return null;
+      }
 
-               hasData.set(true);
+      List<JournalFile> selected = new ArrayList<JournalFile>(bestLength);
 
-               TransactionHolder tx = loadTransactions.get(transactionID);
+      for (int i = bestStart; i < bestStart + bestLength; i++)
+      {
+         selected.add(files[i]);
+      }
 
-               if (tx == null)
-               {
-                  tx = new TransactionHolder(transactionID);
+      return selected;
+   }
 
-                  loadTransactions.put(transactionID, tx);
-               }
+   /**
+    * @return false if the files couldn't be compacted
+    */
+   private boolean compactFiles(final List<JournalFile> files) throws Exception
+   {
+      long start = System.nanoTime();
 
-               tx.recordInfos.add(info);
+      if (JournalImpl.trace)
+      {
+         JournalImpl.trace("Compacting " + files);
+      }
 
-               JournalTransaction tnp = transactions.get(transactionID);
+      JournalIncrementalCompactor localCompactor = new JournalIncrementalCompactor(fileFactory,
+                                                                                  this,
+                                                                                  filesRepository,
+                                                                                  files.get(0).getFileID(),
+                                                                                  files.size());
 
-               if (tnp == null)
-               {
-                  tnp = new JournalTransaction(transactionID, JournalImpl.this);
+      // No locks while the files are read and written, the journal keeps appending to the current file
+      try
+      {
+         for (JournalFile file : files)
+         {
+            try
+            {
+               JournalImpl.readJournalFile(fileFactory, file, localCompactor);
+            }
+            catch (Throwable e)
+            {
+               HornetQJournalLogger.LOGGER.compactReadError(file);
+               throw new Exception("Error on reading compacting for " + file, e);
+            }
+         }
 
-                  transactions.put(transactionID, tnp);
-               }
+         if (!localCompactor.complete())
+         {
+            HornetQJournalLogger.LOGGER.debug("Couldn't compact " + files + ": " + localCompactor.getAbortReason());
+            localCompactor.discard();
+            return false;
+         }
+      }
+      catch (Exception e)
+      {
+         localCompactor.discard();
+         throw e;
+      }
+
+      onCompactDone();
+
+      List<JournalFile> newFiles = localCompactor.getNewDataFiles();
+
+      SequentialFile controlFile = createControlFile(files, newFiles, null);
+
+      Set<JournalFile> compactedFiles = new HashSet<JournalFile>(files);
+
+      long totalPause = 0;
+      long maxPause = 0;
+
+      // The records are pointed to their copies in batches, each one holding the lock for at most compactMaxPause.
+      // A record deleted after it was copied still has its copies accounted on the new files, with the negatives of
+      // its delete.
+      Iterator<JournalIncrementalCompactor.Relocation> relocations = localCompactor.getRelocations()
+                                                                                   .values()
+                                                                                   .iterator();
+      while (true)
+      {
+         journalLock.writeLock().lock();
+         long lockStart = System.nanoTime();
+         try
+         {
+            onCompactLockingTheJournal();
 
-               tnp.addPositive(file, info.id, info.data.length + JournalImpl.SIZE_ADD_RECORD_TX + 1); // +1 = compact
-               // count
+            while (relocations.hasNext() && System.nanoTime() - lockStart < compactMaxPause)
+            {
+               relocate(relocations.next(), compactedFiles);
             }
 
-            public void onReadDeleteRecordTX(final long transactionID, final RecordInfo info) throws Exception
+            if (!relocations.hasNext())
             {
-               hasData.set(true);
+               filesRepository.replaceDataFiles(files, newFiles);
+               break;
+            }
+         }
+         finally
+         {
+            journalLock.writeLock().unlock();
 
-               TransactionHolder tx = loadTransactions.get(transactionID);
+            long pause = System.nanoTime() - lockStart;
+            totalPause += pause;
+            maxPause = Math.max(maxPause, pause);
+         }
+      }
 
-               if (tx == null)
-               {
-                  tx = new TransactionHolder(transactionID);
+      renameFiles(files, newFiles);
+      deleteControlFile(controlFile);
 
-                  loadTransactions.put(transactionID, tx);
-               }
+      lastCompactionInfo = new JournalCompactionInfo(true,
+                                                     files.size(),
+                                                     newFiles.size(),
+                                                     (files.size() - newFiles.size()) * (long)fileSize,
+                                                     localCompactor.getRecordsMoved(),
+                                                     totalPause,
+                                                     maxPause,
+                                                     System.nanoTime() - start);
 
-               tx.recordsToDelete.add(info);
+      HornetQJournalLogger.LOGGER.debug("Finished compacting on journal: " + lastCompactionInfo);
 
-               JournalTransaction tnp = transactions.get(transactionID);
+      return true;
+   }
 
-               if (tnp == null)
-               {
-                  tnp = new JournalTransaction(transactionID, JournalImpl.this);
+   private void relocate(final JournalIncrementalCompactor.Relocation relocation, final Set<JournalFile> compactedFiles)
+   {
+      JournalRecord record = relocation.record;
 
-                  transactions.put(transactionID, tnp);
-               }
+      if (records.get(relocation.id) == record)
+      {
+         records.put(relocation.id, record.relocate(compactedFiles, relocation.files, relocation.sizes));
+      }
+      else
+      {
+         // deleted after it was copied, the copies are accounted as added and deleted and left for the reclaimer
+         JournalFile deleteFile = record.getDeleteFile();
+
+         for (int i = 0; i < relocation.files.size(); i++)
+         {
+            JournalFile file = relocation.files.get(i);
+
+            int size = relocation.sizes.get(i);
 
-               tnp.addNegative(file, info.id);
+            file.incPosCount();
 
+            file.addSize(size);
+
+            if (deleteFile != null)
+            {
+               deleteFile.incNegCount(file);
+
+               file.decSize(size);
             }
+         }
+      }
+   }
 
-            public void onReadPrepareRecord(final long transactionID, final byte[] extraData, final int numberOfRecords) throws Exception
+   /**
+    * <p>Load data accordingly to the record layouts</p>
+    *
+    * <p>Basic record layout:</p>
+    * <table border=1>
+    *   <tr><td><b>Field Name</b></td><td><b>Size</b></td></tr>
+    *   <tr><td>RecordType</td><td>Byte (1)</td></tr>
+    *   <tr><td>FileID</td><td>Integer (4 bytes)</td></tr>
+    *   <tr><td>Compactor Counter</td><td>1 byte</td></tr>
+    *   <tr><td>TransactionID <i>(if record is transactional)</i></td><td>Long (8 bytes)</td></tr>
+    *   <tr><td>RecordID</td><td>Long (8 bytes)</td></tr>
+    *   <tr><td>BodySize(Add, update and delete)</td><td>Integer (4 bytes)</td></tr>
+    *   <tr><td>UserDefinedRecordType (If add/update only)</td><td>Byte (1)</td</tr>
+    *   <tr><td>RecordBody</td><td>Byte Array (size=BodySize)</td></tr>
+    *   <tr><td>Check Size</td><td>Integer (4 bytes)</td></tr>
+    * </table>
+    *
+    * <p> The check-size is used to validate if the record is valid and complete </p>
+    *
+    * <p>Commit/Prepare record layout:</p>
+    * <table border=1>
+    *   <tr><td><b>Field Name</b></td><td><b>Size</b></td></tr>
+    *   <tr><td>RecordType</td><td>Byte (1)</td></tr>
+    *   <tr><td>FileID</td><td>Integer (4 bytes)</td></tr>
+    *   <tr><td>Compactor Counter</td><td>1 byte</td></tr>
+    *   <tr><td>TransactionID <i>(if record is transactional)</i></td><td>Long (8 bytes)</td></tr>
+    *   <tr><td>ExtraDataLength (Prepares only)</td><td>Integer (4 bytes)</td></tr>
+    *   <tr><td>Number Of Files (N)</td><td>Integer (4 bytes)</td></tr>
+    *   <tr><td>ExtraDataBytes</td><td>Bytes (sized by ExtraDataLength)</td></tr>
+    *   <tr><td>* FileID(n)</td><td>Integer (4 bytes)</td></tr>
+    *   <tr><td>* NumberOfElements(n)</td><td>Integer (4 bytes)</td></tr>
+    *   <tr><td>CheckSize</td><td>Integer (4 bytes)</td</tr>
+    * </table>
+    *
+    * <p> * FileID and NumberOfElements are the transaction summary, and they will be repeated (N)umberOfFiles times </p>
+    *
+    * */
+   public JournalLoadInformation load(final LoaderCallback loadManager) throws Exception
+   {
+      return load(loadManager, true, null);
+   }
+
+   /**
+    * @param loadManager
+    * @param changeData
+    * @param replicationSync {@code true} will place
+    * @return
+    * @throws Exception
+    */
+   private synchronized JournalLoadInformation load(final LoaderCallback loadManager, final boolean changeData,
+                                                    final JournalState replicationSync) throws Exception
+   {
+      if (state == JournalState.STOPPED || state == JournalState.LOADED)
+      {
+         throw new IllegalStateException("Journal " + this + " must be in " + JournalState.STARTED + " state, was " +
+                  state);
+      }
+      if (state == replicationSync)
+      {
+         throw new IllegalStateException("Journal cannot be in state " + JournalState.STARTED);
+      }
+
+      final long loadStart = System.currentTimeMillis();
+
+      checkControlFile();
+
+      records.clear();
+
+      filesRepository.clear();
+
+      transactions.clear();
+      currentFile = null;
+
+      final Map<Long, TransactionHolder> loadTransactions = new LinkedHashMap<Long, TransactionHolder>();
+
+      final List<JournalFile> orderedFiles = orderFiles(true);
+
+      filesRepository.calculateNextfileID(orderedFiles);
+
+      int lastDataPos = JournalImpl.SIZE_HEADER;
+
+      // the bytes up to the last valid record of every file, what the readers actually decoded
+      long bytesLoaded = 0;
+
+      // AtomicLong is used only as a reference, not as an Atomic value
+      final AtomicLong maxID = new AtomicLong(-1);
+
+      final JournalParallelReader parallelReader;
+
+      if (loadThreads > 1 && orderedFiles.size() > 1)
+      {
+         parallelReader = new JournalParallelReader(fileFactory, orderedFiles, Math.min(loadThreads, orderedFiles.size()));
+      }
+      else
+      {
+         parallelReader = null;
+      }
+
+      try
+      {
+         for (int fileIndex = 0; fileIndex < orderedFiles.size(); fileIndex++)
+         {
+            final JournalFile file = orderedFiles.get(fileIndex);
+
+            JournalImpl.trace("Loading file " + file.getFile().getFileName());
+
+            final AtomicBoolean hasData = new AtomicBoolean(false);
+
+            int resultLastPost = readJournalFile(parallelReader, fileIndex, file, new JournalReaderCallback()
             {
-               hasData.set(true);
 
-               TransactionHolder tx = loadTransactions.get(transactionID);
+               private void checkID(final long id)
+               {
+                  if (id > maxID.longValue())
+                  {
+                     maxID.set(id);
+                  }
+               }
 
-               if (tx == null)
+               public void onReadAddRecord(final RecordInfo info) throws Exception
                {
-                  // The user could choose to prepare empty transactions
-                  tx = new TransactionHolder(transactionID);
+                  checkID(info.id);
+
+                  hasData.set(true);
 
-                  loadTransactions.put(transactionID, tx);
+                  loadManager.addRecord(info);
+
+                  records.put(info.id, new JournalRecord(file, info.data.length + JournalImpl.SIZE_ADD_RECORD + 1));
                }
 
-               tx.prepared = true;
+               public void onReadUpdateRecord(final RecordInfo info) throws Exception
+               {
+                  checkID(info.id);
 
-               tx.extraData = extraData;
+                  hasData.set(true);
 
-               JournalTransaction journalTransaction = transactions.get(transactionID);
+                  loadManager.updateRecord(info);
 
-               if (journalTransaction == null)
-               {
-                  journalTransaction = new JournalTransaction(transactionID, JournalImpl.this);
+                  JournalRecord posFiles = records.get(info.id);
 
-                  transactions.put(transactionID, journalTransaction);
+                  if (posFiles != null)
+                  {
+                     // It's legal for this to be null. The file(s) with the may
+                     // have been deleted
+                     // just leaving some updates in this file
+
+                     posFiles.addUpdateFile(file, info.data.length + JournalImpl.SIZE_ADD_RECORD + 1); // +1 = compact
+                     // count
+                  }
                }
 
-               boolean healthy = checkTransactionHealth(file, journalTransaction, orderedFiles, numberOfRecords);
+               public void onReadDeleteRecord(final long recordID) throws Exception
+               {
+                  hasData.set(true);
+
+                  loadManager.deleteRecord(recordID);
+
+                  JournalRecord posFiles = records.remove(recordID);
 
-               if (healthy)
+                  if (posFiles != null)
+                  {
+                     posFiles.delete(file);
+                  }
+               }
+
+               public void onReadUpdateRecordTX(final long transactionID, final RecordInfo info) throws Exception
                {
-                  journalTransaction.prepare(file);
+                  onReadAddRecordTX(transactionID, info);
                }
-               else
+
+               public void onReadAddRecordTX(final long transactionID, final RecordInfo info) throws Exception
                {
-                  HornetQJournalLogger.LOGGER.preparedTXIncomplete(transactionID);
-                  tx.invalid = true;
+
+                  checkID(info.id);
+
+                  hasData.set(true);
+
+                  TransactionHolder tx = loadTransactions.get(transactionID);
+
+                  if (tx == null)
+                  {
+                     tx = new TransactionHolder(transactionID);
+
+                     loadTransactions.put(transactionID, tx);
+                  }
+
+                  tx.recordInfos.add(info);
+
+                  JournalTransaction tnp = transactions.get(transactionID);
+
+                  if (tnp == null)
+                  {
+                     tnp = new JournalTransaction(transactionID, JournalImpl.this);
+
+                     transactions.put(transactionID, tnp);
+                  }
+
+                  tnp.addPositive(file, info.id, info.data.length + JournalImpl.SIZE_ADD_RECORD_TX + 1); // +1 = compact
+                  // count
                }
-            }
 
-            public void onReadCommitRecord(final long transactionID, final int numberOfRecords) throws Exception
-            {
-               TransactionHolder tx = loadTransactions.remove(transactionID);
+               public void onReadDeleteRecordTX(final long transactionID, final RecordInfo info) throws Exception
+               {
+                  hasData.set(true);
+
+                  TransactionHolder tx = loadTransactions.get(transactionID);
+
+                  if (tx == null)
+                  {
+                     tx = new TransactionHolder(transactionID);
+
+                     loadTransactions.put(transactionID, tx);
+                  }
+
+                  tx.recordsToDelete.add(info);
 
-               // The commit could be alone on its own journal-file and the
-               // whole transaction body was reclaimed but not the
-               // commit-record
-               // So it is completely legal to not find a transaction at this
-               // point
-               // If we can't find it, we assume the TX was reclaimed and we
-               // ignore this
-               if (tx != null)
+                  JournalTransaction tnp = transactions.get(transactionID);
+
+                  if (tnp == null)
+                  {
+                     tnp = new JournalTransaction(transactionID, JournalImpl.this);
+
+                     transactions.put(transactionID, tnp);
+                  }
+
+                  tnp.addNegative(file, info.id);
+
+               }
+
+               public void onReadPrepareRecord(final long transactionID, final byte[] extraData, final int numberOfRecords) throws Exception
                {
-                  JournalTransaction journalTransaction = transactions.remove(transactionID);
+                  hasData.set(true);
+
+                  TransactionHolder tx = loadTransactions.get(transactionID);
+
+                  if (tx == null)
+                  {
+                     // The user could choose to prepare empty transactions
+                     tx = new TransactionHolder(transactionID);
+
+                     loadTransactions.put(transactionID, tx);
+                  }
+
+                  tx.prepared = true;
+
+                  tx.extraData = extraData;
+
+                  JournalTransaction journalTransaction = transactions.get(transactionID);
 
                   if (journalTransaction == null)
                   {
-                     throw new IllegalStateException("Cannot find tx " + transactionID);
+                     journalTransaction = new JournalTransaction(transactionID, JournalImpl.this);
+
+                     transactions.put(transactionID, journalTransaction);
                   }
 
                   boolean healthy = checkTransactionHealth(file, journalTransaction, orderedFiles, numberOfRecords);
 
                   if (healthy)
                   {
-                     for (RecordInfo txRecord : tx.recordInfos)
+                     journalTransaction.prepare(file);
+                  }
+                  else
+                  {
+                     HornetQJournalLogger.LOGGER.preparedTXIncomplete(transactionID);
+                     tx.invalid = true;
+                  }
+               }
+
+               public void onReadCommitRecord(final long transactionID, final int numberOfRecords) throws Exception
+               {
+                  TransactionHolder tx = loadTransactions.remove(transactionID);
+
+                  // The commit could be alone on its own journal-file and the
+                  // whole transaction body was reclaimed but not the
+                  // commit-record
+                  // So it is completely legal to not find a transaction at this
+                  // point
+                  // If we can't find it, we assume the TX was reclaimed and we
+                  // ignore this
+                  if (tx != null)
+                  {
+                     JournalTransaction journalTransaction = transactions.remove(transactionID);
+
+                     if (journalTransaction == null)
                      {
-                        if (txRecord.isUpdate)
+                        throw new IllegalStateException("Cannot find tx " + transactionID);
+                     }
+
+                     boolean healthy = checkTransactionHealth(file, journalTransaction, orderedFiles, numberOfRecords);
+
+                     if (healthy)
+                     {
+                        for (RecordInfo txRecord : tx.recordInfos)
                         {
-                           loadManager.updateRecord(txRecord);
+                           if (txRecord.isUpdate)
+                           {
+                              loadManager.updateRecord(txRecord);
+                           }
+                           else
+                           {
+                              loadManager.addRecord(txRecord);
+                           }
                         }
-                        else
+
+                        for (RecordInfo deleteValue : tx.recordsToDelete)
                         {
-                           loadManager.addRecord(txRecord);
+                           loadManager.deleteRecord(deleteValue.id);
                         }
-                     }
 
-                     for (RecordInfo deleteValue : tx.recordsToDelete)
-                     {
-                        loadManager.deleteRecord(deleteValue.id);
+                        journalTransaction.commit(file);
                      }
+                     else
+                     {
+                        HornetQJournalLogger.LOGGER.txMissingElements(transactionID);
 
-                     journalTransaction.commit(file);
-                  }
-                  else
-                  {
-                     HornetQJournalLogger.LOGGER.txMissingElements(transactionID);
+                        journalTransaction.forget();
+                     }
 
-                     journalTransaction.forget();
+                     hasData.set(true);
                   }
 
-                  hasData.set(true);
                }
 
-            }
-
-            public void onReadRollbackRecord(final long transactionID) throws Exception
-            {
-               TransactionHolder tx = loadTransactions.remove(transactionID);
-
-               // The rollback could be alone on its own journal-file and the
-               // whole transaction body was reclaimed but the commit-record
-               // So it is completely legal to not find a transaction at this
-               // point
-               if (tx != null)
+               public void onReadRollbackRecord(final long transactionID) throws Exception
                {
-                  JournalTransaction tnp = transactions.remove(transactionID);
+                  TransactionHolder tx = loadTransactions.remove(transactionID);
 
-                  if (tnp == null)
+                  // The rollback could be alone on its own journal-file and the
+                  // whole transaction body was reclaimed but the commit-record
+                  // So it is completely legal to not find a transaction at this
+                  // point
+                  if (tx != null)
                   {
-                     throw new IllegalStateException("Cannot find tx " + transactionID);
-                  }
+                     JournalTransaction tnp = transactions.remove(transactionID);
+
+                     if (tnp == null)
+                     {
+                        throw new IllegalStateException("Cannot find tx " + transactionID);
+                     }
+
+                     // There is no need to validate summaries/holes on
+                     // Rollbacks.. We will ignore the data anyway.
+                     tnp.rollback(file);
 
-                  // There is no need to validate summaries/holes on
-                  // Rollbacks.. We will ignore the data anyway.
-                  tnp.rollback(file);
+                     hasData.set(true);
+                  }
+               }
 
+               public void markAsDataFile(final JournalFile file)
+               {
                   hasData.set(true);
                }
-            }
 
-            public void markAsDataFile(final JournalFile file)
-            {
-               hasData.set(true);
-            }
+            });
 
-         });
+            bytesLoaded += resultLastPost;
 
-         if (hasData.get())
-         {
-            lastDataPos = resultLastPost;
-            filesRepository.addDataFileOnBottom(file);
-         }
-         else
-         {
-            if (changeData)
+            if (hasData.get())
             {
-               // Empty dataFiles with no data
-               filesRepository.addFreeFile(file, false, false);
+               lastDataPos = resultLastPost;
+               filesRepository.addDataFileOnBottom(file);
             }
+            else
+            {
+               if (changeData)
+               {
+                  // Empty dataFiles with no data
+                  filesRepository.addFreeFile(file, false, false);
+               }
+            }
+         }
+      }
+      finally
+      {
+         if (parallelReader != null)
+         {
+            parallelReader.close();
          }
       }
 
@@ -2055,7 +3039,34 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
       checkReclaimStatus();
 
-      return new JournalLoadInformation(records.size(), maxID.longValue());
+      JournalLoadInformation loadInformation = new JournalLoadInformation(records.size(), maxID.longValue());
+
+      loadInformation.setLoadStatistics(bytesLoaded, System.currentTimeMillis() - loadStart);
+
+      if (JournalImpl.trace)
+      {
+         JournalImpl.trace("Journal loaded with " + loadThreads + " thread(s): " + loadInformation);
+      }
+
+      return loadInformation;
+   }
+
+   /**
+    * Reads the file directly, or replays it from the parallel reader when one is being used.
+    */
+   private int readJournalFile(final JournalParallelReader parallelReader,
+                               final int fileIndex,
+                               final JournalFile file,
+                               final JournalReaderCallback reader) throws Exception
+   {
+      if (parallelReader == null)
+      {
+         return JournalImpl.readJournalFile(fileFactory, file, reader);
+      }
+      else
+      {
+         return parallelReader.replay(fileIndex, reader);
+      }
    }
 
    /**
@@ -2132,49 +3143,229 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
    {
       if (compactMinFiles == 0)
       {
-         // compacting is disabled
-         return;
+         // compacting is disabled
+         return;
+      }
+
+      if (state != JournalState.LOADED)
+      {
+         return;
+      }
+
+      if (!compactorRunning.get() && needsCompact())
+      {
+         scheduleCompact();
+      }
+   }
+
+   private void runCompact() throws Exception
+   {
+      if (compactMaxFiles > 0)
+      {
+         compactIncrementally();
+      }
+      else
+      {
+         compact();
+      }
+   }
+
+   private void scheduleCompact()
+   {
+      if (!compactorRunning.compareAndSet(false, true))
+      {
+         return;
+      }
+
+      // We can't use the executor for the compacting... or we would dead lock because of file open and creation
+      // operations (that will use the executor)
+      compactorExecutor.execute(new Runnable()
+      {
+         public void run()
+         {
+
+            try
+            {
+               JournalImpl.this.runCompact();
+            }
+            catch (Throwable e)
+            {
+               HornetQJournalLogger.LOGGER.errorCompacting(e);
+            }
+            finally
+            {
+               compactorRunning.set(false);
+            }
+         }
+      });
+   }
+
+   /**
+    * Moves the closed data files to the data file directory, but the newest ones, while nothing else is compacting
+    * or moving files.
+    * @return the number of files moved
+    * @see #setMigration(SequentialFileFactory, int)
+    */
+   public int migrateFiles() throws Exception
+   {
+      if (dataFileFactory == null || state != JournalState.LOADED)
+      {
+         return 0;
+      }
+
+      if (!compactorRunning.compareAndSet(false, true))
+      {
+         return 0;
+      }
+
+      try
+      {
+         List<JournalFile> walFiles = new ArrayList<JournalFile>();
+
+         for (JournalFile file : filesRepository.getDataFiles())
+         {
+            if (!file.isMigrated() && !file.isCanReclaim())
+            {
+               walFiles.add(file);
+            }
+         }
+
+         int moved = 0;
+
+         for (int i = 0; i < walFiles.size() - walMaxFiles; i++)
+         {
+            JournalFile file = walFiles.get(i);
+
+            try
+            {
+               if (migrateFile(file))
+               {
+                  moved++;
+               }
+            }
+            catch (Exception e)
+            {
+               HornetQJournalLogger.LOGGER.errorMigratingFile(e, file.getFile().getFileName());
+               break;
+            }
+         }
+
+         return moved;
+      }
+      finally
+      {
+         compactorRunning.set(false);
+      }
+   }
+
+   /**
+    * Copies the file to the data file directory without holding any lock, as data files don't change, and then
+    * replaces the file of the JournalFile by its copy.
+    * @return false if the file was reclaimed while being copied, or the journal stopped
+    */
+   private boolean migrateFile(final JournalFile file) throws Exception
+   {
+      final SequentialFile walFile = file.getFile();
+
+      final String fileName = walFile.getFileName();
+
+      final SequentialFile tmpFile = dataFileFactory.createSequentialFile(fileName + ".tmp", 1);
+
+      ByteBuffer buffer = fileFactory.newBuffer(fileSize);
+
+      try
+      {
+         SequentialFile source = walFile.cloneFile();
+
+         source.open(1, false);
+
+         try
+         {
+            if (source.read(buffer) != fileSize)
+            {
+               // reclaimed and deleted meanwhile
+               return false;
+            }
+         }
+         finally
+         {
+            source.close();
+         }
+
+         buffer.rewind();
+
+         tmpFile.open(1, false);
+
+         try
+         {
+            tmpFile.writeDirect(buffer, true);
+         }
+         finally
+         {
+            tmpFile.close();
+         }
+      }
+      catch (Exception e)
+      {
+         tmpFile.delete();
+         throw e;
+      }
+      finally
+      {
+         fileFactory.releaseBuffer(buffer);
       }
 
-      if (state != JournalState.LOADED)
+      // The same wait as the reclaimer, so stop isn't kept waiting for the compactor executor
+      while (!journalLock.writeLock().tryLock(250, TimeUnit.MILLISECONDS))
       {
-         return;
+         if (state != JournalState.LOADED)
+         {
+            tmpFile.delete();
+            return false;
+         }
       }
 
-      if (!compactorRunning.get() && needsCompact())
+      try
       {
-         scheduleCompact();
+         if (state != JournalState.LOADED || !filesRepository.getDataFiles().contains(file))
+         {
+            tmpFile.delete();
+            return false;
+         }
+
+         tmpFile.renameTo(fileName);
+
+         ((JournalFileImpl)file).setMigratedFile(tmpFile);
+      }
+      finally
+      {
+         journalLock.writeLock().unlock();
       }
-   }
 
-   private void scheduleCompact()
-   {
-      if (!compactorRunning.compareAndSet(false, true))
+      if (JournalImpl.trace)
       {
-         return;
+         JournalImpl.trace("Moved " + file + " to " + dataFileFactory.getDirectory());
       }
 
-      // We can't use the executor for the compacting... or we would dead lock because of file open and creation
-      // operations (that will use the executor)
-      compactorExecutor.execute(new Runnable()
+      migratedFiles.incrementAndGet();
+
+      // Through the filesExecutor, as renameFiles does, so the new fileID is taken in order with the files being opened
+      filesExecutor.execute(new Runnable()
       {
          public void run()
          {
-
             try
             {
-               JournalImpl.this.compact();
+               filesRepository.addMigratedFile(walFile);
             }
             catch (Throwable e)
             {
-               HornetQJournalLogger.LOGGER.errorCompacting(e);
-            }
-            finally
-            {
-               compactorRunning.set(false);
+               HornetQJournalLogger.LOGGER.errorReinitializingFile(e, file);
             }
          }
       });
+
+      return true;
    }
 
    // TestableJournal implementation
@@ -2388,6 +3579,11 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
       fileFactory.start();
 
+      if (dataFileFactory != null)
+      {
+         dataFileFactory.start();
+      }
+
       setJournalState(JournalState.STARTED);
    }
 
@@ -2436,6 +3632,11 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
          fileFactory.stop();
 
+         if (dataFileFactory != null)
+         {
+            dataFileFactory.stop();
+         }
+
          currentFile = null;
       }
       finally
@@ -2632,7 +3833,11 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             throw new IllegalStateException("Record other than expected");
 
       }
-      if (journalVersion >= 2)
+      if (journalVersion >= JournalImpl.CHECKSUM_FORMAT_VERSION)
+      {
+         return recordSize + 1 + DataConstants.SIZE_INT;
+      }
+      else if (journalVersion >= 2)
       {
          return recordSize + 1;
       }
@@ -2698,13 +3903,22 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                                     final SequentialFile sequentialFile,
                                     final int userVersion,
                                     final long fileID) throws Exception
+   {
+      return JournalImpl.initFileHeader(fileFactory, sequentialFile, JournalImpl.FORMAT_VERSION, userVersion, fileID);
+   }
+
+   public static int initFileHeader(final SequentialFileFactory fileFactory,
+                                    final SequentialFile sequentialFile,
+                                    final int journalVersion,
+                                    final int userVersion,
+                                    final long fileID) throws Exception
    {
       // We don't need to release buffers while writing.
       ByteBuffer bb = fileFactory.newBuffer(JournalImpl.SIZE_HEADER);
 
       HornetQBuffer buffer = HornetQBuffers.wrappedBuffer(bb);
 
-      JournalImpl.writeHeader(buffer, userVersion, fileID);
+      JournalImpl.writeHeader(buffer, journalVersion, userVersion, fileID);
 
       bb.rewind();
 
@@ -2724,7 +3938,15 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
     */
    public static void writeHeader(final HornetQBuffer buffer, final int userVersion, final long fileID)
    {
-      buffer.writeInt(JournalImpl.FORMAT_VERSION);
+      JournalImpl.writeHeader(buffer, JournalImpl.FORMAT_VERSION, userVersion, fileID);
+   }
+
+   public static void writeHeader(final HornetQBuffer buffer,
+                                  final int journalVersion,
+                                  final int userVersion,
+                                  final long fileID)
+   {
+      buffer.writeInt(journalVersion);
 
       buffer.writeInt(userVersion);
 
@@ -2746,10 +3968,15 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
       final IOAsyncTask callback;
 
+      // the largest of the sizes on the current file and on a new one
+      encoder.setChecksum(checksums || currentFile.getJournalVersion() >= JournalImpl.CHECKSUM_FORMAT_VERSION);
+
       final int size = encoder.getEncodeSize();
 
       switchFileIfNecessary(size);
 
+      encoder.setChecksum(currentFile.getJournalVersion() >= JournalImpl.CHECKSUM_FORMAT_VERSION);
+
       if (tx != null)
       {
          // The callback of a transaction has to be taken inside the lock,
@@ -2785,7 +4012,26 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       // Adding fileID
       encoder.setFileID(currentFile.getRecordID());
 
-      if (callback != null)
+      writeRecord(encoder, sync, callback);
+
+      return currentFile;
+   }
+
+   /**
+    * Writes a record on the current file, whose space was checked by {@link #switchFileIfNecessary(int)}. With a
+    * {@link ConcurrentTimedBuffer} that space is reserved for this thread, so the record is only encoded once
+    * lockAppend is released, see {@link #unlockAppend()}: writers copy their records in parallel while the order of
+    * the records on the file is still the order of the appends.
+    * <p>
+    * You need to guarantee lockAppend.acquire() before calling this method!
+    */
+   private void writeRecord(final EncodingSupport encoder, final boolean sync, final IOAsyncTask callback) throws Exception
+   {
+      if (concurrentBuffer != null)
+      {
+         deferredWrites.get().defer(encoder, sync, callback);
+      }
+      else if (callback != null)
       {
          currentFile.getFile().write(encoder, sync, callback);
       }
@@ -2793,8 +4039,250 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       {
          currentFile.getFile().write(encoder, sync);
       }
+   }
 
-      return currentFile;
+   /**
+    * Releases lockAppend and writes the record this thread deferred while holding it, if any.
+    */
+   private void unlockAppend() throws Exception
+   {
+      lockAppend.unlock();
+
+      flushDeferredWrite();
+   }
+
+   /**
+    * Encodes the record deferred by this thread on the space reserved for it. A thread can only hold one
+    * reservation, so this is also called before the space of the next record is checked.
+    */
+   private void flushDeferredWrite() throws Exception
+   {
+      if (concurrentBuffer != null)
+      {
+         deferredWrites.get().write(concurrentBuffer);
+      }
+   }
+
+   /**
+    * Writes the records with a single write when they fit on a file, or one by one otherwise.
+    * <p>
+    * You need to guarantee lockAppend.acquire() before calling this method!
+    * @return the file used by each record
+    */
+   private JournalFile[] appendRecords(final List<JournalInternalRecord> encoders,
+                                       final boolean sync,
+                                       final JournalTransaction tx,
+                                       final IOCompletion parameterCallback) throws Exception
+   {
+      final int count = encoders.size();
+
+      final JournalFile[] usedFiles = new JournalFile[count];
+
+      // the largest of the sizes on the current file and on a new one
+      int size = setChecksum(encoders, checksums || currentFile.getJournalVersion() >= JournalImpl.CHECKSUM_FORMAT_VERSION);
+
+      int bufferLimit = -1;
+
+      if (fileFactory instanceof AbstractSequentialFileFactory)
+      {
+         bufferLimit = ((AbstractSequentialFileFactory)fileFactory).getBufferedWriteLimit();
+      }
+
+      // a batch that can't be written at once is written record by record
+      if (count == 1 || size > fileSize - currentFile.getFile().calculateBlockStart(JournalImpl.SIZE_HEADER) ||
+          bufferLimit >= 0 && size > bufferLimit)
+      {
+         for (int i = 0; i < count; i++)
+         {
+            boolean last = i == count - 1;
+
+            // the writes complete in order, so the callback lined up by the caller is only given to the last one
+            usedFiles[i] = appendRecord(encoders.get(i), false, sync && last, tx, last ? parameterCallback : null);
+         }
+
+         return usedFiles;
+      }
+
+      switchFileIfNecessary(size);
+
+      size = setChecksum(encoders, currentFile.getJournalVersion() >= JournalImpl.CHECKSUM_FORMAT_VERSION);
+
+      final IOAsyncTask callback;
+
+      if (tx != null)
+      {
+         // one write on the current file, so a single count on the transaction callback
+         callback = fileFactory.isSupportsCallbacks() ? tx.getCallback(currentFile) : null;
+      }
+      else
+      {
+         callback = parameterCallback;
+      }
+
+      for (int i = 0; i < count; i++)
+      {
+         encoders.get(i).setFileID(currentFile.getRecordID());
+
+         usedFiles[i] = currentFile;
+      }
+
+      EncodingSupport batchEncoding = new BatchEncoding(encoders, size);
+
+      writeRecord(batchEncoding, sync, callback);
+
+      return usedFiles;
+   }
+
+   /**
+    * Writes the commit records of several transactions with a single write when they fit on a file, or one by one
+    * otherwise.
+    * <p>
+    * You need to guarantee lockAppend.acquire() before calling this method!
+    * @return the file used by each record
+    */
+   private JournalFile[] appendCommitRecords(final List<JournalInternalRecord> encoders,
+                                             final boolean sync,
+                                             final JournalTransaction[] txs,
+                                             final IOCompletion[] callbacks) throws Exception
+   {
+      final int count = encoders.size();
+
+      final JournalFile[] usedFiles = new JournalFile[count];
+
+      // the largest of the sizes on the current file and on a new one
+      int size = setChecksum(encoders, checksums || currentFile.getJournalVersion() >= JournalImpl.CHECKSUM_FORMAT_VERSION);
+
+      int bufferLimit = -1;
+
+      if (fileFactory instanceof AbstractSequentialFileFactory)
+      {
+         bufferLimit = ((AbstractSequentialFileFactory)fileFactory).getBufferedWriteLimit();
+      }
+
+      if (size > fileSize - currentFile.getFile().calculateBlockStart(JournalImpl.SIZE_HEADER) ||
+          bufferLimit >= 0 && size > bufferLimit)
+      {
+         // every commit keeps its sync, as a write without one may complete before the sync of the next one
+         for (int i = 0; i < count; i++)
+         {
+            usedFiles[i] = appendRecord(encoders.get(i), true, sync, txs[i], callbacks[i]);
+         }
+
+         return usedFiles;
+      }
+
+      switchFileIfNecessary(size);
+
+      size = setChecksum(encoders, currentFile.getJournalVersion() >= JournalImpl.CHECKSUM_FORMAT_VERSION);
+
+      final IOAsyncTask[] fileCallbacks = fileFactory.isSupportsCallbacks() ? new IOAsyncTask[count] : null;
+
+      for (int i = 0; i < count; i++)
+      {
+         if (fileCallbacks != null)
+         {
+            TransactionCallback txcallback = txs[i].getCallback(currentFile);
+
+            if (callbacks[i] != null)
+            {
+               txcallback.setDelegateCompletion(callbacks[i]);
+            }
+
+            fileCallbacks[i] = txcallback;
+         }
+
+         txs[i].fillNumberOfRecords(currentFile, encoders.get(i));
+
+         encoders.get(i).setFileID(currentFile.getRecordID());
+
+         usedFiles[i] = currentFile;
+      }
+
+      EncodingSupport batchEncoding = new BatchEncoding(encoders, size);
+
+      writeRecord(batchEncoding, sync, fileCallbacks != null ? new GroupCallback(fileCallbacks) : null);
+
+      return usedFiles;
+   }
+
+   /**
+    * @return the size of the records
+    */
+   private static int setChecksum(final List<JournalInternalRecord> encoders, final boolean checksum)
+   {
+      int size = 0;
+
+      for (JournalInternalRecord encoder : encoders)
+      {
+         encoder.setChecksum(checksum);
+
+         size += encoder.getEncodeSize();
+      }
+
+      return size;
+   }
+
+   /**
+    * The records of a batch, encoded one after the other.
+    */
+   private static final class BatchEncoding implements EncodingSupport
+   {
+      private final List<JournalInternalRecord> encoders;
+
+      private final int size;
+
+      BatchEncoding(final List<JournalInternalRecord> encoders, final int size)
+      {
+         this.encoders = encoders;
+         this.size = size;
+      }
+
+      public int getEncodeSize()
+      {
+         return size;
+      }
+
+      public void encode(final HornetQBuffer buffer)
+      {
+         for (JournalInternalRecord encoder : encoders)
+         {
+            encoder.encode(buffer);
+         }
+      }
+
+      public void decode(final HornetQBuffer buffer)
+      {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   /**
+    * The callbacks of the transactions committed by a single write.
+    */
+   private static final class GroupCallback implements IOAsyncTask
+   {
+      private final IOAsyncTask[] callbacks;
+
+      GroupCallback(final IOAsyncTask[] callbacks)
+      {
+         this.callbacks = callbacks;
+      }
+
+      public void done()
+      {
+         for (IOAsyncTask callback : callbacks)
+         {
+            callback.done();
+         }
+      }
+
+      public void onError(final int errorCode, final String errorMessage)
+      {
+         for (IOAsyncTask callback : callbacks)
+         {
+            callback.onError(errorCode, errorMessage);
+         }
+      }
    }
 
    @Override
@@ -2817,6 +4305,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                   {
                      checkCompact();
                   }
+
+                  migrateFiles();
                }
                catch (Exception e)
                {
@@ -2865,6 +4355,16 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             {
                file.delete();
             }
+
+            // the names on the journal directory are never reused for moved files
+            if (dataFileFactory != null)
+            {
+               file = dataFileFactory.createSequentialFile(dataFile, 1);
+               if (file.exists())
+               {
+                  file.delete();
+               }
+            }
          }
 
          for (String newFile : newFiles)
@@ -2894,9 +4394,15 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          controlFile.delete();
       }
 
-      cleanupTmpFiles(".cmp");
+      cleanupTmpFiles(fileFactory, ".cmp");
+
+      cleanupTmpFiles(fileFactory, ".tmp");
 
-      cleanupTmpFiles(".tmp");
+      if (dataFileFactory != null)
+      {
+         // interrupted moves
+         cleanupTmpFiles(dataFileFactory, ".tmp");
+      }
 
       return;
    }
@@ -2904,9 +4410,9 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
    /**
     * @throws Exception
     */
-   private void cleanupTmpFiles(final String extension) throws Exception
+   private void cleanupTmpFiles(final SequentialFileFactory factory, final String extension) throws Exception
    {
-      List<String> leftFiles = fileFactory.listFiles(getFileExtension() + extension);
+      List<String> leftFiles = factory.listFiles(getFileExtension() + extension);
 
       if (leftFiles.size() > 0)
       {
@@ -2915,7 +4421,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          for (String fileToDelete : leftFiles)
          {
             HornetQJournalLogger.LOGGER.deletingOrphanedFile(fileToDelete);
-            SequentialFile file = fileFactory.createSequentialFile(fileToDelete, 1);
+            SequentialFile file = factory.createSequentialFile(fileToDelete, 1);
             file.delete();
          }
       }
@@ -3013,6 +4519,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             {
                appendRecord(blastRecord, false, false, null, null);
             }
+
+            flushDeferredWrite();
          }
          catch (Exception e)
          {
@@ -3095,6 +4603,14 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       // The current file is the last one that has data
 
       currentFile = filesRepository.pollLastDataFile();
+
+      if (currentFile != null && currentFile.isMigrated())
+      {
+         // the records are only written on the journal directory
+         filesRepository.addDataFileOnBottom(currentFile);
+         currentFile = null;
+      }
+
       if (currentFile != null)
       {
          if (!currentFile.getFile().isOpen())
@@ -3120,6 +4636,9 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
     */
    protected JournalFile switchFileIfNecessary(int size) throws Exception
    {
+      // a flush of the buffer waits for the space reserved, including the one of this thread
+      flushDeferredWrite();
+
       // We take into account the fileID used on the Header
       if (size > fileSize - currentFile.getFile().calculateBlockStart(JournalImpl.SIZE_HEADER))
       {
@@ -3159,4 +4678,57 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
       fileFactory.activateBuffer(currentFile.getFile());
    }
+
+   /**
+    * The record a thread appended while holding lockAppend, whose space is reserved on the concurrent buffer.
+    */
+   private static final class DeferredWrite
+   {
+      private EncodingSupport encoder;
+
+      private boolean sync;
+
+      private IOAsyncTask callback;
+
+      void defer(final EncodingSupport encoder, final boolean sync, final IOAsyncTask callback)
+      {
+         this.encoder = encoder;
+         this.sync = sync;
+         this.callback = callback;
+      }
+
+      void write(final ConcurrentTimedBuffer buffer) throws Exception
+      {
+         EncodingSupport encoder = this.encoder;
+
+         if (encoder == null)
+         {
+            // the space reserved for a record that failed before it was written is left as a hole
+            buffer.releaseReservation();
+            return;
+         }
+
+         IOAsyncTask callback = this.callback;
+
+         this.encoder = null;
+         this.callback = null;
+
+         if (callback != null)
+         {
+            buffer.addBytes(encoder, sync, callback);
+         }
+         else if (sync)
+         {
+            SimpleWaitIOCallback completion = new SimpleWaitIOCallback();
+
+            buffer.addBytes(encoder, true, completion);
+
+            completion.waitCompletion();
+         }
+         else
+         {
+            buffer.addBytes(encoder, false, DummyCallback.getInstance());
+         }
+      }
+   }
 }
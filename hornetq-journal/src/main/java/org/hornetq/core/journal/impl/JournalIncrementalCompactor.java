@@ -0,0 +1,281 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hornetq.core.journal.RecordInfo;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.dataformat.ByteArrayEncoding;
+import org.hornetq.core.journal.impl.dataformat.JournalAddRecord;
+import org.hornetq.core.journal.impl.dataformat.JournalInternalRecord;
+
+/**
+ * Rewrites a contiguous run of data files of a live journal into fewer files, without holding any lock.
+ * <p>
+ * Only the adds and updates of records that are still live when they are read are copied. Transactional records
+ * are copied as plain records at the position of their commit, so deletes, commits and rollbacks are dropped. This
+ * is only valid if nothing on the files points out of them, what is verified by the journal before choosing the files
+ * through the negative counts, and if every transaction found on the files is completed on them: otherwise the
+ * compaction is given up.
+ * <p>
+ * The copies are written on files with the IDs of the compacted files, so they keep their order on the journal. The
+ * {@link JournalRecord}s are replaced by the journal afterwards, with {@link #getRelocations()}.
+ */
+public class JournalIncrementalCompactor extends AbstractJournalUpdateTask
+{
+
+   // Attributes ----------------------------------------------------
+
+   private final int maxNewFiles;
+
+   private final Map<Long, Relocation> relocations = new HashMap<Long, Relocation>();
+
+   // transactional records being held until the commit of their transaction is found
+   private final Map<Long, List<RecordInfo>> pendingTransactions = new HashMap<Long, List<RecordInfo>>();
+
+   private int filesOpened;
+
+   private int recordsMoved;
+
+   private String abortReason;
+
+   // Constructors --------------------------------------------------
+
+   /**
+    * @param firstFileID the fileID of the first compacted file
+    * @param numberOfFiles the number of compacted files. The compaction is given up if it doesn't produce less files.
+    */
+   public JournalIncrementalCompactor(final SequentialFileFactory fileFactory,
+                                      final JournalImpl journal,
+                                      final JournalFilesRepository filesRepository,
+                                      final long firstFileID,
+                                      final int numberOfFiles)
+   {
+      super(fileFactory, journal, filesRepository, new long[0], firstFileID);
+
+      maxNewFiles = numberOfFiles - 1;
+   }
+
+   // Public --------------------------------------------------------
+
+   /**
+    * To be called after every file was read.
+    *
+    * @return false if the compaction was given up, the reason is on {@link #getAbortReason()}
+    */
+   public boolean complete() throws Exception
+   {
+      if (abortReason == null && !pendingTransactions.isEmpty())
+      {
+         abort("transactions " + pendingTransactions.keySet() + " are not completed on the compacted files");
+      }
+
+      flush();
+
+      return abortReason == null;
+   }
+
+   /**
+    * Deletes the files written by a compaction that was given up.
+    */
+   public void discard() throws Exception
+   {
+      flush();
+
+      for (JournalFile file : newDataFiles)
+      {
+         file.getFile().delete();
+      }
+
+      newDataFiles.clear();
+   }
+
+   public List<JournalFile> getNewDataFiles()
+   {
+      return newDataFiles;
+   }
+
+   public Map<Long, Relocation> getRelocations()
+   {
+      return relocations;
+   }
+
+   public int getRecordsMoved()
+   {
+      return recordsMoved;
+   }
+
+   public String getAbortReason()
+   {
+      return abortReason;
+   }
+
+   // JournalReaderCallback implementation --------------------------
+
+   public void onReadAddRecord(final RecordInfo info) throws Exception
+   {
+      copy(info, true);
+   }
+
+   public void onReadUpdateRecord(final RecordInfo info) throws Exception
+   {
+      copy(info, false);
+   }
+
+   public void onReadDeleteRecord(final long recordID) throws Exception
+   {
+      // the record can't be live, and the journal verified that it was stored on these files
+   }
+
+   public void onReadAddRecordTX(final long transactionID, final RecordInfo info) throws Exception
+   {
+      getPendingTransaction(transactionID).add(info);
+   }
+
+   public void onReadUpdateRecordTX(final long transactionID, final RecordInfo info) throws Exception
+   {
+      getPendingTransaction(transactionID).add(info);
+   }
+
+   public void onReadDeleteRecordTX(final long transactionID, final RecordInfo info) throws Exception
+   {
+      getPendingTransaction(transactionID);
+   }
+
+   public void onReadPrepareRecord(final long transactionID, final byte[] extraData, final int numberOfRecords) throws Exception
+   {
+      getPendingTransaction(transactionID);
+   }
+
+   public void onReadCommitRecord(final long transactionID, final int numberOfRecords) throws Exception
+   {
+      List<RecordInfo> transactionRecords = pendingTransactions.remove(transactionID);
+
+      if (transactionRecords != null)
+      {
+         for (RecordInfo info : transactionRecords)
+         {
+            copy(info, !info.isUpdate);
+         }
+      }
+   }
+
+   public void onReadRollbackRecord(final long transactionID) throws Exception
+   {
+      pendingTransactions.remove(transactionID);
+   }
+
+   public void markAsDataFile(final JournalFile file)
+   {
+   }
+
+   // Private -------------------------------------------------------
+
+   private List<RecordInfo> getPendingTransaction(final long transactionID)
+   {
+      List<RecordInfo> transactionRecords = pendingTransactions.get(transactionID);
+
+      if (transactionRecords == null)
+      {
+         transactionRecords = new ArrayList<RecordInfo>();
+         pendingTransactions.put(transactionID, transactionRecords);
+      }
+
+      return transactionRecords;
+   }
+
+   private void copy(final RecordInfo info, final boolean add) throws Exception
+   {
+      if (abortReason != null)
+      {
+         return;
+      }
+
+      JournalRecord record = journal.getRecords().get(info.id);
+
+      if (record == null)
+      {
+         // deleted
+         return;
+      }
+
+      JournalInternalRecord copy = new JournalAddRecord(add,
+                                                        info.id,
+                                                        info.getUserRecordType(),
+                                                        new ByteArrayEncoding(info.data));
+      copy.setCompactCount((short)(info.compactCount + 1));
+
+      int size = getRecordSize(copy);
+
+      if (getWritingChannel() == null || getWritingChannel().writerIndex() + size > getWritingChannel().capacity())
+      {
+         if (filesOpened == maxNewFiles)
+         {
+            abort("the live records don't fit on less files");
+            return;
+         }
+
+         openFile();
+
+         filesOpened++;
+      }
+
+      writeEncoder(copy);
+
+      Relocation relocation = relocations.get(info.id);
+
+      if (relocation == null)
+      {
+         relocation = new Relocation(info.id, record);
+         relocations.put(info.id, relocation);
+      }
+
+      relocation.files.add(currentFile);
+      relocation.sizes.add(size);
+
+      recordsMoved++;
+   }
+
+   private void abort(final String reason)
+   {
+      abortReason = reason;
+   }
+
+   // Inner classes -------------------------------------------------
+
+   /**
+    * The copies of one record, in the order they were written.
+    */
+   public static final class Relocation
+   {
+      final long id;
+
+      /** The record as it was when its first copy was written */
+      final JournalRecord record;
+
+      final List<JournalFile> files = new ArrayList<JournalFile>(1);
+
+      final List<Integer> sizes = new ArrayList<Integer>(1);
+
+      Relocation(final long id, final JournalRecord record)
+      {
+         this.id = id;
+         this.record = record;
+      }
+   }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hornetq.core.journal.RecordInfo;
+import org.hornetq.core.journal.SequentialFileFactory;
+
+/**
+ * Reads and decodes journal files ahead of {@link JournalImpl#load(org.hornetq.core.journal.LoaderCallback)} on a
+ * pool of threads.
+ * <p>
+ * Every file is decoded into a buffer of read events. The loading thread then replays those events, one file at a
+ * time and in the fileID order, into the same {@link JournalReaderCallback} it would use when reading the files
+ * serially. So adds, updates, deletes and transaction outcomes are computed exactly as before, only the I/O and the
+ * decoding are done in parallel.
+ * <p>
+ * At most {@code 2 * threads} files are decoded ahead of the replay, to bound the memory used by the buffers.
+ */
+class JournalParallelReader
+{
+   private final SequentialFileFactory fileFactory;
+
+   private final List<JournalFile> files;
+
+   private final ExecutorService executor;
+
+   private final List<Future<BufferedFileReader>> results;
+
+   private final int readAhead;
+
+   private int nextToSubmit;
+
+   JournalParallelReader(final SequentialFileFactory fileFactory, final List<JournalFile> files, final int threads)
+   {
+      this.fileFactory = fileFactory;
+      this.files = files;
+      this.readAhead = threads * 2;
+      this.results = new ArrayList<Future<BufferedFileReader>>(files.size());
+
+      final AtomicInteger threadCount = new AtomicInteger(0);
+
+      executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+      {
+         public Thread newThread(final Runnable r)
+         {
+            Thread thread = new Thread(r, "JournalImpl::LoadReader-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   /**
+    * Waits for the file at {@code fileIndex} to be decoded and replays its records into the callback. Files have
+    * to be replayed in order.
+    * @return the position after the last valid record on the file, as {@link JournalImpl#readJournalFile} would
+    */
+   int replay(final int fileIndex, final JournalReaderCallback callback) throws Exception
+   {
+      submitUpTo(fileIndex + readAhead);
+
+      BufferedFileReader bufferedFile;
+
+      try
+      {
+         bufferedFile = results.get(fileIndex).get();
+      }
+      catch (ExecutionException e)
+      {
+         if (e.getCause() instanceof Exception)
+         {
+            throw (Exception)e.getCause();
+         }
+         throw e;
+      }
+
+      // releasing the decoded records as soon as they are replayed
+      results.set(fileIndex, null);
+
+      bufferedFile.replay(callback);
+
+      return bufferedFile.lastDataPos;
+   }
+
+   void close()
+   {
+      executor.shutdownNow();
+   }
+
+   private void submitUpTo(final int index)
+   {
+      while (nextToSubmit < files.size() && nextToSubmit <= index)
+      {
+         final JournalFile file = files.get(nextToSubmit++);
+
+         results.add(executor.submit(new Callable<BufferedFileReader>()
+         {
+            public BufferedFileReader call() throws Exception
+            {
+               BufferedFileReader reader = new BufferedFileReader();
+               reader.lastDataPos = JournalImpl.readJournalFile(fileFactory, file, reader);
+               return reader;
+            }
+         }));
+      }
+   }
+
+   /**
+    * Holds the events read from one file, in the order they were read.
+    */
+   private static final class BufferedFileReader implements JournalReaderCallback
+   {
+      private static final byte ADD = 0;
+
+      private static final byte UPDATE = 1;
+
+      private static final byte DELETE = 2;
+
+      private static final byte ADD_TX = 3;
+
+      private static final byte UPDATE_TX = 4;
+
+      private static final byte DELETE_TX = 5;
+
+      private static final byte PREPARE = 6;
+
+      private static final byte COMMIT = 7;
+
+      private static final byte ROLLBACK = 8;
+
+      private static final byte MARK_DATA_FILE = 9;
+
+      private final List<ReadEvent> events = new ArrayList<ReadEvent>();
+
+      private int lastDataPos;
+
+      void replay(final JournalReaderCallback callback) throws Exception
+      {
+         for (ReadEvent event : events)
+         {
+            switch (event.type)
+            {
+               case ADD:
+                  callback.onReadAddRecord(event.info);
+                  break;
+               case UPDATE:
+                  callback.onReadUpdateRecord(event.info);
+                  break;
+               case DELETE:
+                  callback.onReadDeleteRecord(event.id);
+                  break;
+               case ADD_TX:
+                  callback.onReadAddRecordTX(event.id, event.info);
+                  break;
+               case UPDATE_TX:
+                  callback.onReadUpdateRecordTX(event.id, event.info);
+                  break;
+               case DELETE_TX:
+                  callback.onReadDeleteRecordTX(event.id, event.info);
+                  break;
+               case PREPARE:
+                  callback.onReadPrepareRecord(event.id, event.extraData, event.numberOfRecords);
+                  break;
+               case COMMIT:
+                  callback.onReadCommitRecord(event.id, event.numberOfRecords);
+                  break;
+               case ROLLBACK:
+                  callback.onReadRollbackRecord(event.id);
+                  break;
+               case MARK_DATA_FILE:
+                  callback.markAsDataFile(event.file);
+                  break;
+               default:
+                  throw new IllegalStateException("Invalid event type " + event.type);
+            }
+         }
+      }
+
+      public void onReadAddRecord(final RecordInfo info)
+      {
+         events.add(new ReadEvent(ADD, 0, info, null, 0, null));
+      }
+
+      public void onReadUpdateRecord(final RecordInfo info)
+      {
+         events.add(new ReadEvent(UPDATE, 0, info, null, 0, null));
+      }
+
+      public void onReadDeleteRecord(final long recordID)
+      {
+         events.add(new ReadEvent(DELETE, recordID, null, null, 0, null));
+      }
+
+      public void onReadAddRecordTX(final long transactionID, final RecordInfo info)
+      {
+         events.add(new ReadEvent(ADD_TX, transactionID, info, null, 0, null));
+      }
+
+      public void onReadUpdateRecordTX(final long transactionID, final RecordInfo info)
+      {
+         events.add(new ReadEvent(UPDATE_TX, transactionID, info, null, 0, null));
+      }
+
+      public void onReadDeleteRecordTX(final long transactionID, final RecordInfo info)
+      {
+         events.add(new ReadEvent(DELETE_TX, transactionID, info, null, 0, null));
+      }
+
+      public void onReadPrepareRecord(final long transactionID, final byte[] extraData, final int numberOfRecords)
+      {
+         events.add(new ReadEvent(PREPARE, transactionID, null, extraData, numberOfRecords, null));
+      }
+
+      public void onReadCommitRecord(final long transactionID, final int numberOfRecords)
+      {
+         events.add(new ReadEvent(COMMIT, transactionID, null, null, numberOfRecords, null));
+      }
+
+      public void onReadRollbackRecord(final long transactionID)
+      {
+         events.add(new ReadEvent(ROLLBACK, transactionID, null, null, 0, null));
+      }
+
+      public void markAsDataFile(final JournalFile file)
+      {
+         events.add(new ReadEvent(MARK_DATA_FILE, 0, null, null, 0, file));
+      }
+   }
+
+   private static final class ReadEvent
+   {
+      final byte type;
+
+      /** the recordID for deletes, the transactionID for everything else */
+      final long id;
+
+      final RecordInfo info;
+
+      final byte[] extraData;
+
+      final int numberOfRecords;
+
+      final JournalFile file;
+
+      ReadEvent(final byte type,
+                final long id,
+                final RecordInfo info,
+                final byte[] extraData,
+                final int numberOfRecords,
+                final JournalFile file)
+      {
+         this.type = type;
+         this.id = id;
+         this.info = info;
+         this.extraData = extraData;
+         this.numberOfRecords = numberOfRecords;
+         this.file = file;
+      }
+   }
+}
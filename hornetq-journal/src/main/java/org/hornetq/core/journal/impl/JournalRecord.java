@@ -13,10 +13,9 @@
 
 package org.hornetq.core.journal.impl;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-
-import org.hornetq.utils.Pair;
+import java.util.Set;
 
 /**
  * This holds the relationship a record has with other files in regard to reference counting.
@@ -24,6 +23,9 @@ import org.hornetq.utils.Pair;
  *
  * Used on the ref-count for reclaiming
  *
+ * There is one instance of this class per live record on the journal, so the updates are kept on
+ * plain arrays instead of a list of pairs to keep the footprint low.
+ *
  * @author <a href="mailto:clebert.suconic@jboss.org">Clebert Suconic</a>
  * */
 public class JournalRecord
@@ -32,7 +34,15 @@ public class JournalRecord
 
    private final int size;
 
-   private List<Pair<JournalFile, Integer>> updateFiles;
+   private JournalFile[] updateFiles;
+
+   private int[] updateSizes;
+
+   // the number of updates, the arrays have room for more
+   private int updateCount;
+
+   // the file holding the delete, set once the record is deleted
+   private volatile JournalFile deleteFile;
 
    public JournalRecord(final JournalFile addFile, final int size)
    {
@@ -45,14 +55,38 @@ public class JournalRecord
       addFile.addSize(size);
    }
 
+   // used by relocate, the counts of the files being kept are already accounted
+   private JournalRecord(final JournalFile addFile,
+                         final int size,
+                         final JournalFile[] updateFiles,
+                         final int[] updateSizes,
+                         final int updateCount)
+   {
+      this.addFile = addFile;
+      this.size = size;
+      this.updateFiles = updateFiles;
+      this.updateSizes = updateSizes;
+      this.updateCount = updateCount;
+   }
+
    void addUpdateFile(final JournalFile updateFile, final int size)
    {
       if (updateFiles == null)
       {
-         updateFiles = new ArrayList<Pair<JournalFile, Integer>>();
+         // most records are never updated, or only once
+         updateFiles = new JournalFile[1];
+         updateSizes = new int[1];
+      }
+      else if (updateCount == updateFiles.length)
+      {
+         // records updated often (e.g. delivery counts) grow geometrically so the copies stay linear
+         int length = updateCount << 1;
+         updateFiles = Arrays.copyOf(updateFiles, length);
+         updateSizes = Arrays.copyOf(updateSizes, length);
       }
 
-      updateFiles.add(new Pair<JournalFile, Integer>(updateFile, size));
+      updateFiles[updateCount] = updateFile;
+      updateSizes[updateCount++] = size;
 
       updateFile.incPosCount();
 
@@ -61,16 +95,88 @@ public class JournalRecord
 
    void delete(final JournalFile file)
    {
+      deleteFile = file;
+
       file.incNegCount(addFile);
       addFile.decSize(size);
 
       if (updateFiles != null)
       {
-         for (Pair<JournalFile, Integer> updFile : updateFiles)
+         for (int i = 0; i < updateCount; i++)
+         {
+            file.incNegCount(updateFiles[i]);
+            updateFiles[i].decSize(updateSizes[i]);
+         }
+      }
+   }
+
+   JournalFile getDeleteFile()
+   {
+      return deleteFile;
+   }
+
+   /**
+    * Returns a copy of this record where the add and updates stored on the given files are replaced by the copies
+    * written on a compaction of these files. The files must be a contiguous run of the journal, the copies must be in
+    * the order they were written and they are accounted on their files.
+    */
+   JournalRecord relocate(final Set<JournalFile> compactedFiles,
+                          final List<JournalFile> copyFiles,
+                          final List<Integer> copySizes)
+   {
+      int length = updateCount + 1;
+
+      JournalFile[] files = new JournalFile[length + copyFiles.size()];
+      int[] sizes = new int[files.length];
+
+      int count = 0;
+      boolean copied = false;
+
+      for (int i = 0; i < length; i++)
+      {
+         JournalFile file = i == 0 ? addFile : updateFiles[i - 1];
+
+         if (compactedFiles.contains(file))
          {
-            file.incNegCount(updFile.getA());
-            updFile.getA().decSize(updFile.getB());
+            if (!copied)
+            {
+               for (int j = 0; j < copyFiles.size(); j++)
+               {
+                  files[count] = copyFiles.get(j);
+                  sizes[count++] = copySizes.get(j);
+               }
+               copied = true;
+            }
          }
+         else
+         {
+            files[count] = file;
+            sizes[count++] = i == 0 ? size : updateSizes[i - 1];
+         }
+      }
+
+      if (!copied || count == 0)
+      {
+         throw new IllegalStateException("Record " + this + " has nothing stored on the compacted files");
+      }
+
+      for (int j = 0; j < copyFiles.size(); j++)
+      {
+         copyFiles.get(j).incPosCount();
+         copyFiles.get(j).addSize(copySizes.get(j));
+      }
+
+      if (count == 1)
+      {
+         return new JournalRecord(files[0], sizes[0], null, null, 0);
+      }
+      else
+      {
+         return new JournalRecord(files[0],
+                                  sizes[0],
+                                  Arrays.copyOfRange(files, 1, count),
+                                  Arrays.copyOfRange(sizes, 1, count),
+                                  count - 1);
       }
    }
 
@@ -83,9 +189,9 @@ public class JournalRecord
       if (updateFiles != null)
       {
 
-         for (Pair<JournalFile, Integer> update : updateFiles)
+         for (int i = 0; i < updateCount; i++)
          {
-            buffer.append(", update=" + update.getA().getFile().getFileName());
+            buffer.append(", update=" + updateFiles[i].getFile().getFileName());
          }
 
       }
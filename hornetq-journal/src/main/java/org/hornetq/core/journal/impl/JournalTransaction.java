@@ -378,6 +378,17 @@ public class JournalTransaction
       addFile(file);
    }
 
+   /**
+    * Adds the files this transaction has records on to the given set. The caller needs the appendLock.
+    */
+   public void collectFiles(final Set<JournalFile> files)
+   {
+      if (pendingFiles != null)
+      {
+         files.addAll(pendingFiles);
+      }
+   }
+
    /** Used by load, when the transaction was not loaded correctly */
    public void forget()
    {
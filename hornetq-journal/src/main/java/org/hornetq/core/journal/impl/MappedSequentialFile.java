@@ -0,0 +1,756 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hornetq.api.core.HornetQExceptionType;
+import org.hornetq.core.journal.IOAsyncTask;
+import org.hornetq.core.journal.SequentialFile;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.journal.HornetQJournalBundle;
+import org.hornetq.journal.HornetQJournalLogger;
+
+/**
+ * A SequentialFile that reads and writes through a {@link MappedByteBuffer}.
+ * <p>
+ * Journal files are pre-allocated by {@link #fill(int, int, byte)}, so they are mapped once when opened. Files that
+ * grow as they are written, such as paging files, are remapped in regions of {@link #REGION_SIZE} bytes and
+ * truncated to what was written when closed.
+ * <p>
+ * Writes sent to the writer executor that asked for a sync are completed together: the last write in the executor
+ * forces the mapping once for all of them.
+ * <p>
+ * A mapping is released when the file is closed or remapped, not when the buffer is collected, so a closed file can
+ * be deleted or renamed and a growing file doesn't keep the address space of its previous regions. A mapping read
+ * through a view from {@link #asReadOnlyBuffer()}, or being forced, is only released once the last of them is done.
+ */
+public class MappedSequentialFile extends AbstractSequentialFile
+{
+   /** Files are remapped in steps of this size as they grow */
+   private static final int REGION_SIZE = 1024 * 1024;
+
+   private static final int FILL_CHUNK_SIZE = 64 * 1024;
+
+   /** sun.misc.Unsafe, used to release a mapping from Java 9 on */
+   private static final Object UNSAFE;
+
+   /** Unsafe.invokeCleaner(ByteBuffer) from Java 9 on, null before */
+   private static final Method INVOKE_CLEANER;
+
+   static
+   {
+      Object unsafe = null;
+
+      Method invokeCleaner = null;
+
+      try
+      {
+         Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+
+         invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+
+         Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+
+         theUnsafe.setAccessible(true);
+
+         unsafe = theUnsafe.get(null);
+      }
+      catch (Throwable e)
+      {
+         // before Java 9 the cleaner of the buffer is used
+         invokeCleaner = null;
+      }
+
+      UNSAFE = unsafe;
+
+      INVOKE_CLEANER = invokeCleaner;
+   }
+
+   private RandomAccessFile rfile;
+
+   private FileChannel channel;
+
+   private MappedByteBuffer mappedBuffer;
+
+   /** the views handed out and not released yet, and the forces in progress, which keep their mappings */
+   private int mappingUsers;
+
+   /** the mappings replaced or closed while they were used, released with the last user */
+   private final List<MappedByteBuffer> retiredMappings = new ArrayList<MappedByteBuffer>();
+
+   /** the end of the last write, as the channel may be longer than what was written */
+   private long writtenSize;
+
+   /** reads are done from this position, as they would on a channel */
+   private long readPosition;
+
+   /** if there are writes not forced to the disk yet */
+   private boolean dirty;
+
+   /**
+    * Guards the mapping and the positions. It is not the file monitor, as close holds that one while waiting for
+    * the writes on the executor.
+    */
+   private final Object mappingLock = new Object();
+
+   private final Object forceLock = new Object();
+
+   /** The write semaphore here is only used when writing asynchronously */
+   private Semaphore maxIOSemaphore;
+
+   private final int defaultMaxIO;
+
+   private int maxIO;
+
+   private final AtomicInteger pendingWrites = new AtomicInteger(0);
+
+   /** only accessed from the writer executor */
+   private final List<IOAsyncTask> callbacksWaitingForce = new ArrayList<IOAsyncTask>();
+
+   public MappedSequentialFile(final SequentialFileFactory factory,
+                               final String directory,
+                               final String fileName,
+                               final int maxIO,
+                               final Executor writerExecutor)
+   {
+      super(directory, new File(directory + "/" + fileName), factory, writerExecutor);
+      defaultMaxIO = maxIO;
+   }
+
+   public MappedSequentialFile(final SequentialFileFactory factory,
+                               final File file,
+                               final int maxIO,
+                               final Executor writerExecutor)
+   {
+      super(file.getParent(), new File(file.getPath()), factory, writerExecutor);
+      defaultMaxIO = maxIO;
+   }
+
+   public int getAlignment()
+   {
+      return 1;
+   }
+
+   public int calculateBlockStart(final int position) throws Exception
+   {
+      return position;
+   }
+
+   public boolean isOpen()
+   {
+      synchronized (mappingLock)
+      {
+         return channel != null;
+      }
+   }
+
+   public synchronized void open() throws Exception
+   {
+      open(defaultMaxIO, true);
+   }
+
+   public synchronized void open(final int maxIO, final boolean useExecutor) throws Exception
+   {
+      try
+      {
+         rfile = new RandomAccessFile(getFile(), "rw");
+
+         synchronized (mappingLock)
+         {
+            channel = rfile.getChannel();
+
+            fileSize = channel.size();
+
+            writtenSize = fileSize;
+
+            readPosition = 0;
+
+            if (fileSize > 0)
+            {
+               map(fileSize);
+            }
+         }
+      }
+      catch (IOException e)
+      {
+         factory.onIOError(HornetQExceptionType.IO_ERROR, e.getMessage(), this);
+         throw e;
+      }
+
+      if (writerExecutor != null && useExecutor)
+      {
+         maxIOSemaphore = new Semaphore(maxIO);
+         this.maxIO = maxIO;
+      }
+   }
+
+   public void fill(final int position, final int size, final byte fillCharacter) throws Exception
+   {
+      synchronized (mappingLock)
+      {
+         ensureMapped(position + (long)size);
+
+         byte[] chunk = new byte[Math.min(size, FILL_CHUNK_SIZE)];
+
+         if (fillCharacter != 0)
+         {
+            for (int i = 0; i < chunk.length; i++)
+            {
+               chunk[i] = fillCharacter;
+            }
+         }
+
+         ByteBuffer target = mappedBuffer.duplicate();
+
+         target.position(position);
+
+         int remaining = size;
+
+         while (remaining > 0)
+         {
+            int length = Math.min(remaining, chunk.length);
+            target.put(chunk, 0, length);
+            remaining -= length;
+         }
+
+         fileSize = Math.max(fileSize, position + (long)size);
+
+         writtenSize = Math.max(writtenSize, position + (long)size);
+
+         dirty = true;
+      }
+
+      sync();
+   }
+
+   public synchronized void waitForClose() throws Exception
+   {
+      while (isOpen())
+      {
+         wait();
+      }
+   }
+
+   @Override
+   public synchronized void close() throws Exception
+   {
+      super.close();
+
+      if (maxIOSemaphore != null)
+      {
+         while (!maxIOSemaphore.tryAcquire(maxIO, 60, TimeUnit.SECONDS))
+         {
+            HornetQJournalLogger.LOGGER.errorClosingFile(getFileName());
+         }
+      }
+
+      maxIOSemaphore = null;
+
+      // a sync forces the mapping out of the mappingLock
+      synchronized (forceLock)
+      {
+         synchronized (mappingLock)
+         {
+            if (mappedBuffer != null)
+            {
+               // before truncating, as a mapped file can't be truncated on some platforms
+               retire(mappedBuffer);
+
+               mappedBuffer = null;
+            }
+
+            if (channel != null)
+            {
+               // the file may have been extended past what was written when it was remapped
+               if (channel.size() > writtenSize)
+               {
+                  channel.truncate(writtenSize);
+               }
+
+               channel.close();
+            }
+
+            dirty = false;
+
+            channel = null;
+         }
+      }
+
+      if (rfile != null)
+      {
+         rfile.close();
+      }
+
+      rfile = null;
+
+      notifyAll();
+   }
+
+   public int read(final ByteBuffer bytes) throws Exception
+   {
+      return read(bytes, null);
+   }
+
+   public int read(final ByteBuffer bytes, final IOAsyncTask callback) throws Exception
+   {
+      int bytesRead;
+
+      synchronized (mappingLock)
+      {
+         if (channel == null)
+         {
+            throw new Exception("File " + this.getFileName() + " has a null channel");
+         }
+
+         bytesRead = (int)Math.min(bytes.remaining(), writtenSize - readPosition);
+
+         if (bytesRead > 0)
+         {
+            ByteBuffer source = mappedBuffer.duplicate();
+            source.position((int)readPosition);
+            source.limit((int)readPosition + bytesRead);
+
+            bytes.put(source);
+
+            readPosition += bytesRead;
+         }
+         else if (bytes.hasRemaining())
+         {
+            // end of file, as a channel would return
+            bytesRead = -1;
+         }
+      }
+
+      if (callback != null)
+      {
+         callback.done();
+      }
+
+      bytes.flip();
+
+      return bytesRead;
+   }
+
+   /**
+    * Returns a read only view of the entire file, without copying it. The view starts at position 0 whatever the
+    * position of the file, and it holds what was written when it was taken.
+    * <p>
+    * Every view must be given back to {@link #releaseReadOnlyBuffer(ByteBuffer)} once it is read, usually in a
+    * finally block. Its mapping is kept until then, even if the file is remapped or closed meanwhile. A view must not
+    * be read once it is released: the mapping may be gone, and reading it would crash the JVM rather than throw.
+    */
+   public ByteBuffer asReadOnlyBuffer() throws Exception
+   {
+      synchronized (mappingLock)
+      {
+         if (channel == null)
+         {
+            throw new Exception("File " + this.getFileName() + " has a null channel");
+         }
+
+         mappingUsers++;
+
+         if (mappedBuffer == null)
+         {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+         }
+
+         ByteBuffer view = mappedBuffer.asReadOnlyBuffer();
+
+         view.limit((int)writtenSize);
+
+         return view;
+      }
+   }
+
+   /**
+    * Gives back a view from {@link #asReadOnlyBuffer()}, which must not be read any more. The mappings retired while
+    * it was used are released with the last view.
+    */
+   public void releaseReadOnlyBuffer(final ByteBuffer view)
+   {
+      synchronized (mappingLock)
+      {
+         releaseMapping();
+      }
+   }
+
+   /**
+    * Forces the writes done so far to the disk. Syncs requested while another sync is forcing the mapping don't
+    * force it again, unless there were new writes meanwhile.
+    */
+   public void sync() throws IOException
+   {
+      synchronized (forceLock)
+      {
+         MappedByteBuffer toForce;
+
+         synchronized (mappingLock)
+         {
+            if (!dirty || mappedBuffer == null)
+            {
+               return;
+            }
+
+            dirty = false;
+
+            toForce = mappedBuffer;
+
+            // the mapping can't be released by a remap while it is forced
+            mappingUsers++;
+         }
+
+         try
+         {
+            toForce.force();
+         }
+         finally
+         {
+            synchronized (mappingLock)
+            {
+               releaseMapping();
+            }
+         }
+      }
+   }
+
+   public long size() throws Exception
+   {
+      synchronized (mappingLock)
+      {
+         if (channel == null)
+         {
+            return getFile().length();
+         }
+         else
+         {
+            return writtenSize;
+         }
+      }
+   }
+
+   @Override
+   public void position(final long pos) throws Exception
+   {
+      synchronized (mappingLock)
+      {
+         super.position(pos);
+         readPosition = pos;
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return "MappedSequentialFile " + getFile();
+   }
+
+   public SequentialFile cloneFile()
+   {
+      return new MappedSequentialFile(factory, getFile(), maxIO, writerExecutor);
+   }
+
+   public void writeDirect(final ByteBuffer bytes, final boolean sync, final IOAsyncTask callback)
+   {
+      if (callback == null)
+      {
+         throw new NullPointerException("callback parameter need to be set");
+      }
+
+      try
+      {
+         internalWrite(bytes, sync, callback);
+      }
+      catch (Exception e)
+      {
+         callback.onError(HornetQExceptionType.GENERIC_EXCEPTION.getCode(), e.getMessage());
+      }
+   }
+
+   public void writeDirect(final ByteBuffer bytes, final boolean sync) throws Exception
+   {
+      internalWrite(bytes, sync, null);
+   }
+
+   public void writeInternal(final ByteBuffer bytes) throws Exception
+   {
+      internalWrite(bytes, true, null);
+   }
+
+   @Override
+   protected ByteBuffer newBuffer(int size, final int limit)
+   {
+      // as on NIO, there's no need to allocate a buffer the entire size of the timed buffer
+
+      size = limit;
+
+      return super.newBuffer(size, limit);
+   }
+
+   private void internalWrite(final ByteBuffer bytes, final boolean sync, final IOAsyncTask callback) throws Exception
+   {
+      if (!isOpen())
+      {
+         if (callback != null)
+         {
+            callback.onError(HornetQExceptionType.IO_ERROR.getCode(), "File not opened");
+         }
+         else
+         {
+            throw HornetQJournalBundle.BUNDLE.fileNotOpened();
+         }
+         return;
+      }
+
+      final long writePosition = position.getAndAdd(bytes.limit());
+
+      if (maxIOSemaphore == null || callback == null)
+      {
+         // if maxIOSemaphore == null, that means we are not using executors and the writes are synchronous
+         try
+         {
+            doInternalWrite(bytes, writePosition);
+
+            if (sync)
+            {
+               sync();
+            }
+
+            if (callback != null)
+            {
+               callback.done();
+            }
+         }
+         catch (IOException e)
+         {
+            factory.onIOError(HornetQExceptionType.IO_ERROR, e.getMessage(), this);
+         }
+      }
+      else
+      {
+         // This is a flow control on writing, just like maxAIO on libaio
+         maxIOSemaphore.acquire();
+
+         pendingWrites.incrementAndGet();
+
+         writerExecutor.execute(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  try
+                  {
+                     doInternalWrite(bytes, writePosition);
+
+                     completeOnForce(sync, callback);
+                  }
+                  catch (IOException e)
+                  {
+                     HornetQJournalLogger.LOGGER.errorSubmittingWrite(e);
+                     factory.onIOError(HornetQExceptionType.IO_ERROR, e.getMessage(), MappedSequentialFile.this);
+                     failWaitingForce(callback, e);
+                  }
+                  catch (Throwable e)
+                  {
+                     HornetQJournalLogger.LOGGER.errorSubmittingWrite(e);
+                     failWaitingForce(callback, e);
+                  }
+               }
+               finally
+               {
+                  maxIOSemaphore.release();
+               }
+            }
+         });
+      }
+   }
+
+   /**
+    * Called from the writer executor. Once a write asks for a sync, the following callbacks wait for the force too,
+    * so they complete in the same order they were written.
+    */
+   private void completeOnForce(final boolean sync, final IOAsyncTask callback) throws IOException
+   {
+      boolean lastPending = pendingWrites.decrementAndGet() == 0;
+
+      if (!sync && callbacksWaitingForce.isEmpty())
+      {
+         callback.done();
+         return;
+      }
+
+      callbacksWaitingForce.add(callback);
+
+      if (lastPending || callbacksWaitingForce.size() >= maxIO)
+      {
+         sync();
+
+         for (IOAsyncTask waiting : callbacksWaitingForce)
+         {
+            waiting.done();
+         }
+
+         callbacksWaitingForce.clear();
+      }
+   }
+
+   private void failWaitingForce(final IOAsyncTask callback, final Throwable e)
+   {
+      callbacksWaitingForce.add(callback);
+
+      for (IOAsyncTask waiting : callbacksWaitingForce)
+      {
+         waiting.onError(HornetQExceptionType.IO_ERROR.getCode(), e.getMessage());
+      }
+
+      callbacksWaitingForce.clear();
+   }
+
+   private void doInternalWrite(final ByteBuffer bytes, final long writePosition) throws IOException
+   {
+      synchronized (mappingLock)
+      {
+         if (channel == null)
+         {
+            throw new IOException("File " + this.getFileName() + " has a null channel");
+         }
+
+         long end = writePosition + bytes.remaining();
+
+         ensureMapped(end);
+
+         ByteBuffer target = mappedBuffer.duplicate();
+
+         target.position((int)writePosition);
+
+         target.put(bytes);
+
+         writtenSize = Math.max(writtenSize, end);
+
+         dirty = true;
+      }
+   }
+
+   /** needs the mappingLock */
+   private void ensureMapped(final long size) throws IOException
+   {
+      if (mappedBuffer == null || mappedBuffer.capacity() < size)
+      {
+         long regions = (size + REGION_SIZE - 1) / REGION_SIZE;
+
+         map(Math.max(channel.size(), regions * REGION_SIZE));
+      }
+   }
+
+   private void map(final long size) throws IOException
+   {
+      if (size > Integer.MAX_VALUE)
+      {
+         throw new IOException("File " + getFileName() + " is too big to be mapped: " + size + " bytes");
+      }
+
+      MappedByteBuffer previous = mappedBuffer;
+
+      // mapping past the end of the file extends it
+      mappedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+      if (previous != null)
+      {
+         if (dirty)
+         {
+            // a force of the new mapping doesn't cover the writes done through this one on every platform
+            previous.force();
+         }
+
+         retire(previous);
+      }
+   }
+
+   /**
+    * Releases a mapping which is not the current one any more, or keeps it until its last user is done. Needs the
+    * mappingLock.
+    */
+   private void retire(final MappedByteBuffer buffer)
+   {
+      if (mappingUsers == 0)
+      {
+         unmap(buffer);
+      }
+      else
+      {
+         retiredMappings.add(buffer);
+      }
+   }
+
+   /** needs the mappingLock */
+   private void releaseMapping()
+   {
+      if (--mappingUsers == 0)
+      {
+         for (MappedByteBuffer buffer : retiredMappings)
+         {
+            unmap(buffer);
+         }
+
+         retiredMappings.clear();
+      }
+   }
+
+   /**
+    * Releases the mapping through the JDK internals, as there is no public API for it. If they can't be reached the
+    * mapping is left to the GC.
+    */
+   private void unmap(final MappedByteBuffer buffer)
+   {
+      try
+      {
+         if (INVOKE_CLEANER != null)
+         {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+         }
+         else
+         {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+
+            cleanerMethod.setAccessible(true);
+
+            Object cleaner = cleanerMethod.invoke(buffer);
+
+            if (cleaner != null)
+            {
+               cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+         }
+      }
+      catch (Throwable e)
+      {
+         HornetQJournalLogger.LOGGER.debug("Couldn't unmap " + getFileName() + ", it will be unmapped by the GC", e);
+      }
+   }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal.impl;
+
+import org.hornetq.core.journal.IOCriticalErrorListener;
+import org.hornetq.core.journal.SequentialFile;
+
+/**
+ * A factory of {@link MappedSequentialFile}s.
+ * <p>
+ * It doesn't need any native library, so it can be used where AIO is not available. Buffers are allocated just as
+ * on NIO.
+ */
+public class MappedSequentialFileFactory extends NIOSequentialFileFactory
+{
+   public MappedSequentialFileFactory(final String journalDir)
+   {
+      this(journalDir, null);
+   }
+
+   public MappedSequentialFileFactory(final String journalDir, final IOCriticalErrorListener listener)
+   {
+      this(journalDir, false, listener);
+   }
+
+   public MappedSequentialFileFactory(final String journalDir,
+                                      final boolean buffered,
+                                      final IOCriticalErrorListener listener)
+   {
+      this(journalDir,
+           buffered,
+           JournalConstants.DEFAULT_JOURNAL_BUFFER_SIZE_NIO,
+           JournalConstants.DEFAULT_JOURNAL_BUFFER_TIMEOUT_NIO,
+           false,
+           false,
+           listener);
+   }
+
+   public MappedSequentialFileFactory(final String journalDir,
+                                      final boolean buffered,
+                                      final int bufferSize,
+                                      final int bufferTimeout,
+                                      final boolean logRates,
+                                      final boolean concurrentBuffer,
+                                      final IOCriticalErrorListener listener)
+   {
+      super(journalDir, buffered, bufferSize, bufferTimeout, logRates, concurrentBuffer, listener);
+   }
+
+   @Override
+   public SequentialFile createSequentialFile(final String fileName, int maxIO)
+   {
+      if (maxIO < 1)
+      {
+         // A single threaded IO
+         maxIO = 1;
+      }
+
+      return new MappedSequentialFile(this, journalDir, fileName, maxIO, writeExecutor);
+   }
+}
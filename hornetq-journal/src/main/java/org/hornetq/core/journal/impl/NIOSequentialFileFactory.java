@@ -77,7 +77,21 @@ public class NIOSequentialFileFactory extends AbstractSequentialFileFactory
                                    final boolean logRates,
                                    final IOCriticalErrorListener listener)
    {
-      super(journalDir, buffered, bufferSize, bufferTimeout, logRates, listener);
+      this(journalDir, buffered, bufferSize, bufferTimeout, logRates, false, listener);
+   }
+
+   /**
+    * @param concurrentBuffer use a {@link ConcurrentTimedBuffer}, where writers don't share a monitor
+    */
+   public NIOSequentialFileFactory(final String journalDir,
+                                   final boolean buffered,
+                                   final int bufferSize,
+                                   final int bufferTimeout,
+                                   final boolean logRates,
+                                   final boolean concurrentBuffer,
+                                   final IOCriticalErrorListener listener)
+   {
+      super(journalDir, buffered, bufferSize, bufferTimeout, logRates, concurrentBuffer, listener);
    }
 
    public SequentialFile createSequentialFile(final String fileName, int maxIO)
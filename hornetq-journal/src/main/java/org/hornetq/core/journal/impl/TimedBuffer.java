@@ -88,6 +88,9 @@ public class TimedBuffer
 
    private boolean spinning = false;
 
+   // null unless the timeout is chosen by the buffer, see setAdaptiveTimeout
+   private volatile AdaptiveBufferTimeout adaptiveTimeout;
+
    // Static --------------------------------------------------------
 
    // Constructors --------------------------------------------------
@@ -95,6 +98,14 @@ public class TimedBuffer
    // Public --------------------------------------------------------
 
    public TimedBuffer(final int size, final int timeout, final boolean logRates)
+   {
+      this(size, timeout, logRates, true);
+   }
+
+   /**
+    * @param allocateBuffer false for subclasses managing their own buffers
+    */
+   protected TimedBuffer(final int size, final int timeout, final boolean logRates, final boolean allocateBuffer)
    {
       bufferSize = size;
 
@@ -106,9 +117,16 @@ public class TimedBuffer
       }
       // Setting the interval for nano-sleeps
 
-      buffer = HornetQBuffers.fixedBuffer(bufferSize);
+      if (allocateBuffer)
+      {
+         buffer = HornetQBuffers.fixedBuffer(bufferSize);
 
-      buffer.clear();
+         buffer.clear();
+      }
+      else
+      {
+         buffer = null;
+      }
 
       bufferLimit = 0;
 
@@ -139,12 +157,7 @@ public class TimedBuffer
 
       timerThread.start();
 
-      if (logRates)
-      {
-         logRatesTimerTask = new LogRatesTimerTask();
-
-         logRatesTimer.scheduleAtFixedRate(logRatesTimerTask, 2000, 2000);
-      }
+      startLogRates();
 
       started = true;
    }
@@ -164,10 +177,7 @@ public class TimedBuffer
 
       spinLimiter.release();
 
-      if (logRates)
-      {
-         logRatesTimerTask.cancel();
-      }
+      stopLogRates();
 
       while (timerThread.isAlive())
       {
@@ -193,6 +203,20 @@ public class TimedBuffer
       bufferObserver = observer;
    }
 
+   /**
+    * Lets the timeout and the size of a batch be chosen from the measured flush latency and arrival rate, instead
+    * of using the timeout given on the constructor. Use null to go back to the fixed timeout.
+    */
+   public void setAdaptiveTimeout(final AdaptiveBufferTimeout adaptiveTimeout)
+   {
+      this.adaptiveTimeout = adaptiveTimeout;
+   }
+
+   public AdaptiveBufferTimeout getAdaptiveTimeout()
+   {
+      return adaptiveTimeout;
+   }
+
    /**
     * Verify if the size fits the buffer
     * @param sizeChecked
@@ -266,6 +290,19 @@ public class TimedBuffer
       {
          pendingSync = true;
 
+         if (adaptiveTimeout != null)
+         {
+            adaptiveTimeout.syncRequested();
+
+            if (buffer.writerIndex() >= adaptiveTimeout.getBatchSize())
+            {
+               // enough was batched for the expected rate, there is no point on waiting for the timer
+               flush();
+
+               return;
+            }
+         }
+
          // if (System.nanoTime() - lastFlushTime.get() > timeout)
          // {
          // // This might happen if there is low activity in the buffer - the timer hasn't fired because no sync records
@@ -307,11 +344,6 @@ public class TimedBuffer
          {
             int pos = buffer.writerIndex();
 
-            if (logRates)
-            {
-               bytesFlushed.addAndGet(pos);
-            }
-
             ByteBuffer bufferToFlush = bufferObserver.newBuffer(bufferSize, pos);
 
             // Putting a byteArray on a native buffer is much faster, since it will do in a single native call.
@@ -320,7 +352,7 @@ public class TimedBuffer
 
             bufferToFlush.put(buffer.toByteBuffer().array(), 0, pos);
 
-            bufferObserver.flushBuffer(bufferToFlush, pendingSync, callbacks);
+            bufferObserver.flushBuffer(bufferToFlush, pendingSync, probeFlush(pendingSync, callbacks));
 
             if (spinning)
             {
@@ -349,7 +381,7 @@ public class TimedBuffer
 
             bufferLimit = 0;
 
-            flushesDone.incrementAndGet();
+            flushed(pos);
          }
       }
    }
@@ -358,6 +390,70 @@ public class TimedBuffer
 
    // Protected -----------------------------------------------------
 
+   protected void startLogRates()
+   {
+      if (logRates)
+      {
+         logRatesTimerTask = new LogRatesTimerTask();
+
+         logRatesTimer.scheduleAtFixedRate(logRatesTimerTask, 2000, 2000);
+      }
+   }
+
+   protected void stopLogRates()
+   {
+      if (logRates)
+      {
+         logRatesTimerTask.cancel();
+      }
+   }
+
+   /**
+    * @return the timeout in nanoseconds, as chosen by the adaptive timeout if there is one
+    */
+   protected long getFlushTimeout()
+   {
+      AdaptiveBufferTimeout adaptive = adaptiveTimeout;
+
+      return adaptive == null ? timeout : adaptive.getTimeout();
+   }
+
+   /**
+    * Adds a callback measuring the latency of a flush with a sync, when the timeout is adaptive.
+    * @return the callbacks to be passed to the observer
+    */
+   protected List<IOAsyncTask> probeFlush(final boolean sync, final List<IOAsyncTask> callbacks)
+   {
+      AdaptiveBufferTimeout adaptive = adaptiveTimeout;
+
+      if (sync && adaptive != null)
+      {
+         callbacks.add(adaptive.newFlushProbe());
+      }
+
+      return callbacks;
+   }
+
+   /**
+    * Accounts a flush for the write rates
+    */
+   protected void flushed(final int bytes)
+   {
+      if (logRates)
+      {
+         bytesFlushed.addAndGet(bytes);
+      }
+
+      AdaptiveBufferTimeout adaptive = adaptiveTimeout;
+
+      if (adaptive != null)
+      {
+         adaptive.flushed(bytes);
+      }
+
+      flushesDone.incrementAndGet();
+   }
+
    // Private -------------------------------------------------------
 
    // Inner classes -------------------------------------------------
@@ -419,7 +515,7 @@ public class TimedBuffer
             // timeout since the time of the last flush.
             // Effectively flushing "resets" the timer
 
-            if (pendingSync && bufferObserver != null && System.nanoTime() > lastFlushTime.get() + timeout)
+            if (pendingSync && bufferObserver != null && System.nanoTime() > lastFlushTime.get() + getFlushTimeout())
             {
                flush();
             }
@@ -56,6 +56,8 @@ public class JournalAddRecord extends JournalInternalRecord
     */
    public void encode(final HornetQBuffer buffer)
    {
+      int start = buffer.writerIndex();
+
       if (add)
       {
          buffer.writeByte(JournalImpl.ADD_RECORD);
@@ -77,12 +79,14 @@ public class JournalAddRecord extends JournalInternalRecord
 
       record.encode(buffer);
 
+      writeChecksum(buffer, start);
+
       buffer.writeInt(getEncodeSize());
    }
 
    @Override
    public int getEncodeSize()
    {
-      return JournalImpl.SIZE_ADD_RECORD + record.getEncodeSize() + 1;
+      return JournalImpl.SIZE_ADD_RECORD + record.getEncodeSize() + 1 + getChecksumSize();
    }
 }
\ No newline at end of file
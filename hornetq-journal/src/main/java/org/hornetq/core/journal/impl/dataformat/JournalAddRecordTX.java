@@ -63,6 +63,8 @@ public class JournalAddRecordTX extends JournalInternalRecord
    @Override
    public void encode(final HornetQBuffer buffer)
    {
+      int start = buffer.writerIndex();
+
       if (add)
       {
          buffer.writeByte(JournalImpl.ADD_RECORD_TX);
@@ -86,12 +88,14 @@ public class JournalAddRecordTX extends JournalInternalRecord
 
       record.encode(buffer);
 
+      writeChecksum(buffer, start);
+
       buffer.writeInt(getEncodeSize());
    }
 
    @Override
    public int getEncodeSize()
    {
-      return JournalImpl.SIZE_ADD_RECORD_TX + record.getEncodeSize() + 1;
+      return JournalImpl.SIZE_ADD_RECORD_TX + record.getEncodeSize() + 1 + getChecksumSize();
    }
 }
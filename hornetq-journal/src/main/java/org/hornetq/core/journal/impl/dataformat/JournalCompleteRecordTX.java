@@ -59,6 +59,8 @@ public class JournalCompleteRecordTX extends JournalInternalRecord
    @Override
    public void encode(final HornetQBuffer buffer)
    {
+      int start = buffer.writerIndex();
+
       if (txRecordType == TX_RECORD_TYPE.COMMIT)
       {
          buffer.writeByte(JournalImpl.COMMIT_RECORD);
@@ -86,6 +88,8 @@ public class JournalCompleteRecordTX extends JournalInternalRecord
          transactionData.encode(buffer);
       }
 
+      writeChecksum(buffer, start);
+
       buffer.writeInt(getEncodeSize());
    }
 
@@ -106,11 +110,13 @@ public class JournalCompleteRecordTX extends JournalInternalRecord
    {
       if (txRecordType == TX_RECORD_TYPE.COMMIT)
       {
-         return JournalImpl.SIZE_COMPLETE_TRANSACTION_RECORD + 1;
+         return JournalImpl.SIZE_COMPLETE_TRANSACTION_RECORD + 1 + getChecksumSize();
       }
       else
       {
-         return JournalImpl.SIZE_PREPARE_RECORD + (transactionData != null ? transactionData.getEncodeSize() : 0) + 1;
+         return JournalImpl.SIZE_PREPARE_RECORD + (transactionData != null ? transactionData.getEncodeSize() : 0) +
+                1 +
+                getChecksumSize();
       }
    }
 }
@@ -38,6 +38,8 @@ public class JournalDeleteRecord extends JournalInternalRecord
 
    public void encode(final HornetQBuffer buffer)
    {
+      int start = buffer.writerIndex();
+
       buffer.writeByte(JournalImpl.DELETE_RECORD);
 
       buffer.writeInt(fileID);
@@ -46,12 +48,14 @@ public class JournalDeleteRecord extends JournalInternalRecord
 
       buffer.writeLong(id);
 
+      writeChecksum(buffer, start);
+
       buffer.writeInt(getEncodeSize());
    }
 
    @Override
    public int getEncodeSize()
    {
-      return JournalImpl.SIZE_DELETE_RECORD + 1;
+      return JournalImpl.SIZE_DELETE_RECORD + 1 + getChecksumSize();
    }
 }
@@ -52,6 +52,8 @@ public class JournalDeleteRecordTX extends JournalInternalRecord
     */
    public void encode(final HornetQBuffer buffer)
    {
+      int start = buffer.writerIndex();
+
       buffer.writeByte(JournalImpl.DELETE_RECORD_TX);
 
       buffer.writeInt(fileID);
@@ -69,12 +71,14 @@ public class JournalDeleteRecordTX extends JournalInternalRecord
          record.encode(buffer);
       }
 
+      writeChecksum(buffer, start);
+
       buffer.writeInt(getEncodeSize());
    }
 
    @Override
    public int getEncodeSize()
    {
-      return JournalImpl.SIZE_DELETE_RECORD_TX + (record != null ? record.getEncodeSize() : 0) + 1;
+      return JournalImpl.SIZE_DELETE_RECORD_TX + (record != null ? record.getEncodeSize() : 0) + 1 + getChecksumSize();
    }
 }
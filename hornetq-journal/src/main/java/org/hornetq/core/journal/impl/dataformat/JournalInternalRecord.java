@@ -13,8 +13,12 @@
 
 package org.hornetq.core.journal.impl.dataformat;
 
+import java.util.zip.CRC32;
+
 import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.core.journal.EncodingSupport;
+import org.hornetq.utils.DataConstants;
+import org.jboss.netty.buffer.ChannelBuffer;
 
 /**
  * A InternalEncoder
@@ -30,6 +34,8 @@ public abstract class JournalInternalRecord implements EncodingSupport
 
    protected byte compactCount;
 
+   protected boolean checksum;
+
    public int getFileID()
    {
       return fileID;
@@ -70,5 +76,55 @@ public abstract class JournalInternalRecord implements EncodingSupport
       }
    }
 
+   public boolean isChecksum()
+   {
+      return checksum;
+   }
+
+   /**
+    * Records written on files of the {@link org.hornetq.core.journal.impl.JournalImpl#CHECKSUM_FORMAT_VERSION} carry a
+    * checksum of their contents just before the check size.
+    */
+   public void setChecksum(final boolean checksum)
+   {
+      this.checksum = checksum;
+   }
+
    public abstract int getEncodeSize();
+
+   protected int getChecksumSize()
+   {
+      return checksum ? DataConstants.SIZE_INT : 0;
+   }
+
+   /**
+    * Writes the checksum of what was encoded since {@code start}, if this record has one.
+    */
+   protected void writeChecksum(final HornetQBuffer buffer, final int start)
+   {
+      if (checksum)
+      {
+         buffer.writeInt(JournalInternalRecord.checksum(buffer, start, buffer.writerIndex() - start));
+      }
+   }
+
+   public static int checksum(final HornetQBuffer buffer, final int start, final int length)
+   {
+      CRC32 crc = new CRC32();
+
+      ChannelBuffer channel = buffer.channelBuffer();
+
+      if (channel.hasArray())
+      {
+         crc.update(channel.array(), channel.arrayOffset() + start, length);
+      }
+      else
+      {
+         byte[] bytes = new byte[length];
+         buffer.getBytes(start, bytes);
+         crc.update(bytes);
+      }
+
+      return (int)crc.getValue();
+   }
 }
@@ -37,17 +37,20 @@ public class JournalRollbackRecordTX extends JournalInternalRecord
     */
    public void encode(final HornetQBuffer buffer)
    {
+      int start = buffer.writerIndex();
+
       buffer.writeByte(JournalImpl.ROLLBACK_RECORD);
       buffer.writeInt(fileID);
       buffer.writeByte(compactCount);
       buffer.writeLong(txID);
-      buffer.writeInt(JournalImpl.SIZE_ROLLBACK_RECORD + 1);
+      writeChecksum(buffer, start);
+      buffer.writeInt(getEncodeSize());
 
    }
 
    @Override
    public int getEncodeSize()
    {
-      return JournalImpl.SIZE_ROLLBACK_RECORD + 1;
+      return JournalImpl.SIZE_ROLLBACK_RECORD + 1 + getChecksumSize();
    }
 }
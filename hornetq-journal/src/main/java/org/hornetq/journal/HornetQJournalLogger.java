@@ -253,6 +253,16 @@ public interface HornetQJournalLogger extends BasicLogger
    @Message(id = 142035, value = "Exception on submitting write", format = Message.Format.MESSAGE_FORMAT)
    void errorSubmittingWrite(@Cause Throwable e);
 
+   @LogMessage(level = Logger.Level.WARN)
+   @Message(id = 142036, value = "Record at position {1} of file {0} does not match its checksum, ignoring it and the rest of the file",
+            format = Message.Format.MESSAGE_FORMAT)
+   void journalChecksumMismatch(String fileName, int position);
+
+   @LogMessage(level = Logger.Level.WARN)
+   @Message(id = 142037, value = "Error moving journal file {0} to the data file directory, it will be tried again later",
+            format = Message.Format.MESSAGE_FORMAT)
+   void errorMigratingFile(@Cause Throwable e, String fileName);
+
    @LogMessage(level = Logger.Level.ERROR)
    @Message(id = 144001, value = "Failed to delete file {0}", format = Message.Format.MESSAGE_FORMAT)
    void errorDeletingFile(Object e);
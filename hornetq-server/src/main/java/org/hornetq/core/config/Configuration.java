@@ -517,6 +517,31 @@ public interface Configuration extends Serializable
     */
    void setJournalSyncNonTransactional(boolean sync);
 
+   /**
+    * Returns whether the commit records of transactions committed concurrently are written to the journal together,
+    * with a single sync, when the journal is synchronized on transactional data.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_JOURNAL_GROUP_COMMIT}.
+    */
+   boolean isJournalGroupCommit();
+
+   /**
+    * Sets whether the commit records of transactions committed concurrently are written to the journal together.
+    */
+   void setJournalGroupCommit(boolean groupCommit);
+
+   /**
+    * Returns the longest time (in nanoseconds) a group of commits waits for more commits before it is written.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_JOURNAL_GROUP_COMMIT_WINDOW}.
+    */
+   int getJournalGroupCommitWindow();
+
+   /**
+    * Sets the longest time (in nanoseconds) a group of commits waits for more commits before it is written.
+    */
+   void setJournalGroupCommitWindow(int window);
+
    /**
     * Returns the size (in bytes) of each journal files.
     * <br>
@@ -553,6 +578,82 @@ public interface Configuration extends Serializable
     */
    void setJournalCompactPercentage(int percentage);
 
+   /**
+    * Returns the number of threads used to read the journal files when the server starts.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_JOURNAL_LOAD_THREADS}.
+    */
+   int getJournalLoadThreads();
+
+   /**
+    * Sets the number of threads used to read the journal files when the server starts.
+    */
+   void setJournalLoadThreads(int threads);
+
+   /**
+    * Returns the maximum number of journal files rewritten by one compaction, 0 meaning that the whole journal is
+    * compacted at once.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_JOURNAL_COMPACT_MAX_FILES}.
+    */
+   int getJournalCompactMaxFiles();
+
+   /**
+    * Sets the maximum number of journal files rewritten by one compaction.
+    */
+   void setJournalCompactMaxFiles(int maxFiles);
+
+   /**
+    * Returns the longest time (in milliseconds) an incremental compaction blocks the journal at once.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_JOURNAL_COMPACT_MAX_PAUSE}.
+    */
+   long getJournalCompactMaxPause();
+
+   /**
+    * Sets the longest time (in milliseconds) an incremental compaction blocks the journal at once.
+    */
+   void setJournalCompactMaxPause(long maxPause);
+
+   /**
+    * Returns whether the journal files store a checksum with every record, checked when the journal is loaded.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_JOURNAL_CHECKSUMS}.
+    */
+   boolean isJournalChecksums();
+
+   /**
+    * Sets whether the journal files store a checksum with every record.
+    */
+   void setJournalChecksums(boolean checksums);
+
+   /**
+    * Returns the file system directory the journal records are written to, when it isn't the journal directory.
+    * <br>
+    * The closed journal files are moved from this directory to the journal directory in the background, so this
+    * directory can be on a small and fast device. Default value is {@code null}: the records are written to the
+    * journal directory.
+    */
+   String getJournalWalDirectory();
+
+   /**
+    * Sets the file system directory the journal records are written to.
+    */
+   void setJournalWalDirectory(String dir);
+
+   /**
+    * Returns the number of closed journal files kept on the journal WAL directory before being moved to the journal
+    * directory.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_JOURNAL_WAL_MAX_FILES}.
+    */
+   int getJournalWalMaxFiles();
+
+   /**
+    * Sets the number of closed journal files kept on the journal WAL directory.
+    */
+   void setJournalWalMaxFiles(int maxFiles);
+
    /**
     * Returns the number of journal files to pre-create.
     * <br>
@@ -639,6 +740,55 @@ public interface Configuration extends Serializable
     */
    void setJournalBufferSize_NIO(int journalBufferSize);
 
+   /**
+    * Returns whether the journal buffer lets concurrent writers append without sharing a lock.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_JOURNAL_CONCURRENT_BUFFER}.
+    */
+   boolean isJournalConcurrentBuffer();
+
+   /**
+    * Sets whether the journal buffer lets concurrent writers append without sharing a lock.
+    */
+   void setJournalConcurrentBuffer(boolean concurrentBuffer);
+
+   /**
+    * Returns whether the timeout of the journal buffer is chosen from the measured flush latency and arrival rate,
+    * between {@link #getJournalBufferTimeoutMin()} and {@link #getJournalBufferTimeoutMax()}.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_JOURNAL_BUFFER_TIMEOUT_ADAPTIVE}.
+    */
+   boolean isJournalBufferTimeoutAdaptive();
+
+   /**
+    * Sets whether the timeout of the journal buffer is chosen from the measured flush latency and arrival rate.
+    */
+   void setJournalBufferTimeoutAdaptive(boolean adaptive);
+
+   /**
+    * Returns the smallest timeout (in nanoseconds) an adaptive journal buffer can use.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_JOURNAL_BUFFER_TIMEOUT_MIN}.
+    */
+   int getJournalBufferTimeoutMin();
+
+   /**
+    * Sets the smallest timeout (in nanoseconds) an adaptive journal buffer can use.
+    */
+   void setJournalBufferTimeoutMin(int timeout);
+
+   /**
+    * Returns the largest timeout (in nanoseconds) an adaptive journal buffer can use.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_JOURNAL_BUFFER_TIMEOUT_MAX}.
+    */
+   int getJournalBufferTimeoutMax();
+
+   /**
+    * Sets the largest timeout (in nanoseconds) an adaptive journal buffer can use.
+    */
+   void setJournalBufferTimeoutMax(int timeout);
+
    /**
     * Returns whether the bindings directory is created on this server startup.
     * <br>
@@ -703,6 +853,19 @@ public interface Configuration extends Serializable
     */
    void setPagingDirectory(String dir);
 
+   /**
+    * Returns the maximum number of bytes the messages of all the addresses can take up in memory, {@code -1} for no
+    * limit. Once it is reached the addresses using the PAGE policy start paging, the largest ones first.
+    * <br>
+    * Default value is {@value org.hornetq.api.config.HornetQDefaultConfiguration#DEFAULT_GLOBAL_MAX_SIZE}.
+    */
+   long getGlobalMaxSize();
+
+   /**
+    * Sets the maximum number of bytes the messages of all the addresses can take up in memory.
+    */
+   void setGlobalMaxSize(long maxSize);
+
    // Large Messages Properties ------------------------------------------------------------
 
    /**
@@ -118,6 +118,8 @@ public class ConfigurationImpl implements Configuration
 
    private String pagingDirectory = HornetQDefaultConfiguration.DEFAULT_PAGING_DIR;
 
+   private long globalMaxSize = HornetQDefaultConfiguration.DEFAULT_GLOBAL_MAX_SIZE;
+
    // File related attributes -----------------------------------------------------------
 
    private int maxConcurrentPageIO = HornetQDefaultConfiguration.DEFAULT_MAX_CONCURRENT_PAGE_IO;
@@ -138,10 +140,26 @@ public class ConfigurationImpl implements Configuration
 
    protected boolean journalSyncNonTransactional = HornetQDefaultConfiguration.DEFAULT_JOURNAL_SYNC_NON_TRANSACTIONAL;
 
+   protected boolean journalGroupCommit = HornetQDefaultConfiguration.DEFAULT_JOURNAL_GROUP_COMMIT;
+
+   protected int journalGroupCommitWindow = HornetQDefaultConfiguration.DEFAULT_JOURNAL_GROUP_COMMIT_WINDOW;
+
    protected int journalCompactMinFiles = HornetQDefaultConfiguration.DEFAULT_JOURNAL_COMPACT_MIN_FILES;
 
    protected int journalCompactPercentage = HornetQDefaultConfiguration.DEFAULT_JOURNAL_COMPACT_PERCENTAGE;
 
+   protected int journalLoadThreads = HornetQDefaultConfiguration.DEFAULT_JOURNAL_LOAD_THREADS;
+
+   protected int journalCompactMaxFiles = HornetQDefaultConfiguration.DEFAULT_JOURNAL_COMPACT_MAX_FILES;
+
+   protected long journalCompactMaxPause = HornetQDefaultConfiguration.DEFAULT_JOURNAL_COMPACT_MAX_PAUSE;
+
+   protected boolean journalChecksums = HornetQDefaultConfiguration.DEFAULT_JOURNAL_CHECKSUMS;
+
+   protected String journalWalDirectory = null;
+
+   protected int journalWalMaxFiles = HornetQDefaultConfiguration.DEFAULT_JOURNAL_WAL_MAX_FILES;
+
    protected int journalFileSize = HornetQDefaultConfiguration.DEFAULT_JOURNAL_FILE_SIZE;
 
    protected int journalMinFiles = HornetQDefaultConfiguration.DEFAULT_JOURNAL_MIN_FILES;
@@ -162,6 +180,14 @@ public class ConfigurationImpl implements Configuration
 
    protected boolean logJournalWriteRate = HornetQDefaultConfiguration.DEFAULT_JOURNAL_LOG_WRITE_RATE;
 
+   protected boolean journalConcurrentBuffer = HornetQDefaultConfiguration.DEFAULT_JOURNAL_CONCURRENT_BUFFER;
+
+   protected boolean journalBufferTimeoutAdaptive = HornetQDefaultConfiguration.DEFAULT_JOURNAL_BUFFER_TIMEOUT_ADAPTIVE;
+
+   protected int journalBufferTimeoutMin = HornetQDefaultConfiguration.DEFAULT_JOURNAL_BUFFER_TIMEOUT_MIN;
+
+   protected int journalBufferTimeoutMax = HornetQDefaultConfiguration.DEFAULT_JOURNAL_BUFFER_TIMEOUT_MAX;
+
    protected int journalPerfBlastPages = HornetQDefaultConfiguration.DEFAULT_JOURNAL_PERF_BLAST_PAGES;
 
    protected boolean runSyncSpeedTest = HornetQDefaultConfiguration.DEFAULT_RUN_SYNC_SPEED_TEST;
@@ -516,6 +542,16 @@ public class ConfigurationImpl implements Configuration
       return pagingDirectory;
    }
 
+   public long getGlobalMaxSize()
+   {
+      return globalMaxSize;
+   }
+
+   public void setGlobalMaxSize(final long maxSize)
+   {
+      globalMaxSize = maxSize;
+   }
+
    public void setJournalType(final JournalType type)
    {
       journalType = type;
@@ -541,6 +577,26 @@ public class ConfigurationImpl implements Configuration
       journalSyncNonTransactional = sync;
    }
 
+   public boolean isJournalGroupCommit()
+   {
+      return journalGroupCommit;
+   }
+
+   public void setJournalGroupCommit(final boolean groupCommit)
+   {
+      journalGroupCommit = groupCommit;
+   }
+
+   public int getJournalGroupCommitWindow()
+   {
+      return journalGroupCommitWindow;
+   }
+
+   public void setJournalGroupCommitWindow(final int window)
+   {
+      journalGroupCommitWindow = window;
+   }
+
    public int getJournalFileSize()
    {
       return journalFileSize;
@@ -571,6 +627,46 @@ public class ConfigurationImpl implements Configuration
       this.logJournalWriteRate = logJournalWriteRate;
    }
 
+   public boolean isJournalConcurrentBuffer()
+   {
+      return journalConcurrentBuffer;
+   }
+
+   public void setJournalConcurrentBuffer(final boolean concurrentBuffer)
+   {
+      journalConcurrentBuffer = concurrentBuffer;
+   }
+
+   public boolean isJournalBufferTimeoutAdaptive()
+   {
+      return journalBufferTimeoutAdaptive;
+   }
+
+   public void setJournalBufferTimeoutAdaptive(final boolean adaptive)
+   {
+      journalBufferTimeoutAdaptive = adaptive;
+   }
+
+   public int getJournalBufferTimeoutMin()
+   {
+      return journalBufferTimeoutMin;
+   }
+
+   public void setJournalBufferTimeoutMin(final int timeout)
+   {
+      journalBufferTimeoutMin = timeout;
+   }
+
+   public int getJournalBufferTimeoutMax()
+   {
+      return journalBufferTimeoutMax;
+   }
+
+   public void setJournalBufferTimeoutMax(final int timeout)
+   {
+      journalBufferTimeoutMax = timeout;
+   }
+
    public int getJournalPerfBlastPages()
    {
       return journalPerfBlastPages;
@@ -801,6 +897,66 @@ public class ConfigurationImpl implements Configuration
       journalCompactPercentage = percentage;
    }
 
+   public int getJournalLoadThreads()
+   {
+      return journalLoadThreads;
+   }
+
+   public void setJournalLoadThreads(final int threads)
+   {
+      journalLoadThreads = threads;
+   }
+
+   public int getJournalCompactMaxFiles()
+   {
+      return journalCompactMaxFiles;
+   }
+
+   public void setJournalCompactMaxFiles(final int maxFiles)
+   {
+      journalCompactMaxFiles = maxFiles;
+   }
+
+   public long getJournalCompactMaxPause()
+   {
+      return journalCompactMaxPause;
+   }
+
+   public void setJournalCompactMaxPause(final long maxPause)
+   {
+      journalCompactMaxPause = maxPause;
+   }
+
+   public boolean isJournalChecksums()
+   {
+      return journalChecksums;
+   }
+
+   public void setJournalChecksums(final boolean checksums)
+   {
+      journalChecksums = checksums;
+   }
+
+   public String getJournalWalDirectory()
+   {
+      return journalWalDirectory;
+   }
+
+   public void setJournalWalDirectory(final String dir)
+   {
+      journalWalDirectory = dir;
+   }
+
+   public int getJournalWalMaxFiles()
+   {
+      return journalWalMaxFiles;
+   }
+
+   public void setJournalWalMaxFiles(final int maxFiles)
+   {
+      journalWalMaxFiles = maxFiles;
+   }
+
    public long getServerDumpInterval()
    {
       return serverDumpInterval;
@@ -991,6 +1147,37 @@ public class ConfigurationImpl implements Configuration
       {
          return false;
       }
+      if (journalLoadThreads != other.journalLoadThreads)
+      {
+         return false;
+      }
+      if (journalCompactMaxFiles != other.journalCompactMaxFiles)
+      {
+         return false;
+      }
+      if (journalCompactMaxPause != other.journalCompactMaxPause)
+      {
+         return false;
+      }
+      if (journalChecksums != other.journalChecksums)
+      {
+         return false;
+      }
+      if (journalWalDirectory == null)
+      {
+         if (other.journalWalDirectory != null)
+         {
+            return false;
+         }
+      }
+      else if (!journalWalDirectory.equals(other.journalWalDirectory))
+      {
+         return false;
+      }
+      if (journalWalMaxFiles != other.journalWalMaxFiles)
+      {
+         return false;
+      }
       if (journalDirectory == null)
       {
          if (other.journalDirectory != null)
@@ -1019,6 +1206,14 @@ public class ConfigurationImpl implements Configuration
       {
          return false;
       }
+      if (journalGroupCommit != other.journalGroupCommit)
+      {
+         return false;
+      }
+      if (journalGroupCommitWindow != other.journalGroupCommitWindow)
+      {
+         return false;
+      }
       if (journalSyncTransactional != other.journalSyncTransactional)
       {
          return false;
@@ -1049,6 +1244,22 @@ public class ConfigurationImpl implements Configuration
       {
          return false;
       }
+      if (journalConcurrentBuffer != other.journalConcurrentBuffer)
+      {
+         return false;
+      }
+      if (journalBufferTimeoutAdaptive != other.journalBufferTimeoutAdaptive)
+      {
+         return false;
+      }
+      if (journalBufferTimeoutMin != other.journalBufferTimeoutMin)
+      {
+         return false;
+      }
+      if (journalBufferTimeoutMax != other.journalBufferTimeoutMax)
+      {
+         return false;
+      }
       if (managementAddress == null)
       {
          if (other.managementAddress != null)
@@ -1117,6 +1328,10 @@ public class ConfigurationImpl implements Configuration
       {
          return false;
       }
+      if (globalMaxSize != other.globalMaxSize)
+      {
+         return false;
+      }
       if (pagingDirectory == null)
       {
          if (other.pagingDirectory != null)
@@ -136,6 +136,10 @@ public final class FileConfigurationParser
 
    private static final String SEND_TO_DLA_ON_NO_ROUTE = "send-to-dla-on-no-route";
 
+   private static final String QUEUE_SHARDS_NODE_NAME = "queue-shards";
+
+   private static final String DELIVERY_BATCH_SIZE_NODE_NAME = "delivery-batch-size";
+
    // Attributes ----------------------------------------------------
 
    private boolean validateAIO = false;
@@ -467,6 +471,11 @@ public final class FileConfigurationParser
                                                                config.getPagingDirectory(),
                                                                Validators.NOT_NULL_OR_EMPTY));
 
+      config.setGlobalMaxSize(XMLConfigurationUtil.getLong(e,
+                                                           "global-max-size",
+                                                           config.getGlobalMaxSize(),
+                                                           Validators.MINUS_ONE_OR_GT_ZERO));
+
       config.setCreateJournalDir(XMLConfigurationUtil.getBoolean(e, "create-journal-dir", config.isCreateJournalDir()));
 
       String s = XMLConfigurationUtil.getString(e,
@@ -478,6 +487,10 @@ public final class FileConfigurationParser
       {
          config.setJournalType(JournalType.NIO);
       }
+      else if (s.equals(JournalType.MAPPED.toString()))
+      {
+         config.setJournalType(JournalType.MAPPED);
+      }
       else if (s.equals(JournalType.ASYNCIO.toString()))
       {
          // https://jira.jboss.org/jira/browse/HORNETQ-295
@@ -509,6 +522,15 @@ public final class FileConfigurationParser
                                                                             "journal-sync-non-transactional",
                                                                             config.isJournalSyncNonTransactional()));
 
+      config.setJournalGroupCommit(XMLConfigurationUtil.getBoolean(e,
+                                                                   "journal-group-commit",
+                                                                   config.isJournalGroupCommit()));
+
+      config.setJournalGroupCommitWindow(XMLConfigurationUtil.getInteger(e,
+                                                                         "journal-group-commit-window",
+                                                                         config.getJournalGroupCommitWindow(),
+                                                                         Validators.GE_ZERO));
+
       config.setJournalFileSize(XMLConfigurationUtil.getInteger(e,
                                                                 "journal-file-size",
                                                                 config.getJournalFileSize(),
@@ -545,6 +567,24 @@ public final class FileConfigurationParser
          config.setJournalMaxIO_NIO(journalMaxIO);
       }
 
+      config.setJournalConcurrentBuffer(XMLConfigurationUtil.getBoolean(e,
+                                                                        "journal-concurrent-buffer",
+                                                                        config.isJournalConcurrentBuffer()));
+
+      config.setJournalBufferTimeoutAdaptive(XMLConfigurationUtil.getBoolean(e,
+                                                                             "journal-buffer-timeout-adaptive",
+                                                                             config.isJournalBufferTimeoutAdaptive()));
+
+      config.setJournalBufferTimeoutMin(XMLConfigurationUtil.getInteger(e,
+                                                                        "journal-buffer-timeout-min",
+                                                                        config.getJournalBufferTimeoutMin(),
+                                                                        Validators.GT_ZERO));
+
+      config.setJournalBufferTimeoutMax(XMLConfigurationUtil.getInteger(e,
+                                                                        "journal-buffer-timeout-max",
+                                                                        config.getJournalBufferTimeoutMax(),
+                                                                        Validators.GT_ZERO));
+
       config.setJournalMinFiles(XMLConfigurationUtil.getInteger(e,
                                                                 "journal-min-files",
                                                                 config.getJournalMinFiles(),
@@ -560,6 +600,35 @@ public final class FileConfigurationParser
                                                                          config.getJournalCompactPercentage(),
                                                                          Validators.PERCENTAGE));
 
+      config.setJournalLoadThreads(XMLConfigurationUtil.getInteger(e,
+                                                                   "journal-load-threads",
+                                                                   config.getJournalLoadThreads(),
+                                                                   Validators.GT_ZERO));
+
+      config.setJournalCompactMaxFiles(XMLConfigurationUtil.getInteger(e,
+                                                                       "journal-compact-max-files",
+                                                                       config.getJournalCompactMaxFiles(),
+                                                                       Validators.GE_ZERO));
+
+      config.setJournalCompactMaxPause(XMLConfigurationUtil.getLong(e,
+                                                                    "journal-compact-max-pause",
+                                                                    config.getJournalCompactMaxPause(),
+                                                                    Validators.GT_ZERO));
+
+      config.setJournalChecksums(XMLConfigurationUtil.getBoolean(e,
+                                                                 "journal-checksums",
+                                                                 config.isJournalChecksums()));
+
+      config.setJournalWalDirectory(XMLConfigurationUtil.getString(e,
+                                                                   "journal-wal-directory",
+                                                                   config.getJournalWalDirectory(),
+                                                                   Validators.NO_CHECK));
+
+      config.setJournalWalMaxFiles(XMLConfigurationUtil.getInteger(e,
+                                                                   "journal-wal-max-files",
+                                                                   config.getJournalWalMaxFiles(),
+                                                                   Validators.GE_ZERO));
+
       config.setLogJournalWriteRate(XMLConfigurationUtil.getBoolean(e,
                                                                     "log-journal-write-rate",
                                                                     HornetQDefaultConfiguration.DEFAULT_JOURNAL_LOG_WRITE_RATE));
@@ -879,6 +948,14 @@ public final class FileConfigurationParser
          {
             addressSettings.setSendToDLAOnNoRoute(Boolean.valueOf(child.getTextContent().trim()));
          }
+         else if (FileConfigurationParser.QUEUE_SHARDS_NODE_NAME.equalsIgnoreCase(child.getNodeName()))
+         {
+            addressSettings.setQueueShards(Integer.valueOf(child.getTextContent().trim()));
+         }
+         else if (FileConfigurationParser.DELIVERY_BATCH_SIZE_NODE_NAME.equalsIgnoreCase(child.getNodeName()))
+         {
+            addressSettings.setDeliveryBatchSize(Integer.valueOf(child.getTextContent().trim()));
+         }
       }
       return setting;
    }
@@ -0,0 +1,1288 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.filter.impl;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hornetq.api.core.FilterConstants;
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.server.ServerMessage;
+
+/**
+ * Compiles the expression parsed by the {@link FilterParser} into a tree of evaluators.
+ * <p>
+ * The evaluators give the results {@link Operator#apply()} gives, but they keep no state between the evaluations, so a
+ * filter can be matched by many threads at once, and they compare the values as primitives or as the objects read from
+ * the message, so a match doesn't allocate. Only the arithmetic on the properties and the {@code LIKE} on strings with
+ * line terminators or surrogates go through boxed values or {@link String}s.
+ *
+ * @see Operator
+ */
+final class FilterCompiler
+{
+   // The results of a condition, SQL's three valued logic
+
+   static final int FALSE = 0;
+
+   static final int TRUE = 1;
+
+   static final int UNKNOWN = 2;
+
+   // The types of the values, the ones the Operator uses
+
+   private static final int NULL = 0;
+
+   private static final int DOUBLE = Operator.DOUBLE;
+
+   private static final int LONG = Operator.LONG;
+
+   private static final int BOOLEAN = Operator.BOOLEAN;
+
+   private static final int SIMPLE_STRING = Operator.SIMPLE_STRING;
+
+   private FilterCompiler()
+   {
+   }
+
+   /**
+    * @return the condition a message has to meet for the filter with the parsed expression to match it
+    */
+   static Condition compile(final Object expression)
+   {
+      if (expression instanceof Identifier)
+      {
+         // The value of the property is the result, without any conversion
+         return new IdentifierCondition(compileIdentifier((Identifier)expression));
+      }
+      else if (expression instanceof Operator)
+      {
+         return compileCondition(expression);
+      }
+      else
+      {
+         // The parser gives a literal for TRUE or FALSE, that never matched anything
+         return new ConstantCondition(FALSE);
+      }
+   }
+
+   private static Condition compileCondition(final Object expression)
+   {
+      if (expression != null && expression.getClass() == Operator.class)
+      {
+         Operator operator = (Operator)expression;
+
+         switch (operator.operation)
+         {
+            case Operator.AND:
+               return new And(compileCondition(operator.oper1), compileCondition(operator.oper2));
+            case Operator.OR:
+               return new Or(compileCondition(operator.oper1), compileCondition(operator.oper2));
+            case Operator.NOT:
+               return new Not(compileCondition(operator.oper1));
+            case Operator.EQUAL:
+            case Operator.DIFFERENT:
+            case Operator.GT:
+            case Operator.GE:
+            case Operator.LT:
+            case Operator.LE:
+               return new Comparison(operator.operation,
+                                     compileValue(operator.oper1),
+                                     compileValue(operator.oper2));
+            case Operator.BETWEEN:
+            {
+               Value value = compileValue(operator.oper1);
+               return new Between(false,
+                                  new Comparison(Operator.GE, value, compileValue(operator.oper2)),
+                                  new Comparison(Operator.LE, value, compileValue(operator.oper3)));
+            }
+            case Operator.NOT_BETWEEN:
+            {
+               Value value = compileValue(operator.oper1);
+               return new Between(true,
+                                  new Comparison(Operator.LT, value, compileValue(operator.oper2)),
+                                  new Comparison(Operator.GT, value, compileValue(operator.oper3)));
+            }
+            case Operator.LIKE:
+            case Operator.NOT_LIKE:
+            case Operator.LIKE_ESCAPE:
+            case Operator.NOT_LIKE_ESCAPE:
+               return compileLike(operator);
+            case Operator.IN:
+            case Operator.NOT_IN:
+            {
+               @SuppressWarnings("unchecked")
+               Set<SimpleString> set = (Set<SimpleString>)operator.oper2;
+               return new In(operator.operation == Operator.NOT_IN, compileValue(operator.oper1), set);
+            }
+            case Operator.IS_NULL:
+               return new IsNull(false, compileValue(operator.oper1));
+            case Operator.IS_NOT_NULL:
+               return new IsNull(true, compileValue(operator.oper1));
+            default:
+               // An arithmetic expression, that isn't a boolean
+               break;
+         }
+      }
+
+      return new ValueCondition(compileValue(expression));
+   }
+
+   private static Value compileValue(final Object expression)
+   {
+      if (expression == null)
+      {
+         return new Literal(null);
+      }
+
+      if (expression.getClass() == Identifier.class)
+      {
+         return compileIdentifier((Identifier)expression);
+      }
+
+      if (expression.getClass() == Operator.class)
+      {
+         Operator operator = (Operator)expression;
+
+         switch (operator.operation)
+         {
+            case Operator.ADD:
+            case Operator.SUB:
+            case Operator.MUL:
+            case Operator.DIV:
+               return new Arithmetic(operator.operation, compileValue(operator.oper1), compileValue(operator.oper2));
+            case Operator.NEG:
+               return new Negation(compileValue(operator.oper1));
+            default:
+               return new ConditionValue(compileCondition(operator));
+         }
+      }
+
+      return new Literal(expression);
+   }
+
+   private static Value compileIdentifier(final Identifier identifier)
+   {
+      SimpleString name = identifier.getName();
+
+      if (name.startsWith(FilterConstants.HORNETQ_PREFIX))
+      {
+         if (FilterConstants.HORNETQ_USERID.equals(name))
+         {
+            return new UserID();
+         }
+         else if (FilterConstants.HORNETQ_DURABLE.equals(name))
+         {
+            return new Durable();
+         }
+         else if (FilterConstants.HORNETQ_PRIORITY.equals(name))
+         {
+            return new LongHeader(FilterConstants.HORNETQ_PRIORITY);
+         }
+         else if (FilterConstants.HORNETQ_TIMESTAMP.equals(name))
+         {
+            return new LongHeader(FilterConstants.HORNETQ_TIMESTAMP);
+         }
+         else if (FilterConstants.HORNETQ_EXPIRATION.equals(name))
+         {
+            return new LongHeader(FilterConstants.HORNETQ_EXPIRATION);
+         }
+         else if (FilterConstants.HORNETQ_SIZE.equals(name))
+         {
+            return new LongHeader(FilterConstants.HORNETQ_SIZE);
+         }
+      }
+
+      return new Property(name);
+   }
+
+   private static Condition compileLike(final Operator operator)
+   {
+      boolean not = operator.operation == Operator.NOT_LIKE || operator.operation == Operator.NOT_LIKE_ESCAPE;
+
+      boolean escape = operator.operation == Operator.LIKE_ESCAPE || operator.operation == Operator.NOT_LIKE_ESCAPE;
+
+      if (!(operator.oper2 instanceof SimpleString) || escape && !(operator.oper3 instanceof SimpleString))
+      {
+         throw new IllegalArgumentException("LIKE needs string literals: " + operator);
+      }
+
+      SimpleString pattern = (SimpleString)operator.oper2;
+
+      Character escapeChar = null;
+
+      String invalid = null;
+
+      if (escape)
+      {
+         SimpleString escapeString = (SimpleString)operator.oper3;
+
+         if (escapeString.length() == 1)
+         {
+            escapeChar = Character.valueOf(escapeString.charAt(0));
+         }
+         else
+         {
+            invalid = "LIKE ESCAPE: Bad escape character " + escapeString;
+         }
+      }
+
+      RegExp regExp = null;
+
+      if (invalid == null)
+      {
+         try
+         {
+            regExp = new RegExp(pattern.toString(), escapeChar);
+         }
+         catch (Exception e)
+         {
+            invalid = e.getMessage();
+         }
+      }
+
+      return new Like(not, compileValue(operator.oper1), pattern, escapeChar, regExp, invalid);
+   }
+
+   static int typeOf(final Object value) throws Exception
+   {
+      if (value == null)
+      {
+         return NULL;
+      }
+
+      Class<?> type = value.getClass();
+
+      if (type == SimpleString.class)
+      {
+         return SIMPLE_STRING;
+      }
+      else if (type == Double.class || type == Float.class)
+      {
+         return DOUBLE;
+      }
+      else if (type == Long.class || type == Integer.class || type == Short.class || type == Byte.class)
+      {
+         return LONG;
+      }
+      else if (type == Boolean.class)
+      {
+         return BOOLEAN;
+      }
+      else
+      {
+         throw new Exception("Bad Object: '" + type.getName() + "'");
+      }
+   }
+
+   private static Exception badObject(final int type, final Object expression)
+   {
+      return new Exception("Bad Object: '" + Operator.getClassName(type) + "' for operation: " + expression);
+   }
+
+   private static int valueOf(final boolean result)
+   {
+      return result ? TRUE : FALSE;
+   }
+
+   // Conditions -----------------------------------------------------------------------------------------------------
+
+   abstract static class Condition
+   {
+      /**
+       * @return {@link FilterCompiler#TRUE}, {@link FilterCompiler#FALSE} or {@link FilterCompiler#UNKNOWN}
+       * @throws Exception if a value has a type the condition can't work on, the match then fails
+       */
+      abstract int evaluate(ServerMessage message) throws Exception;
+   }
+
+   private static final class ConstantCondition extends Condition
+   {
+      private final int result;
+
+      ConstantCondition(final int result)
+      {
+         this.result = result;
+      }
+
+      @Override
+      int evaluate(final ServerMessage message)
+      {
+         return result;
+      }
+   }
+
+   private static final class IdentifierCondition extends Condition
+   {
+      private final Value identifier;
+
+      IdentifierCondition(final Value identifier)
+      {
+         this.identifier = identifier;
+      }
+
+      @Override
+      int evaluate(final ServerMessage message) throws Exception
+      {
+         Object value = identifier.object(message);
+
+         return value instanceof Boolean ? valueOf((Boolean)value) : FALSE;
+      }
+   }
+
+   private static final class ValueCondition extends Condition
+   {
+      private final Value value;
+
+      ValueCondition(final Value value)
+      {
+         this.value = value;
+      }
+
+      @Override
+      int evaluate(final ServerMessage message) throws Exception
+      {
+         if (value.stored)
+         {
+            Object object = value.object(message);
+
+            int type = typeOf(object);
+
+            if (type == NULL)
+            {
+               return UNKNOWN;
+            }
+            if (type != BOOLEAN)
+            {
+               throw badObject(type, value);
+            }
+            return valueOf((Boolean)object);
+         }
+
+         int type = value.type(message);
+
+         if (type == NULL)
+         {
+            return UNKNOWN;
+         }
+         if (type != BOOLEAN)
+         {
+            throw badObject(type, value);
+         }
+         return valueOf((Boolean)value.object(message));
+      }
+   }
+
+   private static final class Not extends Condition
+   {
+      private final Condition condition;
+
+      Not(final Condition condition)
+      {
+         this.condition = condition;
+      }
+
+      @Override
+      int evaluate(final ServerMessage message) throws Exception
+      {
+         int result = condition.evaluate(message);
+
+         return result == UNKNOWN ? UNKNOWN : result == TRUE ? FALSE : TRUE;
+      }
+   }
+
+   private static final class And extends Condition
+   {
+      private final Condition left;
+
+      private final Condition right;
+
+      And(final Condition left, final Condition right)
+      {
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      int evaluate(final ServerMessage message) throws Exception
+      {
+         int result = left.evaluate(message);
+
+         if (result == FALSE)
+         {
+            return FALSE;
+         }
+
+         int other = right.evaluate(message);
+
+         if (result == UNKNOWN)
+         {
+            return other == FALSE ? FALSE : UNKNOWN;
+         }
+
+         return other;
+      }
+   }
+
+   private static final class Or extends Condition
+   {
+      private final Condition left;
+
+      private final Condition right;
+
+      Or(final Condition left, final Condition right)
+      {
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      int evaluate(final ServerMessage message) throws Exception
+      {
+         int result = left.evaluate(message);
+
+         if (result == TRUE)
+         {
+            return TRUE;
+         }
+
+         int other = right.evaluate(message);
+
+         if (other == TRUE)
+         {
+            return TRUE;
+         }
+
+         return result == FALSE && other == FALSE ? FALSE : UNKNOWN;
+      }
+   }
+
+   /**
+    * =, &lt;&gt;, &gt;, &gt;=, &lt; and &lt;=. The numbers are compared as longs when both are integral, as doubles
+    * otherwise.
+    */
+   private static final class Comparison extends Condition
+   {
+      private final int operation;
+
+      private final Value left;
+
+      private final Value right;
+
+      Comparison(final int operation, final Value left, final Value right)
+      {
+         this.operation = operation;
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      int evaluate(final ServerMessage message) throws Exception
+      {
+         // The values are read once, the stored ones straight from the message
+
+         Object object1 = null;
+         long long1 = 0;
+         double double1 = 0;
+         int type1;
+
+         if (left.stored)
+         {
+            object1 = left.object(message);
+            type1 = typeOf(object1);
+            if (type1 == LONG)
+            {
+               long1 = ((Number)object1).longValue();
+            }
+            else if (type1 == DOUBLE)
+            {
+               double1 = ((Number)object1).doubleValue();
+            }
+         }
+         else
+         {
+            type1 = left.type(message);
+            if (type1 == LONG)
+            {
+               long1 = left.longValue(message);
+            }
+            else if (type1 == DOUBLE)
+            {
+               double1 = left.doubleValue(message);
+            }
+            else if (type1 != NULL)
+            {
+               object1 = left.object(message);
+            }
+         }
+
+         // The right value is only read when the interpreter reads it, as reading it may fail
+
+         switch (operation)
+         {
+            case Operator.EQUAL:
+               if (type1 == NULL)
+               {
+                  return FALSE;
+               }
+               break;
+            case Operator.DIFFERENT:
+               break;
+            default:
+               if (type1 == NULL)
+               {
+                  return UNKNOWN;
+               }
+               if (type1 != LONG && type1 != DOUBLE)
+               {
+                  return FALSE;
+               }
+         }
+
+         Object object2 = null;
+         long long2 = 0;
+         double double2 = 0;
+         int type2;
+
+         if (right.stored)
+         {
+            object2 = right.object(message);
+            type2 = typeOf(object2);
+            if (type2 == LONG)
+            {
+               long2 = ((Number)object2).longValue();
+            }
+            else if (type2 == DOUBLE)
+            {
+               double2 = ((Number)object2).doubleValue();
+            }
+         }
+         else
+         {
+            type2 = right.type(message);
+            if (type2 == LONG)
+            {
+               long2 = right.longValue(message);
+            }
+            else if (type2 == DOUBLE)
+            {
+               double2 = right.doubleValue(message);
+            }
+            else if (type2 != NULL)
+            {
+               object2 = right.object(message);
+            }
+         }
+
+         if (type1 == NULL)
+         {
+            // only <> gets here
+            return type2 == NULL ? FALSE : TRUE;
+         }
+
+         if (type1 == LONG || type1 == DOUBLE)
+         {
+            if (type2 == NULL)
+            {
+               return UNKNOWN;
+            }
+            if (type2 != LONG && type2 != DOUBLE)
+            {
+               return FALSE;
+            }
+            if (type1 == LONG && type2 == LONG)
+            {
+               return compare(long1 < long2 ? -1 : long1 == long2 ? 0 : 1);
+            }
+
+            double value1 = type1 == LONG ? long1 : double1;
+            double value2 = type2 == LONG ? long2 : double2;
+
+            if (operation == Operator.EQUAL)
+            {
+               return valueOf(value1 == value2);
+            }
+            if (operation == Operator.DIFFERENT)
+            {
+               return valueOf(value1 != value2);
+            }
+            if (value1 != value1 || value2 != value2)
+            {
+               // NaN, every comparison but <> is false
+               return FALSE;
+            }
+            return compare(value1 < value2 ? -1 : value1 == value2 ? 0 : 1);
+         }
+
+         // strings and booleans, only for = and <>
+
+         if (type2 == NULL)
+         {
+            return operation == Operator.EQUAL ? FALSE : UNKNOWN;
+         }
+         if (type2 != type1)
+         {
+            throw new Exception("Bad Object: expected '" + Operator.getClassName(type1) +
+                                "' got '" +
+                                Operator.getClassName(type2) +
+                                "' for operation: " +
+                                Operator.operationString(operation));
+         }
+
+         boolean equal = object1.equals(object2);
+
+         return valueOf(operation == Operator.EQUAL ? equal : !equal);
+      }
+
+      private int compare(final int signum)
+      {
+         switch (operation)
+         {
+            case Operator.EQUAL:
+               return valueOf(signum == 0);
+            case Operator.DIFFERENT:
+               return valueOf(signum != 0);
+            case Operator.GT:
+               return valueOf(signum > 0);
+            case Operator.GE:
+               return valueOf(signum >= 0);
+            case Operator.LT:
+               return valueOf(signum < 0);
+            default:
+               return valueOf(signum <= 0);
+         }
+      }
+   }
+
+   private static final class Between extends Condition
+   {
+      private final boolean not;
+
+      private final Condition lower;
+
+      private final Condition upper;
+
+      Between(final boolean not, final Condition lower, final Condition upper)
+      {
+         this.not = not;
+         this.lower = lower;
+         this.upper = upper;
+      }
+
+      @Override
+      int evaluate(final ServerMessage message) throws Exception
+      {
+         int result = lower.evaluate(message);
+
+         if (result == UNKNOWN || result == (not ? TRUE : FALSE))
+         {
+            return result;
+         }
+
+         return upper.evaluate(message);
+      }
+   }
+
+   private static final class In extends Condition
+   {
+      private final boolean not;
+
+      private final Value value;
+
+      private final Set<SimpleString> set;
+
+      In(final boolean not, final Value value, final Set<SimpleString> set)
+      {
+         this.not = not;
+         this.value = value;
+         this.set = new HashSet<SimpleString>(set);
+      }
+
+      @Override
+      int evaluate(final ServerMessage message) throws Exception
+      {
+         Object object;
+
+         int type;
+
+         if (value.stored)
+         {
+            object = value.object(message);
+            type = typeOf(object);
+         }
+         else
+         {
+            type = value.type(message);
+            object = type == NULL ? null : value.object(message);
+         }
+
+         if (type == NULL)
+         {
+            return not ? UNKNOWN : FALSE;
+         }
+         if (type != SIMPLE_STRING)
+         {
+            throw badObject(type, value);
+         }
+
+         return valueOf(set.contains(object) != not);
+      }
+   }
+
+   private static final class IsNull extends Condition
+   {
+      private final boolean not;
+
+      private final Value value;
+
+      IsNull(final boolean not, final Value value)
+      {
+         this.not = not;
+         this.value = value;
+      }
+
+      @Override
+      int evaluate(final ServerMessage message) throws Exception
+      {
+         int type = value.stored ? typeOf(value.object(message)) : value.type(message);
+
+         return valueOf(type == NULL != not);
+      }
+   }
+
+   /**
+    * The pattern is matched on the chars of the string. The strings with line terminators or surrogate pairs, where
+    * the wildcards behave as they do on a regular expression, go to the {@link RegExp} the interpreter uses.
+    */
+   private static final class Like extends Condition
+   {
+      private static final byte ANY_CHAR = 0;
+
+      private static final byte ANY_CHARS = 1;
+
+      private static final byte CHAR = 2;
+
+      private final boolean not;
+
+      private final Value value;
+
+      private final SimpleString pattern;
+
+      private final byte[] kinds;
+
+      private final char[] chars;
+
+      private final RegExp regExp;
+
+      private final String invalid;
+
+      Like(final boolean not,
+           final Value value,
+           final SimpleString pattern,
+           final Character escapeChar,
+           final RegExp regExp,
+           final String invalid)
+      {
+         this.not = not;
+         this.value = value;
+         this.pattern = pattern;
+         this.regExp = regExp;
+         this.invalid = invalid;
+
+         int length = pattern.length();
+
+         byte[] patternKinds = new byte[length];
+
+         char[] patternChars = new char[length];
+
+         int size = 0;
+
+         if (invalid == null)
+         {
+            for (int i = 0; i < length; i++)
+            {
+               char c = pattern.charAt(i);
+
+               if (escapeChar != null && c == escapeChar.charValue())
+               {
+                  patternKinds[size] = CHAR;
+                  patternChars[size++] = pattern.charAt(++i);
+               }
+               else if (c == '_')
+               {
+                  patternKinds[size++] = ANY_CHAR;
+               }
+               else if (c == '%')
+               {
+                  patternKinds[size++] = ANY_CHARS;
+               }
+               else
+               {
+                  patternKinds[size] = CHAR;
+                  patternChars[size++] = c;
+               }
+            }
+         }
+
+         kinds = new byte[size];
+         chars = new char[size];
+         System.arraycopy(patternKinds, 0, kinds, 0, size);
+         System.arraycopy(patternChars, 0, chars, 0, size);
+      }
+
+      @Override
+      int evaluate(final ServerMessage message) throws Exception
+      {
+         Object object;
+
+         int type;
+
+         if (value.stored)
+         {
+            object = value.object(message);
+            type = typeOf(object);
+         }
+         else
+         {
+            type = value.type(message);
+            object = type == NULL ? null : value.object(message);
+         }
+
+         if (type == NULL)
+         {
+            return UNKNOWN;
+         }
+         if (type != SIMPLE_STRING)
+         {
+            throw badObject(type, value);
+         }
+         if (invalid != null)
+         {
+            throw new Exception(invalid);
+         }
+
+         SimpleString string = (SimpleString)object;
+
+         boolean match = isPlain(string) ? matches(string) : regExp.isMatch(string);
+
+         return valueOf(match != not);
+      }
+
+      private static boolean isPlain(final SimpleString string)
+      {
+         for (int i = 0; i < string.length(); i++)
+         {
+            char c = string.charAt(i);
+
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029' ||
+                Character.isHighSurrogate(c) ||
+                Character.isLowSurrogate(c))
+            {
+               return false;
+            }
+         }
+
+         return true;
+      }
+
+      /**
+       * Matches the chars one by one, going back to the last % on a mismatch
+       */
+      private boolean matches(final SimpleString string)
+      {
+         int length = string.length();
+
+         int s = 0;
+
+         int p = 0;
+
+         int lastAny = -1;
+
+         int lastAnyPosition = 0;
+
+         while (s < length)
+         {
+            if (p < kinds.length && (kinds[p] == ANY_CHAR || kinds[p] == CHAR && chars[p] == string.charAt(s)))
+            {
+               p++;
+               s++;
+            }
+            else if (p < kinds.length && kinds[p] == ANY_CHARS)
+            {
+               lastAny = p++;
+               lastAnyPosition = s;
+            }
+            else if (lastAny >= 0)
+            {
+               p = lastAny + 1;
+               s = ++lastAnyPosition;
+            }
+            else
+            {
+               return false;
+            }
+         }
+
+         while (p < kinds.length && kinds[p] == ANY_CHARS)
+         {
+            p++;
+         }
+
+         return p == kinds.length;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "LIKE " + pattern;
+      }
+   }
+
+   // Values ---------------------------------------------------------------------------------------------------------
+
+   /**
+    * A value is either stored, the object read from the message, a literal or the result of the arithmetic, or computed,
+    * a header field read as a primitive.
+    */
+   abstract static class Value
+   {
+      final boolean stored;
+
+      Value(final boolean stored)
+      {
+         this.stored = stored;
+      }
+
+      /**
+       * @return the type of the value, 0 if it is null
+       */
+      int type(final ServerMessage message) throws Exception
+      {
+         return typeOf(object(message));
+      }
+
+      /**
+       * @return the value as an object, boxing it if it is computed
+       */
+      abstract Object object(ServerMessage message) throws Exception;
+
+      /**
+       * Only for a value of type long
+       */
+      long longValue(final ServerMessage message) throws Exception
+      {
+         return ((Number)object(message)).longValue();
+      }
+
+      /**
+       * Only for a value of type long or double
+       */
+      double doubleValue(final ServerMessage message) throws Exception
+      {
+         return ((Number)object(message)).doubleValue();
+      }
+   }
+
+   private static final class Literal extends Value
+   {
+      private final Object value;
+
+      Literal(final Object value)
+      {
+         super(true);
+
+         this.value = value;
+      }
+
+      @Override
+      Object object(final ServerMessage message)
+      {
+         return value;
+      }
+
+      @Override
+      public String toString()
+      {
+         return String.valueOf(value);
+      }
+   }
+
+   private static final class Property extends Value
+   {
+      private final SimpleString name;
+
+      Property(final SimpleString name)
+      {
+         super(true);
+
+         this.name = name;
+      }
+
+      @Override
+      Object object(final ServerMessage message)
+      {
+         return message.getObjectProperty(name);
+      }
+
+      @Override
+      public String toString()
+      {
+         return name.toString();
+      }
+   }
+
+   private static final class UserID extends Value
+   {
+      UserID()
+      {
+         super(true);
+      }
+
+      @Override
+      Object object(final ServerMessage message)
+      {
+         return new SimpleString("ID:" + message.getUserID());
+      }
+
+      @Override
+      public String toString()
+      {
+         return FilterConstants.HORNETQ_USERID.toString();
+      }
+   }
+
+   private static final class Durable extends Value
+   {
+      Durable()
+      {
+         super(true);
+      }
+
+      @Override
+      Object object(final ServerMessage message)
+      {
+         return message.isDurable() ? FilterConstants.DURABLE : FilterConstants.NON_DURABLE;
+      }
+
+      @Override
+      public String toString()
+      {
+         return FilterConstants.HORNETQ_DURABLE.toString();
+      }
+   }
+
+   private static final class LongHeader extends Value
+   {
+      // one of the FilterConstants
+      private final SimpleString name;
+
+      LongHeader(final SimpleString name)
+      {
+         super(false);
+
+         this.name = name;
+      }
+
+      @Override
+      int type(final ServerMessage message)
+      {
+         return LONG;
+      }
+
+      @Override
+      long longValue(final ServerMessage message)
+      {
+         if (FilterConstants.HORNETQ_PRIORITY == name)
+         {
+            return message.getPriority();
+         }
+         else if (FilterConstants.HORNETQ_TIMESTAMP == name)
+         {
+            return message.getTimestamp();
+         }
+         else if (FilterConstants.HORNETQ_EXPIRATION == name)
+         {
+            return message.getExpiration();
+         }
+         else
+         {
+            return message.getEncodeSize();
+         }
+      }
+
+      @Override
+      double doubleValue(final ServerMessage message)
+      {
+         return longValue(message);
+      }
+
+      @Override
+      Object object(final ServerMessage message)
+      {
+         return Long.valueOf(longValue(message));
+      }
+
+      @Override
+      public String toString()
+      {
+         return name.toString();
+      }
+   }
+
+   /**
+    * The arithmetic is done in one pass on the objects of the operands, as the interpreter does, so every property is
+    * read once. The result is boxed.
+    */
+   private static final class Arithmetic extends Value
+   {
+      private final int operation;
+
+      private final Value left;
+
+      private final Value right;
+
+      Arithmetic(final int operation, final Value left, final Value right)
+      {
+         super(true);
+
+         this.operation = operation;
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      Object object(final ServerMessage message) throws Exception
+      {
+         Object value1 = left.object(message);
+         Object value2 = right.object(message);
+
+         int type1 = typeOf(value1);
+         int type2 = typeOf(value2);
+
+         if (type1 == NULL || type2 == NULL)
+         {
+            return null;
+         }
+         if (type1 != LONG && type1 != DOUBLE)
+         {
+            throw badObject(type1, this);
+         }
+         if (type2 != LONG && type2 != DOUBLE)
+         {
+            throw badObject(type2, this);
+         }
+         if (type1 == LONG && type2 == LONG)
+         {
+            long long1 = ((Number)value1).longValue();
+            long long2 = ((Number)value2).longValue();
+
+            switch (operation)
+            {
+               case Operator.ADD:
+                  return Long.valueOf(long1 + long2);
+               case Operator.SUB:
+                  return Long.valueOf(long1 - long2);
+               case Operator.MUL:
+                  return Long.valueOf(long1 * long2);
+               default:
+                  return Long.valueOf(long1 / long2);
+            }
+         }
+
+         double double1 = ((Number)value1).doubleValue();
+         double double2 = ((Number)value2).doubleValue();
+
+         switch (operation)
+         {
+            case Operator.ADD:
+               return Double.valueOf(double1 + double2);
+            case Operator.SUB:
+               return Double.valueOf(double1 - double2);
+            case Operator.MUL:
+               return Double.valueOf(double1 * double2);
+            default:
+               return Double.valueOf(double1 / double2);
+         }
+      }
+
+      @Override
+      public String toString()
+      {
+         return Operator.operationString(operation) + "(" + left + ", " + right + ")";
+      }
+   }
+
+   private static final class Negation extends Value
+   {
+      private final Value value;
+
+      Negation(final Value value)
+      {
+         super(true);
+
+         this.value = value;
+      }
+
+      @Override
+      Object object(final ServerMessage message) throws Exception
+      {
+         Object object = value.object(message);
+
+         int type = typeOf(object);
+
+         if (type == NULL)
+         {
+            return null;
+         }
+         if (type == LONG)
+         {
+            return Long.valueOf(-((Number)object).longValue());
+         }
+         if (type == DOUBLE)
+         {
+            return Double.valueOf(-((Number)object).doubleValue());
+         }
+         throw badObject(type, this);
+      }
+
+      @Override
+      public String toString()
+      {
+         return "NEG(" + value + ")";
+      }
+   }
+
+   /**
+    * A condition where a value is expected, as the interpreter allows it
+    */
+   private static final class ConditionValue extends Value
+   {
+      private final Condition condition;
+
+      ConditionValue(final Condition condition)
+      {
+         super(true);
+
+         this.condition = condition;
+      }
+
+      @Override
+      Object object(final ServerMessage message) throws Exception
+      {
+         int result = condition.evaluate(message);
+
+         return result == UNKNOWN ? null : Boolean.valueOf(result == TRUE);
+      }
+   }
+}
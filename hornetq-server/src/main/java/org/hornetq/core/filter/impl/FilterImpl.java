@@ -68,6 +68,10 @@ public class FilterImpl implements Filter
 
    private final Class<? extends Object> resultType;
 
+   private final FilterIndexKey indexKey;
+
+   private final FilterCompiler.Condition condition;
+
    // Static ---------------------------------------------------------
 
    /**
@@ -106,6 +110,10 @@ public class FilterImpl implements Filter
          result = new FilterParser().parse(sfilterString, identifiers);
 
          resultType = result.getClass();
+
+         indexKey = FilterIndexKey.extract(result);
+
+         condition = FilterCompiler.compile(result);
       }
       catch (Throwable e)
       {
@@ -122,7 +130,33 @@ public class FilterImpl implements Filter
       return sfilterString;
    }
 
-   public synchronized boolean match(final ServerMessage message)
+   /**
+    * @return the property values this filter requires, or null if it can match without a given value on a property
+    */
+   public FilterIndexKey getIndexKey()
+   {
+      return indexKey;
+   }
+
+   public boolean match(final ServerMessage message)
+   {
+      try
+      {
+         return condition.evaluate(message) == FilterCompiler.TRUE;
+      }
+      catch (Exception e)
+      {
+         HornetQServerLogger.LOGGER.invalidFilter(e, sfilterString);
+
+         return false;
+      }
+   }
+
+   /**
+    * Matches the message interpreting the parsed expression, as {@link #match(ServerMessage)} did before the filters
+    * were compiled. It gives the same results, and it's kept to check and to measure the compiled filters against it.
+    */
+   public synchronized boolean interpret(final ServerMessage message)
    {
       try
       {
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.filter.impl;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hornetq.api.core.FilterConstants;
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.server.ServerMessage;
+
+/**
+ * A property and the string values a filter requires on it.
+ * <p>
+ * A message can only match the filter if the property is set to one of the values, so the filters can be indexed by
+ * value and evaluated only where the value of a message points to.
+ * <p>
+ * The key is extracted from the parsed expression: {@code prop = 'value'} and {@code prop IN ('a', 'b')} give a key,
+ * {@code AND} keeps the key of its sides and {@code OR} joins the keys of its sides when they are on the same
+ * property. Any other expression, and the header fields, have no key.
+ */
+public final class FilterIndexKey
+{
+   private final SimpleString property;
+
+   private final Set<SimpleString> values;
+
+   private FilterIndexKey(final SimpleString property, final Set<SimpleString> values)
+   {
+      this.property = property;
+      this.values = values;
+   }
+
+   /**
+    * @return the key of the parsed expression, or null if the expression can't be indexed
+    */
+   static FilterIndexKey extract(final Object expression)
+   {
+      if (expression == null || expression.getClass() != Operator.class)
+      {
+         return null;
+      }
+
+      Operator operator = (Operator)expression;
+
+      switch (operator.operation)
+      {
+         case Operator.EQUAL:
+         {
+            if (operator.oper1 instanceof Identifier && operator.oper2 instanceof SimpleString)
+            {
+               return create((Identifier)operator.oper1, Collections.singleton((SimpleString)operator.oper2));
+            }
+            if (operator.oper2 instanceof Identifier && operator.oper1 instanceof SimpleString)
+            {
+               return create((Identifier)operator.oper2, Collections.singleton((SimpleString)operator.oper1));
+            }
+            return null;
+         }
+         case Operator.IN:
+         {
+            if (operator.oper1 instanceof Identifier)
+            {
+               @SuppressWarnings("unchecked")
+               Set<SimpleString> set = (Set<SimpleString>)operator.oper2;
+
+               return create((Identifier)operator.oper1, set);
+            }
+            return null;
+         }
+         case Operator.AND:
+         {
+            FilterIndexKey left = extract(operator.oper1);
+            FilterIndexKey right = extract(operator.oper2);
+
+            if (left == null)
+            {
+               return right;
+            }
+            if (right == null)
+            {
+               return left;
+            }
+            if (left.property.equals(right.property))
+            {
+               Set<SimpleString> both = new HashSet<SimpleString>(left.values);
+               both.retainAll(right.values);
+               return new FilterIndexKey(left.property, Collections.unmodifiableSet(both));
+            }
+            return left.values.size() <= right.values.size() ? left : right;
+         }
+         case Operator.OR:
+         {
+            FilterIndexKey left = extract(operator.oper1);
+            FilterIndexKey right = extract(operator.oper2);
+
+            if (left != null && right != null && left.property.equals(right.property))
+            {
+               Set<SimpleString> either = new HashSet<SimpleString>(left.values);
+               either.addAll(right.values);
+               return new FilterIndexKey(left.property, Collections.unmodifiableSet(either));
+            }
+            return null;
+         }
+         default:
+         {
+            return null;
+         }
+      }
+   }
+
+   private static FilterIndexKey create(final Identifier identifier, final Set<SimpleString> values)
+   {
+      if (identifier.getName().startsWith(FilterConstants.HORNETQ_PREFIX))
+      {
+         // header fields are not read from the properties
+         return null;
+      }
+
+      return new FilterIndexKey(identifier.getName(), Collections.unmodifiableSet(new HashSet<SimpleString>(values)));
+   }
+
+   public SimpleString getProperty()
+   {
+      return property;
+   }
+
+   public Set<SimpleString> getValues()
+   {
+      return values;
+   }
+
+   /**
+    * @return false if the filter this key was extracted from can't match the message
+    */
+   public boolean mayMatch(final ServerMessage message)
+   {
+      Object value = message.getObjectProperty(property);
+
+      return value instanceof SimpleString && values.contains(value);
+   }
+
+   @Override
+   public String toString()
+   {
+      return "FilterIndexKey [property=" + property + ", values=" + values + "]";
+   }
+}
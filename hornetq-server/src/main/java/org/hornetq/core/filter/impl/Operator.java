@@ -501,7 +501,7 @@ public final class Operator
          }
          if (class2 == Operator.LONG)
          {
-            return Boolean.valueOf(((Number)arg1).longValue() >= ((Number)arg2).longValue());
+            return Boolean.valueOf(((Number)arg1).doubleValue() >= ((Number)arg2).longValue());
          }
          if (class2 == Operator.DOUBLE)
          {
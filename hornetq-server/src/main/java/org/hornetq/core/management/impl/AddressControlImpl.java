@@ -193,6 +193,19 @@ public class AddressControlImpl extends AbstractControl implements AddressContro
       }
    }
 
+   public long getAddressSize() throws Exception
+   {
+      clearIO();
+      try
+      {
+         return pagingManager.getPageStore(address).getAddressSize();
+      }
+      finally
+      {
+         blockOnIO();
+      }
+   }
+
    public boolean isPaging() throws Exception
    {
       clearIO();
@@ -47,11 +47,13 @@ import org.hornetq.api.core.management.QueueControl;
 import org.hornetq.core.config.BridgeConfiguration;
 import org.hornetq.core.config.Configuration;
 import org.hornetq.core.config.DivertConfiguration;
+import org.hornetq.core.journal.impl.AdaptiveBufferTimeout;
 import org.hornetq.core.messagecounter.MessageCounterManager;
 import org.hornetq.core.messagecounter.impl.MessageCounterManagerImpl;
 import org.hornetq.core.persistence.StorageManager;
 import org.hornetq.core.persistence.config.PersistedAddressSetting;
 import org.hornetq.core.persistence.config.PersistedRoles;
+import org.hornetq.core.persistence.impl.journal.JournalGroupCommit;
 import org.hornetq.core.postoffice.PostOffice;
 import org.hornetq.core.remoting.server.RemotingService;
 import org.hornetq.core.security.CheckType;
@@ -251,6 +253,151 @@ public class HornetQServerControlImpl extends AbstractControl implements HornetQ
       }
    }
 
+   public boolean isJournalBufferTimeoutAdaptive()
+   {
+      checkStarted();
+
+      clearIO();
+      try
+      {
+         return storageManager.getAdaptiveBufferTimeout() != null;
+      }
+      finally
+      {
+         blockOnIO();
+      }
+   }
+
+   public long getJournalCurrentBufferTimeout()
+   {
+      checkStarted();
+
+      clearIO();
+      try
+      {
+         AdaptiveBufferTimeout adaptive = storageManager.getAdaptiveBufferTimeout();
+
+         if (adaptive != null)
+         {
+            return adaptive.getTimeout();
+         }
+
+         return configuration.getJournalType() == JournalType.ASYNCIO ? configuration.getJournalBufferTimeout_AIO()
+               : configuration.getJournalBufferTimeout_NIO();
+      }
+      finally
+      {
+         blockOnIO();
+      }
+   }
+
+   public int getJournalCurrentBatchSize()
+   {
+      checkStarted();
+
+      clearIO();
+      try
+      {
+         AdaptiveBufferTimeout adaptive = storageManager.getAdaptiveBufferTimeout();
+
+         if (adaptive != null)
+         {
+            return adaptive.getBatchSize();
+         }
+
+         return configuration.getJournalType() == JournalType.ASYNCIO ? configuration.getJournalBufferSize_AIO()
+               : configuration.getJournalBufferSize_NIO();
+      }
+      finally
+      {
+         blockOnIO();
+      }
+   }
+
+   public String getJournalFlushLatencyHistogramAsJSON() throws Exception
+   {
+      checkStarted();
+
+      clearIO();
+      try
+      {
+         JSONArray array = new JSONArray();
+
+         AdaptiveBufferTimeout adaptive = storageManager.getAdaptiveBufferTimeout();
+
+         if (adaptive != null)
+         {
+            long[] histogram = adaptive.getLatencyHistogram();
+
+            for (int i = 0; i < histogram.length; i++)
+            {
+               if (histogram[i] > 0)
+               {
+                  JSONObject bucket = new JSONObject();
+                  bucket.put("upTo", AdaptiveBufferTimeout.getBucketUpperBound(i));
+                  bucket.put("count", histogram[i]);
+                  array.put(bucket);
+               }
+            }
+         }
+
+         return array.toString();
+      }
+      finally
+      {
+         blockOnIO();
+      }
+   }
+
+   public boolean isJournalGroupCommit()
+   {
+      checkStarted();
+
+      clearIO();
+      try
+      {
+         return storageManager.getGroupCommit() != null;
+      }
+      finally
+      {
+         blockOnIO();
+      }
+   }
+
+   public double getJournalAverageCommitGroupSize()
+   {
+      checkStarted();
+
+      clearIO();
+      try
+      {
+         JournalGroupCommit groupCommit = storageManager.getGroupCommit();
+
+         return groupCommit == null ? 0 : groupCommit.getAverageGroupSize();
+      }
+      finally
+      {
+         blockOnIO();
+      }
+   }
+
+   public int getJournalMaxCommitGroupSize()
+   {
+      checkStarted();
+
+      clearIO();
+      try
+      {
+         JournalGroupCommit groupCommit = storageManager.getGroupCommit();
+
+         return groupCommit == null ? 0 : groupCommit.getMaxGroupSize();
+      }
+      finally
+      {
+         blockOnIO();
+      }
+   }
+
    public void setFailoverOnServerShutdown(boolean failoverOnServerShutdown)
    {
       checkStarted();
@@ -418,6 +565,36 @@ public class HornetQServerControlImpl extends AbstractControl implements HornetQ
       }
    }
 
+   public long getGlobalMaxSize()
+   {
+      checkStarted();
+
+      clearIO();
+      try
+      {
+         return configuration.getGlobalMaxSize();
+      }
+      finally
+      {
+         blockOnIO();
+      }
+   }
+
+   public long getGlobalSize()
+   {
+      checkStarted();
+
+      clearIO();
+      try
+      {
+         return server.getPagingManager().getGlobalSize();
+      }
+      finally
+      {
+         blockOnIO();
+      }
+   }
+
    public int getScheduledThreadPoolMaxSize()
    {
       checkStarted();
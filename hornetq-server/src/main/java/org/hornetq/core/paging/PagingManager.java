@@ -78,6 +78,27 @@ public interface PagingManager extends HornetQComponent, HierarchicalRepositoryC
 
    void processReload() throws Exception;
 
+   /**
+    * Adds to the memory taken up by the messages of all the addresses, called by the {@link PagingStore}s as their
+    * own size changes.
+    * <p>
+    * When the global max size is reached, the largest address still in memory and using the PAGE policy starts
+    * paging.
+    * @param size the number of bytes, negative when they are released
+    */
+   void addSize(int size);
+
+   /**
+    * @return the number of bytes taken up in memory by the messages of all the addresses
+    */
+   long getGlobalSize();
+
+   /**
+    * @return the number of bytes the messages of all the addresses can take up in memory before the addresses start
+    *         paging, or -1 for no limit
+    */
+   long getGlobalMaxSize();
+
    /**
     * Lock the manager. This method should not be called during normal PagingManager usage.
     */
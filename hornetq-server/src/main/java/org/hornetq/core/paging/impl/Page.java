@@ -23,6 +23,7 @@ import org.hornetq.api.core.HornetQBuffers;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.journal.SequentialFile;
 import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.MappedSequentialFile;
 import org.hornetq.core.paging.PagedMessage;
 import org.hornetq.core.paging.cursor.LivePageCache;
 import org.hornetq.core.persistence.StorageManager;
@@ -111,14 +112,30 @@ public class Page implements Comparable<Page>
       ArrayList<PagedMessage> messages = new ArrayList<PagedMessage>();
 
       size.set((int)file.size());
-      // Using direct buffer, as described on https://jira.jboss.org/browse/HORNETQ-467
-      ByteBuffer directBuffer = storage.allocateDirectBuffer((int)file.size());
+
+      final boolean mapped = file instanceof MappedSequentialFile;
+
+      ByteBuffer directBuffer;
+
+      if (mapped)
+      {
+         // the mapped file is read in place, no copy needed
+         directBuffer = ((MappedSequentialFile)file).asReadOnlyBuffer();
+      }
+      else
+      {
+         // Using direct buffer, as described on https://jira.jboss.org/browse/HORNETQ-467
+         directBuffer = storage.allocateDirectBuffer((int)file.size());
+      }
 
       try
       {
 
-         file.position(0);
-         file.read(directBuffer);
+         if (!mapped)
+         {
+            file.position(0);
+            file.read(directBuffer);
+         }
 
          directBuffer.rewind();
 
@@ -173,7 +190,15 @@ public class Page implements Comparable<Page>
       }
       finally
       {
-         storage.freeDirectBuffer(directBuffer);
+         if (mapped)
+         {
+            // the messages were decoded out of the view
+            ((MappedSequentialFile)file).releaseReadOnlyBuffer(directBuffer);
+         }
+         else
+         {
+            storage.freeDirectBuffer(directBuffer);
+         }
       }
 
       numberOfMessages.set(messages.size());
@@ -18,8 +18,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.hornetq.api.config.HornetQDefaultConfiguration;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.paging.PageTransactionInfo;
 import org.hornetq.core.paging.PagingManager;
@@ -29,6 +32,7 @@ import org.hornetq.core.persistence.StorageManager;
 import org.hornetq.core.postoffice.PostOffice;
 import org.hornetq.core.server.HornetQServerLogger;
 import org.hornetq.core.settings.HierarchicalRepository;
+import org.hornetq.core.settings.impl.AddressFullMessagePolicy;
 import org.hornetq.core.settings.impl.AddressSettings;
 
 /**
@@ -66,6 +70,14 @@ public class PagingManagerImpl implements PagingManager
    private final ConcurrentMap</*TransactionID*/Long, PageTransactionInfo> transactions =
             new ConcurrentHashMap<Long, PageTransactionInfo>();
 
+   private final long globalMaxSize;
+
+   // Bytes taken up by the messages of all the addresses on the memory
+   private final AtomicLong globalSizeBytes = new AtomicLong();
+
+   // Set while a thread looks for the address to page, the others don't need to do it again
+   private final AtomicBoolean pagingLargestAddress = new AtomicBoolean();
+
    // Static
    // --------------------------------------------------------------------------------------------------------------------------
 
@@ -77,11 +89,20 @@ public class PagingManagerImpl implements PagingManager
    public PagingManagerImpl(final PagingStoreFactory pagingSPI,
                             final StorageManager storageManager,
                             final HierarchicalRepository<AddressSettings> addressSettingsRepository)
+   {
+      this(pagingSPI, storageManager, addressSettingsRepository, HornetQDefaultConfiguration.DEFAULT_GLOBAL_MAX_SIZE);
+   }
+
+   public PagingManagerImpl(final PagingStoreFactory pagingSPI,
+                            final StorageManager storageManager,
+                            final HierarchicalRepository<AddressSettings> addressSettingsRepository,
+                            final long globalMaxSize)
    {
       pagingStoreFactory = pagingSPI;
       this.addressSettingsRepository = addressSettingsRepository;
       addressSettingsRepository.registerListener(this);
       this.storageManager = storageManager;
+      this.globalMaxSize = globalMaxSize;
    }
 
    @Override
@@ -260,6 +281,26 @@ public class PagingManagerImpl implements PagingManager
       }
    }
 
+   public void addSize(final int size)
+   {
+      long globalSize = globalSizeBytes.addAndGet(size);
+
+      if (size > 0 && globalMaxSize > 0 && globalSize > globalMaxSize)
+      {
+         pageLargestAddress(globalSize);
+      }
+   }
+
+   public long getGlobalSize()
+   {
+      return globalSizeBytes.get();
+   }
+
+   public long getGlobalMaxSize()
+   {
+      return globalMaxSize;
+   }
+
 
    private PagingStore newStore(final SimpleString address) throws Exception
    {
@@ -280,6 +321,65 @@ public class PagingManagerImpl implements PagingManager
       }
    }
 
+   /**
+    * Starts paging the address taking up the most memory among the ones still in memory.
+    * <p>
+    * Only the addresses using the PAGE policy are paged, the others keep to their own max size. Paging doesn't release
+    * the messages already in memory, so while the limit is still exceeded every new message pages one more address,
+    * until all of them are paging.
+    */
+   private void pageLargestAddress(final long globalSize)
+   {
+      if (!pagingLargestAddress.compareAndSet(false, true))
+      {
+         return;
+      }
+
+      try
+      {
+         PagingStore largest = null;
+
+         long largestSize = 0;
+
+         for (PagingStore store : stores.values())
+         {
+            if (store.getAddressFullMessagePolicy() == AddressFullMessagePolicy.PAGE && !store.isPaging())
+            {
+               long addressSize = store.getAddressSize();
+
+               if (addressSize > largestSize)
+               {
+                  largest = store;
+
+                  largestSize = addressSize;
+               }
+            }
+         }
+
+         if (largest != null)
+         {
+            try
+            {
+               if (largest.startPaging())
+               {
+                  HornetQServerLogger.LOGGER.globalMaxSizeReached(globalSize,
+                                                                  globalMaxSize,
+                                                                  largest.getAddress(),
+                                                                  largestSize);
+               }
+            }
+            catch (Exception e)
+            {
+               HornetQServerLogger.LOGGER.errorStartingPaging(e, largest.getAddress());
+            }
+         }
+      }
+      finally
+      {
+         pagingLargestAddress.set(false);
+      }
+   }
+
    public void unlock()
    {
       syncLock.writeLock().unlock();
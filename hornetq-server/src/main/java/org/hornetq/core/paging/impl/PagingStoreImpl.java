@@ -789,8 +789,6 @@ public class PagingStoreImpl implements PagingStore
                }
             }
          }
-
-         return;
       }
       else if (addressFullMessagePolicy == AddressFullMessagePolicy.PAGE)
       {
@@ -809,14 +807,14 @@ public class PagingStoreImpl implements PagingStore
                }
             }
          }
-
-         return;
       }
       else if (addressFullMessagePolicy == AddressFullMessagePolicy.DROP || addressFullMessagePolicy == AddressFullMessagePolicy.FAIL)
       {
          sizeInBytes.addAndGet(size);
       }
 
+      // After the size of the address, so the paging manager sees it when looking for the largest address
+      pagingManager.addSize(size);
    }
 
    /**
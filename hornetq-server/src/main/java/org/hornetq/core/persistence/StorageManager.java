@@ -26,6 +26,7 @@ import org.hornetq.core.journal.IOAsyncTask;
 import org.hornetq.core.journal.Journal;
 import org.hornetq.core.journal.JournalLoadInformation;
 import org.hornetq.core.journal.SequentialFile;
+import org.hornetq.core.journal.impl.AdaptiveBufferTimeout;
 import org.hornetq.core.message.impl.MessageInternal;
 import org.hornetq.core.paging.PageTransactionInfo;
 import org.hornetq.core.paging.PagedMessage;
@@ -34,6 +35,7 @@ import org.hornetq.core.paging.PagingStore;
 import org.hornetq.core.paging.cursor.PagePosition;
 import org.hornetq.core.persistence.config.PersistedAddressSetting;
 import org.hornetq.core.persistence.config.PersistedRoles;
+import org.hornetq.core.persistence.impl.journal.JournalGroupCommit;
 import org.hornetq.core.persistence.impl.journal.JournalStorageManager;
 import org.hornetq.core.postoffice.Binding;
 import org.hornetq.core.postoffice.PostOffice;
@@ -145,6 +147,13 @@ public interface StorageManager extends HornetQComponent
 
    void storeReference(long queueID, long messageID, boolean last) throws Exception;
 
+   /**
+    * Stores the references of a message on several queues with a single journal batch.
+    * @param storeMessage whether the message itself has to be stored before its references
+    * @param last if true, the batch is synced as {@link #storeReference(long, long, boolean)} would do
+    */
+   void storeReferences(ServerMessage message, boolean storeMessage, long[] queueIDs, boolean last) throws Exception;
+
    void deleteMessage(long messageID) throws Exception;
 
    void storeAcknowledge(long queueID, long messageID) throws Exception;
@@ -159,10 +168,30 @@ public interface StorageManager extends HornetQComponent
 
    void deleteDuplicateID(long recordID) throws Exception;
 
+   /**
+    * Stores an empty record for a segment of the ring of a duplicate ID cache. The ids of the segment are then stored
+    * with {@link #storeDuplicateIDDelta(long, long, byte[])}, and go when the record is deleted with
+    * {@link #deleteDuplicateID(long)}.
+    * @param ringSize the size of the cache, which maps the sequence of an id to its position
+    */
+   void storeDuplicateIDSegment(long recordID, SimpleString address, int ringSize) throws Exception;
+
+   /**
+    * Stores the id with the given sequence as an update of a segment record.
+    * @param duplID the id, or {@code null} if the id with this sequence was removed
+    */
+   void storeDuplicateIDDelta(long segmentRecordID, long sequence, byte[] duplID) throws Exception;
+
    void storeMessageTransactional(long txID, ServerMessage message) throws Exception;
 
    void storeReferenceTransactional(long txID, long queueID, long messageID) throws Exception;
 
+   /**
+    * @see #storeReferences(ServerMessage, boolean, long[], boolean)
+    */
+   void storeReferencesTransactional(long txID, ServerMessage message, boolean storeMessage, long[] queueIDs)
+      throws Exception;
+
    void storeAcknowledgeTransactional(long txID, long queueID, long messageID) throws Exception;
 
    void storeCursorAcknowledgeTransactional(long txID, long queueID, PagePosition position) throws Exception;
@@ -183,6 +212,17 @@ public interface StorageManager extends HornetQComponent
 
    void deleteDuplicateIDTransactional(long txID, long recordID) throws Exception;
 
+   /**
+    * Stores a segment record holding a snapshot of the ids of a duplicate ID cache.
+    * @see #storeDuplicateIDSegment(long, SimpleString, int)
+    */
+   void storeDuplicateIDSegmentTransactional(long txID,
+                                             long recordID,
+                                             SimpleString address,
+                                             int ringSize,
+                                             long[] sequences,
+                                             byte[][] duplIDs) throws Exception;
+
    LargeServerMessage createLargeMessage();
 
    /**
@@ -286,6 +326,16 @@ public interface StorageManager extends HornetQComponent
     */
    Journal getMessageJournal();
 
+   /**
+    * @return the adaptive timeout of the message journal's buffer, or null if the timeout is fixed
+    */
+   AdaptiveBufferTimeout getAdaptiveBufferTimeout();
+
+   /**
+    * @return the stage grouping the commits of concurrent transactions, or null if commits are not grouped
+    */
+   JournalGroupCommit getGroupCommit();
+
    /**
     * @see JournalStorageManager#startReplication(ReplicationManager, PagingManager, String,
     *      boolean)
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.persistence.impl.journal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.hornetq.core.journal.IOCompletion;
+import org.hornetq.core.journal.Journal;
+
+/**
+ * Writes the commit records of transactions committed concurrently as groups, each one with a single journal write
+ * and a single sync.
+ * <p>
+ * A committing thread queues its commit and takes the group lock. The thread that gets the lock while its commit is
+ * still queued writes a group with the queued commits, and the threads whose commit was written by the previous holder
+ * of the lock return as soon as they get it. So a group holds the commits that arrived while the previous one was
+ * being written. When the previous group had more than one commit, the writer also waits up to the window for as many
+ * commits to be queued. It waits on a condition of the lock, so the threads queuing their commits meanwhile can take
+ * the lock: they wake the writer up once the group is complete, and wait for it to be written.
+ * <p>
+ * The commit returns once its record is appended to the journal, and the callbacks of a group are completed together
+ * once the write is synced. A callback is only lined up once its transaction is found on the journal.
+ *
+ * @see Journal#appendCommitRecords(long[], boolean, IOCompletion[])
+ */
+public final class JournalGroupCommit
+{
+   static final int MAX_GROUP_SIZE = 1024;
+
+   private final long window;
+
+   private final Queue<PendingCommit> pending = new ConcurrentLinkedQueue<PendingCommit>();
+
+   // the size of pending, which is not constant time on the queue
+   private final AtomicInteger pendingCount = new AtomicInteger();
+
+   private final Lock lock = new ReentrantLock();
+
+   // Signalled when as many commits are queued as the writer waits for
+   private final Condition groupComplete = lock.newCondition();
+
+   // Signalled when a group is written
+   private final Condition groupWritten = lock.newCondition();
+
+   // Only changed with the lock held
+   private int lastGroupSize;
+
+   // The number of commits the writer is waiting for, 0 when it isn't waiting. Only used with the lock held
+   private int expected;
+
+   private volatile int maxGroupSize;
+
+   private final AtomicLong groups = new AtomicLong();
+
+   private final AtomicLong commits = new AtomicLong();
+
+   /**
+    * @param window the longest time (in nanoseconds) a group waits for more commits
+    */
+   public JournalGroupCommit(final long window)
+   {
+      this.window = window;
+   }
+
+   /**
+    * Appends the commit record of a transaction on a group with the commits of other threads.
+    * @param callback the completion of the commit, lined up once the transaction is found
+    */
+   public void commit(final Journal journal, final long txID, final IOCompletion callback) throws Exception
+   {
+      PendingCommit commit = new PendingCommit(txID, callback);
+
+      pending.add(commit);
+
+      pendingCount.incrementAndGet();
+
+      lock.lock();
+      try
+      {
+         // a group is limited to MAX_GROUP_SIZE, the commit can be on the next one
+         while (!commit.appended)
+         {
+            if (expected > 0)
+            {
+               // the writer is waiting for more commits, this one is on its group unless it is full already
+               if (pendingCount.get() >= expected)
+               {
+                  groupComplete.signal();
+               }
+
+               groupWritten.awaitUninterruptibly();
+            }
+            else
+            {
+               writeGroup(journal);
+            }
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+
+      if (commit.exception != null)
+      {
+         throw commit.exception;
+      }
+   }
+
+   /**
+    * @return the number of groups written
+    */
+   public long getGroupCount()
+   {
+      return groups.get();
+   }
+
+   /**
+    * @return the number of commits written
+    */
+   public long getCommitCount()
+   {
+      return commits.get();
+   }
+
+   public double getAverageGroupSize()
+   {
+      long groupCount = groups.get();
+
+      return groupCount == 0 ? 0 : (double)commits.get() / groupCount;
+   }
+
+   public int getMaxGroupSize()
+   {
+      return maxGroupSize;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "JournalGroupCommit [window=" + window +
+             ", groups=" +
+             groups.get() +
+             ", commits=" +
+             commits.get() +
+             ", maxGroupSize=" +
+             maxGroupSize +
+             "]";
+   }
+
+   // Private -------------------------------------------------------
+
+   /**
+    * You need to hold the lock before calling this method.
+    */
+   private void writeGroup(final Journal journal) throws Exception
+   {
+      if (window > 0 && lastGroupSize > 1)
+      {
+         // The committers of the last group are likely to be back soon
+         expected = Math.min(lastGroupSize, MAX_GROUP_SIZE);
+
+         long remaining = window;
+
+         try
+         {
+            while (pendingCount.get() < expected && remaining > 0)
+            {
+               remaining = groupComplete.awaitNanos(remaining);
+            }
+         }
+         catch (InterruptedException e)
+         {
+            // the group is written with the commits queued so far
+            Thread.currentThread().interrupt();
+         }
+         finally
+         {
+            expected = 0;
+         }
+      }
+
+      int size = Math.min(pendingCount.get(), MAX_GROUP_SIZE);
+
+      PendingCommit[] group = new PendingCommit[size];
+
+      long[] txIDs = new long[size];
+
+      IOCompletion[] callbacks = new IOCompletion[size];
+
+      for (int i = 0; i < size; i++)
+      {
+         group[i] = pending.poll();
+
+         txIDs[i] = group[i].txID;
+
+         callbacks[i] = group[i].callback;
+      }
+
+      pendingCount.addAndGet(-size);
+
+      try
+      {
+         if (size == 1)
+         {
+            journal.appendCommitRecord(txIDs[0], true, callbacks[0], true);
+         }
+         else
+         {
+            journal.appendCommitRecords(txIDs, true, callbacks);
+         }
+      }
+      catch (IllegalStateException e)
+      {
+         // A transaction of the group isn't on the journal and nothing was written, the others don't fail with it
+         if (size == 1)
+         {
+            group[0].exception = e;
+         }
+         else
+         {
+            for (PendingCommit commit : group)
+            {
+               try
+               {
+                  journal.appendCommitRecord(commit.txID, true, commit.callback, true);
+               }
+               catch (Exception e2)
+               {
+                  commit.exception = e2;
+               }
+            }
+         }
+      }
+      catch (Exception e)
+      {
+         for (PendingCommit commit : group)
+         {
+            commit.exception = e;
+         }
+      }
+
+      for (PendingCommit commit : group)
+      {
+         commit.appended = true;
+      }
+
+      groupWritten.signalAll();
+
+      lastGroupSize = size;
+
+      if (size > maxGroupSize)
+      {
+         maxGroupSize = size;
+      }
+
+      groups.incrementAndGet();
+
+      commits.addAndGet(size);
+   }
+
+   private static final class PendingCommit
+   {
+      final long txID;
+
+      final IOCompletion callback;
+
+      // Written and read with the lock held
+      boolean appended;
+
+      Exception exception;
+
+      PendingCommit(final long txID, final IOCompletion callback)
+      {
+         this.txID = txID;
+         this.callback = callback;
+      }
+   }
+}
@@ -22,7 +22,9 @@ import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -51,6 +53,7 @@ import org.hornetq.core.journal.EncodingSupport;
 import org.hornetq.core.journal.IOAsyncTask;
 import org.hornetq.core.journal.IOCriticalErrorListener;
 import org.hornetq.core.journal.Journal;
+import org.hornetq.core.journal.JournalBatch;
 import org.hornetq.core.journal.JournalLoadInformation;
 import org.hornetq.core.journal.PreparedTransactionInfo;
 import org.hornetq.core.journal.RecordInfo;
@@ -58,9 +61,12 @@ import org.hornetq.core.journal.SequentialFile;
 import org.hornetq.core.journal.SequentialFileFactory;
 import org.hornetq.core.journal.TransactionFailureCallback;
 import org.hornetq.core.journal.impl.AIOSequentialFileFactory;
+import org.hornetq.core.journal.impl.AbstractSequentialFileFactory;
+import org.hornetq.core.journal.impl.AdaptiveBufferTimeout;
 import org.hornetq.core.journal.impl.JournalFile;
 import org.hornetq.core.journal.impl.JournalImpl;
 import org.hornetq.core.journal.impl.JournalReaderCallback;
+import org.hornetq.core.journal.impl.MappedSequentialFileFactory;
 import org.hornetq.core.journal.impl.NIOSequentialFileFactory;
 import org.hornetq.core.message.impl.MessageInternal;
 import org.hornetq.core.paging.PageTransactionInfo;
@@ -177,6 +183,18 @@ public class JournalStorageManager implements StorageManager
 
    public static final byte PAGE_CURSOR_COMPLETE = 42;
 
+   // The references of a message on many queues, in a single record
+   public static final byte ADD_REFS = 43;
+
+   // A segment of the ring of a duplicate ID cache, its updates are the ids added to the segment
+   public static final byte DUPLICATE_ID_SEGMENT = 44;
+
+   /**
+    * Messages routed to at least this many durable queues get a single {@link #ADD_REFS} record instead of one
+    * {@link #ADD_REF} record per queue.
+    */
+   public static final int MIN_QUEUES_FOR_ADD_REFS = 8;
+
    private final Semaphore pageMaxConcurrentIO;
 
    private final BatchingIDGenerator idGenerator;
@@ -207,6 +225,8 @@ public class JournalStorageManager implements StorageManager
 
    private final SequentialFileFactory journalFF;
 
+   private final AdaptiveBufferTimeout adaptiveBufferTimeout;
+
    private Journal messageJournal;
 
    private Journal bindingsJournal;
@@ -228,10 +248,15 @@ public class JournalStorageManager implements StorageManager
 
    private final boolean syncTransactional;
 
+   // Groups the commits of concurrent transactions, only when syncTransactional is set
+   private final JournalGroupCommit groupCommit;
+
    private final boolean syncNonTransactional;
 
    private final int perfBlastPages;
 
+   private final int journalLoadThreads;
+
    private final boolean createBindingsDir;
 
    private final String bindingsDir;
@@ -240,6 +265,8 @@ public class JournalStorageManager implements StorageManager
 
    private final String journalDir;
 
+   private final String journalWalDir;
+
    private final String largeMessagesDirectory;
 
    private boolean journalLoaded = false;
@@ -258,7 +285,8 @@ public class JournalStorageManager implements StorageManager
 
       executor = executorFactory.getExecutor();
 
-      if (config.getJournalType() != JournalType.NIO && config.getJournalType() != JournalType.ASYNCIO)
+      if (config.getJournalType() != JournalType.NIO && config.getJournalType() != JournalType.ASYNCIO &&
+               config.getJournalType() != JournalType.MAPPED)
       {
          throw HornetQMessageBundle.BUNDLE.invalidJournal();
       }
@@ -275,7 +303,7 @@ public class JournalStorageManager implements StorageManager
 
       SequentialFileFactory bindingsFF = new NIOSequentialFileFactory(bindingsDir, criticalErrorListener);
 
-      Journal localBindings = new JournalImpl(1024 * 1024,
+      JournalImpl localBindings = new JournalImpl(1024 * 1024,
          2,
          config.getJournalCompactMinFiles(),
          config.getJournalCompactPercentage(),
@@ -284,6 +312,8 @@ public class JournalStorageManager implements StorageManager
          "bindings",
          1);
 
+      localBindings.setChecksums(config.isJournalChecksums());
+
       bindingsJournal = localBindings;
       originalBindingsJournal = localBindings;
 
@@ -294,38 +324,87 @@ public class JournalStorageManager implements StorageManager
 
       createJournalDir = config.isCreateJournalDir();
 
+      journalWalDir = config.getJournalWalDirectory();
+
+      // The records are written to the WAL directory when there is one, and the closed files are moved to journalDir
+      final String writeDir = journalWalDir == null ? journalDir : journalWalDir;
+
       syncNonTransactional = config.isJournalSyncNonTransactional();
 
       syncTransactional = config.isJournalSyncTransactional();
 
+      groupCommit = syncTransactional && config.isJournalGroupCommit()
+         ? new JournalGroupCommit(config.getJournalGroupCommitWindow()) : null;
+
+      final AbstractSequentialFileFactory localFF;
+
+      SequentialFileFactory dataFF = null;
+
       if (config.getJournalType() == JournalType.ASYNCIO)
       {
          HornetQServerLogger.LOGGER.journalUseAIO();
 
-         journalFF = new AIOSequentialFileFactory(journalDir,
+         localFF = new AIOSequentialFileFactory(writeDir,
             config.getJournalBufferSize_AIO(),
             config.getJournalBufferTimeout_AIO(),
             config.isLogJournalWriteRate(),
+            config.isJournalConcurrentBuffer(),
             criticalErrorListener);
+
+         if (journalWalDir != null)
+         {
+            dataFF = new AIOSequentialFileFactory(journalDir, criticalErrorListener);
+         }
       }
       else if (config.getJournalType() == JournalType.NIO)
       {
          HornetQServerLogger.LOGGER.journalUseNIO();
-         journalFF = new NIOSequentialFileFactory(journalDir,
+         localFF = new NIOSequentialFileFactory(writeDir,
+            true,
+            config.getJournalBufferSize_NIO(),
+            config.getJournalBufferTimeout_NIO(),
+            config.isLogJournalWriteRate(),
+            config.isJournalConcurrentBuffer(),
+            criticalErrorListener);
+
+         if (journalWalDir != null)
+         {
+            dataFF = new NIOSequentialFileFactory(journalDir, false, criticalErrorListener);
+         }
+      }
+      else if (config.getJournalType() == JournalType.MAPPED)
+      {
+         HornetQServerLogger.LOGGER.journalUseMapped();
+         localFF = new MappedSequentialFileFactory(writeDir,
             true,
             config.getJournalBufferSize_NIO(),
             config.getJournalBufferTimeout_NIO(),
             config.isLogJournalWriteRate(),
+            config.isJournalConcurrentBuffer(),
             criticalErrorListener);
+
+         if (journalWalDir != null)
+         {
+            dataFF = new MappedSequentialFileFactory(journalDir, false, criticalErrorListener);
+         }
       }
       else
       {
          throw HornetQMessageBundle.BUNDLE.invalidJournalType2(config.getJournalType());
       }
 
+      if (config.isJournalBufferTimeoutAdaptive())
+      {
+         localFF.enableAdaptiveBufferTimeout(config.getJournalBufferTimeoutMin(), config.getJournalBufferTimeoutMax());
+      }
+
+      journalFF = localFF;
+
+      adaptiveBufferTimeout = localFF.getAdaptiveBufferTimeout();
+
       idGenerator = new BatchingIDGenerator(0, JournalStorageManager.CHECKPOINT_BATCH_SIZE, this);
 
-      Journal localMessage = new JournalImpl(config.getJournalFileSize(),
+      JournalImpl localMessage = new JournalImpl(config.getJournalFileSize(),
          config.getJournalMinFiles(),
          config.getJournalCompactMinFiles(),
          config.getJournalCompactPercentage(),
@@ -335,6 +414,21 @@ public class JournalStorageManager implements StorageManager
          config.getJournalType() == JournalType.ASYNCIO ? config.getJournalMaxIO_AIO()
             : config.getJournalMaxIO_NIO());
 
+      localMessage.setLoadThreads(config.getJournalLoadThreads());
+
+      localMessage.setCompactMaxFiles(config.getJournalCompactMaxFiles());
+
+      localMessage.setCompactMaxPause(config.getJournalCompactMaxPause());
+
+      localMessage.setChecksums(config.isJournalChecksums());
+
+      if (dataFF != null)
+      {
+         localMessage.setMigration(dataFF, config.getJournalWalMaxFiles());
+      }
+
+      journalLoadThreads = config.getJournalLoadThreads();
+
       messageJournal = localMessage;
       originalMessageJournal = localMessage;
 
@@ -865,6 +959,83 @@ public class JournalStorageManager implements StorageManager
       }
    }
 
+   public void storeReferences(final ServerMessage message,
+                               final boolean storeMessage,
+                               final long[] queueIDs,
+                               final boolean last) throws Exception
+   {
+      JournalBatch batch = createReferencesBatch(-1, message, storeMessage, queueIDs);
+
+      readLock();
+      try
+      {
+         messageJournal.appendBatch(batch, last && syncNonTransactional, getContext(last && syncNonTransactional));
+      }
+      finally
+      {
+         readUnLock();
+      }
+   }
+
+   public void storeReferencesTransactional(final long txID,
+                                            final ServerMessage message,
+                                            final boolean storeMessage,
+                                            final long[] queueIDs) throws Exception
+   {
+      JournalBatch batch = createReferencesBatch(txID, message, storeMessage, queueIDs);
+
+      readLock();
+      try
+      {
+         messageJournal.appendBatch(batch, false);
+      }
+      finally
+      {
+         readUnLock();
+      }
+   }
+
+   private JournalBatch createReferencesBatch(final long txID,
+                                              final ServerMessage message,
+                                              final boolean storeMessage,
+                                              final long[] queueIDs) throws HornetQException
+   {
+      if (message.getMessageID() <= 0)
+      {
+         // Sanity check only... this shouldn't happen unless there is a bug
+         throw HornetQMessageBundle.BUNDLE.messageIdNotAssigned();
+      }
+
+      JournalBatch batch = new JournalBatch(txID, queueIDs.length + 1);
+
+      if (storeMessage)
+      {
+         if (message.isLargeMessage())
+         {
+            batch.addRecord(message.getMessageID(), JournalStorageManager.ADD_LARGE_MESSAGE,
+               new LargeMessageEncoding((LargeServerMessage)message));
+         }
+         else
+         {
+            batch.addRecord(message.getMessageID(), JournalStorageManager.ADD_MESSAGE, message);
+         }
+      }
+
+      if (queueIDs.length >= JournalStorageManager.MIN_QUEUES_FOR_ADD_REFS)
+      {
+         batch.updateRecord(message.getMessageID(), JournalStorageManager.ADD_REFS, new RefsEncoding(queueIDs));
+      }
+      else
+      {
+         for (long queueID : queueIDs)
+         {
+            batch.updateRecord(message.getMessageID(), JournalStorageManager.ADD_REF, new RefEncoding(queueID));
+         }
+      }
+
+      return batch;
+   }
+
    private void readLock()
    {
       storageManagerLock.readLock().lock();
@@ -963,6 +1134,45 @@ public class JournalStorageManager implements StorageManager
       }
    }
 
+   public void storeDuplicateIDSegment(final long recordID, final SimpleString address, final int ringSize)
+      throws Exception
+   {
+      readLock();
+      try
+      {
+         DuplicateIDSegmentEncoding encoding = new DuplicateIDSegmentEncoding(address, ringSize, new long[0],
+                                                                              new byte[0][]);
+
+         messageJournal.appendAddRecord(recordID,
+            JournalStorageManager.DUPLICATE_ID_SEGMENT,
+            encoding,
+            syncNonTransactional,
+            getContext(syncNonTransactional));
+      }
+      finally
+      {
+         readUnLock();
+      }
+   }
+
+   public void storeDuplicateIDDelta(final long segmentRecordID, final long sequence, final byte[] duplID)
+      throws Exception
+   {
+      readLock();
+      try
+      {
+         messageJournal.appendUpdateRecord(segmentRecordID,
+            JournalStorageManager.DUPLICATE_ID_SEGMENT,
+            new DuplicateIDDeltaEncoding(sequence, duplID),
+            syncNonTransactional,
+            getContext(syncNonTransactional));
+      }
+      finally
+      {
+         readUnLock();
+      }
+   }
+
    public void deleteDuplicateID(final long recordID) throws Exception
    {
       readLock();
@@ -1235,6 +1445,17 @@ public class JournalStorageManager implements StorageManager
       readLock();
       try
       {
+         if (groupCommit != null && replicator == null && lineUpContext)
+         {
+            // The replication of a commit is lined up on the context of the thread writing it, so the commits are
+            // only grouped when there's no replication. The thread holds the read lock until its commit is written,
+            // so the replication can't start in between. The group lines the context up once the transaction is
+            // found, a context lined up before by the caller is committed on its own.
+            groupCommit.commit(messageJournal, txID, getContext());
+
+            return;
+         }
+
          messageJournal.appendCommitRecord(txID, syncTransactional, getContext(syncTransactional), lineUpContext);
          if (!lineUpContext && !syncTransactional)
          {
@@ -1299,6 +1520,29 @@ public class JournalStorageManager implements StorageManager
       }
    }
 
+   public void storeDuplicateIDSegmentTransactional(final long txID,
+                                                    final long recordID,
+                                                    final SimpleString address,
+                                                    final int ringSize,
+                                                    final long[] sequences,
+                                                    final byte[][] duplIDs) throws Exception
+   {
+      DuplicateIDSegmentEncoding encoding = new DuplicateIDSegmentEncoding(address, ringSize, sequences, duplIDs);
+
+      readLock();
+      try
+      {
+         messageJournal.appendAddRecordTransactional(txID,
+                                                     recordID,
+                                                     JournalStorageManager.DUPLICATE_ID_SEGMENT,
+                                                     encoding);
+      }
+      finally
+      {
+         readUnLock();
+      }
+   }
+
    public void deleteDuplicateIDTransactional(final long txID, final long recordID) throws Exception
    {
       readLock();
@@ -1460,12 +1704,21 @@ public class JournalStorageManager implements StorageManager
             preparedTransactions,
             new LargeMessageTXFailureCallback(messages));
 
+         HornetQServerLogger.LOGGER.journalLoaded(info.getNumberOfRecords(),
+                                                  info.getBytesLoaded(),
+                                                  info.getLoadTime(),
+                                                  journalLoadThreads,
+                                                  info.getRecordsPerSecond(),
+                                                  info.getBytesPerSecond());
+
          ArrayList<LargeServerMessage> largeMessages = new ArrayList<LargeServerMessage>();
 
          Map<Long, Map<Long, AddMessageRecord>> queueMap = new HashMap<Long, Map<Long, AddMessageRecord>>();
 
          Map<Long, PageSubscription> pageSubscriptions = new HashMap<Long, PageSubscription>();
 
+         DuplicateIDSegments duplicateIDSegments = new DuplicateIDSegments();
+
          final int totalSize = records.size();
 
          for (int reccount = 0; reccount < totalSize; reccount++)
@@ -1550,6 +1803,39 @@ public class JournalStorageManager implements StorageManager
 
                   break;
                }
+               case ADD_REFS:
+               {
+                  long messageID = record.id;
+
+                  RefsEncoding encoding = new RefsEncoding();
+
+                  encoding.decode(buff);
+
+                  ServerMessage message = messages.get(messageID);
+
+                  if (message == null)
+                  {
+                     HornetQServerLogger.LOGGER.cannotFindMessage(record.id);
+
+                     break;
+                  }
+
+                  for (long queueID : encoding.queueIDs)
+                  {
+                     Map<Long, AddMessageRecord> queueMessages = queueMap.get(queueID);
+
+                     if (queueMessages == null)
+                     {
+                        queueMessages = new LinkedHashMap<Long, AddMessageRecord>();
+
+                        queueMap.put(queueID, queueMessages);
+                     }
+
+                     queueMessages.put(messageID, new AddMessageRecord(message));
+                  }
+
+                  break;
+               }
                case ACKNOWLEDGE_REF:
                {
                   long messageID = record.id;
@@ -1681,6 +1967,27 @@ public class JournalStorageManager implements StorageManager
 
                   break;
                }
+               case DUPLICATE_ID_SEGMENT:
+               {
+                  if (record.isUpdate)
+                  {
+                     DuplicateIDDeltaEncoding encoding = new DuplicateIDDeltaEncoding();
+
+                     encoding.decode(buff);
+
+                     duplicateIDSegments.addDelta(record.id, encoding);
+                  }
+                  else
+                  {
+                     DuplicateIDSegmentEncoding encoding = new DuplicateIDSegmentEncoding();
+
+                     encoding.decode(buff);
+
+                     duplicateIDSegments.addSegment(record.id, encoding);
+                  }
+
+                  break;
+               }
                case HEURISTIC_COMPLETION:
                {
                   HeuristicCompletionEncoding encoding = new HeuristicCompletionEncoding();
@@ -1790,6 +2097,11 @@ public class JournalStorageManager implements StorageManager
          records.clear();
          records = null;
 
+         for (Long deadSegment : duplicateIDSegments.load(duplicateIDMap))
+         {
+            messageJournal.appendDeleteRecord(deadSegment, false);
+         }
+
          for (Map.Entry<Long, Map<Long, AddMessageRecord>> entry : queueMap.entrySet())
          {
             long queueID = entry.getKey();
@@ -2204,6 +2516,11 @@ public class JournalStorageManager implements StorageManager
 
       checkAndCreateDir(journalDir, createJournalDir);
 
+      if (journalWalDir != null)
+      {
+         checkAndCreateDir(journalWalDir, createJournalDir);
+      }
+
       checkAndCreateDir(largeMessagesDirectory, createJournalDir);
 
       cleanupIncompleteFiles();
@@ -2320,6 +2637,16 @@ public class JournalStorageManager implements StorageManager
       return messageJournal;
    }
 
+   public AdaptiveBufferTimeout getAdaptiveBufferTimeout()
+   {
+      return adaptiveBufferTimeout;
+   }
+
+   public JournalGroupCommit getGroupCommit()
+   {
+      return groupCommit;
+   }
+
    public Journal getBindingsJournal()
    {
       return bindingsJournal;
@@ -2532,6 +2859,37 @@ public class JournalStorageManager implements StorageManager
 
                   break;
                }
+               case ADD_REFS:
+               {
+                  long messageID = record.id;
+
+                  RefsEncoding encoding = new RefsEncoding();
+
+                  encoding.decode(buff);
+
+                  ServerMessage message = messages.get(messageID);
+
+                  if (message == null)
+                  {
+                     throw new IllegalStateException("Cannot find message with id " + messageID);
+                  }
+
+                  for (long queueID : encoding.queueIDs)
+                  {
+                     Queue queue = queues.get(queueID);
+
+                     if (queue == null)
+                     {
+                        HornetQServerLogger.LOGGER.journalMessageInPreparedTX(queueID);
+                     }
+                     else
+                     {
+                        postOffice.reroute(message, queue, tx);
+                     }
+                  }
+
+                  break;
+               }
                case ACKNOWLEDGE_REF:
                {
                   long messageID = record.id;
@@ -3233,51 +3591,208 @@ public class JournalStorageManager implements StorageManager
       }
    }
 
-   public static class PageUpdateTXEncoding implements EncodingSupport
+   /**
+    * The queues of an {@link JournalStorageManager#ADD_REFS} record. Queue IDs come from the same sequence, so the
+    * queues of an address are usually close to each other and get encoded as a bitmap of their offsets to the lowest
+    * ID. A plain list is used when the bitmap would be larger.
+    */
+   public static class RefsEncoding implements EncodingSupport
    {
+      private static final byte LIST = 0;
 
-      public long pageTX;
+      private static final byte BITMAP = 1;
 
-      public int recods;
+      public long[] queueIDs;
 
-      @Override
-      public String toString()
+      public RefsEncoding()
       {
-         return "PageUpdateTXEncoding [pageTX=" + pageTX + ", recods=" + recods + "]";
       }
 
-      public PageUpdateTXEncoding()
+      public RefsEncoding(final long[] queueIDs)
       {
+         this.queueIDs = queueIDs;
       }
 
-      public PageUpdateTXEncoding(final long pageTX, final int records)
+      public void encode(final HornetQBuffer buffer)
       {
-         this.pageTX = pageTX;
-         this.recods = records;
-      }
+         long base = minQueueID();
 
-      public void decode(HornetQBuffer buffer)
-      {
-         this.pageTX = buffer.readLong();
-         this.recods = buffer.readInt();
-      }
+         int words = bitmapWords(base);
 
-      /* (non-Javadoc)
-       * @see org.hornetq.core.journal.EncodingSupport#encode(org.hornetq.api.core.HornetQBuffer)
-       */
-      public void encode(HornetQBuffer buffer)
-      {
-         buffer.writeLong(pageTX);
-         buffer.writeInt(recods);
-      }
+         if (words <= queueIDs.length)
+         {
+            long[] bitmap = new long[words];
 
-      /* (non-Javadoc)
-       * @see org.hornetq.core.journal.EncodingSupport#getEncodeSize()
-       */
-      public int getEncodeSize()
-      {
-         return DataConstants.SIZE_LONG + DataConstants.SIZE_INT;
-      }
+            for (long queueID : queueIDs)
+            {
+               long offset = queueID - base;
+
+               bitmap[(int)(offset >>> 6)] |= 1L << offset;
+            }
+
+            buffer.writeByte(BITMAP);
+            buffer.writeInt(queueIDs.length);
+            buffer.writeLong(base);
+            buffer.writeInt(words);
+
+            for (long word : bitmap)
+            {
+               buffer.writeLong(word);
+            }
+         }
+         else
+         {
+            buffer.writeByte(LIST);
+            buffer.writeInt(queueIDs.length);
+
+            for (long queueID : queueIDs)
+            {
+               buffer.writeLong(queueID);
+            }
+         }
+      }
+
+      public void decode(final HornetQBuffer buffer)
+      {
+         byte format = buffer.readByte();
+
+         queueIDs = new long[buffer.readInt()];
+
+         if (format == BITMAP)
+         {
+            long base = buffer.readLong();
+
+            int words = buffer.readInt();
+
+            int count = 0;
+
+            for (int i = 0; i < words; i++)
+            {
+               long word = buffer.readLong();
+
+               while (word != 0)
+               {
+                  int bit = Long.numberOfTrailingZeros(word);
+
+                  queueIDs[count++] = base + (i << 6) + bit;
+
+                  word &= word - 1;
+               }
+            }
+         }
+         else
+         {
+            for (int i = 0; i < queueIDs.length; i++)
+            {
+               queueIDs[i] = buffer.readLong();
+            }
+         }
+      }
+
+      public int getEncodeSize()
+      {
+         int words = bitmapWords(minQueueID());
+
+         if (words <= queueIDs.length)
+         {
+            return DataConstants.SIZE_BYTE + DataConstants.SIZE_INT +
+                   DataConstants.SIZE_LONG +
+                   DataConstants.SIZE_INT +
+                   words *
+                   DataConstants.SIZE_LONG;
+         }
+         else
+         {
+            return DataConstants.SIZE_BYTE + DataConstants.SIZE_INT + queueIDs.length * DataConstants.SIZE_LONG;
+         }
+      }
+
+      private long minQueueID()
+      {
+         long min = Long.MAX_VALUE;
+
+         for (long queueID : queueIDs)
+         {
+            min = Math.min(min, queueID);
+         }
+
+         return min;
+      }
+
+      /**
+       * @return the number of longs needed by the bitmap, or {@link Integer#MAX_VALUE} if the IDs are too far apart
+       */
+      private int bitmapWords(final long base)
+      {
+         long max = Long.MIN_VALUE;
+
+         for (long queueID : queueIDs)
+         {
+            max = Math.max(max, queueID);
+         }
+
+         long span = max - base;
+
+         if (span < 0 || span >= ((long)queueIDs.length << 6))
+         {
+            return Integer.MAX_VALUE;
+         }
+
+         return (int)(span >>> 6) + 1;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "RefsEncoding [queueIDs=" + Arrays.toString(queueIDs) + "]";
+      }
+   }
+
+   public static class PageUpdateTXEncoding implements EncodingSupport
+   {
+
+      public long pageTX;
+
+      public int recods;
+
+      @Override
+      public String toString()
+      {
+         return "PageUpdateTXEncoding [pageTX=" + pageTX + ", recods=" + recods + "]";
+      }
+
+      public PageUpdateTXEncoding()
+      {
+      }
+
+      public PageUpdateTXEncoding(final long pageTX, final int records)
+      {
+         this.pageTX = pageTX;
+         this.recods = records;
+      }
+
+      public void decode(HornetQBuffer buffer)
+      {
+         this.pageTX = buffer.readLong();
+         this.recods = buffer.readInt();
+      }
+
+      /* (non-Javadoc)
+       * @see org.hornetq.core.journal.EncodingSupport#encode(org.hornetq.api.core.HornetQBuffer)
+       */
+      public void encode(HornetQBuffer buffer)
+      {
+         buffer.writeLong(pageTX);
+         buffer.writeInt(recods);
+      }
+
+      /* (non-Javadoc)
+       * @see org.hornetq.core.journal.EncodingSupport#getEncodeSize()
+       */
+      public int getEncodeSize()
+      {
+         return DataConstants.SIZE_LONG + DataConstants.SIZE_INT;
+      }
 
       public List<MessageReference> getRelatedMessageReferences()
       {
@@ -3383,6 +3898,308 @@ public class JournalStorageManager implements StorageManager
 
    }
 
+   public static class DuplicateIDSegmentEncoding implements EncodingSupport
+   {
+      SimpleString address;
+
+      int ringSize;
+
+      long[] sequences;
+
+      byte[][] duplIDs;
+
+      public DuplicateIDSegmentEncoding(final SimpleString address,
+                                        final int ringSize,
+                                        final long[] sequences,
+                                        final byte[][] duplIDs)
+      {
+         this.address = address;
+
+         this.ringSize = ringSize;
+
+         this.sequences = sequences;
+
+         this.duplIDs = duplIDs;
+      }
+
+      public DuplicateIDSegmentEncoding()
+      {
+      }
+
+      public void decode(final HornetQBuffer buffer)
+      {
+         address = buffer.readSimpleString();
+
+         ringSize = buffer.readInt();
+
+         int count = buffer.readInt();
+
+         sequences = new long[count];
+
+         duplIDs = new byte[count][];
+
+         for (int i = 0; i < count; i++)
+         {
+            sequences[i] = buffer.readLong();
+
+            duplIDs[i] = new byte[buffer.readInt()];
+
+            buffer.readBytes(duplIDs[i]);
+         }
+      }
+
+      public void encode(final HornetQBuffer buffer)
+      {
+         buffer.writeSimpleString(address);
+
+         buffer.writeInt(ringSize);
+
+         buffer.writeInt(sequences.length);
+
+         for (int i = 0; i < sequences.length; i++)
+         {
+            buffer.writeLong(sequences[i]);
+
+            buffer.writeInt(duplIDs[i].length);
+
+            buffer.writeBytes(duplIDs[i]);
+         }
+      }
+
+      public int getEncodeSize()
+      {
+         int size = SimpleString.sizeofString(address) + DataConstants.SIZE_INT + DataConstants.SIZE_INT;
+
+         for (byte[] duplID : duplIDs)
+         {
+            size += DataConstants.SIZE_LONG + DataConstants.SIZE_INT + duplID.length;
+         }
+
+         return size;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "DuplicateIDSegmentEncoding [address=" + address + ", ringSize=" + ringSize + ", ids=" +
+                sequences.length + "]";
+      }
+
+   }
+
+   public static class DuplicateIDDeltaEncoding implements EncodingSupport
+   {
+      long sequence;
+
+      // null when the id of this sequence was removed
+      byte[] duplID;
+
+      public DuplicateIDDeltaEncoding(final long sequence, final byte[] duplID)
+      {
+         this.sequence = sequence;
+
+         this.duplID = duplID;
+      }
+
+      public DuplicateIDDeltaEncoding()
+      {
+      }
+
+      public void decode(final HornetQBuffer buffer)
+      {
+         sequence = buffer.readLong();
+
+         int size = buffer.readInt();
+
+         if (size >= 0)
+         {
+            duplID = new byte[size];
+
+            buffer.readBytes(duplID);
+         }
+      }
+
+      public void encode(final HornetQBuffer buffer)
+      {
+         buffer.writeLong(sequence);
+
+         if (duplID == null)
+         {
+            buffer.writeInt(-1);
+         }
+         else
+         {
+            buffer.writeInt(duplID.length);
+
+            buffer.writeBytes(duplID);
+         }
+      }
+
+      public int getEncodeSize()
+      {
+         return DataConstants.SIZE_LONG + DataConstants.SIZE_INT + (duplID == null ? 0 : duplID.length);
+      }
+
+      @Override
+      public String toString()
+      {
+         return "DuplicateIDDeltaEncoding [sequence=" + sequence + ", duplID=" + Arrays.toString(duplID) + "]";
+      }
+
+   }
+
+   /**
+    * Rebuilds the rings of the duplicate ID caches from their segment records while the journal is loaded. The ids
+    * are resolved by position, the latest sequence on a position being the one still in the cache.
+    */
+   private static final class DuplicateIDSegments
+   {
+      private final Map<Long, DuplicateIDSegmentEncoding> segments = new LinkedHashMap<Long, DuplicateIDSegmentEncoding>();
+
+      private final Map<Long, List<DuplicateIDDeltaEncoding>> deltas = new HashMap<Long, List<DuplicateIDDeltaEncoding>>();
+
+      void addSegment(final long recordID, final DuplicateIDSegmentEncoding segment)
+      {
+         segments.put(recordID, segment);
+      }
+
+      void addDelta(final long recordID, final DuplicateIDDeltaEncoding delta)
+      {
+         List<DuplicateIDDeltaEncoding> list = deltas.get(recordID);
+
+         if (list == null)
+         {
+            list = new ArrayList<DuplicateIDDeltaEncoding>();
+
+            deltas.put(recordID, list);
+         }
+
+         list.add(delta);
+      }
+
+      /**
+       * Adds the ids of the segments to the duplicate ID map, oldest first, after any id stored on a record of its
+       * own.
+       * @return the segment records without any id left, which can be deleted
+       */
+      List<Long> load(final Map<SimpleString, List<Pair<byte[], Long>>> duplicateIDMap)
+      {
+         Map<SimpleString, Map<Integer, RingEntry>> rings = new HashMap<SimpleString, Map<Integer, RingEntry>>();
+
+         for (Map.Entry<Long, DuplicateIDSegmentEncoding> segmentEntry : segments.entrySet())
+         {
+            long recordID = segmentEntry.getKey();
+
+            DuplicateIDSegmentEncoding segment = segmentEntry.getValue();
+
+            Map<Integer, RingEntry> ring = rings.get(segment.address);
+
+            if (ring == null)
+            {
+               ring = new HashMap<Integer, RingEntry>();
+
+               rings.put(segment.address, ring);
+            }
+
+            for (int i = 0; i < segment.sequences.length; i++)
+            {
+               apply(ring, segment.ringSize, new RingEntry(segment.sequences[i], segment.duplIDs[i], recordID));
+            }
+
+            List<DuplicateIDDeltaEncoding> segmentDeltas = deltas.get(recordID);
+
+            if (segmentDeltas != null)
+            {
+               for (DuplicateIDDeltaEncoding delta : segmentDeltas)
+               {
+                  apply(ring, segment.ringSize, new RingEntry(delta.sequence, delta.duplID, recordID));
+               }
+            }
+         }
+
+         Set<Long> usedRecords = new HashSet<Long>();
+
+         for (Map.Entry<SimpleString, Map<Integer, RingEntry>> ringEntry : rings.entrySet())
+         {
+            List<RingEntry> entries = new ArrayList<RingEntry>(ringEntry.getValue().values());
+
+            Collections.sort(entries);
+
+            List<Pair<byte[], Long>> ids = null;
+
+            for (RingEntry entry : entries)
+            {
+               if (entry.duplID == null)
+               {
+                  continue;
+               }
+
+               if (ids == null)
+               {
+                  ids = duplicateIDMap.get(ringEntry.getKey());
+
+                  if (ids == null)
+                  {
+                     ids = new ArrayList<Pair<byte[], Long>>();
+
+                     duplicateIDMap.put(ringEntry.getKey(), ids);
+                  }
+               }
+
+               ids.add(new Pair<byte[], Long>(entry.duplID, entry.recordID));
+
+               usedRecords.add(entry.recordID);
+            }
+         }
+
+         List<Long> deadRecords = new ArrayList<Long>();
+
+         for (Long recordID : segments.keySet())
+         {
+            if (!usedRecords.contains(recordID))
+            {
+               deadRecords.add(recordID);
+            }
+         }
+
+         return deadRecords;
+      }
+
+      private static void apply(final Map<Integer, RingEntry> ring, final int ringSize, final RingEntry entry)
+      {
+         Integer position = (int)(entry.sequence % ringSize);
+
+         RingEntry previous = ring.get(position);
+
+         // A removal has the sequence of the id it removes
+         if (previous == null || entry.sequence >= previous.sequence)
+         {
+            ring.put(position, entry);
+         }
+      }
+
+      private static final class RingEntry implements Comparable<RingEntry>
+      {
+         final long sequence;
+
+         final byte[] duplID;
+
+         final long recordID;
+
+         RingEntry(final long sequence, final byte[] duplID, final long recordID)
+         {
+            this.sequence = sequence;
+            this.duplID = duplID;
+            this.recordID = recordID;
+         }
+
+         public int compareTo(final RingEntry other)
+         {
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+         }
+      }
+   }
+
    /** This is only used when loading a transaction
     it might be possible to merge the functionality of this class with {@link PagingStoreImpl.FinishPageMessageOperation}
 
@@ -3717,6 +4534,13 @@ public class JournalStorageManager implements StorageManager
             return new ReferenceDescribe(encoding);
          }
 
+         case ADD_REFS:
+         {
+            final RefsEncoding encoding = new RefsEncoding();
+            encoding.decode(buffer);
+            return new ReferencesDescribe(encoding);
+         }
+
          case ACKNOWLEDGE_REF:
          {
             final RefEncoding encoding = new RefEncoding();
@@ -3769,6 +4593,25 @@ public class JournalStorageManager implements StorageManager
 
             return encoding;
          }
+         case DUPLICATE_ID_SEGMENT:
+         {
+            if (info.isUpdate)
+            {
+               DuplicateIDDeltaEncoding encoding = new DuplicateIDDeltaEncoding();
+
+               encoding.decode(buffer);
+
+               return encoding;
+            }
+            else
+            {
+               DuplicateIDSegmentEncoding encoding = new DuplicateIDSegmentEncoding();
+
+               encoding.decode(buffer);
+
+               return encoding;
+            }
+         }
          case HEURISTIC_COMPLETION:
          {
             HeuristicCompletionEncoding encoding = new HeuristicCompletionEncoding();
@@ -3852,6 +4695,23 @@ public class JournalStorageManager implements StorageManager
 
    }
 
+   public static class ReferencesDescribe
+   {
+      public RefsEncoding refsEncoding;
+
+      public ReferencesDescribe(RefsEncoding refsEncoding)
+      {
+         this.refsEncoding = refsEncoding;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "AddRefs;" + refsEncoding;
+      }
+
+   }
+
    public static class AckDescribe
    {
       public RefEncoding refEncoding;
@@ -4117,6 +4977,15 @@ public class JournalStorageManager implements StorageManager
                messageRefCounts.put(ref.refEncoding.queueID, count + 1);
             }
          }
+         else if (info.getUserRecordType() == JournalStorageManager.ADD_REFS)
+         {
+            ReferencesDescribe refs = (ReferencesDescribe)o;
+            for (long queueID : refs.refsEncoding.queueIDs)
+            {
+               Integer count = messageRefCounts.get(queueID);
+               messageRefCounts.put(queueID, count == null ? 1 : count + 1);
+            }
+         }
          else if (info.getUserRecordType() == JournalStorageManager.ACKNOWLEDGE_REF)
          {
             AckDescribe ref = (AckDescribe)o;
@@ -18,6 +18,7 @@ import static org.hornetq.core.persistence.impl.journal.JournalStorageManager.AC
 import static org.hornetq.core.persistence.impl.journal.JournalStorageManager.ADD_LARGE_MESSAGE;
 import static org.hornetq.core.persistence.impl.journal.JournalStorageManager.ADD_MESSAGE;
 import static org.hornetq.core.persistence.impl.journal.JournalStorageManager.ADD_REF;
+import static org.hornetq.core.persistence.impl.journal.JournalStorageManager.ADD_REFS;
 import static org.hornetq.core.persistence.impl.journal.JournalStorageManager.PAGE_TRANSACTION;
 import static org.hornetq.core.persistence.impl.journal.JournalStorageManager.QUEUE_BINDING_RECORD;
 import static org.hornetq.core.persistence.impl.journal.JournalStorageManager.newObjectEncoding;
@@ -74,7 +75,9 @@ import org.hornetq.core.persistence.impl.journal.JournalStorageManager.CursorAck
 import org.hornetq.core.persistence.impl.journal.JournalStorageManager.MessageDescribe;
 import org.hornetq.core.persistence.impl.journal.JournalStorageManager.PageUpdateTXEncoding;
 import org.hornetq.core.persistence.impl.journal.JournalStorageManager.PersistentQueueBindingEncoding;
+import org.hornetq.core.persistence.impl.journal.JournalStorageManager.RefEncoding;
 import org.hornetq.core.persistence.impl.journal.JournalStorageManager.ReferenceDescribe;
+import org.hornetq.core.persistence.impl.journal.JournalStorageManager.ReferencesDescribe;
 import org.hornetq.core.persistence.impl.nullpm.NullStorageManager;
 import org.hornetq.core.server.HornetQServerLogger;
 import org.hornetq.core.server.JournalType;
@@ -291,17 +294,13 @@ public final class XmlDataExporter
          }
          else if (info.getUserRecordType() == ADD_REF)
          {
-            ReferenceDescribe ref = (ReferenceDescribe) o;
-            HashMap<Long, ReferenceDescribe> map = messageRefs.get(info.id);
-            if (map == null)
-            {
-               HashMap<Long, ReferenceDescribe> newMap = new HashMap<Long, ReferenceDescribe>();
-               newMap.put(ref.refEncoding.queueID, ref);
-               messageRefs.put(info.id, newMap);
-            }
-            else
+            addMessageRef(info.id, (ReferenceDescribe) o);
+         }
+         else if (info.getUserRecordType() == ADD_REFS)
+         {
+            for (long queueID : ((ReferencesDescribe) o).refsEncoding.queueIDs)
             {
-               map.put(ref.refEncoding.queueID, ref);
+               addMessageRef(info.id, new ReferenceDescribe(new RefEncoding(queueID)));
             }
          }
          else if (info.getUserRecordType() == ACKNOWLEDGE_REF)
@@ -349,6 +348,17 @@ public final class XmlDataExporter
       removeAcked(acks);
    }
 
+   private void addMessageRef(long messageID, ReferenceDescribe ref)
+   {
+      HashMap<Long, ReferenceDescribe> map = messageRefs.get(messageID);
+      if (map == null)
+      {
+         map = new HashMap<Long, ReferenceDescribe>();
+         messageRefs.put(messageID, map);
+      }
+      map.put(ref.refEncoding.queueID, ref);
+   }
+
    /**
     * Go back through the messages and message refs we found in the journal and remove the ones that have been acked.
     *
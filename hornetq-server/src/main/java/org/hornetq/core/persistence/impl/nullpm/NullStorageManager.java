@@ -29,6 +29,7 @@ import org.hornetq.core.journal.IOAsyncTask;
 import org.hornetq.core.journal.Journal;
 import org.hornetq.core.journal.JournalLoadInformation;
 import org.hornetq.core.journal.SequentialFile;
+import org.hornetq.core.journal.impl.AdaptiveBufferTimeout;
 import org.hornetq.core.message.impl.MessageInternal;
 import org.hornetq.core.paging.PageTransactionInfo;
 import org.hornetq.core.paging.PagedMessage;
@@ -41,6 +42,7 @@ import org.hornetq.core.persistence.QueueBindingInfo;
 import org.hornetq.core.persistence.StorageManager;
 import org.hornetq.core.persistence.config.PersistedAddressSetting;
 import org.hornetq.core.persistence.config.PersistedRoles;
+import org.hornetq.core.persistence.impl.journal.JournalGroupCommit;
 import org.hornetq.core.postoffice.Binding;
 import org.hornetq.core.postoffice.PostOffice;
 import org.hornetq.core.replication.ReplicationManager;
@@ -162,11 +164,27 @@ public class NullStorageManager implements StorageManager
    {
    }
 
+   @Override
+   public void storeReferences(final ServerMessage message,
+                               final boolean storeMessage,
+                               final long[] queueIDs,
+                               final boolean last) throws Exception
+   {
+   }
+
    @Override
    public void storeReferenceTransactional(final long txID, final long queueID, final long messageID) throws Exception
    {
    }
 
+   @Override
+   public void storeReferencesTransactional(final long txID,
+                                            final ServerMessage message,
+                                            final boolean storeMessage,
+                                            final long[] queueIDs) throws Exception
+   {
+   }
+
    @Override
    public void storeAcknowledge(final long queueID, final long messageID) throws Exception
    {
@@ -328,6 +346,29 @@ public class NullStorageManager implements StorageManager
    {
    }
 
+   @Override
+   public void storeDuplicateIDSegment(final long recordID, final SimpleString address, final int ringSize)
+      throws Exception
+   {
+   }
+
+   @Override
+   public void storeDuplicateIDDelta(final long segmentRecordID,
+                                     final long sequence,
+                                     final byte[] duplID) throws Exception
+   {
+   }
+
+   @Override
+   public void storeDuplicateIDSegmentTransactional(final long txID,
+                                                    final long recordID,
+                                                    final SimpleString address,
+                                                    final int ringSize,
+                                                    final long[] sequences,
+                                                    final byte[][] duplIDs) throws Exception
+   {
+   }
+
    @Override
    public void pageClosed(final SimpleString storeName, final int pageNumber)
    {
@@ -544,6 +585,18 @@ public class NullStorageManager implements StorageManager
       return null;
    }
 
+   @Override
+   public AdaptiveBufferTimeout getAdaptiveBufferTimeout()
+   {
+      return null;
+   }
+
+   @Override
+   public JournalGroupCommit getGroupCommit()
+   {
+      return null;
+   }
+
    @Override
    public void startReplication(final ReplicationManager replicationManager, final PagingManager pagingManager,
                                 final String nodeID, final boolean autoFailBack) throws Exception
@@ -12,8 +12,6 @@
  */
 package org.hornetq.core.postoffice;
 
-import java.util.List;
-
 import org.hornetq.api.core.SimpleString;
 
 /**
@@ -29,12 +27,6 @@ public interface Address
 
    boolean containsWildCard();
 
-   List<Address> getLinkedAddresses();
-
-   void addLinkedAddress(Address address);
-
-   void removeLinkedAddress(Address actualAddress);
-
    void removeAddressPart(int pos);
 
    boolean matches(Address add);
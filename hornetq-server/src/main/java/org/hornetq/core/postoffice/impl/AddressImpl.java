@@ -12,9 +12,6 @@
  */
 package org.hornetq.core.postoffice.impl;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.postoffice.Address;
 
@@ -31,8 +28,6 @@ public class AddressImpl implements Address
 
    private boolean containsWildCard;
 
-   private final List<Address> linkedAddresses = new ArrayList<Address>();
-
    public AddressImpl(final SimpleString address)
    {
       this.address = address;
@@ -55,24 +50,6 @@ public class AddressImpl implements Address
       return containsWildCard;
    }
 
-   public List<Address> getLinkedAddresses()
-   {
-      return linkedAddresses;
-   }
-
-   public void addLinkedAddress(final Address address)
-   {
-      if(!linkedAddresses.contains(address))
-      {
-         linkedAddresses.add(address);
-      }
-   }
-
-   public void removeLinkedAddress(final Address actualAddress)
-   {
-      linkedAddresses.remove(actualAddress);
-   }
-
    public void removeAddressPart(final int pos)
    {
       SimpleString newAddress = new SimpleString("");
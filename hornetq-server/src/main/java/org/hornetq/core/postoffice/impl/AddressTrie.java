@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.hornetq.core.postoffice.impl;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.postoffice.Address;
+
+/**
+ * A tree of addresses keyed by their words, so the {@link WildcardAddressManager} finds the wildcard addresses matching
+ * an address, or the addresses matching a wildcard address, without comparing it with all of them.
+ * <p>
+ * The lookups follow the usual meaning of the wildcards: {@code *} stands for exactly one word and {@code #} for any
+ * number of words, including none. They may return addresses which {@link Address#matches(Address)} doesn't accept, so
+ * the callers still check the addresses they get with it.
+ * <p>
+ * The lookups can run at any time, but the changes must be serialized by the caller.
+ */
+final class AddressTrie
+{
+   private final Node root = new Node();
+
+   /**
+    * @return false if the address was already there
+    */
+   boolean add(final Address address)
+   {
+      Node node = root;
+
+      for (SimpleString word : address.getAddressParts())
+      {
+         node = node.addChild(word);
+      }
+
+      if (node.address != null)
+      {
+         return false;
+      }
+
+      node.address = address;
+
+      return true;
+   }
+
+   /**
+    * @return false if the address wasn't there
+    */
+   boolean remove(final Address address)
+   {
+      SimpleString[] words = address.getAddressParts();
+
+      Node[] path = new Node[words.length + 1];
+
+      path[0] = root;
+
+      for (int i = 0; i < words.length; i++)
+      {
+         path[i + 1] = path[i].getChild(words[i]);
+
+         if (path[i + 1] == null)
+         {
+            return false;
+         }
+      }
+
+      Node node = path[words.length];
+
+      if (node.address == null)
+      {
+         return false;
+      }
+
+      node.address = null;
+
+      // drops the nodes left with nothing under them
+      for (int i = words.length; i > 0 && path[i].isEmpty(); i--)
+      {
+         path[i - 1].children.remove(words[i - 1]);
+      }
+
+      return true;
+   }
+
+   boolean contains(final Address address)
+   {
+      Node node = root;
+
+      for (SimpleString word : address.getAddressParts())
+      {
+         node = node.getChild(word);
+
+         if (node == null)
+         {
+            return false;
+         }
+      }
+
+      return node.address != null;
+   }
+
+   boolean isEmpty()
+   {
+      return root.isEmpty();
+   }
+
+   void clear()
+   {
+      root.children = null;
+   }
+
+   /**
+    * Adds the wildcard addresses of this trie which match the words of an address.
+    */
+   void matchWildcards(final SimpleString[] words, final Set<Address> result)
+   {
+      matchWildcards(root, words, 0, result);
+   }
+
+   /**
+    * Adds the addresses of this trie which match the words of a wildcard address.
+    */
+   void matchAddresses(final SimpleString[] pattern, final Set<Address> result)
+   {
+      matchAddresses(root, pattern, 0, result);
+   }
+
+   private static void matchWildcards(final Node node, final SimpleString[] words, final int pos, final Set<Address> result)
+   {
+      if (pos == words.length)
+      {
+         Address address = node.address;
+
+         if (address != null)
+         {
+            result.add(address);
+         }
+      }
+      else
+      {
+         Node child = node.getChild(words[pos]);
+
+         if (child != null)
+         {
+            matchWildcards(child, words, pos + 1, result);
+         }
+
+         child = node.getChild(WildcardAddressManager.SINGLE_WORD_SIMPLESTRING);
+
+         if (child != null)
+         {
+            matchWildcards(child, words, pos + 1, result);
+         }
+      }
+
+      Node anyWords = node.getChild(WildcardAddressManager.ANY_WORDS_SIMPLESTRING);
+
+      if (anyWords != null)
+      {
+         for (int next = pos; next <= words.length; next++)
+         {
+            matchWildcards(anyWords, words, next, result);
+         }
+      }
+   }
+
+   private static void matchAddresses(final Node node,
+                                      final SimpleString[] pattern,
+                                      final int pos,
+                                      final Set<Address> result)
+   {
+      if (pos == pattern.length)
+      {
+         Address address = node.address;
+
+         if (address != null)
+         {
+            result.add(address);
+         }
+
+         return;
+      }
+
+      SimpleString word = pattern[pos];
+
+      if (word.equals(WildcardAddressManager.ANY_WORDS_SIMPLESTRING))
+      {
+         // no word, or one more word still matched by the same #
+         matchAddresses(node, pattern, pos + 1, result);
+
+         ConcurrentMap<SimpleString, Node> children = node.children;
+
+         if (children != null)
+         {
+            for (Node child : children.values())
+            {
+               matchAddresses(child, pattern, pos, result);
+            }
+         }
+      }
+      else if (word.equals(WildcardAddressManager.SINGLE_WORD_SIMPLESTRING))
+      {
+         ConcurrentMap<SimpleString, Node> children = node.children;
+
+         if (children != null)
+         {
+            for (Node child : children.values())
+            {
+               matchAddresses(child, pattern, pos + 1, result);
+            }
+         }
+      }
+      else
+      {
+         Node child = node.getChild(word);
+
+         if (child != null)
+         {
+            matchAddresses(child, pattern, pos + 1, result);
+         }
+      }
+   }
+
+   private static final class Node
+   {
+      // Only created for the nodes with children, most of the nodes are leaves
+      volatile ConcurrentMap<SimpleString, Node> children;
+
+      // The address ending on this node, if any
+      volatile Address address;
+
+      Node getChild(final SimpleString word)
+      {
+         ConcurrentMap<SimpleString, Node> map = children;
+
+         return map == null ? null : map.get(word);
+      }
+
+      Node addChild(final SimpleString word)
+      {
+         ConcurrentMap<SimpleString, Node> map = children;
+
+         if (map == null)
+         {
+            map = children = new ConcurrentHashMap<SimpleString, Node>(4);
+         }
+
+         Node child = map.get(word);
+
+         if (child == null)
+         {
+            child = new Node();
+
+            map.put(word, child);
+         }
+
+         return child;
+      }
+
+      boolean isEmpty()
+      {
+         ConcurrentMap<SimpleString, Node> map = children;
+
+         return address == null && (map == null || map.isEmpty());
+      }
+   }
+}
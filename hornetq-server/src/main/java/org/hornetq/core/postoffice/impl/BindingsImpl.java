@@ -16,12 +16,15 @@ package org.hornetq.core.postoffice.impl;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hornetq.api.core.Message;
 import org.hornetq.api.core.SimpleString;
@@ -42,6 +45,10 @@ import org.hornetq.core.server.group.impl.Response;
 /**
  * A BindingsImpl
  *
+ * Messages are routed from a {@link RoutingPlan}, an array snapshot of the bindings built on the first route after
+ * the bindings change, so routing doesn't walk the maps the bindings are kept on. A routing name whose bindings have
+ * no filter and need no consumer check gets its binding straight from the round robin position.
+ *
  * @author <a href="mailto:tim.fox@jboss.com">Tim Fox</a>
  *
  *         Created 11 Dec 2008 08:34:33
@@ -54,12 +61,15 @@ public class BindingsImpl implements Bindings
 
    private final ConcurrentMap<SimpleString, List<Binding>> routingNameBindingMap = new ConcurrentHashMap<SimpleString, List<Binding>>();
 
-   private final Map<SimpleString, Integer> routingNamePositions = new ConcurrentHashMap<SimpleString, Integer>();
-
    private final Map<Long, Binding> bindingsMap = new ConcurrentHashMap<Long, Binding>();
 
    private final List<Binding> exclusiveBindings = new CopyOnWriteArrayList<Binding>();
 
+   // Incremented after every change to the bindings, a plan of an older version is rebuilt before routing
+   private final AtomicInteger version = new AtomicInteger();
+
+   private volatile RoutingPlan plan;
+
    private volatile boolean routeWhenNoConsumers;
 
    private final GroupingHandler groupingHandler;
@@ -118,6 +128,8 @@ public class BindingsImpl implements Bindings
 
       bindingsMap.put(binding.getID(), binding);
 
+      version.incrementAndGet();
+
       if (isTrace)
       {
          HornetQServerLogger.LOGGER.trace("Adding binding " + binding + " into " + this + " bindingTable: " + debugBindings());
@@ -150,6 +162,8 @@ public class BindingsImpl implements Bindings
 
       bindingsMap.remove(binding.getID());
 
+      version.incrementAndGet();
+
       if (isTrace)
       {
          HornetQServerLogger.LOGGER.trace("Removing binding " + binding + " into " + this + " bindingTable: " + debugBindings());
@@ -169,22 +183,20 @@ public class BindingsImpl implements Bindings
          HornetQServerLogger.LOGGER.trace("Redistributing message " + message);
       }
 
-      SimpleString routingName = originatingQueue.getName();
+      RoutingPlan currentPlan = getPlan();
 
-      List<Binding> bindings = routingNameBindingMap.get(routingName);
+      Integer index = currentPlan.indexes.get(originatingQueue.getName());
 
-      if (bindings == null)
+      if (index == null)
       {
-         // The value can become null if it's concurrently removed while we're iterating - this is expected
-         // ConcurrentHashMap behaviour!
          return false;
       }
 
-      Integer ipos = routingNamePositions.get(routingName);
+      Binding[] bindings = currentPlan.bindings[index];
 
-      int pos = ipos != null ? ipos.intValue() : 0;
+      int pos = currentPlan.positions[index];
 
-      int length = bindings.size();
+      int length = bindings.length;
 
       int startPos = pos;
 
@@ -193,27 +205,7 @@ public class BindingsImpl implements Bindings
       // TODO - combine this with similar logic in route()
       while (true)
       {
-         Binding binding;
-         try
-         {
-            binding = bindings.get(pos);
-         }
-         catch (IndexOutOfBoundsException e)
-         {
-            // This can occur if binding is removed while in route
-            if (!bindings.isEmpty())
-            {
-               pos = 0;
-               startPos = 0;
-               length = bindings.size();
-
-               continue;
-            }
-            else
-            {
-               break;
-            }
-         }
+         Binding binding = bindings[pos];
 
          pos = incrementPos(pos, length);
 
@@ -234,7 +226,7 @@ public class BindingsImpl implements Bindings
          }
       }
 
-      routingNamePositions.put(routingName, pos);
+      currentPlan.positions[index] = pos;
 
       if (theBinding != null)
       {
@@ -257,9 +249,11 @@ public class BindingsImpl implements Bindings
    {
       boolean routed = false;
 
-      if (!exclusiveBindings.isEmpty())
+      RoutingPlan currentPlan = getPlan();
+
+      if (currentPlan.exclusiveBindings.length > 0)
       {
-         for (Binding binding : exclusiveBindings)
+         for (Binding binding : currentPlan.exclusiveBindings)
          {
             if (binding.getFilter() == null || binding.getFilter().match(message))
             {
@@ -280,7 +274,7 @@ public class BindingsImpl implements Bindings
          }
          else if (groupingHandler != null && message.containsProperty(Message.HDR_GROUP_ID))
          {
-            routeUsingStrictOrdering(message, context, groupingHandler);
+            routeUsingStrictOrdering(message, context, groupingHandler, currentPlan);
          }
          else
          {
@@ -288,21 +282,24 @@ public class BindingsImpl implements Bindings
             {
                HornetQServerLogger.LOGGER.trace("Routing message " + message + " on binding=" + this);
             }
-            for (Map.Entry<SimpleString, List<Binding>> entry : routingNameBindingMap.entrySet())
+            for (int i = 0; i < currentPlan.bindings.length; i++)
             {
-               SimpleString routingName = entry.getKey();
+               Binding theBinding;
 
-               List<Binding> bindings = entry.getValue();
+               if (currentPlan.unfiltered[i] && (currentPlan.bindings[i].length == 1 || routeWhenNoConsumers))
+               {
+                  // Any binding takes the message, so it goes to the next one
+                  int pos = currentPlan.positions[i];
+
+                  theBinding = currentPlan.bindings[i][pos];
 
-               if (bindings == null)
+                  currentPlan.positions[i] = incrementPos(pos, currentPlan.bindings[i].length);
+               }
+               else
                {
-                  // The value can become null if it's concurrently removed while we're iterating - this is expected
-                  // ConcurrentHashMap behaviour!
-                  continue;
+                  theBinding = getNextBinding(message, currentPlan, i);
                }
 
-               Binding theBinding = getNextBinding(message, routingName, bindings);
-
                if (theBinding != null)
                {
                   theBinding.route(message, context);
@@ -318,6 +315,26 @@ public class BindingsImpl implements Bindings
       return "BindingsImpl [name=" + name + "]";
    }
 
+   /**
+    * Returns the plan of the current bindings, building it if they changed since the last one was built.
+    */
+   private RoutingPlan getPlan()
+   {
+      RoutingPlan currentPlan = plan;
+
+      // read before the bindings are, so a change made while the plan is built makes the next route rebuild it
+      int currentVersion = version.get();
+
+      if (currentPlan == null || currentPlan.version != currentVersion)
+      {
+         currentPlan = new RoutingPlan(currentVersion, exclusiveBindings, routingNameBindingMap, currentPlan);
+
+         plan = currentPlan;
+      }
+
+      return currentPlan;
+   }
+
    /**
     * This code has a race on the assigned value to routing names.
     * <p>
@@ -326,15 +343,13 @@ public class BindingsImpl implements Bindings
     * these two servers. This will eventually send more messages to one server than the other
     * (depending if you are using multi-thread), and not lose messages.
     */
-   private Binding getNextBinding(final ServerMessage message,
-                                  final SimpleString routingName,
-                                  final List<Binding> bindings)
+   private Binding getNextBinding(final ServerMessage message, final RoutingPlan currentPlan, final int index)
    {
-      Integer ipos = routingNamePositions.get(routingName);
+      Binding[] bindings = currentPlan.bindings[index];
 
-      int pos = ipos != null ? ipos : 0;
+      int pos = currentPlan.positions[index];
 
-      int length = bindings.size();
+      int length = bindings.length;
 
       int startPos = pos;
 
@@ -344,27 +359,7 @@ public class BindingsImpl implements Bindings
 
       while (true)
       {
-         Binding binding;
-         try
-         {
-            binding = bindings.get(pos);
-         }
-         catch (IndexOutOfBoundsException e)
-         {
-            // This can occur if binding is removed while in route
-            if (!bindings.isEmpty())
-            {
-               pos = 0;
-               startPos = 0;
-               length = bindings.size();
-
-               continue;
-            }
-            else
-            {
-               break;
-            }
-         }
+         Binding binding = bindings[pos];
 
          Filter filter = binding.getFilter();
 
@@ -395,26 +390,7 @@ public class BindingsImpl implements Bindings
          {
             if (lastLowPriorityBinding != -1)
             {
-               try
-               {
-                  theBinding = bindings.get(pos);
-               }
-               catch (IndexOutOfBoundsException e)
-               {
-                  // This can occur if binding is removed while in route
-                  if (!bindings.isEmpty())
-                  {
-                     pos = 0;
-
-                     lastLowPriorityBinding = -1;
-
-                     continue;
-                  }
-                  else
-                  {
-                     break;
-                  }
-               }
+               theBinding = bindings[pos];
 
                pos = incrementPos(lastLowPriorityBinding, length);
             }
@@ -423,29 +399,23 @@ public class BindingsImpl implements Bindings
       }
       if (pos != startPos)
       {
-         routingNamePositions.put(routingName, pos);
+         currentPlan.positions[index] = pos;
       }
       return theBinding;
    }
 
    private void routeUsingStrictOrdering(final ServerMessage message,
                                          final RoutingContext context,
-                                         final GroupingHandler groupingGroupingHandler) throws Exception
+                                         final GroupingHandler groupingGroupingHandler,
+                                         final RoutingPlan currentPlan) throws Exception
    {
       SimpleString groupId = message.getSimpleStringProperty(Message.HDR_GROUP_ID);
 
-      for (Map.Entry<SimpleString, List<Binding>> entry : routingNameBindingMap.entrySet())
+      for (int i = 0; i < currentPlan.bindings.length; i++)
       {
-         SimpleString routingName = entry.getKey();
-
-         List<Binding> bindings = entry.getValue();
+         SimpleString routingName = currentPlan.routingNames[i];
 
-         if (bindings == null)
-         {
-            // The value can become null if it's concurrently removed while we're iterating - this is expected
-            // ConcurrentHashMap behaviour!
-            continue;
-         }
+         Binding[] bindings = currentPlan.bindings[i];
 
          // concat a full group id, this is for when a binding has multiple bindings
          SimpleString fullID = groupId.concat(".").concat(routingName);
@@ -456,7 +426,7 @@ public class BindingsImpl implements Bindings
          if (resp == null)
          {
             // ok lets find the next binding to propose
-            Binding theBinding = getNextBinding(message, routingName, bindings);
+            Binding theBinding = getNextBinding(message, currentPlan, i);
             // TODO https://jira.jboss.org/jira/browse/HORNETQ-191
             resp = groupingGroupingHandler.propose(new Proposal(fullID, theBinding.getClusterName()));
 
@@ -534,13 +504,17 @@ public class BindingsImpl implements Bindings
       out.println();
 
       out.println("RoutingNamePositions:");
-      if (routingNamePositions.isEmpty())
+      RoutingPlan currentPlan = plan;
+      if (currentPlan == null || currentPlan.routingNames.length == 0)
       {
          out.println("EMPTY!");
       }
-      for (Map.Entry<SimpleString, Integer> entry : routingNamePositions.entrySet())
+      else
       {
-         out.println("key=" + entry.getKey() + ", value=" + entry.getValue());
+         for (int i = 0; i < currentPlan.routingNames.length; i++)
+         {
+            out.println("key=" + currentPlan.routingNames[i] + ", value=" + currentPlan.positions[i]);
+         }
       }
 
       out.println();
@@ -611,4 +585,87 @@ public class BindingsImpl implements Bindings
       return pos;
    }
 
+   /**
+    * The bindings of an address as they were on a given version, by routing name.
+    */
+   private static final class RoutingPlan
+   {
+      final int version;
+
+      final Binding[] exclusiveBindings;
+
+      final SimpleString[] routingNames;
+
+      final Binding[][] bindings;
+
+      // whether none of the bindings of the routing name has a filter
+      final boolean[] unfiltered;
+
+      // The round robin position of each routing name, updated with the same race getNextBinding describes
+      final int[] positions;
+
+      final Map<SimpleString, Integer> indexes;
+
+      RoutingPlan(final int version,
+                  final List<Binding> exclusiveBindings,
+                  final Map<SimpleString, List<Binding>> routingNameBindingMap,
+                  final RoutingPlan previous)
+      {
+         this.version = version;
+
+         this.exclusiveBindings = exclusiveBindings.toArray(new Binding[0]);
+
+         List<SimpleString> names = new ArrayList<SimpleString>(routingNameBindingMap.size());
+
+         List<Binding[]> arrays = new ArrayList<Binding[]>(routingNameBindingMap.size());
+
+         for (Map.Entry<SimpleString, List<Binding>> entry : routingNameBindingMap.entrySet())
+         {
+            List<Binding> list = entry.getValue();
+
+            // a snapshot of the list, which can be empty while its last binding is being removed
+            Binding[] array = list.toArray(new Binding[0]);
+
+            if (array.length > 0)
+            {
+               names.add(entry.getKey());
+
+               arrays.add(array);
+            }
+         }
+
+         routingNames = names.toArray(new SimpleString[names.size()]);
+
+         bindings = arrays.toArray(new Binding[arrays.size()][]);
+
+         unfiltered = new boolean[bindings.length];
+
+         positions = new int[bindings.length];
+
+         indexes = new HashMap<SimpleString, Integer>();
+
+         for (int i = 0; i < bindings.length; i++)
+         {
+            unfiltered[i] = true;
+
+            for (Binding binding : bindings[i])
+            {
+               if (binding.getFilter() != null)
+               {
+                  unfiltered[i] = false;
+               }
+            }
+
+            // the round robin goes on from where it was
+            Integer previousIndex = previous == null ? null : previous.indexes.get(routingNames[i]);
+
+            if (previousIndex != null && previous.positions[previousIndex] < bindings[i].length)
+            {
+               positions[i] = previous.positions[previousIndex];
+            }
+
+            indexes.put(routingNames[i], i);
+         }
+      }
+   }
 }
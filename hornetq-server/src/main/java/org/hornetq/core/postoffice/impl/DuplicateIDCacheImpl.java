@@ -13,10 +13,15 @@
 
 package org.hornetq.core.postoffice.impl;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.persistence.StorageManager;
@@ -32,29 +37,71 @@ import org.hornetq.utils.Pair;
  *
  * A fixed size rotating cache of last X duplicate ids.
  *
+ * The ids are kept on a ring of arrays, indexed by an open addressing table of their 64 bits digests, so adding or
+ * looking up an id doesn't allocate anything but the id itself.
+ *
+ * The ring is split in segments of {@link #SEGMENT_SIZE} ids. Each segment has a journal record, and an id added out
+ * of a transaction is persisted as an update on the record of its segment. When the ring goes back to a segment it
+ * gets a new record, and the previous one is deleted once the next segment is reached, as all its ids have been
+ * replaced by then. Ids added on a transaction keep a record of their own, deleted when they leave the cache.
+ * {@link #load(List)} writes the loaded ids back as a snapshot of the whole ring and deletes the records they came
+ * from.
+ *
+ * {@link #contains(byte[])} doesn't lock: the ids and the table are atomic arrays, changed holding the lock between
+ * two increments of {@link #version}, and a lookup which saw the version move is done again. The journal records of
+ * the ids are written after the lock is released, {@link #journalLock} keeps the record of a segment from being
+ * deleted before the updates still being written on it.
+ *
  * @author <a href="mailto:tim.fox@jboss.com">Tim Fox</a>
  *
  * Created 8 Dec 2008 16:35:55
  */
 public class DuplicateIDCacheImpl implements DuplicateIDCache
 {
-   // ByteHolder, position
-   private final Map<ByteArrayHolder, Integer> cache = new ConcurrentHashMap<ByteArrayHolder, Integer>();
+   static final int SEGMENT_SIZE = 1024;
 
    private final SimpleString address;
 
-   // Note - deliberately typed as ArrayList since we want to ensure fast indexed
-   // based array access
-   private final ArrayList<Pair<ByteArrayHolder, Long>> ids;
-
-   private int pos;
-
    private final int cacheSize;
 
    private final StorageManager storageManager;
 
    private final boolean persist;
 
+   // The ring, by position
+
+   private final AtomicReferenceArray<byte[]> ids;
+
+   private final AtomicLongArray digests;
+
+   // the sequence of the id, which gives its position on the ring
+   private final long[] sequences;
+
+   // the record of the segment the id was added to, or the record of the id if ownRecords is set
+   private final long[] recordIDs;
+
+   private final boolean[] ownRecords;
+
+   // position + 1 of the ids, 0 meaning empty
+   private final AtomicIntegerArray table;
+
+   // odd while the ids or the table are being changed
+   private volatile int version;
+
+   private final int mask;
+
+   private final int segmentSize;
+
+   private final long[] segmentRecordIDs;
+
+   // The record a segment had before it was reused, until the ring reaches the next segment
+   private long retiringRecordID = -1;
+
+   private long nextSequence;
+
+   // Held shared while an update is written on the record of a segment, and exclusively to delete it
+   private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
+
    public DuplicateIDCacheImpl(final SimpleString address,
                                final int size,
                                final StorageManager storageManager,
@@ -64,107 +111,226 @@ public class DuplicateIDCacheImpl implements DuplicateIDCache
 
       cacheSize = size;
 
-      ids = new ArrayList<Pair<ByteArrayHolder, Long>>(size);
+      ids = new AtomicReferenceArray<byte[]>(size);
+
+      digests = new AtomicLongArray(size);
+
+      sequences = new long[size];
+
+      recordIDs = new long[size];
+
+      ownRecords = new boolean[size];
+
+      int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+
+      table = new AtomicIntegerArray(capacity);
+
+      mask = capacity - 1;
+
+      segmentSize = Math.min(size, SEGMENT_SIZE);
+
+      segmentRecordIDs = new long[(size + segmentSize - 1) / segmentSize];
+
+      Arrays.fill(segmentRecordIDs, -1);
 
       this.storageManager = storageManager;
 
       this.persist = persist;
    }
 
-   public void load(final List<Pair<byte[], Long>> theIds) throws Exception
+   public synchronized void load(final List<Pair<byte[], Long>> theIds) throws Exception
    {
-      int count = 0;
+      // If the cache size has been reduced in config, only the newest ids are kept
+      int skip = Math.max(0, theIds.size() - cacheSize);
 
-      long txID = -1;
+      Set<Long> loadedRecords = new LinkedHashSet<Long>();
 
-      for (Pair<byte[], Long> id : theIds)
+      for (int i = 0; i < theIds.size(); i++)
       {
-         if (count < cacheSize)
+         Pair<byte[], Long> id = theIds.get(i);
+
+         if (id.getB() != null)
          {
-            ByteArrayHolder bah = new ByteArrayHolder(id.getA());
+            loadedRecords.add(id.getB());
+         }
+
+         if (i >= skip)
+         {
+            insert(nextSequence++, id.getA(), -1, false);
+         }
+      }
 
-            Pair<ByteArrayHolder, Long> pair = new Pair<ByteArrayHolder, Long>(bah, id.getB());
+      if (!persist || loadedRecords.isEmpty())
+      {
+         return;
+      }
 
-            cache.put(bah, ids.size());
+      long txID = storageManager.generateUniqueID();
 
-            ids.add(pair);
-         }
-         else
+      for (int segment = 0; segment < segmentRecordIDs.length; segment++)
+      {
+         int start = segment * segmentSize;
+
+         int end = Math.min(start + segmentSize, cacheSize);
+
+         int count = 0;
+
+         for (int pos = start; pos < end; pos++)
          {
-            // cache size has been reduced in config - delete the extra records
-            if (txID == -1)
+            if (ids.get(pos) != null)
             {
-               txID = storageManager.generateUniqueID();
+               count++;
             }
+         }
 
-            storageManager.deleteDuplicateIDTransactional(txID, id.getB());
+         if (count == 0)
+         {
+            continue;
          }
 
-         count++;
-      }
+         long[] snapshotSequences = new long[count];
 
-      if (txID != -1)
-      {
-         storageManager.commit(txID);
-      }
+         byte[][] snapshotIDs = new byte[count][];
+
+         long recordID = storageManager.generateUniqueID();
+
+         count = 0;
 
-      pos = ids.size();
+         for (int pos = start; pos < end; pos++)
+         {
+            if (ids.get(pos) != null)
+            {
+               snapshotSequences[count] = sequences[pos];
+
+               snapshotIDs[count++] = ids.get(pos);
+
+               recordIDs[pos] = recordID;
+            }
+         }
 
-      if (pos == cacheSize)
+         storageManager.storeDuplicateIDSegmentTransactional(txID,
+                                                             recordID,
+                                                             address,
+                                                             cacheSize,
+                                                             snapshotSequences,
+                                                             snapshotIDs);
+
+         segmentRecordIDs[segment] = recordID;
+      }
+
+      for (Long recordID : loadedRecords)
       {
-         pos = 0;
+         storageManager.deleteDuplicateIDTransactional(txID, recordID);
       }
 
+      storageManager.commit(txID);
    }
 
-
-   public void deleteFromCache(byte [] duplicateID) throws Exception
+   public synchronized void deleteFromCache(byte [] duplicateID) throws Exception
    {
-      ByteArrayHolder bah = new ByteArrayHolder(duplicateID);
+      int pos = find(duplicateID, digest(duplicateID));
 
-      Integer posUsed = cache.remove(bah);
-
-      if (posUsed != null)
+      if (pos >= 0)
       {
-         Pair<ByteArrayHolder, Long> id;
+         beginWrite();
 
-         synchronized (this)
+         try
+         {
+            unindex(pos);
+
+            ids.set(pos, null);
+         }
+         finally
          {
-            id = ids.get(posUsed.intValue());
+            endWrite();
+         }
 
-            if (id.getA().equals(bah))
+         if (persist)
+         {
+            if (ownRecords[pos])
             {
-               id.setA(null);
-               storageManager.deleteDuplicateID(id.getB());
-               id.setB(null);
+               storageManager.deleteDuplicateID(recordIDs[pos]);
+            }
+            else if (recordIDs[pos] >= 0)
+            {
+               // Written after the update adding the id, which may still be on its way
+               journalLock.writeLock().lock();
+
+               try
+               {
+                  storageManager.storeDuplicateIDDelta(recordIDs[pos], sequences[pos], null);
+               }
+               finally
+               {
+                  journalLock.writeLock().unlock();
+               }
             }
          }
       }
-
    }
 
-
    public boolean contains(final byte[] duplID)
    {
-      return cache.get(new ByteArrayHolder(duplID)) != null;
+      long digest = digest(duplID);
+
+      while (true)
+      {
+         int before = version;
+
+         if ((before & 1) == 0)
+         {
+            boolean found = find(duplID, digest) >= 0;
+
+            if (version == before)
+            {
+               return found;
+            }
+         }
+      }
    }
 
-   public synchronized void addToCache(final byte[] duplID, final Transaction tx) throws Exception
+   public void addToCache(final byte[] duplID, final Transaction tx) throws Exception
    {
-      long recordID = -1;
-
       if (tx == null)
       {
-         if (persist)
+         long sequence;
+
+         long recordID = -1;
+
+         synchronized (this)
          {
-            recordID = storageManager.generateUniqueID();
-            storageManager.storeDuplicateID(address, duplID, recordID);
+            sequence = nextSequence++;
+
+            if (persist)
+            {
+               recordID = getSegmentRecordID(sequence);
+            }
+
+            insert(sequence, duplID, recordID, false);
+
+            if (persist)
+            {
+               // Taken before the lock is released, so the record can't be deleted before the update is written
+               journalLock.readLock().lock();
+            }
          }
 
-         addToCacheInMemory(duplID, recordID);
+         if (persist)
+         {
+            try
+            {
+               storageManager.storeDuplicateIDDelta(recordID, sequence, duplID);
+            }
+            finally
+            {
+               journalLock.readLock().unlock();
+            }
+         }
       }
       else
       {
+         long recordID = -1;
+
          if (persist)
          {
             recordID = storageManager.generateUniqueID();
@@ -186,60 +352,191 @@ public class DuplicateIDCacheImpl implements DuplicateIDCache
 
    private synchronized void addToCacheInMemory(final byte[] duplID, final long recordID)
    {
-      ByteArrayHolder holder = new ByteArrayHolder(duplID);
+      // The recordID could be negative if the duplicateCache is configured to not persist
+      insert(nextSequence++, duplID, recordID, recordID >= 0);
+   }
 
-      cache.put(holder, pos);
+   /**
+    * Returns the record of the segment of the given sequence, starting a new record when the ring gets back to the
+    * segment.
+    */
+   private long getSegmentRecordID(final long sequence) throws Exception
+   {
+      int pos = (int)(sequence % cacheSize);
 
-      Pair<ByteArrayHolder, Long> id;
+      int segment = pos / segmentSize;
 
-      if (pos < ids.size())
+      if (pos % segmentSize == 0 || segmentRecordIDs[segment] == -1)
       {
-         // Need fast array style access here -hence ArrayList typing
-         id = ids.get(pos);
+         long recordID = storageManager.generateUniqueID();
 
-         // The id here might be null if it was explicit deleted
-         if (id.getA() != null)
-         {
-            cache.remove(id.getA());
+         storageManager.storeDuplicateIDSegment(recordID, address, cacheSize);
 
-            // Record already exists - we delete the old one and add the new one
-            // Note we can't use update since journal update doesn't let older records get
-            // reclaimed
+         // All the ids of the previous segment have been replaced by now
+         if (retiringRecordID != -1)
+         {
+            journalLock.writeLock().lock();
 
-            if (id.getB() != null)
+            try
             {
-               try
-               {
-                  storageManager.deleteDuplicateID(id.getB());
-               }
-               catch (Exception e)
-               {
-                  HornetQServerLogger.LOGGER.errorDeletingDuplicateCache(e);
-               }
+               storageManager.deleteDuplicateID(retiringRecordID);
+            }
+            finally
+            {
+               journalLock.writeLock().unlock();
             }
          }
 
-         id.setA(holder);
+         retiringRecordID = segmentRecordIDs[segment];
+
+         segmentRecordIDs[segment] = recordID;
+      }
 
-         // The recordID could be negative if the duplicateCache is configured to not persist,
-         // -1 would mean null on this case
-         id.setB(recordID >= 0 ? recordID : null);
+      return segmentRecordIDs[segment];
+   }
+
+   private void insert(final long sequence, final byte[] duplID, final long recordID, final boolean ownRecord)
+   {
+      int pos = (int)(sequence % cacheSize);
 
-         holder.pos = pos;
+      if (ids.get(pos) != null && ownRecords[pos])
+      {
+         // Record already exists - we delete the old one
+         // Note we can't use update since journal update doesn't let older records get reclaimed
+         try
+         {
+            storageManager.deleteDuplicateID(recordIDs[pos]);
+         }
+         catch (Exception e)
+         {
+            HornetQServerLogger.LOGGER.errorDeletingDuplicateCache(e);
+         }
       }
-      else
+
+      beginWrite();
+
+      try
+      {
+         if (ids.get(pos) != null)
+         {
+            unindex(pos);
+         }
+
+         ids.set(pos, duplID);
+         digests.set(pos, digest(duplID));
+
+         int index = home(digests.get(pos));
+
+         while (table.get(index) != 0)
+         {
+            index = (index + 1) & mask;
+         }
+
+         table.set(index, pos + 1);
+      }
+      finally
+      {
+         endWrite();
+      }
+
+      sequences[pos] = sequence;
+      recordIDs[pos] = recordID;
+      ownRecords[pos] = ownRecord;
+   }
+
+   /**
+    * Looks an id up, either holding the lock or between two reads of {@link #version}: it gives up after a whole
+    * turn of the table, which only a concurrent change can make it take.
+    */
+   private int find(final byte[] duplID, final long digest)
+   {
+      int index = home(digest);
+
+      for (int probes = 0; probes <= mask; probes++)
+      {
+         int entry = table.get(index);
+
+         if (entry == 0)
+         {
+            break;
+         }
+
+         int pos = entry - 1;
+
+         if (digests.get(pos) == digest && Arrays.equals(ids.get(pos), duplID))
+         {
+            return pos;
+         }
+
+         index = (index + 1) & mask;
+      }
+
+      return -1;
+   }
+
+   private void beginWrite()
+   {
+      version++;
+   }
+
+   private void endWrite()
+   {
+      version++;
+   }
+
+   /**
+    * Removes a position from the table, moving back the entries probed after it so no lookup stops on the hole.
+    */
+   private void unindex(final int pos)
+   {
+      int hole = home(digests.get(pos));
+
+      while (table.get(hole) != pos + 1)
+      {
+         hole = (hole + 1) & mask;
+      }
+
+      table.set(hole, 0);
+
+      for (int index = (hole + 1) & mask; table.get(index) != 0; index = (index + 1) & mask)
       {
-         id = new Pair<ByteArrayHolder, Long>(holder, recordID >= 0 ? recordID : null);
+         int home = home(digests.get(table.get(index) - 1));
 
-         ids.add(id);
+         // The entry can move to the hole unless its home is cyclically in (hole, index]
+         boolean stays = hole <= index ? hole < home && home <= index : hole < home || home <= index;
 
-         holder.pos = pos;
+         if (!stays)
+         {
+            table.set(hole, table.get(index));
+
+            table.set(index, 0);
+
+            hole = index;
+         }
       }
+   }
+
+   private int home(final long digest)
+   {
+      return (int)(digest ^ (digest >>> 32)) & mask;
+   }
 
-      if (pos++ == cacheSize - 1)
+   private static long digest(final byte[] bytes)
+   {
+      // FNV-1a, with a final mix so the low bits used by the table depend on every byte
+      long hash = 0xcbf29ce484222325L;
+
+      for (byte b : bytes)
       {
-         pos = 0;
+         hash ^= b & 0xff;
+         hash *= 0x100000001b3L;
       }
+
+      hash ^= hash >>> 33;
+      hash *= 0xff51afd7ed558ccdL;
+      hash ^= hash >>> 33;
+
+      return hash;
    }
 
    private class AddDuplicateIDOperation implements TransactionOperation
@@ -298,60 +595,4 @@ public class DuplicateIDCacheImpl implements DuplicateIDCache
       }
 
    }
-
-   private static final class ByteArrayHolder
-   {
-      ByteArrayHolder(final byte[] bytes)
-      {
-         this.bytes = bytes;
-      }
-
-      final byte[] bytes;
-
-      int hash;
-
-      int pos;
-
-      @Override
-      public boolean equals(final Object other)
-      {
-         if (other instanceof ByteArrayHolder)
-         {
-            ByteArrayHolder s = (ByteArrayHolder)other;
-
-            if (bytes.length != s.bytes.length)
-            {
-               return false;
-            }
-
-            for (int i = 0; i < bytes.length; i++)
-            {
-               if (bytes[i] != s.bytes[i])
-               {
-                  return false;
-               }
-            }
-
-            return true;
-         }
-         else
-         {
-            return false;
-         }
-      }
-
-      @Override
-      public int hashCode()
-      {
-         if (hash == 0)
-         {
-            for (byte b : bytes)
-            {
-               hash = 31 * hash + b;
-            }
-         }
-
-         return hash;
-      }
-   }
 }
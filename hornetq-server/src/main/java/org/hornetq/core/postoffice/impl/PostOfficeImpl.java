@@ -17,7 +17,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -1011,12 +1010,14 @@ public class PostOfficeImpl implements PostOffice, NotificationListener, Binding
             message.incrementRefCount();
          }
 
-         Iterator<Queue> iter = entry.getValue().getDurableQueues().iterator();
+         List<Queue> durableQueues = entry.getValue().getDurableQueues();
 
-         while (iter.hasNext())
-         {
-            Queue queue = iter.next();
+         List<MessageReference> durableRefs = null;
 
+         boolean storeMessage = false;
+
+         for (Queue queue : durableQueues)
+         {
             MessageReference reference = message.createReference(queue);
 
             refs.add(reference);
@@ -1030,51 +1031,26 @@ public class PostOfficeImpl implements PostOffice, NotificationListener, Binding
 
             if (message.isDurable())
             {
-               int durableRefCount = message.incrementDurableRefCount();
-
-               if (durableRefCount == 1)
+               if (message.incrementDurableRefCount() == 1)
                {
-                  if (tx != null)
-                  {
-                     storageManager.storeMessageTransactional(tx.getID(), message);
-                  }
-                  else
-                  {
-                     storageManager.storeMessage(message);
-                  }
-
-                  if (message.isLargeMessage())
-                  {
-                     confirmLargeMessageSend(tx, message);
-                  }
+                  storeMessage = true;
                }
 
-               if (tx != null)
+               if (durableRefs == null)
                {
-                  storageManager.storeReferenceTransactional(tx.getID(), queue.getID(), message.getMessageID());
-
-                  tx.setContainsPersistent();
-               }
-               else
-               {
-                  storageManager.storeReference(queue.getID(), message.getMessageID(), !iter.hasNext());
+                  durableRefs = new ArrayList<MessageReference>(durableQueues.size());
                }
 
-               if (message.containsProperty(Message.HDR_SCHEDULED_DELIVERY_TIME))
-               {
-                  if (tx != null)
-                  {
-                     storageManager.updateScheduledDeliveryTimeTransactional(tx.getID(), reference);
-                  }
-                  else
-                  {
-                     storageManager.updateScheduledDeliveryTime(reference);
-                  }
-               }
+               durableRefs.add(reference);
             }
 
             message.incrementRefCount();
          }
+
+         if (durableRefs != null)
+         {
+            storeDurableReferences(tx, message, storeMessage, durableRefs);
+         }
       }
 
       if (tx != null)
@@ -1123,6 +1099,54 @@ public class PostOfficeImpl implements PostOffice, NotificationListener, Binding
       }
    }
 
+   /**
+    * Stores the message, if it wasn't stored yet, and its references on the durable queues with a single journal
+    * batch.
+    */
+   private void storeDurableReferences(final Transaction tx,
+                                       final ServerMessage message,
+                                       final boolean storeMessage,
+                                       final List<MessageReference> durableRefs) throws Exception
+   {
+      long[] queueIDs = new long[durableRefs.size()];
+
+      for (int i = 0; i < queueIDs.length; i++)
+      {
+         queueIDs[i] = durableRefs.get(i).getQueue().getID();
+      }
+
+      if (tx != null)
+      {
+         storageManager.storeReferencesTransactional(tx.getID(), message, storeMessage, queueIDs);
+
+         tx.setContainsPersistent();
+      }
+      else
+      {
+         storageManager.storeReferences(message, storeMessage, queueIDs, true);
+      }
+
+      if (storeMessage && message.isLargeMessage())
+      {
+         confirmLargeMessageSend(tx, message);
+      }
+
+      if (message.containsProperty(Message.HDR_SCHEDULED_DELIVERY_TIME))
+      {
+         for (MessageReference reference : durableRefs)
+         {
+            if (tx != null)
+            {
+               storageManager.updateScheduledDeliveryTimeTransactional(tx.getID(), reference);
+            }
+            else
+            {
+               storageManager.updateScheduledDeliveryTime(reference);
+            }
+         }
+      }
+   }
+
    /**
     * This will kick a delivery async on the queue, so the queue may have a chance to depage messages
     * @param tx
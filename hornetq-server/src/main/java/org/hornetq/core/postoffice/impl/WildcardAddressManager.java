@@ -12,10 +12,9 @@
  */
 package org.hornetq.core.postoffice.impl;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.postoffice.Address;
@@ -41,12 +40,14 @@ public class WildcardAddressManager extends SimpleAddressManager
    static final SimpleString ANY_WORDS_SIMPLESTRING = new SimpleString("#");
 
    /**
-    * These are all the addresses, we use this so we can link back from the actual address to its linked wilcard addresses
-    * or vice versa
+    * The wildcard addresses with bindings, whose bindings are copied to the mappings of the addresses they match
     */
-   private final Map<SimpleString, Address> addresses = new HashMap<SimpleString, Address>();
+   private final AddressTrie wildCardAddresses = new AddressTrie();
 
-   private final Map<SimpleString, Address> wildCardAddresses = new HashMap<SimpleString, Address>();
+   /**
+    * The addresses with a mapping, which holds the bindings of the wildcard addresses they match
+    */
+   private final AddressTrie addresses = new AddressTrie();
 
    public WildcardAddressManager(final BindingsFactory bindingsFactory)
    {
@@ -61,23 +62,11 @@ public class WildcardAddressManager extends SimpleAddressManager
       // this should only happen if we're routing to an address that has no mappings when we're running checkAllowable
       if (bindings == null && !wildCardAddresses.isEmpty())
       {
-         Address add = addAndUpdateAddressMap(address);
-         if (!add.containsWildCard())
+         Address add = new AddressImpl(address);
+         if (!add.containsWildCard() && !getMatchingWildCards(add).isEmpty())
          {
-            for (Address destAdd : add.getLinkedAddresses())
-            {
-               Bindings b = super.getBindingsForRoutingAddress(destAdd.getAddress());
-               if (b != null)
-               {
-                  Collection<Binding> theBindings = b.getBindings();
-                  for (Binding theBinding : theBindings)
-                  {
-                     super.addMappingInternal(address, theBinding);
-                  }
-               }
-            }
+            bindings = addWildCardMappings(add);
          }
-         bindings = super.getBindingsForRoutingAddress(address);
       }
       return bindings;
    }
@@ -90,28 +79,26 @@ public class WildcardAddressManager extends SimpleAddressManager
     * @return true if the address was a new mapping
     */
    @Override
-   public boolean addBinding(final Binding binding) throws Exception
+   public synchronized boolean addBinding(final Binding binding) throws Exception
    {
       boolean exists = super.addBinding(binding);
-      if (!exists)
+      Address add = new AddressImpl(binding.getAddress());
+      if (add.containsWildCard())
       {
-         Address add = addAndUpdateAddressMap(binding.getAddress());
-         if (add.containsWildCard())
+         wildCardAddresses.add(add);
+         for (Address destAdd : getMatchingAddresses(add))
          {
-            for (Address destAdd : add.getLinkedAddresses())
-            {
-               super.addMappingInternal(destAdd.getAddress(), binding);
-            }
+            super.addMappingInternal(destAdd.getAddress(), binding);
          }
-         else
+      }
+      else if (addresses.add(add))
+      {
+         // a new mapping, it gets the bindings of the wildcard addresses it matches
+         for (Address destAdd : getMatchingWildCards(add))
          {
-            for (Address destAdd : add.getLinkedAddresses())
+            for (Binding b : super.getBindingsForRoutingAddress(destAdd.getAddress()).getBindings())
             {
-               Bindings bindings = super.getBindingsForRoutingAddress(destAdd.getAddress());
-               for (Binding b : bindings.getBindings())
-               {
-                  super.addMappingInternal(binding.getAddress(), b);
-               }
+               super.addMappingInternal(binding.getAddress(), b);
             }
          }
       }
@@ -126,145 +113,116 @@ public class WildcardAddressManager extends SimpleAddressManager
     * @return true if this was the last mapping for a specific address
     */
    @Override
-   public Binding removeBinding(final SimpleString uniqueName) throws Exception
+   public synchronized Binding removeBinding(final SimpleString uniqueName) throws Exception
    {
       Binding binding = super.removeBinding(uniqueName);
       if (binding != null)
       {
-         Address add = getAddress(binding.getAddress());
-         if (!add.containsWildCard())
+         Address add = new AddressImpl(binding.getAddress());
+         if (add.containsWildCard())
          {
-            for (Address theAddress : add.getLinkedAddresses())
+            for (Address destAdd : getMatchingAddresses(add))
             {
-               Bindings bindings = super.getBindingsForRoutingAddress(theAddress.getAddress());
-               if (bindings != null)
+               super.removeBindingInternal(destAdd.getAddress(), uniqueName);
+               if (super.getBindingsForRoutingAddress(destAdd.getAddress()) == null)
                {
-                  for (Binding b : bindings.getBindings())
-                  {
-                     super.removeBindingInternal(binding.getAddress(), b.getUniqueName());
-                  }
+                  addresses.remove(destAdd);
                }
             }
+            if (super.getBindingsForRoutingAddress(add.getAddress()) == null)
+            {
+               wildCardAddresses.remove(add);
+            }
          }
          else
          {
-            for (Address theAddress : add.getLinkedAddresses())
-            {
-               super.removeBindingInternal(theAddress.getAddress(), uniqueName);
-            }
+            removeWildCardMappings(add);
          }
-         removeAndUpdateAddressMap(add);
       }
       return binding;
    }
 
    @Override
-   public void clear()
+   public synchronized void clear()
    {
       super.clear();
       addresses.clear();
       wildCardAddresses.clear();
    }
 
-   private Address getAddress(final SimpleString address)
+   private Set<Address> getMatchingWildCards(final Address address)
    {
-      Address add = new AddressImpl(address);
-      Address actualAddress;
-      if (add.containsWildCard())
-      {
-         actualAddress = wildCardAddresses.get(address);
-      }
-      else
+      Set<Address> matches = new HashSet<Address>();
+      wildCardAddresses.matchWildcards(address.getAddressParts(), matches);
+      for (Iterator<Address> iter = matches.iterator(); iter.hasNext();)
       {
-         actualAddress = addresses.get(address);
+         if (!address.matches(iter.next()))
+         {
+            iter.remove();
+         }
       }
-      return actualAddress != null ? actualAddress : add;
+      return matches;
    }
 
-   private synchronized Address addAndUpdateAddressMap(final SimpleString address)
+   private Set<Address> getMatchingAddresses(final Address wildCardAddress)
    {
-      Address add = new AddressImpl(address);
-      Address actualAddress;
-      if (add.containsWildCard())
-      {
-         actualAddress = wildCardAddresses.get(address);
-      }
-      else
-      {
-         actualAddress = addresses.get(address);
-      }
-      if (actualAddress == null)
-      {
-         actualAddress = add;
-         addAddress(address, actualAddress);
-      }
-      if (actualAddress.containsWildCard())
+      Set<Address> matches = new HashSet<Address>();
+      addresses.matchAddresses(wildCardAddress.getAddressParts(), matches);
+      for (Iterator<Address> iter = matches.iterator(); iter.hasNext();)
       {
-         for (Address destAdd : addresses.values())
+         if (!iter.next().matches(wildCardAddress))
          {
-            if (destAdd.matches(actualAddress))
-            {
-               destAdd.addLinkedAddress(actualAddress);
-               actualAddress.addLinkedAddress(destAdd);
-            }
+            iter.remove();
          }
       }
-      else
+      return matches;
+   }
+
+   /**
+    * Creates the mapping of an address without bindings of its own, from the bindings of the wildcard addresses it
+    * matches.
+    */
+   private synchronized Bindings addWildCardMappings(final Address address) throws Exception
+   {
+      Bindings bindings = super.getBindingsForRoutingAddress(address.getAddress());
+      if (bindings == null)
       {
-         for (Address destAdd : wildCardAddresses.values())
+         for (Address destAdd : getMatchingWildCards(address))
          {
-            if (actualAddress.matches(destAdd))
+            for (Binding b : super.getBindingsForRoutingAddress(destAdd.getAddress()).getBindings())
             {
-               destAdd.addLinkedAddress(actualAddress);
-               actualAddress.addLinkedAddress(destAdd);
-
+               super.addMappingInternal(address.getAddress(), b);
             }
          }
+         bindings = super.getBindingsForRoutingAddress(address.getAddress());
+         if (bindings != null)
+         {
+            addresses.add(address);
+         }
       }
-      return actualAddress;
-   }
-
-   private void addAddress(final SimpleString address, final Address actualAddress)
-   {
-      if (actualAddress.containsWildCard())
-      {
-         wildCardAddresses.put(address, actualAddress);
-      }
-      else
-      {
-         addresses.put(address, actualAddress);
-      }
+      return bindings;
    }
 
-   private synchronized void removeAndUpdateAddressMap(final Address address) throws Exception
+   /**
+    * Once an address has no bindings of its own, the copies of the wildcard bindings are removed with its mapping.
+    */
+   private void removeWildCardMappings(final Address address) throws Exception
    {
-      // we only remove if there are no bindings left
       Bindings bindings = super.getBindingsForRoutingAddress(address.getAddress());
-      if (bindings == null || bindings.getBindings().size() == 0)
+      if (bindings != null)
       {
-         List<Address> addresses = address.getLinkedAddresses();
-         for (Address address1 : addresses)
+         for (Binding b : bindings.getBindings())
          {
-            address1.removeLinkedAddress(address);
-            Bindings linkedBindings = super.getBindingsForRoutingAddress(address1.getAddress());
-            if (linkedBindings == null || linkedBindings.getBindings().size() == 0)
+            if (b.getAddress().equals(address.getAddress()))
             {
-               removeAddress(address1);
+               return;
             }
          }
-         removeAddress(address);
-      }
-   }
-
-   private void removeAddress(final Address add)
-   {
-      if (add.containsWildCard())
-      {
-         wildCardAddresses.remove(add.getAddress());
-      }
-      else
-      {
-         addresses.remove(add.getAddress());
+         for (Binding b : bindings.getBindings())
+         {
+            super.removeBindingInternal(address.getAddress(), b.getUniqueName());
+         }
       }
+      addresses.remove(address);
    }
 }
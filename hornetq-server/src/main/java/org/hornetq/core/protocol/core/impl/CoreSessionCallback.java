@@ -12,6 +12,9 @@
  */
 package org.hornetq.core.protocol.core.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.protocol.core.Channel;
 import org.hornetq.core.protocol.core.Packet;
@@ -20,6 +23,7 @@ import org.hornetq.core.protocol.core.impl.wireformat.SessionProducerCreditsMess
 import org.hornetq.core.protocol.core.impl.wireformat.SessionReceiveContinuationMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.SessionReceiveLargeMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.SessionReceiveMessage;
+import org.hornetq.core.server.MessageReference;
 import org.hornetq.core.server.ServerMessage;
 import org.hornetq.spi.core.protocol.ProtocolManager;
 import org.hornetq.spi.core.protocol.SessionCallback;
@@ -78,6 +82,27 @@ public final class CoreSessionCallback implements SessionCallback
       return size;
    }
 
+   public int sendMessages(List<MessageReference> references, long consumerID)
+   {
+      List<Packet> packets = new ArrayList<Packet>(references.size());
+
+      for (MessageReference ref : references)
+      {
+         packets.add(new SessionReceiveMessage(consumerID, ref.getMessage(), ref.getDeliveryCount()));
+      }
+
+      channel.sendBatched(packets);
+
+      int size = 0;
+
+      for (Packet packet : packets)
+      {
+         size += packet.getPacketSize();
+      }
+
+      return size;
+   }
+
    public void sendProducerCreditsMessage(int credits, SimpleString address)
    {
       Packet packet = new SessionProducerCreditsMessage(credits, address);
@@ -13,6 +13,7 @@
 package org.hornetq.core.protocol.stomp;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -21,6 +22,7 @@ import org.hornetq.utils.Pair;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.persistence.OperationContext;
 import org.hornetq.core.remoting.impl.netty.TransportConstants;
+import org.hornetq.core.server.MessageReference;
 import org.hornetq.core.server.QueueQueryResult;
 import org.hornetq.core.server.ServerMessage;
 import org.hornetq.core.server.ServerSession;
@@ -117,6 +119,18 @@ public class StompSession implements SessionCallback
 
    }
 
+   public int sendMessages(List<MessageReference> references, long consumerID)
+   {
+      int size = 0;
+
+      for (MessageReference ref : references)
+      {
+         size += sendMessage(ref.getMessage(), consumerID, ref.getDeliveryCount());
+      }
+
+      return size;
+   }
+
    public int sendLargeMessageContinuation(long consumerID, byte[] body, boolean continues, boolean requiresResponse)
    {
       return 0;
@@ -135,9 +135,21 @@ public class InVMConnection implements Connection
       write(buffer, false, false);
    }
 
+   public void write(final HornetQBuffer[] buffers, final boolean batched)
+   {
+      // Every write is handed over as one packet
+      for (HornetQBuffer buffer : buffers)
+      {
+         write(buffer, false, batched);
+      }
+   }
+
    public void write(final HornetQBuffer buffer, final boolean flush, final boolean batch)
    {
-      final HornetQBuffer copied = buffer.copy(0, buffer.capacity());
+      // The buffer may be a composite of shared buffers, the receiver gets a dynamic buffer as it would from Netty
+      final HornetQBuffer copied = HornetQBuffers.dynamicBuffer(buffer.capacity());
+
+      copied.writeBytes(buffer, 0, buffer.capacity());
 
       copied.setIndex(buffer.readerIndex(), buffer.writerIndex());
 
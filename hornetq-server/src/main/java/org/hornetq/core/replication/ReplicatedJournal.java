@@ -19,6 +19,7 @@ import java.util.Map;
 import org.hornetq.core.journal.EncodingSupport;
 import org.hornetq.core.journal.IOCompletion;
 import org.hornetq.core.journal.Journal;
+import org.hornetq.core.journal.JournalBatch;
 import org.hornetq.core.journal.JournalLoadInformation;
 import org.hornetq.core.journal.LoaderCallback;
 import org.hornetq.core.journal.PreparedTransactionInfo;
@@ -195,6 +196,22 @@ public class ReplicatedJournal implements Journal
       localJournal.appendCommitRecord(txID, sync, callback, lineUpContext);
    }
 
+   /**
+    * The replication of every commit is lined up on the context of the calling thread, not on the given callbacks.
+    */
+   public void appendCommitRecords(final long[] txIDs, final boolean sync, final IOCompletion[] callbacks) throws Exception
+   {
+      for (long txID : txIDs)
+      {
+         if (ReplicatedJournal.trace)
+         {
+            ReplicatedJournal.trace("AppendCommit " + txID);
+         }
+         replicationManager.appendCommitRecord(journalID, txID, sync, true);
+      }
+      localJournal.appendCommitRecords(txIDs, sync, callbacks);
+   }
+
 
    /**
     * @param id
@@ -344,6 +361,73 @@ public class ReplicatedJournal implements Journal
       localJournal.appendRollbackRecord(txID, sync, callback);
    }
 
+   public void appendBatch(final JournalBatch batch, final boolean sync) throws Exception
+   {
+      replicateBatch(batch);
+      localJournal.appendBatch(batch, sync);
+   }
+
+   public void appendBatch(final JournalBatch batch, final boolean sync, final IOCompletion callback) throws Exception
+   {
+      replicateBatch(batch);
+      localJournal.appendBatch(batch, sync, callback);
+   }
+
+   /**
+    * The backup gets the records one by one, and writes them the same way.
+    */
+   private void replicateBatch(final JournalBatch batch) throws Exception
+   {
+      if (ReplicatedJournal.trace)
+      {
+         ReplicatedJournal.trace("AppendBatch " + batch);
+      }
+
+      for (JournalBatch.Operation operation : batch.getOperations())
+      {
+         if (batch.isTransactional())
+         {
+            switch (operation.getType())
+            {
+               case ADD:
+                  replicationManager.appendAddRecordTransactional(journalID, batch.getTxID(), operation.getId(),
+                                                                  operation.getRecordType(), operation.getRecord());
+                  break;
+               case UPDATE:
+                  replicationManager.appendUpdateRecordTransactional(journalID, batch.getTxID(), operation.getId(),
+                                                                     operation.getRecordType(), operation.getRecord());
+                  break;
+               default:
+                  if (operation.getRecord() == null)
+                  {
+                     replicationManager.appendDeleteRecordTransactional(journalID, batch.getTxID(), operation.getId());
+                  }
+                  else
+                  {
+                     replicationManager.appendDeleteRecordTransactional(journalID, batch.getTxID(), operation.getId(),
+                                                                        operation.getRecord());
+                  }
+            }
+         }
+         else
+         {
+            switch (operation.getType())
+            {
+               case ADD:
+                  replicationManager.appendAddRecord(journalID, operation.getId(), operation.getRecordType(),
+                                                     operation.getRecord());
+                  break;
+               case UPDATE:
+                  replicationManager.appendUpdateRecord(journalID, operation.getId(), operation.getRecordType(),
+                                                        operation.getRecord());
+                  break;
+               default:
+                  replicationManager.appendDeleteRecord(journalID, operation.getId());
+            }
+         }
+      }
+   }
+
    /**
     * @param id
     * @param recordType
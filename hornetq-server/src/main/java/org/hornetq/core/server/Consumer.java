@@ -26,6 +26,14 @@ public interface Consumer
 {
    HandleStatus handle(MessageReference reference) throws Exception;
 
+   /**
+    * Handles several references in one call, as the queue gives them in a row to the same consumer.
+    * <p>
+    * A consumer can check its state once for the whole batch, and send the messages it takes together at the end of
+    * the call.
+    */
+   void handle(DeliveryBatch batch) throws Exception;
+
    Filter getFilter();
 
    String debug();
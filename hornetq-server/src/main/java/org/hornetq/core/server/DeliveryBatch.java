@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.server;
+
+/**
+ * The references a queue hands to a consumer in one call, see {@link Consumer#handle(DeliveryBatch)}.
+ * <p>
+ * The consumer takes the references one at a time, in the order of the queue, and reports the status of each before
+ * taking the next one:
+ *
+ * <pre>
+ * MessageReference ref;
+ * while ((ref = batch.next()) != null)
+ * {
+ *    batch.done(handle(ref));
+ * }
+ * </pre>
+ *
+ * The batch is over once a reference is {@link HandleStatus#BUSY}, or when the queue has nothing more for the
+ * consumer.
+ */
+public interface DeliveryBatch
+{
+   /**
+    * @return the next reference for the consumer, or null if the batch is over
+    */
+   MessageReference next();
+
+   /**
+    * Reports what the consumer did with the reference last returned by {@link #next()}.
+    */
+   void done(HandleStatus status);
+}
@@ -260,6 +260,15 @@ public interface HornetQServerLogger extends BasicLogger
             format = Message.Format.MESSAGE_FORMAT)
    void deprecatedConfigurationOption(String deprecatedOption);
 
+   @LogMessage(level = Logger.Level.INFO)
+   @Message(id = 221046, value = "Message journal loaded: {0} records, {1} bytes in {2} ms using {3} thread(s) ({4} records/s, {5} bytes/s)",
+            format = Message.Format.MESSAGE_FORMAT)
+   void journalLoaded(Integer records, Long bytes, Long loadTime, Integer threads, Long recordsPerSecond, Long bytesPerSecond);
+
+   @LogMessage(level = Logger.Level.INFO)
+   @Message(id = 221047, value = "Using Mapped Journal", format = Message.Format.MESSAGE_FORMAT)
+   void journalUseMapped();
+
    @LogMessage(level = Logger.Level.WARN)
    @Message(id = 222001, value = "HornetQServer is being finalized and has not been stopped. Please remember to stop the server before letting it go out of scope",
          format = Message.Format.MESSAGE_FORMAT)
@@ -986,6 +995,15 @@ public interface HornetQServerLogger extends BasicLogger
    @Message(id = 222217, value = "Error when trying to start replication {0}", format = Message.Format.MESSAGE_FORMAT)
    void errorStartingReplication(BackupReplicationStartFailedMessage.BackupRegistrationProblem problem);
 
+   @LogMessage(level = Logger.Level.WARN)
+   @Message(id = 222218, value = "The messages of all the addresses take up {0} bytes, over the global-max-size of {1} bytes. Address {2} holding {3} bytes is starting to page",
+            format = Message.Format.MESSAGE_FORMAT)
+   void globalMaxSizeReached(Long globalSize, Long globalMaxSize, SimpleString address, Long addressSize);
+
+   @LogMessage(level = Logger.Level.WARN)
+   @Message(id = 222219, value = "Error starting paging on address {0}", format = Message.Format.MESSAGE_FORMAT)
+   void errorStartingPaging(@Cause Exception e, SimpleString address);
+
    @LogMessage(level = Logger.Level.ERROR)
    @Message(id = 224002, value = "Failure in initialisation", format = Message.Format.MESSAGE_FORMAT)
    void initializationError(@Cause Throwable e);
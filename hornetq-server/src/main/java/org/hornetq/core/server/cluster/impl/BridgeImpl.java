@@ -37,6 +37,7 @@ import org.hornetq.core.filter.Filter;
 import org.hornetq.core.filter.impl.FilterImpl;
 import org.hornetq.core.message.impl.MessageImpl;
 import org.hornetq.core.persistence.StorageManager;
+import org.hornetq.core.server.DeliveryBatch;
 import org.hornetq.core.server.HandleStatus;
 import org.hornetq.core.server.HornetQServerLogger;
 import org.hornetq.core.server.LargeServerMessage;
@@ -517,6 +518,16 @@ public class BridgeImpl implements Bridge, SessionFailureListener, SendAcknowled
       return bytes;
    }
 
+   public void handle(final DeliveryBatch batch) throws Exception
+   {
+      MessageReference ref;
+
+      while ((ref = batch.next()) != null)
+      {
+         batch.done(handle(ref));
+      }
+   }
+
    public HandleStatus handle(final MessageReference ref) throws Exception
    {
       if (filter != null && !filter.match(ref.getMessage()))
@@ -21,6 +21,7 @@ import org.hornetq.core.journal.IOAsyncTask;
 import org.hornetq.core.persistence.StorageManager;
 import org.hornetq.core.postoffice.PostOffice;
 import org.hornetq.core.server.Consumer;
+import org.hornetq.core.server.DeliveryBatch;
 import org.hornetq.core.server.HandleStatus;
 import org.hornetq.core.server.HornetQServerLogger;
 import org.hornetq.core.server.MessageReference;
@@ -122,6 +123,16 @@ public class Redistributor implements Consumer
       return ok;
    }
 
+   public void handle(final DeliveryBatch batch) throws Exception
+   {
+      MessageReference ref;
+
+      while ((ref = batch.next()) != null)
+      {
+         batch.done(handle(ref));
+      }
+   }
+
    public synchronized HandleStatus handle(final MessageReference reference) throws Exception
    {
       if (!active)
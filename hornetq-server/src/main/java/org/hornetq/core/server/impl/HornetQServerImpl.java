@@ -1288,9 +1288,11 @@ public class HornetQServerImpl implements HornetQServer
          scheduledPool,
          executorFactory,
          configuration.isJournalSyncNonTransactional(),
-         shutdownOnCriticalIO),
+         shutdownOnCriticalIO,
+         configuration.getJournalType() == JournalType.MAPPED),
          storageManager,
-         addressSettingsRepository);
+         addressSettingsRepository,
+         configuration.getGlobalMaxSize());
    }
 
    /**
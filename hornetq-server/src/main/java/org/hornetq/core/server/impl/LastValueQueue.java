@@ -12,10 +12,11 @@
  */
 package org.hornetq.core.server.impl;
 
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.hornetq.api.core.Message;
 import org.hornetq.api.core.SimpleString;
@@ -39,12 +40,24 @@ import org.hornetq.core.transaction.Transaction;
  * <p>
  * This is useful for example, for stock prices, where you're only interested in the latest value
  * for a particular stock
+ * <p>
+ * Each value property has a single reference in the queue, its {@link HolderReference}. A new value is handed to the
+ * holder without taking the lock of the queue and replaces the previous one in O(1), the holder only swaps it in
+ * before it is delivered, see {@link #beforeDelivery(MessageReference)}. Once the holder is delivered, a newer value
+ * goes into a new holder at the tail of the queue.
  * @author <a href="mailto:andy.taylor@jboss.org">Andy Taylor</a>
  * @author <a href="mailto:tim.fox@jboss.com">Tim Fox</a> rewrite
  */
 public class LastValueQueue extends QueueImpl
 {
-   private final Map<SimpleString, HolderReference> map = new ConcurrentHashMap<SimpleString, HolderReference>();
+   private static final AtomicReferenceFieldUpdater<HolderReference, Object> PENDING_UPDATER = AtomicReferenceFieldUpdater.newUpdater(HolderReference.class,
+                                                                                                                                    Object.class,
+                                                                                                                                    "pending");
+
+   // Set as the pending value of a holder once it is delivered, no value can be given to it after that
+   private static final Object SEALED = new Object();
+
+   private final ConcurrentMap<SimpleString, HolderReference> map = new ConcurrentHashMap<SimpleString, HolderReference>();
 
    public LastValueQueue(final long persistenceID,
                          final SimpleString address,
@@ -74,47 +87,43 @@ public class LastValueQueue extends QueueImpl
    }
 
    @Override
-   public synchronized void addTail(final MessageReference ref, final boolean direct)
+   public void addTail(final MessageReference ref, final boolean direct)
    {
       SimpleString prop = ref.getMessage().getSimpleStringProperty(Message.HDR_LAST_VALUE_NAME);
 
-      if (prop != null)
+      if (prop == null)
       {
-         HolderReference hr = map.get(prop);
+         super.addTail(ref, direct);
 
-         if (hr != null)
-         {
-            // We need to overwrite the old ref with the new one and ack the old one
+         return;
+      }
 
-            MessageReference oldRef = hr.getReference();
+      while (true)
+      {
+         HolderReference hr = map.get(prop);
 
-            super.referenceHandled();
+         if (hr == null)
+         {
+            hr = new HolderReference(prop, ref);
 
-            try
+            if (map.putIfAbsent(prop, hr) == null)
             {
-               oldRef.acknowledge();
-            }
-            catch (Exception e)
-            {
-               HornetQServerLogger.LOGGER.errorAckingOldReference(e);
-            }
-
-            hr.setReference(ref);
+               super.addTail(hr, direct);
 
+               return;
+            }
+         }
+         else if (hr.offer(ref))
+         {
+            return;
          }
          else
          {
-            hr = new HolderReference(prop, ref);
-
-            map.put(prop, hr);
-
-            super.addTail(hr, direct);
+            // The holder is being delivered, the value needs a new one. Any value the holder had is older than
+            // this one and is acked by handled() if the holder is gone from the map
+            map.remove(prop, hr);
          }
       }
-      else
-      {
-         super.addTail(ref, direct);
-      }
    }
 
    @Override
@@ -124,28 +133,19 @@ public class LastValueQueue extends QueueImpl
 
       if (prop != null)
       {
-         HolderReference hr = map.get(prop);
+         // A cancelled holder can't take new values any more, the reference goes back in a new one
+         MessageReference returned = ref instanceof HolderReference ? ((HolderReference)ref).getReference() : ref;
 
-         if (hr != null)
+         HolderReference hr = new HolderReference(prop, returned);
+
+         if (map.putIfAbsent(prop, hr) != null)
          {
             // We keep the current ref and ack the one we are returning
-
-            super.referenceHandled();
-
-            try
-            {
-               super.acknowledge(ref);
-            }
-            catch (Exception e)
-            {
-               HornetQServerLogger.LOGGER.errorAckingOldReference(e);
-            }
+            acknowledgeReplaced(returned);
          }
          else
          {
-            map.put(prop, (HolderReference)ref);
-
-            super.addHead(ref);
+            super.addHead(hr);
          }
       }
       else
@@ -154,17 +154,50 @@ public class LastValueQueue extends QueueImpl
       }
    }
 
+   @Override
+   protected void beforeDelivery(final MessageReference ref)
+   {
+      if (ref instanceof HolderReference)
+      {
+         ((HolderReference)ref).refresh();
+      }
+   }
+
+   private void acknowledgeReplaced(final MessageReference ref)
+   {
+      super.referenceHandled();
+
+      try
+      {
+         super.acknowledge(ref);
+      }
+      catch (Exception e)
+      {
+         HornetQServerLogger.LOGGER.errorAckingOldReference(e);
+      }
+   }
+
    private class HolderReference implements MessageReference
    {
       private final SimpleString prop;
 
+      // Only changed holding the lock of the queue
       private volatile MessageReference ref;
 
+      // The latest value given by the producers and not swapped in yet, or SEALED.
+      // Not private, for PENDING_UPDATER
+      volatile Object pending;
+
+      // The queue accounts for the memory of the holder when it is added, this keeps it the same when it is removed
+      private final int memoryEstimate;
+
       HolderReference(final SimpleString prop, final MessageReference ref)
       {
          this.prop = prop;
 
          this.ref = ref;
+
+         memoryEstimate = ref.getMessageMemoryEstimate();
       }
 
       MessageReference getReference()
@@ -172,16 +205,87 @@ public class LastValueQueue extends QueueImpl
          return ref;
       }
 
-      public void handled()
+      /**
+       * Gives the holder a newer value, acking the one it replaces.
+       * @return false if the holder is delivered already
+       */
+      boolean offer(final MessageReference newRef)
       {
-         // We need to remove the entry from the map just before it gets delivered
+         while (true)
+         {
+            Object latest = pending;
+
+            if (latest == SEALED)
+            {
+               return false;
+            }
 
-         map.remove(prop);
+            if (PENDING_UPDATER.compareAndSet(this, latest, newRef))
+            {
+               if (latest != null)
+               {
+                  acknowledgeReplaced((MessageReference)latest);
+               }
+
+               return true;
+            }
+         }
       }
 
-      void setReference(final MessageReference ref)
+      /**
+       * Swaps in the latest value, called holding the lock of the queue.
+       */
+      void refresh()
       {
-         this.ref = ref;
+         Object latest = pending;
+
+         if (latest != null && latest != SEALED && PENDING_UPDATER.compareAndSet(this, latest, null))
+         {
+            MessageReference oldRef = ref;
+
+            ref = (MessageReference)latest;
+
+            long oldExpiration = oldRef.getMessage().getExpiration();
+
+            long newExpiration = ref.getMessage().getExpiration();
+
+            if (oldExpiration != newExpiration)
+            {
+               expirationChanged(HolderReference.this, oldExpiration, newExpiration);
+            }
+
+            acknowledgeReplaced(oldRef);
+         }
+      }
+
+      public void handled()
+      {
+         ref.handled();
+
+         // We need to remove the entry from the map just before it gets delivered
+
+         Object latest = PENDING_UPDATER.getAndSet(this, SEALED);
+
+         if (latest == null || latest == SEALED)
+         {
+            map.remove(prop, this);
+
+            return;
+         }
+
+         // The consumer has already looked at the current value, the newer one is queued after it in a new holder.
+         // The holder is replaced in a single step: a producer that finds it sealed and removes it offers a value
+         // newer than the one taken here, which is then acked instead
+         HolderReference next = new HolderReference(prop, (MessageReference)latest);
+
+         if (map.replace(prop, this, next))
+         {
+            LastValueQueue.super.addTail(next, false);
+         }
+         else
+         {
+            acknowledgeReplaced((MessageReference)latest);
+         }
       }
 
       public MessageReference copy(final Queue queue)
@@ -265,7 +369,7 @@ public class LastValueQueue extends QueueImpl
        */
       public int getMessageMemoryEstimate()
       {
-         return ref.getMessage().getMemoryEstimate();
+         return memoryEstimate;
       }
    }
 
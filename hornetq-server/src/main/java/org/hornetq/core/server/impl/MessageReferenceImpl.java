@@ -13,7 +13,7 @@
 
 package org.hornetq.core.server.impl;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.hornetq.core.server.MessageReference;
 import org.hornetq.core.server.Queue;
@@ -28,7 +28,11 @@ import org.hornetq.utils.MemorySize;
  */
 public class MessageReferenceImpl implements MessageReference
 {
-   private final AtomicInteger deliveryCount = new AtomicInteger();
+   // An updater rather than an AtomicInteger, as there is a reference per message and per queue
+   private static final AtomicIntegerFieldUpdater<MessageReferenceImpl> deliveryCountUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(MessageReferenceImpl.class, "deliveryCount");
+
+   private volatile int deliveryCount;
 
    private volatile int persistedCount;
 
@@ -44,7 +48,7 @@ public class MessageReferenceImpl implements MessageReference
 
    static
    {
-      // This is an estimate of how much memory a ServerMessageImpl takes up, exclusing body and properties
+      // This is an estimate of how much memory a MessageReferenceImpl takes up, with its slot in the list of the queue
       // Note, it is only an estimate, it's not possible to be entirely sure with Java
       // This figure is calculated using the test utilities in org.hornetq.tests.unit.util.sizeof
       // The value is somewhat higher on 64 bit architectures, probably due to different alignment
@@ -55,7 +59,7 @@ public class MessageReferenceImpl implements MessageReference
       }
       else
       {
-         memoryOffset = 32;
+         memoryOffset = 40;
       }
    }
 
@@ -70,7 +74,7 @@ public class MessageReferenceImpl implements MessageReference
 
    public MessageReferenceImpl(final MessageReferenceImpl other, final Queue queue)
    {
-      deliveryCount.set(other.deliveryCount.get());
+      deliveryCount = other.deliveryCount;
 
       scheduledDeliveryTime = other.scheduledDeliveryTime;
 
@@ -116,23 +120,23 @@ public class MessageReferenceImpl implements MessageReference
 
    public int getDeliveryCount()
    {
-      return deliveryCount.get();
+      return deliveryCount;
    }
 
    public void setDeliveryCount(final int deliveryCount)
    {
-      this.deliveryCount.set(deliveryCount);
-      this.persistedCount = this.deliveryCount.get();
+      this.deliveryCount = deliveryCount;
+      this.persistedCount = deliveryCount;
    }
 
    public void incrementDeliveryCount()
    {
-      deliveryCount.incrementAndGet();
+      deliveryCountUpdater.incrementAndGet(this);
    }
 
    public void decrementDeliveryCount()
    {
-      deliveryCount.decrementAndGet();
+      deliveryCountUpdater.decrementAndGet(this);
    }
 
    public long getScheduledDeliveryTime()
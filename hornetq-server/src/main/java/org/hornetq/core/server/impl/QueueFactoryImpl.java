@@ -13,6 +13,7 @@
 
 package org.hornetq.core.server.impl;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.hornetq.api.core.SimpleString;
@@ -92,6 +93,29 @@ public class QueueFactoryImpl implements QueueFactory
                                     addressSettingsRepository,
                                     executorFactory.getExecutor());
       }
+      else if (addressSettings.getQueueShards() > 1)
+      {
+         Executor[] shardExecutors = new Executor[addressSettings.getQueueShards()];
+
+         for (int i = 0; i < shardExecutors.length; i++)
+         {
+            shardExecutors[i] = executorFactory.getExecutor();
+         }
+
+         queue = new ShardedQueueImpl(persistenceID,
+                                      address,
+                                      name,
+                                      filter,
+                                      pageSubscription,
+                                      durable,
+                                      temporary,
+                                      scheduledExecutor,
+                                      postOffice,
+                                      storageManager,
+                                      addressSettingsRepository,
+                                      executorFactory.getExecutor(),
+                                      shardExecutors);
+      }
       else
       {
          queue = new QueueImpl(persistenceID,
@@ -16,13 +16,17 @@ package org.hornetq.core.server.impl;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
@@ -36,6 +40,8 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.hornetq.api.core.Message;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.filter.Filter;
+import org.hornetq.core.filter.impl.FilterImpl;
+import org.hornetq.core.filter.impl.FilterIndexKey;
 import org.hornetq.core.paging.cursor.PageSubscription;
 import org.hornetq.core.paging.cursor.PagedReference;
 import org.hornetq.core.persistence.StorageManager;
@@ -43,6 +49,7 @@ import org.hornetq.core.postoffice.Bindings;
 import org.hornetq.core.postoffice.DuplicateIDCache;
 import org.hornetq.core.postoffice.PostOffice;
 import org.hornetq.core.server.Consumer;
+import org.hornetq.core.server.DeliveryBatch;
 import org.hornetq.core.server.HandleStatus;
 import org.hornetq.core.server.HornetQServerLogger;
 import org.hornetq.core.server.MessageReference;
@@ -86,6 +93,9 @@ public class QueueImpl implements Queue
 
    public static final int CHECK_QUEUE_SIZE_PERIOD = 100;
 
+   // The width of the buckets the references with an expiration are indexed by
+   private static final long EXPIRATION_BUCKET_MILLIS = 1000;
+
    /** If The system gets slow for any reason, this is the maximum time an Delivery or
        or depage executor should be hanging on
    */
@@ -116,18 +126,31 @@ public class QueueImpl implements Queue
    private final PriorityLinkedList<MessageReference> messageReferences = new PriorityLinkedListImpl<MessageReference>(QueueImpl.NUM_PRIORITIES);
 
    // The quantity of pagedReferences on messageReferences priority list
-   private final AtomicInteger pagedReferences = new AtomicInteger(0);
+   private final AtomicInteger pagedReferences;
 
    // The estimate of memory being consumed by this queue. Used to calculate instances of messages to depage
-   private final AtomicInteger queueMemorySize = new AtomicInteger(0);
+   private final AtomicInteger queueMemorySize;
+
+   // The references of messageReferences with an expiration, by the bucket of EXPIRATION_BUCKET_MILLIS their
+   // expiration falls in, so the expiry only looks at the buckets which are due. Only used holding the lock
+   private final TreeMap<Long, Set<MessageReference>> expirationBuckets = new TreeMap<Long, Set<MessageReference>>();
+
+   // The number of references in expirationBuckets, and the earliest time one of them can expire. They are only
+   // changed holding the lock, the expiry reaper reads them to skip the queues with nothing to expire
+   private volatile int expiringReferences;
+
+   private volatile long nextExpiration = Long.MAX_VALUE;
 
    private final List<ConsumerHolder> consumerList = new ArrayList<ConsumerHolder>();
 
+   // The consumers by the value of the property their filters require, null when they can't be indexed
+   private ConsumerIndex consumerIndex;
+
    private final ScheduledDeliveryHandler scheduledDeliveryHandler;
 
    private long messagesAdded;
 
-   protected final AtomicInteger deliveringCount = new AtomicInteger(0);
+   protected final AtomicInteger deliveringCount;
 
    private boolean paused;
 
@@ -173,6 +196,12 @@ public class QueueImpl implements Queue
 
    private volatile boolean directDeliver = true;
 
+   // The most references given in a row to a consumer
+   private final int deliveryBatchSize;
+
+   // null when the references are given one at a time
+   private final QueueDeliveryBatch deliveryBatch;
+
    public String debug()
    {
       StringWriter str = new StringWriter();
@@ -254,6 +283,69 @@ public class QueueImpl implements Queue
                     final HierarchicalRepository<AddressSettings> addressSettingsRepository,
                     final Executor executor)
    {
+      this(null,
+           id,
+           address,
+           name,
+           filter,
+           pageSubscription,
+           durable,
+           temporary,
+           scheduledExecutor,
+           postOffice,
+           storageManager,
+           addressSettingsRepository,
+           executor);
+   }
+
+   /**
+    * Creates a part of the owner queue, delivering some of its messages on its own executor. The part has the
+    * identity of the owner, and shares its counters of delivering messages and of memory, but it doesn't page.
+    */
+   protected QueueImpl(final QueueImpl owner, final Executor executor)
+   {
+      this(owner,
+           owner.id,
+           owner.address,
+           owner.name,
+           owner.filter,
+           null,
+           owner.durable,
+           owner.temporary,
+           owner.scheduledExecutor,
+           owner.postOffice,
+           owner.storageManager,
+           owner.addressSettingsRepository,
+           executor);
+   }
+
+   private QueueImpl(final QueueImpl owner,
+                     final long id,
+                     final SimpleString address,
+                     final SimpleString name,
+                     final Filter filter,
+                     final PageSubscription pageSubscription,
+                     final boolean durable,
+                     final boolean temporary,
+                     final ScheduledExecutorService scheduledExecutor,
+                     final PostOffice postOffice,
+                     final StorageManager storageManager,
+                     final HierarchicalRepository<AddressSettings> addressSettingsRepository,
+                     final Executor executor)
+   {
+      if (owner == null)
+      {
+         pagedReferences = new AtomicInteger(0);
+         queueMemorySize = new AtomicInteger(0);
+         deliveringCount = new AtomicInteger(0);
+      }
+      else
+      {
+         pagedReferences = owner.pagedReferences;
+         queueMemorySize = owner.queueMemorySize;
+         deliveringCount = owner.deliveringCount;
+      }
+
       this.id = id;
 
       this.address = address;
@@ -280,13 +372,21 @@ public class QueueImpl implements Queue
 
       if (addressSettingsRepository != null)
       {
-         expiryAddress = addressSettingsRepository.getMatch(address.toString()).getExpiryAddress();
+         AddressSettings settings = addressSettingsRepository.getMatch(address.toString());
+
+         expiryAddress = settings.getExpiryAddress();
+
+         deliveryBatchSize = settings.getDeliveryBatchSize();
       }
       else
       {
          expiryAddress = null;
+
+         deliveryBatchSize = AddressSettings.DEFAULT_DELIVERY_BATCH_SIZE;
       }
 
+      deliveryBatch = deliveryBatchSize > 1 ? new QueueDeliveryBatch() : null;
+
       if (pageSubscription != null)
       {
          pageSubscription.setQueue(this);
@@ -442,8 +542,7 @@ public class QueueImpl implements Queue
          if (direct && !directDeliver &&
              intermediateMessageReferences.isEmpty() &&
              messageReferences.isEmpty() &&
-             !pageIterator.hasNext() &&
-             !pageSubscription.isPaging())
+             !hasPagedMessages())
          {
             // We must block on the executor to ensure any async deliveries have completed or we might get out of order
             // deliveries
@@ -578,6 +677,8 @@ public class QueueImpl implements Queue
 
       consumerList.add(new ConsumerHolder(consumer));
 
+      consumerIndex = ConsumerIndex.create(consumerList);
+
       consumerSet.add(consumer);
    }
 
@@ -602,6 +703,8 @@ public class QueueImpl implements Queue
          }
       }
 
+      consumerIndex = ConsumerIndex.create(consumerList);
+
       if (pos > 0 && pos >= consumerList.size())
       {
          pos = consumerList.size() - 1;
@@ -684,6 +787,8 @@ public class QueueImpl implements Queue
             }
          }
 
+         consumerIndex = ConsumerIndex.create(consumerList);
+
          if (pos > 0 && pos >= consumerList.size())
          {
             pos = consumerList.size() - 1;
@@ -732,6 +837,11 @@ public class QueueImpl implements Queue
             continue;
          }
 
+         if (holder.indexKey != null && !holder.indexKey.mayMatch(message))
+         {
+            continue;
+         }
+
          Filter filter = consumer.getFilter();
 
          if (filter == null)
@@ -1242,51 +1352,99 @@ public class QueueImpl implements Queue
 
    public void expireReferences()
    {
+      // A queue without a reference which may have expired costs nothing, unless it has messages on the pages
+      if (!mayHaveExpiredReferences() && !hasPagedMessages())
+      {
+         return;
+      }
+
       getExecutor().execute(new Runnable(){
          public void run()
          {
             synchronized (QueueImpl.this)
             {
-               LinkedListIterator<MessageReference> iter = iterator();
+               boolean expired = mayHaveExpiredReferences() && expireDueReferences();
 
-               try
+               // If empty we need to schedule depaging to make sure we would depage expired messages as well
+               if ((messageReferences.isEmpty() || expired) && pageIterator != null && pageIterator.hasNext())
+               {
+                  scheduleDepage(true);
+               }
+            }
+         }
+      });
+   }
+
+   /**
+    * Expires the references whose time has come. Only the buckets of the expiration index which are due are looked
+    * at, and the walk to remove their references from messageReferences stops once the last of them is found.
+    * <p>
+    * Called holding the lock.
+    * @return whether a reference was expired
+    */
+   private boolean expireDueReferences()
+   {
+      Set<MessageReference> due = Collections.newSetFromMap(new IdentityHashMap<MessageReference, Boolean>());
+
+      long lastDueBucket = System.currentTimeMillis() / EXPIRATION_BUCKET_MILLIS;
+
+      for (Set<MessageReference> bucket : expirationBuckets.headMap(lastDueBucket, true).values())
+      {
+         for (MessageReference ref : bucket)
+         {
+            if (ref.getMessage().isExpired())
+            {
+               due.add(ref);
+            }
+         }
+      }
+
+      boolean expired = false;
+
+      if (!due.isEmpty())
+      {
+         LinkedListIterator<MessageReference> iter = iterator();
+
+         try
+         {
+            while (!due.isEmpty() && iter.hasNext())
+            {
+               MessageReference ref = iter.next();
+
+               // A last value holder may have been given a newer message on the way
+               if (due.remove(ref) && ref.getMessage().isExpired())
                {
-                  boolean expired = false;
-                  boolean hasElements = false;
-                  while (iter.hasNext())
+                  try
                   {
-                     hasElements = true;
-                     MessageReference ref = iter.next();
-                     try
-                     {
-                        if (ref.getMessage().isExpired())
-                        {
-                           deliveringCount.incrementAndGet();
-                           expired = true;
-                           expire(ref);
-                           iter.remove();
-                           refRemoved(ref);
-                        }
-                     }
-                     catch (Exception e)
-                     {
-                        HornetQServerLogger.LOGGER.errorExpiringReferencesOnQueue(e, ref);
-                     }
+                     deliveringCount.incrementAndGet();
+                     expired = true;
+                     expire(ref);
+                     iter.remove();
+                     refRemoved(ref);
                   }
-
-                  // If empty we need to schedule depaging to make sure we would depage expired messages as well
-                  if ((!hasElements || expired) && pageIterator != null && pageIterator.hasNext())
+                  catch (Exception e)
                   {
-                     scheduleDepage(true);
+                     // tried again on the next expiry
+                     HornetQServerLogger.LOGGER.errorExpiringReferencesOnQueue(e, ref);
                   }
                }
-               finally
-               {
-                  iter.close();
-               }
             }
          }
-      });
+         finally
+         {
+            iter.close();
+         }
+
+         // Whatever is left was not on messageReferences any more
+         for (MessageReference ref : due)
+         {
+            expiringRemoved(ref, ref.getMessage().getExpiration());
+         }
+      }
+
+      updateNextExpiration();
+
+      return expired;
    }
 
    public synchronized boolean sendMessageToDeadLetterAddress(final long messageID) throws Exception
@@ -1434,6 +1592,7 @@ public class QueueImpl implements Queue
                      move(toAddress, tx, ref, false, rejectDuplicates);
                   }
                   iter.remove();
+                  refRemoved(ref);
                }
             }
 
@@ -1676,7 +1835,7 @@ public class QueueImpl implements Queue
 
          while (handled < numRefs)
          {
-            if (handled == MAX_DELIVERIES_IN_LOOP)
+            if (handled >= MAX_DELIVERIES_IN_LOOP)
             {
                // Schedule another one - we do this to prevent a single thread getting caught up in this loop for too
                // long
@@ -1707,82 +1866,118 @@ public class QueueImpl implements Queue
                holder.iter = messageReferences.iterator();
             }
 
-            MessageReference ref;
+            boolean batched = false;
 
-            if (holder.iter.hasNext())
-            {
-               ref = holder.iter.next();
-            }
-            else
+            if (deliveryBatch != null)
             {
-               ref = null;
-            }
+               batched = deliveryBatch.deliver(holder, Math.min(deliveryBatchSize, MAX_DELIVERIES_IN_LOOP - handled));
 
-            if (ref == null)
-            {
-               nullRefCount++;
-            }
-            else
-            {
-               if (checkExpired(ref))
+               handled += deliveryBatch.removed;
+
+               if (batched)
                {
-                  if (isTrace)
+                  if (deliveryBatch.busy)
                   {
-                     HornetQServerLogger.LOGGER.trace("Reference " + ref + " being expired");
+                     busyCount++;
                   }
-                  holder.iter.remove();
-
-                  refRemoved(ref);
+                  else if (deliveryBatch.taken == 0)
+                  {
+                     nullRefCount++;
+                  }
+               }
+            }
 
-                  handled++;
+            if (!batched)
+            {
+               MessageReference ref;
 
-                  continue;
+               if (holder.iter.hasNext())
+               {
+                  ref = holder.iter.next();
+               }
+               else
+               {
+                  ref = null;
                }
 
-               Consumer groupConsumer = null;
-
-               if (isTrace)
+               if (ref == null)
                {
-                  HornetQServerLogger.LOGGER.trace("Queue " + this.getName() + " is delivering reference " + ref);
+                  nullRefCount++;
                }
+               else
+               {
+                  beforeDelivery(ref);
+
+                  if (checkExpired(ref))
+                  {
+                     if (isTrace)
+                     {
+                        HornetQServerLogger.LOGGER.trace("Reference " + ref + " being expired");
+                     }
+                     holder.iter.remove();
 
-               // If a group id is set, then this overrides the consumer chosen round-robin
+                     refRemoved(ref);
 
-               SimpleString groupID = ref.getMessage().getSimpleStringProperty(Message.HDR_GROUP_ID);
+                     handled++;
 
-               if (groupID != null)
-               {
-                  groupConsumer = groups.get(groupID);
+                     continue;
+                  }
 
-                  if (groupConsumer != null)
+                  Consumer groupConsumer = null;
+
+                  if (isTrace)
                   {
-                     consumer = groupConsumer;
+                     HornetQServerLogger.LOGGER.trace("Queue " + this.getName() + " is delivering reference " + ref);
                   }
-               }
 
-               HandleStatus status = handle(ref, consumer);
+                  // If a group id is set, then this overrides the consumer chosen round-robin
 
-               if (status == HandleStatus.HANDLED)
-               {
-                  holder.iter.remove();
+                  SimpleString groupID = ref.getMessage().getSimpleStringProperty(Message.HDR_GROUP_ID);
 
-                  refRemoved(ref);
+                  if (groupID != null)
+                  {
+                     groupConsumer = groups.get(groupID);
+
+                     if (groupConsumer != null)
+                     {
+                        consumer = groupConsumer;
+                     }
+                  }
 
-                  if (groupID != null && groupConsumer == null)
+                  HandleStatus status;
+
+                  if (consumer == holder.consumer && holder.indexKey != null && !holder.indexKey.mayMatch(ref.getMessage()))
+                  {
+                     // The filter can't match, no need to ask the consumer
+                     status = HandleStatus.NO_MATCH;
+                  }
+                  else
                   {
-                     groups.put(groupID, consumer);
+                     status = handle(ref, consumer);
                   }
 
-                  handled++;
-               }
-               else if (status == HandleStatus.BUSY)
-               {
-                  holder.iter.repeat();
+                  if (status == HandleStatus.HANDLED)
+                  {
+                     holder.iter.remove();
 
-                  busyCount++;
-               }
-               else if (status == HandleStatus.NO_MATCH)
-               {
+                     refRemoved(ref);
+
+                     if (groupID != null && groupConsumer == null)
+                     {
+                        groups.put(groupID, consumer);
+                     }
+
+                     handled++;
+                  }
+                  else if (status == HandleStatus.BUSY)
+                  {
+                     holder.iter.repeat();
+
+                     busyCount++;
+                  }
+                  else if (status == HandleStatus.NO_MATCH)
+                  {
+                  }
                }
             }
 
@@ -1811,7 +2006,23 @@ public class QueueImpl implements Queue
          }
       }
 
-      if (pageIterator != null && messageReferences.size() == 0 && pageSubscription.isPaging() && pageIterator.hasNext() && !depagePending)
+      checkDepage();
+   }
+
+   /**
+    * @return true if there are messages on the pages waiting for this queue
+    */
+   protected boolean hasPagedMessages()
+   {
+      return pageIterator != null && (pageIterator.hasNext() || pageSubscription.isPaging());
+   }
+
+   /**
+    * Schedules a depage once the messages in memory are gone
+    */
+   protected void checkDepage()
+   {
+      if (pageIterator != null && getNumberOfReferences() == 0 && pageSubscription.isPaging() && pageIterator.hasNext() && !depagePending)
       {
          scheduleDepage(false);
       }
@@ -1827,6 +2038,7 @@ public class QueueImpl implements Queue
       {
          pagedReferences.decrementAndGet();
       }
+      expiringRemoved(ref, ref.getMessage().getExpiration());
    }
 
    /**
@@ -1838,6 +2050,103 @@ public class QueueImpl implements Queue
       {
          pagedReferences.incrementAndGet();
       }
+
+      expiringAdded(ref, ref.getMessage().getExpiration());
+   }
+
+   /**
+    * Called by a subclass holding the lock when a reference of messageReferences is given a message with another
+    * expiration.
+    */
+   protected void expirationChanged(final MessageReference ref, final long oldExpiration, final long newExpiration)
+   {
+      expiringRemoved(ref, oldExpiration);
+
+      expiringAdded(ref, newExpiration);
+   }
+
+   private void expiringAdded(final MessageReference ref, final long expiration)
+   {
+      if (expiration != 0)
+      {
+         Long key = expiration / EXPIRATION_BUCKET_MILLIS;
+
+         Set<MessageReference> bucket = expirationBuckets.get(key);
+
+         if (bucket == null)
+         {
+            bucket = Collections.newSetFromMap(new IdentityHashMap<MessageReference, Boolean>());
+
+            expirationBuckets.put(key, bucket);
+         }
+
+         if (bucket.add(ref))
+         {
+            expiringReferences++;
+
+            if (expiration < nextExpiration)
+            {
+               nextExpiration = expiration;
+            }
+         }
+      }
+   }
+
+   private void expiringRemoved(final MessageReference ref, final long expiration)
+   {
+      if (expiration != 0)
+      {
+         Long key = expiration / EXPIRATION_BUCKET_MILLIS;
+
+         Set<MessageReference> bucket = expirationBuckets.get(key);
+
+         // nextExpiration stays as it is, it is only a lower bound which the next expiry makes exact again
+         if (bucket != null && bucket.remove(ref))
+         {
+            expiringReferences--;
+
+            if (bucket.isEmpty())
+            {
+               expirationBuckets.remove(key);
+            }
+         }
+      }
+   }
+
+   /**
+    * Sets nextExpiration to the earliest expiration of the first bucket.
+    */
+   private void updateNextExpiration()
+   {
+      long next = Long.MAX_VALUE;
+
+      if (!expirationBuckets.isEmpty())
+      {
+         for (MessageReference ref : expirationBuckets.firstEntry().getValue())
+         {
+            next = Math.min(next, ref.getMessage().getExpiration());
+         }
+      }
+
+      nextExpiration = next;
+   }
+
+   /**
+    * @return whether a reference of messageReferences may have expired, without taking the lock
+    */
+   private boolean mayHaveExpiredReferences()
+   {
+      return expiringReferences > 0 && System.currentTimeMillis() >= nextExpiration;
+   }
+
+   /**
+    * Called holding the lock just before a reference of messageReferences is handed to a consumer or to a browser.
+    * <p>
+    * A subclass whose references can be updated without the lock brings them up to date here, so they don't change
+    * while the consumer looks at them.
+    */
+   protected void beforeDelivery(final MessageReference ref)
+   {
    }
 
    private void scheduleDepage(final boolean scheduleExpiry)
@@ -1931,6 +2240,8 @@ public class QueueImpl implements Queue
 
          consumerList.add(new ConsumerHolder(redistributor));
 
+         consumerIndex = ConsumerIndex.create(consumerList);
+
          redistributor.start();
 
          deliverAsync();
@@ -1999,7 +2310,6 @@ public class QueueImpl implements Queue
       }
    }
 
-   /** Used on testing only **/
    public int getNumberOfReferences()
    {
       return messageReferences.size();
@@ -2124,6 +2434,13 @@ public class QueueImpl implements Queue
          return true;
       }
 
+      SimpleString groupID = ref.getMessage().getSimpleStringProperty(Message.HDR_GROUP_ID);
+
+      if (groupID == null && consumerIndex != null)
+      {
+         return deliverDirect(ref, consumerIndex);
+      }
+
       int startPos = pos;
 
       int size = consumerList.size();
@@ -2138,8 +2455,6 @@ public class QueueImpl implements Queue
 
          // If a group id is set, then this overrides the consumer chosen round-robin
 
-         SimpleString groupID = ref.getMessage().getSimpleStringProperty(Message.HDR_GROUP_ID);
-
          if (groupID != null)
          {
             groupConsumer = groups.get(groupID);
@@ -2180,6 +2495,48 @@ public class QueueImpl implements Queue
       }
    }
 
+   /*
+    * Round robins over the consumers whose filters may match the reference only, in the same order as if all the
+    * consumers were tried
+    */
+   private boolean deliverDirect(final MessageReference ref, final ConsumerIndex index)
+   {
+      int[] candidates = index.getCandidates(ref.getMessage());
+
+      int size = consumerList.size();
+
+      int first = Arrays.binarySearch(candidates, pos);
+
+      if (first < 0)
+      {
+         first = -first - 1;
+      }
+
+      for (int i = 0; i < candidates.length; i++)
+      {
+         int candidate = candidates[(first + i) % candidates.length];
+
+         pos = candidate + 1 == size ? 0 : candidate + 1;
+
+         HandleStatus status = handle(ref, consumerList.get(candidate).consumer);
+
+         if (status == HandleStatus.HANDLED)
+         {
+            messagesAdded++;
+
+            return true;
+         }
+
+         if (index != consumerIndex)
+         {
+            // A bad consumer was removed, the positions are gone
+            return false;
+         }
+      }
+
+      return false;
+   }
+
    private boolean checkExpired(final MessageReference reference)
    {
       if (reference.getMessage().isExpired())
@@ -2320,18 +2677,322 @@ public class QueueImpl implements Queue
    // Inner classes
    // --------------------------------------------------------------------------
 
+   /**
+    * Gives the references of the queue in a row to the consumer of a holder, in one call to
+    * {@link Consumer#handle(DeliveryBatch)}. Only used by deliver, holding the lock of the queue.
+    */
+   private final class QueueDeliveryBatch implements DeliveryBatch
+   {
+      private ConsumerHolder holder;
+
+      private int max;
+
+      private MessageReference current;
+
+      private SimpleString currentGroupID;
+
+      // Stopped on a reference of a group that belongs to another consumer
+      private boolean grouped;
+
+      // The references given to the consumer
+      int taken;
+
+      // The references taken out of the queue, handled or expired
+      int removed;
+
+      boolean busy;
+
+      /**
+       * @return false if the batch stopped on a reference of another consumer before giving anything, so the
+       *         reference has to be delivered alone
+       */
+      boolean deliver(final ConsumerHolder holder, final int max)
+      {
+         this.holder = holder;
+         this.max = max;
+         current = null;
+         currentGroupID = null;
+         grouped = false;
+         taken = 0;
+         removed = 0;
+         busy = false;
+
+         try
+         {
+            holder.consumer.handle(this);
+         }
+         catch (Throwable t)
+         {
+            HornetQServerLogger.LOGGER.removingBadConsumer(t, holder.consumer, current);
+
+            // If the consumer throws an exception we remove the consumer
+            try
+            {
+               removeConsumer(holder.consumer);
+            }
+            catch (Exception e)
+            {
+               HornetQServerLogger.LOGGER.errorRemovingConsumer(e);
+            }
+
+            busy = true;
+         }
+
+         this.holder = null;
+         current = null;
+
+         return taken > 0 || !grouped;
+      }
+
+      public MessageReference next()
+      {
+         if (busy || grouped || taken == max)
+         {
+            return null;
+         }
+
+         LinkedListIterator<MessageReference> iter = holder.iter;
+
+         while (iter.hasNext())
+         {
+            MessageReference ref = iter.next();
+
+            beforeDelivery(ref);
+
+            if (checkExpired(ref))
+            {
+               if (isTrace)
+               {
+                  HornetQServerLogger.LOGGER.trace("Reference " + ref + " being expired");
+               }
+
+               iter.remove();
+
+               refRemoved(ref);
+
+               removed++;
+
+               continue;
+            }
+
+            SimpleString groupID = ref.getMessage().getSimpleStringProperty(Message.HDR_GROUP_ID);
+
+            if (groupID != null)
+            {
+               Consumer groupConsumer = groups.get(groupID);
+
+               if (groupConsumer != null && groupConsumer != holder.consumer)
+               {
+                  iter.repeat();
+
+                  grouped = true;
+
+                  return null;
+               }
+            }
+
+            if (holder.indexKey != null && !holder.indexKey.mayMatch(ref.getMessage()))
+            {
+               // The filter can't match, no need to ask the consumer
+               continue;
+            }
+
+            if (isTrace)
+            {
+               HornetQServerLogger.LOGGER.trace("Queue " + getName() + " is delivering reference " + ref);
+            }
+
+            current = ref;
+
+            currentGroupID = groupID;
+
+            taken++;
+
+            return ref;
+         }
+
+         return null;
+      }
+
+      public void done(final HandleStatus status)
+      {
+         if (status == HandleStatus.HANDLED)
+         {
+            holder.iter.remove();
+
+            refRemoved(current);
+
+            if (currentGroupID != null && !groups.containsKey(currentGroupID))
+            {
+               groups.put(currentGroupID, holder.consumer);
+            }
+
+            removed++;
+         }
+         else if (status == HandleStatus.BUSY)
+         {
+            holder.iter.repeat();
+
+            busy = true;
+         }
+
+         current = null;
+      }
+   }
+
    private static class ConsumerHolder
    {
       ConsumerHolder(final Consumer consumer)
       {
          this.consumer = consumer;
+
+         Filter filter = consumer.getFilter();
+
+         indexKey = filter instanceof FilterImpl ? ((FilterImpl)filter).getIndexKey() : null;
       }
 
       final Consumer consumer;
 
+      final FilterIndexKey indexKey;
+
       LinkedListIterator<MessageReference> iter;
    }
 
+   /**
+    * The positions on the consumer list of the consumers that may match each value of the property most filters are
+    * keyed on. The consumers not keyed on that property are candidates for every value.
+    */
+   private static final class ConsumerIndex
+   {
+      // Below this there's nothing to gain over trying the consumers one by one
+      private static final int MIN_INDEXED_CONSUMERS = 2;
+
+      private final SimpleString property;
+
+      private final Map<SimpleString, int[]> candidates = new HashMap<SimpleString, int[]>();
+
+      private final int[] others;
+
+      private ConsumerIndex(final SimpleString property, final List<ConsumerHolder> consumers)
+      {
+         this.property = property;
+
+         int size = consumers.size();
+
+         int[] otherPositions = new int[size];
+
+         int numOthers = 0;
+
+         Map<SimpleString, List<Integer>> keyed = new HashMap<SimpleString, List<Integer>>();
+
+         for (int i = 0; i < size; i++)
+         {
+            FilterIndexKey key = consumers.get(i).indexKey;
+
+            if (key == null || !property.equals(key.getProperty()))
+            {
+               otherPositions[numOthers++] = i;
+
+               continue;
+            }
+
+            for (SimpleString value : key.getValues())
+            {
+               List<Integer> positions = keyed.get(value);
+
+               if (positions == null)
+               {
+                  positions = new ArrayList<Integer>();
+
+                  keyed.put(value, positions);
+               }
+
+               positions.add(i);
+            }
+         }
+
+         others = Arrays.copyOf(otherPositions, numOthers);
+
+         for (Map.Entry<SimpleString, List<Integer>> entry : keyed.entrySet())
+         {
+            List<Integer> positions = entry.getValue();
+
+            int[] merged = new int[positions.size() + others.length];
+
+            int p = 0;
+
+            int o = 0;
+
+            for (int m = 0; m < merged.length; m++)
+            {
+               if (o == others.length || p < positions.size() && positions.get(p) < others[o])
+               {
+                  merged[m] = positions.get(p++);
+               }
+               else
+               {
+                  merged[m] = others[o++];
+               }
+            }
+
+            candidates.put(entry.getKey(), merged);
+         }
+      }
+
+      /**
+       * @return null if not enough consumers are keyed on the same property
+       */
+      static ConsumerIndex create(final List<ConsumerHolder> consumers)
+      {
+         Map<SimpleString, Integer> counts = new HashMap<SimpleString, Integer>();
+
+         SimpleString property = null;
+
+         int max = 0;
+
+         for (ConsumerHolder holder : consumers)
+         {
+            if (holder.indexKey != null)
+            {
+               Integer count = counts.get(holder.indexKey.getProperty());
+
+               count = count == null ? 1 : count + 1;
+
+               counts.put(holder.indexKey.getProperty(), count);
+
+               if (count > max)
+               {
+                  max = count;
+
+                  property = holder.indexKey.getProperty();
+               }
+            }
+         }
+
+         return max < MIN_INDEXED_CONSUMERS ? null : new ConsumerIndex(property, consumers);
+      }
+
+      /**
+       * @return the positions of the consumers that may match the message, in ascending order
+       */
+      int[] getCandidates(final ServerMessage message)
+      {
+         Object value = message.getObjectProperty(property);
+
+         if (value instanceof SimpleString)
+         {
+            int[] positions = candidates.get(value);
+
+            if (positions != null)
+            {
+               return positions;
+            }
+         }
+
+         return others;
+      }
+   }
+
    private final class RefsOperation implements TransactionOperation
    {
       List<MessageReference> refsToAck = new ArrayList<MessageReference>();
@@ -2399,10 +3060,7 @@ public class QueueImpl implements Queue
 
             QueueImpl queue = entry.getKey();
 
-            synchronized (queue)
-            {
-               queue.postRollback(refs);
-            }
+            queue.postRollback(refs);
          }
       }
 
@@ -2410,10 +3068,7 @@ public class QueueImpl implements Queue
       {
          for (MessageReference ref : refsToAck)
          {
-            synchronized (ref.getQueue())
-            {
-               postAcknowledge(ref);
-            }
+            postAcknowledge(ref);
          }
 
          if (pagedMessagesToPostACK != null)
@@ -2549,7 +3204,11 @@ public class QueueImpl implements Queue
       {
          synchronized (QueueImpl.this)
          {
-            return iter.next();
+            MessageReference ref = iter.next();
+
+            beforeDelivery(ref);
+
+            return ref;
          }
       }
 
@@ -13,8 +13,9 @@
 package org.hornetq.core.server.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +30,12 @@ import org.hornetq.core.server.ScheduledDeliveryHandler;
 
 /**
  * Handles scheduling deliveries to a queue at the correct time.
+ * <p>
+ * The references are kept on a hierarchical timing wheel: each level has {@value #WHEEL_SIZE} buckets, the buckets of
+ * the first level are one millisecond wide and every level is {@value #WHEEL_SIZE} times wider than the previous one.
+ * Only the buckets are scheduled on the executor, and a bucket of a higher level hands its references down to the
+ * lower levels when it expires, so scheduling a reference doesn't depend on the number of scheduled references. The
+ * references are delivered to the queue in the same order as when they were kept on a single list.
  *
  * @author <a href="mailto:tim.fox@jboss.com">Tim Fox</a>
  * @author <a href="ataylor@redhat.com">Andy Taylor</a>
@@ -39,15 +46,74 @@ public class ScheduledDeliveryHandlerImpl implements ScheduledDeliveryHandler
 {
    private static final boolean trace = HornetQServerLogger.LOGGER.isTraceEnabled();
 
+   private static final int WHEEL_BITS = 6;
+
+   private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+   private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+   // The last level spans 2^36 milliseconds (about two years), later references wait on its last bucket
+   private static final int LEVELS = 6;
+
+   /**
+    * The order the former list delivered the references in: the references scheduled by {@code tail}, the latest
+    * first, and then the others, the earliest first. They are added to the head of the queue one by one.
+    */
+   private static final Comparator<ScheduledReference> DELIVERY_ORDER = new Comparator<ScheduledReference>()
+   {
+      public int compare(final ScheduledReference o1, final ScheduledReference o2)
+      {
+         if (o1.tail != o2.tail)
+         {
+            return o1.tail ? -1 : 1;
+         }
+
+         if (o1.tail)
+         {
+            return o1.sequence > o2.sequence ? -1 : o1.sequence == o2.sequence ? 0 : 1;
+         }
+
+         return o1.sequence < o2.sequence ? -1 : o1.sequence == o2.sequence ? 0 : 1;
+      }
+   };
+
    private final ScheduledExecutorService scheduledExecutor;
 
    private final Object lockDelivery = new Object();
 
-   private final LinkedList<MessageReference> scheduledReferences = new LinkedList<MessageReference>();
+   // guards the wheel, the list and the index
+   private final Object lock = new Object();
+
+   private final Bucket[][] wheel = new Bucket[LEVELS][WHEEL_SIZE];
+
+   // references that are due, waiting for the executor
+   private final Bucket dueBucket = new Bucket(-1);
+
+   private final Map<Long, ScheduledReference> referencesByID = new HashMap<Long, ScheduledReference>();
+
+   // every scheduled reference, in the order the references were kept before the wheel
+   private ScheduledReference first;
+
+   private ScheduledReference last;
+
+   // the wheel's time, in milliseconds. Everything scheduled up to it is due
+   private long currentTime = System.currentTimeMillis();
+
+   private long sequence;
+
+   private volatile int scheduledCount;
 
    public ScheduledDeliveryHandlerImpl(final ScheduledExecutorService scheduledExecutor)
    {
       this.scheduledExecutor = scheduledExecutor;
+
+      for (int level = 0; level < LEVELS; level++)
+      {
+         for (int i = 0; i < WHEEL_SIZE; i++)
+         {
+            wheel[level][i] = new Bucket(level);
+         }
+      }
    }
 
    public boolean checkAndSchedule(final MessageReference ref, final boolean tail)
@@ -61,23 +127,36 @@ public class ScheduledDeliveryHandlerImpl implements ScheduledDeliveryHandler
             HornetQServerLogger.LOGGER.trace("Scheduling delivery for " + ref + " to occur at " + deliveryTime);
          }
 
-         ScheduledDeliveryRunnable runnable = new ScheduledDeliveryRunnable(ref.getScheduledDeliveryTime());
-
-         synchronized (scheduledReferences)
+         synchronized (lock)
          {
+            if (scheduledCount == 0)
+            {
+               // nothing is waiting on the wheel, so it can catch up with the clock
+               currentTime = Math.max(currentTime, System.currentTimeMillis());
+            }
+
+            ScheduledReference scheduled = new ScheduledReference(ref, deliveryTime, tail, sequence++);
+
             if (tail)
             {
-               // We do the opposite what the parameter says as the Runnable will always add it to the head
-               scheduledReferences.addFirst(ref);
+               // We do the opposite what the parameter says as the references are always delivered to the head
+               addFirst(scheduled);
             }
             else
             {
-               // We do the opposite what the parameter says as the Runnable will always add it to the head
-               scheduledReferences.add(ref);
+               // We do the opposite what the parameter says as the references are always delivered to the head
+               addLast(scheduled);
             }
-         }
 
-         scheduleDelivery(runnable, deliveryTime);
+            index(scheduled);
+
+            scheduledCount++;
+
+            if (place(scheduled) == dueBucket)
+            {
+               schedule(dueBucket, 0);
+            }
+         }
 
          return true;
       }
@@ -86,39 +165,43 @@ public class ScheduledDeliveryHandlerImpl implements ScheduledDeliveryHandler
 
    public int getScheduledCount()
    {
-      synchronized (scheduledReferences)
-      {
-         return scheduledReferences.size();
-      }
+      return scheduledCount;
    }
 
    public List<MessageReference> getScheduledReferences()
    {
-      List<MessageReference> refs = new ArrayList<MessageReference>();
-
-      synchronized (scheduledReferences)
+      synchronized (lock)
       {
-         refs.addAll(scheduledReferences);
+         List<MessageReference> refs = new ArrayList<MessageReference>(scheduledCount);
+
+         for (ScheduledReference scheduled = first; scheduled != null; scheduled = scheduled.next)
+         {
+            refs.add(scheduled.ref);
+         }
+
+         return refs;
       }
-      return refs;
    }
 
    public List<MessageReference> cancel(final Filter filter)
    {
       List<MessageReference> refs = new ArrayList<MessageReference>();
 
-      synchronized (scheduledReferences)
+      synchronized (lock)
       {
-         Iterator<MessageReference> iter = scheduledReferences.iterator();
+         ScheduledReference scheduled = first;
 
-         while (iter.hasNext())
+         while (scheduled != null)
          {
-            MessageReference ref = iter.next();
-            if (filter == null || filter.match(ref.getMessage()))
+            ScheduledReference next = scheduled.next;
+
+            if (filter == null || filter.match(scheduled.ref.getMessage()))
             {
-               iter.remove();
-               refs.add(ref);
+               remove(scheduled);
+               refs.add(scheduled.ref);
             }
+
+            scheduled = next;
          }
       }
       return refs;
@@ -126,85 +209,425 @@ public class ScheduledDeliveryHandlerImpl implements ScheduledDeliveryHandler
 
    public MessageReference removeReferenceWithID(final long id)
    {
-      synchronized (scheduledReferences)
+      synchronized (lock)
       {
-         Iterator<MessageReference> iter = scheduledReferences.iterator();
-         while (iter.hasNext())
+         ScheduledReference scheduled = referencesByID.get(id);
+
+         if (scheduled == null)
          {
-            MessageReference ref = iter.next();
-            if (ref.getMessage().getMessageID() == id)
+            return null;
+         }
+
+         remove(scheduled);
+
+         return scheduled.ref;
+      }
+   }
+
+   // Private -------------------------------------------------------
+
+   /**
+    * Links the reference to the bucket of its delivery time, scheduling the bucket if it wasn't already. A due
+    * reference goes to the due bucket, which is left to the caller.
+    */
+   private Bucket place(final ScheduledReference scheduled)
+   {
+      long time = scheduled.deliveryTime;
+
+      if (time <= currentTime)
+      {
+         dueBucket.add(scheduled);
+         return dueBucket;
+      }
+
+      for (int level = 0; level < LEVELS; level++)
+      {
+         int shift = level * WHEEL_BITS;
+
+         long levelTime = currentTime >> shift;
+
+         long ticks = time >> shift;
+
+         if (ticks < levelTime + WHEEL_SIZE || level == LEVELS - 1)
+         {
+            if (ticks >= levelTime + WHEEL_SIZE)
             {
-               iter.remove();
-               return ref;
+               ticks = levelTime + WHEEL_SIZE - 1;
             }
+
+            Bucket bucket = wheel[level][(int)(ticks & WHEEL_MASK)];
+
+            bucket.add(scheduled);
+
+            schedule(bucket, ticks << shift);
+
+            return bucket;
          }
       }
 
-      return null;
+      throw new IllegalStateException("unreachable");
+   }
+
+   private void schedule(final Bucket bucket, final long expiration)
+   {
+      if (bucket.task != null && bucket.expiration == expiration)
+      {
+         return;
+      }
+
+      bucket.expiration = expiration;
+
+      bucket.task = new BucketExpiration(bucket);
+
+      long delay = expiration - System.currentTimeMillis();
+
+      scheduledExecutor.schedule(bucket.task, delay < 0 ? 0 : delay, TimeUnit.MILLISECONDS);
    }
 
-   private void scheduleDelivery(final ScheduledDeliveryRunnable runnable, final long deliveryTime)
+   /**
+    * Advances the wheel to the expiration of the bucket and hands its references down.
+    * @return every reference that is due, in delivery order
+    */
+   private List<ScheduledReference> expire(final Bucket bucket)
    {
-      long now = System.currentTimeMillis();
+      if (bucket != dueBucket && bucket.expiration > currentTime)
+      {
+         currentTime = bucket.expiration;
+      }
 
-      long delay = deliveryTime - now;
+      ScheduledReference scheduled = bucket.clear();
 
-      if (delay < 0)
+      while (scheduled != null)
       {
-         delay = 0;
+         ScheduledReference next = scheduled.bucketNext;
+
+         scheduled.bucketNext = null;
+
+         place(scheduled);
+
+         scheduled = next;
       }
 
-      scheduledExecutor.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+      List<ScheduledReference> due = new ArrayList<ScheduledReference>(dueBucket.size);
+
+      scheduled = dueBucket.clear();
+
+      while (scheduled != null)
+      {
+         ScheduledReference next = scheduled.bucketNext;
+
+         scheduled.bucketNext = null;
+
+         unlink(scheduled);
+
+         due.add(scheduled);
+
+         scheduled = next;
+      }
+
+      Collections.sort(due, DELIVERY_ORDER);
+
+      return due;
    }
 
-   private class ScheduledDeliveryRunnable implements Runnable
+   private void remove(final ScheduledReference scheduled)
    {
-      private final long scheduledTime;
+      scheduled.bucket.remove(scheduled);
+
+      unlink(scheduled);
+   }
 
-      public ScheduledDeliveryRunnable(final long scheduledTime)
+   /**
+    * Removes the reference from the list and the index.
+    */
+   private void unlink(final ScheduledReference scheduled)
+   {
+      if (scheduled.prev == null)
       {
-         this.scheduledTime = scheduledTime;
+         first = scheduled.next;
+      }
+      else
+      {
+         scheduled.prev.next = scheduled.next;
       }
 
-      public void run()
+      if (scheduled.next == null)
       {
-         HashMap<Queue, LinkedList<MessageReference>> refs = new HashMap<Queue, LinkedList<MessageReference>>();
+         last = scheduled.prev;
+      }
+      else
+      {
+         scheduled.next.prev = scheduled.prev;
+      }
 
-         synchronized (lockDelivery)
+      scheduled.prev = null;
+      scheduled.next = null;
+
+      long id = scheduled.ref.getMessage().getMessageID();
+
+      ScheduledReference sameID = referencesByID.get(id);
+
+      if (sameID == scheduled)
+      {
+         if (scheduled.nextWithSameID == null)
          {
-            synchronized (scheduledReferences)
-            {
+            referencesByID.remove(id);
+         }
+         else
+         {
+            referencesByID.put(id, scheduled.nextWithSameID);
+         }
+      }
+      else
+      {
+         while (sameID.nextWithSameID != scheduled)
+         {
+            sameID = sameID.nextWithSameID;
+         }
 
-               Iterator<MessageReference> iter = scheduledReferences.iterator();
-               while (iter.hasNext())
-               {
-                  MessageReference reference = iter.next();
-                  if (reference.getScheduledDeliveryTime() <= this.scheduledTime)
-                  {
-                     iter.remove();
+         sameID.nextWithSameID = scheduled.nextWithSameID;
+      }
 
-                     reference.setScheduledDeliveryTime(0);
+      scheduled.nextWithSameID = null;
 
-                     LinkedList<MessageReference> references = refs.get(reference.getQueue());
+      scheduledCount--;
+   }
+
+   private void addFirst(final ScheduledReference scheduled)
+   {
+      scheduled.next = first;
+
+      if (first == null)
+      {
+         last = scheduled;
+      }
+      else
+      {
+         first.prev = scheduled;
+      }
+
+      first = scheduled;
+   }
+
+   private void addLast(final ScheduledReference scheduled)
+   {
+      scheduled.prev = last;
+
+      if (last == null)
+      {
+         first = scheduled;
+      }
+      else
+      {
+         last.next = scheduled;
+      }
+
+      last = scheduled;
+   }
+
+   // A queue rarely holds the same message twice, so they are just chained in the order they were scheduled
+   private void index(final ScheduledReference scheduled)
+   {
+      ScheduledReference sameID = referencesByID.put(scheduled.ref.getMessage().getMessageID(), scheduled);
+
+      if (sameID != null)
+      {
+         referencesByID.put(scheduled.ref.getMessage().getMessageID(), sameID);
+
+         while (sameID.nextWithSameID != null)
+         {
+            sameID = sameID.nextWithSameID;
+         }
+
+         sameID.nextWithSameID = scheduled;
+      }
+   }
+
+   private void deliver(final List<ScheduledReference> due)
+   {
+      HashMap<Queue, LinkedList<MessageReference>> refs = new HashMap<Queue, LinkedList<MessageReference>>();
+
+      for (ScheduledReference scheduled : due)
+      {
+         MessageReference reference = scheduled.ref;
+
+         reference.setScheduledDeliveryTime(0);
+
+         LinkedList<MessageReference> references = refs.get(reference.getQueue());
+
+         if (references == null)
+         {
+            references = new LinkedList<MessageReference>();
+            refs.put(reference.getQueue(), references);
+         }
+
+         references.add(reference);
+      }
+
+      for (Map.Entry<Queue, LinkedList<MessageReference>> entry : refs.entrySet())
+      {
+         entry.getKey().addHead(entry.getValue());
+      }
+   }
+
+   private static final class ScheduledReference
+   {
+      private final MessageReference ref;
+
+      private final long deliveryTime;
+
+      private final boolean tail;
+
+      private final long sequence;
+
+      // the list of every scheduled reference
+      private ScheduledReference prev;
+
+      private ScheduledReference next;
+
+      // the bucket the reference is waiting on
+      private Bucket bucket;
+
+      private ScheduledReference bucketPrev;
 
-                     if (references == null)
-                     {
-                        references = new LinkedList<MessageReference>();
-                        refs.put(reference.getQueue(), references);
-                     }
+      private ScheduledReference bucketNext;
+
+      private ScheduledReference nextWithSameID;
+
+      ScheduledReference(final MessageReference ref, final long deliveryTime, final boolean tail, final long sequence)
+      {
+         this.ref = ref;
+         this.deliveryTime = deliveryTime;
+         this.tail = tail;
+         this.sequence = sequence;
+      }
+   }
+
+   private static final class Bucket
+   {
+      private final int level;
 
-                     references.add(reference);
-                  }
+      private long expiration;
+
+      // the scheduled run of this bucket, a run that isn't this one is stale and does nothing
+      private BucketExpiration task;
+
+      private ScheduledReference head;
+
+      private ScheduledReference tail;
+
+      private int size;
+
+      Bucket(final int level)
+      {
+         this.level = level;
+      }
+
+      void add(final ScheduledReference scheduled)
+      {
+         scheduled.bucket = this;
+         scheduled.bucketPrev = tail;
+
+         if (tail == null)
+         {
+            head = scheduled;
+         }
+         else
+         {
+            tail.bucketNext = scheduled;
+         }
+
+         tail = scheduled;
+
+         size++;
+      }
+
+      void remove(final ScheduledReference scheduled)
+      {
+         if (scheduled.bucketPrev == null)
+         {
+            head = scheduled.bucketNext;
+         }
+         else
+         {
+            scheduled.bucketPrev.bucketNext = scheduled.bucketNext;
+         }
+
+         if (scheduled.bucketNext == null)
+         {
+            tail = scheduled.bucketPrev;
+         }
+         else
+         {
+            scheduled.bucketNext.bucketPrev = scheduled.bucketPrev;
+         }
+
+         scheduled.bucket = null;
+         scheduled.bucketPrev = null;
+         scheduled.bucketNext = null;
+
+         size--;
+      }
+
+      /**
+       * Empties the bucket.
+       * @return the first reference, the others follow through {@link ScheduledReference#bucketNext}
+       */
+      ScheduledReference clear()
+      {
+         ScheduledReference scheduled = head;
+
+         for (ScheduledReference s = head; s != null; s = s.bucketNext)
+         {
+            s.bucket = null;
+            s.bucketPrev = null;
+         }
+
+         head = null;
+         tail = null;
+         size = 0;
+
+         return scheduled;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "Bucket [level=" + level + ", expiration=" + expiration + ", size=" + size + "]";
+      }
+   }
+
+   private class BucketExpiration implements Runnable
+   {
+      private final Bucket bucket;
+
+      public BucketExpiration(final Bucket bucket)
+      {
+         this.bucket = bucket;
+      }
+
+      public void run()
+      {
+         synchronized (lockDelivery)
+         {
+            List<ScheduledReference> due;
+
+            synchronized (lock)
+            {
+               if (bucket.task != this)
+               {
+                  return;
                }
+
+               bucket.task = null;
+
+               due = expire(bucket);
             }
 
-            for (Map.Entry<Queue, LinkedList<MessageReference>> entry : refs.entrySet())
+            if (!due.isEmpty())
             {
-               entry.getKey().addHead(entry.getValue());
+               deliver(due);
             }
-
-            // Just to speed up GC
-            refs.clear();
          }
       }
    }
@@ -13,8 +13,10 @@
 
 package org.hornetq.core.server.impl;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -32,6 +34,7 @@ import org.hornetq.core.message.BodyEncoder;
 import org.hornetq.core.persistence.StorageManager;
 import org.hornetq.core.postoffice.Binding;
 import org.hornetq.core.postoffice.QueueBinding;
+import org.hornetq.core.server.DeliveryBatch;
 import org.hornetq.core.server.HandleStatus;
 import org.hornetq.core.server.HornetQServerLogger;
 import org.hornetq.core.server.HornetQMessageBundle;
@@ -107,6 +110,9 @@ public class ServerConsumerImpl implements ServerConsumer, ReadyListener
 
    private final java.util.Queue<MessageReference> deliveringRefs = new ConcurrentLinkedQueue<MessageReference>();
 
+   // The standard messages taken during a batch, sent at the end of it
+   private final List<MessageReference> pendingRefs = new ArrayList<MessageReference>();
+
    private final SessionCallback callback;
 
    private final boolean preAcknowledge;
@@ -230,91 +236,168 @@ public class ServerConsumerImpl implements ServerConsumer, ReadyListener
 
       synchronized (lock)
       {
-         // If the consumer is stopped then we don't accept the message, it
-         // should go back into the
-         // queue for delivery later.
-         if (!started || transferring)
-         {
-            return HandleStatus.BUSY;
-         }
+         HandleStatus status = accept(ref);
 
-         // If there is a pendingLargeMessage we can't take another message
-         // This has to be checked inside the lock as the set to null is done inside the lock
-         if (largeMessageDeliverer != null)
+         if (status == HandleStatus.HANDLED)
          {
-            if (HornetQServerLogger.LOGGER.isDebugEnabled())
+            ServerMessage message = ref.getMessage();
+
+            if (message.isLargeMessage())
             {
-               HornetQServerLogger.LOGGER.debug(this + " is busy delivering large message " +
-                         largeMessageDeliverer +
-                         ", can't deliver reference " +
-                         ref);
+               deliverLargeMessage(ref, message);
             }
-            return HandleStatus.BUSY;
-         }
-         final ServerMessage message = ref.getMessage();
-
-         if (filter != null && !filter.match(message))
-         {
-            if (HornetQServerLogger.LOGGER.isTraceEnabled())
+            else
             {
-               HornetQServerLogger.LOGGER.trace("Reference " + ref + " is a noMatch on consumer " + this);
+               deliverStandardMessage(ref, message);
             }
-            return HandleStatus.NO_MATCH;
          }
 
-         if (HornetQServerLogger.LOGGER.isTraceEnabled())
-         {
-            HornetQServerLogger.LOGGER.trace("Handling reference " + ref);
-         }
-
-         if (!browseOnly)
-         {
-            if (!preAcknowledge)
-            {
-               deliveringRefs.add(ref);
-            }
+         return status;
+      }
+   }
 
-            ref.handled();
+   public void handle(final DeliveryBatch batch) throws Exception
+   {
+      synchronized (lock)
+      {
+         // The standard messages are sent together at the end of the batch, what they will take from the credits is
+         // estimated from their size
+         int pendingSize = 0;
 
-            ref.incrementDeliveryCount();
+         try
+         {
+            MessageReference ref;
 
-            // If updateDeliveries = false (set by strict-update),
-            // the updateDeliveryCount would still be updated after c
-            if (strictUpdateDeliveryCount && !ref.isPaged())
+            while ((ref = batch.next()) != null)
             {
-               if (ref.getMessage().isDurable() && ref.getQueue().isDurable() &&
-                   !ref.getQueue().isInternalQueue() &&
-                   !ref.isPaged())
+               if (availableCredits != null && availableCredits.get() - pendingSize <= 0)
                {
-                  storageManager.updateDeliveryCount(ref);
+                  if (HornetQServerLogger.LOGGER.isDebugEnabled())
+                  {
+                     HornetQServerLogger.LOGGER.debug(this + " is busy for the lack of credits. Current credits = " +
+                                                      availableCredits +
+                                                      " Can't receive reference " +
+                                                      ref);
+                  }
+
+                  batch.done(HandleStatus.BUSY);
+
+                  break;
                }
-            }
 
-            if (preAcknowledge)
-            {
-               if (message.isLargeMessage())
+               HandleStatus status = accept(ref);
+
+               if (status == HandleStatus.HANDLED)
                {
-                  // we must hold one reference, or the file will be deleted before it could be delivered
-                  ((LargeServerMessage)message).incrementDelayDeletionCount();
+                  ServerMessage message = ref.getMessage();
+
+                  if (message.isLargeMessage())
+                  {
+                     // The messages taken before have to go first
+                     deliverStandardMessages();
+
+                     pendingSize = 0;
+
+                     deliverLargeMessage(ref, message);
+                  }
+                  else
+                  {
+                     pendingRefs.add(ref);
+
+                     pendingSize += message.getEncodeSize();
+                  }
                }
 
-               // With pre-ack, we ack *before* sending to the client
-               ref.getQueue().acknowledge(ref);
+               batch.done(status);
             }
+         }
+         finally
+         {
+            deliverStandardMessages();
+         }
+      }
+   }
+
+   /**
+    * Decides whether the consumer takes the reference, and if it does marks it as delivering. The message is sent by
+    * the caller. Must be called holding the lock.
+    */
+   private HandleStatus accept(final MessageReference ref) throws Exception
+   {
+      // If the consumer is stopped then we don't accept the message, it
+      // should go back into the
+      // queue for delivery later.
+      if (!started || transferring)
+      {
+         return HandleStatus.BUSY;
+      }
 
+      // If there is a pendingLargeMessage we can't take another message
+      // This has to be checked inside the lock as the set to null is done inside the lock
+      if (largeMessageDeliverer != null)
+      {
+         if (HornetQServerLogger.LOGGER.isDebugEnabled())
+         {
+            HornetQServerLogger.LOGGER.debug(this + " is busy delivering large message " +
+                      largeMessageDeliverer +
+                      ", can't deliver reference " +
+                      ref);
          }
+         return HandleStatus.BUSY;
+      }
+      final ServerMessage message = ref.getMessage();
 
-         if (message.isLargeMessage())
+      if (filter != null && !filter.match(message))
+      {
+         if (HornetQServerLogger.LOGGER.isTraceEnabled())
          {
-            deliverLargeMessage(ref, message);
+            HornetQServerLogger.LOGGER.trace("Reference " + ref + " is a noMatch on consumer " + this);
          }
-         else
+         return HandleStatus.NO_MATCH;
+      }
+
+      if (HornetQServerLogger.LOGGER.isTraceEnabled())
+      {
+         HornetQServerLogger.LOGGER.trace("Handling reference " + ref);
+      }
+
+      if (!browseOnly)
+      {
+         if (!preAcknowledge)
          {
-            deliverStandardMessage(ref, message);
+            deliveringRefs.add(ref);
+         }
+
+         ref.handled();
+
+         ref.incrementDeliveryCount();
+
+         // If updateDeliveries = false (set by strict-update),
+         // the updateDeliveryCount would still be updated after c
+         if (strictUpdateDeliveryCount && !ref.isPaged())
+         {
+            if (ref.getMessage().isDurable() && ref.getQueue().isDurable() &&
+                !ref.getQueue().isInternalQueue() &&
+                !ref.isPaged())
+            {
+               storageManager.updateDeliveryCount(ref);
+            }
          }
 
-         return HandleStatus.HANDLED;
+         if (preAcknowledge)
+         {
+            if (message.isLargeMessage())
+            {
+               // we must hold one reference, or the file will be deleted before it could be delivered
+               ((LargeServerMessage)message).incrementDelayDeletionCount();
+            }
+
+            // With pre-ack, we ack *before* sending to the client
+            ref.getQueue().acknowledge(ref);
+         }
       }
+
+      return HandleStatus.HANDLED;
    }
 
    public Filter getFilter()
@@ -797,6 +880,31 @@ public class ServerConsumerImpl implements ServerConsumer, ReadyListener
    {
       int packetSize = callback.sendMessage(message, id, ref.getDeliveryCount());
 
+      takeCredits(packetSize);
+   }
+
+   /**
+    * Sends the standard messages taken during a batch. Must be called holding the lock.
+    */
+   private void deliverStandardMessages()
+   {
+      if (pendingRefs.isEmpty())
+      {
+         return;
+      }
+
+      try
+      {
+         takeCredits(callback.sendMessages(pendingRefs, id));
+      }
+      finally
+      {
+         pendingRefs.clear();
+      }
+   }
+
+   private void takeCredits(final int packetSize)
+   {
       if (availableCredits != null)
       {
          availableCredits.addAndGet(-packetSize);
@@ -0,0 +1,601 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.hornetq.core.server.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hornetq.api.core.Message;
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.filter.Filter;
+import org.hornetq.core.paging.cursor.PageSubscription;
+import org.hornetq.core.persistence.StorageManager;
+import org.hornetq.core.postoffice.PostOffice;
+import org.hornetq.core.server.Consumer;
+import org.hornetq.core.server.MessageReference;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.core.settings.HierarchicalRepository;
+import org.hornetq.core.settings.impl.AddressSettings;
+import org.hornetq.utils.LinkedListIterator;
+
+/**
+ * A queue whose messages are split across shards, each one a queue with its own lock and its own executor, so the
+ * consumers of a busy queue are delivered to by several threads.
+ * <p>
+ * The messages of a group always go to the same shard, which keeps them in order and sends them to the consumer of
+ * the group. Other messages go to the shards in turns, and are only ordered within their shard. Every consumer is
+ * added to every shard, so no shard waits for consumers of its own.
+ * <p>
+ * The queue keeps what the shards have in common: its identity, acknowledgements, redelivery and paging. Counting,
+ * browsing and the management operations go through all the shards, as if they were one queue.
+ *
+ * @see AddressSettings#getQueueShards()
+ */
+public class ShardedQueueImpl extends QueueImpl
+{
+   private final QueueImpl[] shards;
+
+   private final AtomicInteger nextShard = new AtomicInteger(0);
+
+   private final Executor shardsExecutor = new ShardsExecutor();
+
+   public ShardedQueueImpl(final long persistenceID,
+                           final SimpleString address,
+                           final SimpleString name,
+                           final Filter filter,
+                           final PageSubscription pageSubscription,
+                           final boolean durable,
+                           final boolean temporary,
+                           final ScheduledExecutorService scheduledExecutor,
+                           final PostOffice postOffice,
+                           final StorageManager storageManager,
+                           final HierarchicalRepository<AddressSettings> addressSettingsRepository,
+                           final Executor executor,
+                           final Executor[] shardExecutors)
+   {
+      super(persistenceID,
+            address,
+            name,
+            filter,
+            pageSubscription,
+            durable,
+            temporary,
+            scheduledExecutor,
+            postOffice,
+            storageManager,
+            addressSettingsRepository,
+            executor);
+
+      shards = new QueueImpl[shardExecutors.length];
+
+      for (int i = 0; i < shards.length; i++)
+      {
+         shards[i] = new QueueShard(i, shardExecutors[i]);
+      }
+   }
+
+   public int getShardCount()
+   {
+      return shards.length;
+   }
+
+   // Adding messages -------------------------------------------------------------------------------
+
+   @Override
+   public void addTail(final MessageReference ref, final boolean direct)
+   {
+      getShard(ref).addTail(ref, direct);
+   }
+
+   @Override
+   public void addHead(final MessageReference ref)
+   {
+      getShard(ref).addHead(ref);
+   }
+
+   @Override
+   public void addHead(final List<MessageReference> refs)
+   {
+      List<List<MessageReference>> byShard = new ArrayList<List<MessageReference>>(shards.length);
+
+      for (int i = 0; i < shards.length; i++)
+      {
+         byShard.add(null);
+      }
+
+      for (MessageReference ref : refs)
+      {
+         int index = getShardIndex(ref);
+
+         List<MessageReference> shardRefs = byShard.get(index);
+
+         if (shardRefs == null)
+         {
+            shardRefs = new LinkedList<MessageReference>();
+
+            byShard.set(index, shardRefs);
+         }
+
+         shardRefs.add(ref);
+      }
+
+      for (int i = 0; i < shards.length; i++)
+      {
+         if (byShard.get(i) != null)
+         {
+            shards[i].addHead(byShard.get(i));
+         }
+      }
+   }
+
+   @Override
+   public void reload(final MessageReference ref)
+   {
+      getShard(ref).reload(ref);
+   }
+
+   @Override
+   public void cancel(final MessageReference reference, final long timeBase) throws Exception
+   {
+      deliveringCount.decrementAndGet();
+
+      if (checkRedelivery(reference, timeBase))
+      {
+         QueueImpl shard = getShard(reference);
+
+         shard.addHead(reference);
+
+         shard.resetAllIterators();
+      }
+   }
+
+   // Consumers -------------------------------------------------------------------------------------
+
+   @Override
+   public void addConsumer(final Consumer consumer) throws Exception
+   {
+      for (QueueImpl shard : shards)
+      {
+         shard.addConsumer(consumer);
+      }
+   }
+
+   @Override
+   public void removeConsumer(final Consumer consumer) throws Exception
+   {
+      for (QueueImpl shard : shards)
+      {
+         shard.removeConsumer(consumer);
+      }
+   }
+
+   @Override
+   public int getConsumerCount()
+   {
+      return shards[0].getConsumerCount();
+   }
+
+   @Override
+   public Set<Consumer> getConsumers()
+   {
+      return shards[0].getConsumers();
+   }
+
+   @Override
+   public boolean hasMatchingConsumer(final ServerMessage message)
+   {
+      return shards[0].hasMatchingConsumer(message);
+   }
+
+   @Override
+   public void addRedistributor(final long delay)
+   {
+      for (QueueImpl shard : shards)
+      {
+         shard.addRedistributor(delay);
+      }
+   }
+
+   @Override
+   public void cancelRedistributor() throws Exception
+   {
+      for (QueueImpl shard : shards)
+      {
+         shard.cancelRedistributor();
+      }
+   }
+
+   // Delivery --------------------------------------------------------------------------------------
+
+   @Override
+   public void deliverAsync()
+   {
+      for (QueueImpl shard : shards)
+      {
+         shard.deliverAsync();
+      }
+   }
+
+   /**
+    * The tasks run after the deliveries the shards have already been asked for, as they would on the executor of a
+    * queue without shards.
+    */
+   @Override
+   public Executor getExecutor()
+   {
+      return shardsExecutor;
+   }
+
+   @Override
+   public void pause()
+   {
+      super.pause();
+
+      for (QueueImpl shard : shards)
+      {
+         shard.pause();
+      }
+   }
+
+   @Override
+   public void resume()
+   {
+      for (QueueImpl shard : shards)
+      {
+         shard.resume();
+      }
+
+      super.resume();
+   }
+
+   @Override
+   public void resetAllIterators()
+   {
+      for (QueueImpl shard : shards)
+      {
+         shard.resetAllIterators();
+      }
+   }
+
+   @Override
+   public boolean isDirectDeliver()
+   {
+      for (QueueImpl shard : shards)
+      {
+         if (!shard.isDirectDeliver())
+         {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   @Override
+   public void setExpiryAddress(final SimpleString expiryAddress)
+   {
+      super.setExpiryAddress(expiryAddress);
+
+      for (QueueImpl shard : shards)
+      {
+         shard.setExpiryAddress(expiryAddress);
+      }
+   }
+
+   @Override
+   public void close() throws Exception
+   {
+      for (QueueImpl shard : shards)
+      {
+         shard.close();
+      }
+
+      super.close();
+   }
+
+   // Counting and browsing -------------------------------------------------------------------------
+
+   @Override
+   public LinkedListIterator<MessageReference> iterator()
+   {
+      return new ShardsIterator();
+   }
+
+   @Override
+   public int getNumberOfReferences()
+   {
+      int count = 0;
+
+      for (QueueImpl shard : shards)
+      {
+         count += shard.getNumberOfReferences();
+      }
+
+      return count;
+   }
+
+   @Override
+   public long getInstantMessageCount()
+   {
+      // the delivering messages, the scheduled ones and the pages
+      long count = super.getInstantMessageCount();
+
+      for (QueueImpl shard : shards)
+      {
+         synchronized (shard)
+         {
+            count += shard.getNumberOfReferences();
+         }
+      }
+
+      return count;
+   }
+
+   @Override
+   public long getInstantMessagesAdded()
+   {
+      long count = super.getInstantMessagesAdded();
+
+      for (QueueImpl shard : shards)
+      {
+         count += shard.getInstantMessagesAdded();
+      }
+
+      return count;
+   }
+
+   @Override
+   public int getScheduledCount()
+   {
+      int count = 0;
+
+      for (QueueImpl shard : shards)
+      {
+         count += shard.getScheduledCount();
+      }
+
+      return count;
+   }
+
+   @Override
+   public List<MessageReference> getScheduledMessages()
+   {
+      List<MessageReference> refs = new ArrayList<MessageReference>();
+
+      for (QueueImpl shard : shards)
+      {
+         refs.addAll(shard.getScheduledMessages());
+      }
+
+      return refs;
+   }
+
+   // Management ------------------------------------------------------------------------------------
+
+   // The operations on the messages in memory go through the iterator of all the shards. The ones that also take
+   // the scheduled messages ask every shard for its own
+
+   @Override
+   public MessageReference removeReferenceWithID(final long id) throws Exception
+   {
+      for (QueueImpl shard : shards)
+      {
+         MessageReference ref = shard.removeReferenceWithID(id);
+
+         if (ref != null)
+         {
+            return ref;
+         }
+      }
+
+      return null;
+   }
+
+   @Override
+   public int deleteMatchingReferences(final Filter filter) throws Exception
+   {
+      // the messages in memory and the pages
+      int count = super.deleteMatchingReferences(filter);
+
+      for (QueueImpl shard : shards)
+      {
+         count += shard.deleteMatchingReferences(filter);
+      }
+
+      return count;
+   }
+
+   @Override
+   public void expireReferences()
+   {
+      // the pages
+      super.expireReferences();
+
+      for (QueueImpl shard : shards)
+      {
+         shard.expireReferences();
+      }
+   }
+
+   @Override
+   public int moveReferences(final Filter filter, final SimpleString toAddress, final boolean rejectDuplicates) throws Exception
+   {
+      int count = 0;
+
+      for (QueueImpl shard : shards)
+      {
+         count += shard.moveReferences(filter, toAddress, rejectDuplicates);
+      }
+
+      return count;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "ShardedQueueImpl[name=" + getName() + ", shards=" + shards.length + "]@" +
+             Integer.toHexString(System.identityHashCode(this));
+   }
+
+   // Private ---------------------------------------------------------------------------------------
+
+   private QueueImpl getShard(final MessageReference ref)
+   {
+      return shards[getShardIndex(ref)];
+   }
+
+   private int getShardIndex(final MessageReference ref)
+   {
+      SimpleString groupID = ref.getMessage().getSimpleStringProperty(Message.HDR_GROUP_ID);
+
+      int hash = groupID != null ? groupID.hashCode() : nextShard.getAndIncrement();
+
+      return (hash & Integer.MAX_VALUE) % shards.length;
+   }
+
+   // Inner classes ---------------------------------------------------------------------------------
+
+   private final class QueueShard extends QueueImpl
+   {
+      private final int index;
+
+      QueueShard(final int index, final Executor executor)
+      {
+         super(ShardedQueueImpl.this, executor);
+
+         this.index = index;
+      }
+
+      @Override
+      protected boolean hasPagedMessages()
+      {
+         return ShardedQueueImpl.this.hasPagedMessages();
+      }
+
+      @Override
+      protected void checkDepage()
+      {
+         ShardedQueueImpl.this.checkDepage();
+      }
+
+      @Override
+      public String toString()
+      {
+         return "QueueShard[index=" + index + ", queue=" + ShardedQueueImpl.this + "]";
+      }
+   }
+
+   /*
+    * Runs a task on the executor of the queue once every shard has run what it had been given before it
+    */
+   private final class ShardsExecutor implements Executor
+   {
+      public void execute(final Runnable task)
+      {
+         final AtomicInteger pending = new AtomicInteger(shards.length);
+
+         Runnable barrier = new Runnable()
+         {
+            public void run()
+            {
+               if (pending.decrementAndGet() == 0)
+               {
+                  ShardedQueueImpl.super.getExecutor().execute(task);
+               }
+            }
+         };
+
+         for (QueueImpl shard : shards)
+         {
+            shard.getExecutor().execute(barrier);
+         }
+      }
+   }
+
+   private final class ShardsIterator implements LinkedListIterator<MessageReference>
+   {
+      private final List<LinkedListIterator<MessageReference>> iterators = new ArrayList<LinkedListIterator<MessageReference>>(shards.length);
+
+      private int current;
+
+      // the iterator of the last reference returned
+      private LinkedListIterator<MessageReference> last;
+
+      ShardsIterator()
+      {
+         for (QueueImpl shard : shards)
+         {
+            iterators.add(shard.iterator());
+         }
+      }
+
+      public boolean hasNext()
+      {
+         while (current < iterators.size())
+         {
+            if (iterators.get(current).hasNext())
+            {
+               return true;
+            }
+
+            current++;
+         }
+
+         return false;
+      }
+
+      public MessageReference next()
+      {
+         if (!hasNext())
+         {
+            throw new NoSuchElementException();
+         }
+
+         last = iterators.get(current);
+
+         return last.next();
+      }
+
+      public void remove()
+      {
+         if (last == null)
+         {
+            throw new IllegalStateException();
+         }
+
+         last.remove();
+      }
+
+      public void repeat()
+      {
+         if (last != null)
+         {
+            last.repeat();
+         }
+      }
+
+      public void close()
+      {
+         for (LinkedListIterator<MessageReference> iterator : iterators)
+         {
+            iterator.close();
+         }
+      }
+   }
+}
@@ -59,6 +59,10 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
 
    public static final boolean DEFAULT_SEND_TO_DLA_ON_NO_ROUTE = false;
 
+   public static final int DEFAULT_QUEUE_SHARDS = 1;
+
+   public static final int DEFAULT_DELIVERY_BATCH_SIZE = 1;
+
    private AddressFullMessagePolicy addressFullMessagePolicy = null;
 
    private Long maxSizeBytes = null;
@@ -91,6 +95,10 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
 
    private Boolean sendToDLAOnNoRoute = null;
 
+   private Integer queueShards = null;
+
+   private Integer deliveryBatchSize = null;
+
    public boolean isLastValueQueue()
    {
       return lastValueQueue != null ? lastValueQueue : AddressSettings.DEFAULT_LAST_VALUE_QUEUE;
@@ -233,6 +241,34 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
       sendToDLAOnNoRoute = value;
    }
 
+   /**
+    * @return the number of shards the messages of a queue are split across, each one delivered by its own thread. 1
+    *         if the queues are not sharded
+    */
+   public int getQueueShards()
+   {
+      return queueShards != null ? queueShards : AddressSettings.DEFAULT_QUEUE_SHARDS;
+   }
+
+   public void setQueueShards(final int queueShards)
+   {
+      this.queueShards = queueShards;
+   }
+
+   /**
+    * @return the most messages a queue gives in a row to one of its consumers, which can send them together. 1 if
+    *         the consumers take the messages one at a time, in strict round robin
+    */
+   public int getDeliveryBatchSize()
+   {
+      return deliveryBatchSize != null ? deliveryBatchSize : AddressSettings.DEFAULT_DELIVERY_BATCH_SIZE;
+   }
+
+   public void setDeliveryBatchSize(final int deliveryBatchSize)
+   {
+      this.deliveryBatchSize = deliveryBatchSize;
+   }
+
    public long getRedistributionDelay()
    {
       return redistributionDelay != null ? redistributionDelay : AddressSettings.DEFAULT_REDISTRIBUTION_DELAY;
@@ -305,6 +341,14 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
       {
          sendToDLAOnNoRoute = merged.sendToDLAOnNoRoute;
       }
+      if (queueShards == null)
+      {
+         queueShards = merged.queueShards;
+      }
+      if (deliveryBatchSize == null)
+      {
+         deliveryBatchSize = merged.deliveryBatchSize;
+      }
       if (addressFullMessagePolicy == null)
       {
          addressFullMessagePolicy = merged.addressFullMessagePolicy;
@@ -446,6 +490,8 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
       result = prime * result + ((maxRedeliveryDelay == null) ? 0 : maxRedeliveryDelay.hashCode());
       result = prime * result + ((redistributionDelay == null) ? 0 : redistributionDelay.hashCode());
       result = prime * result + ((sendToDLAOnNoRoute == null) ? 0 : sendToDLAOnNoRoute.hashCode());
+      result = prime * result + ((queueShards == null) ? 0 : queueShards.hashCode());
+      result = prime * result + ((deliveryBatchSize == null) ? 0 : deliveryBatchSize.hashCode());
       return result;
    }
 
@@ -574,6 +620,20 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
       }
       else if (!sendToDLAOnNoRoute.equals(other.sendToDLAOnNoRoute))
          return false;
+      if (queueShards == null)
+      {
+         if (other.queueShards != null)
+            return false;
+      }
+      else if (!queueShards.equals(other.queueShards))
+         return false;
+      if (deliveryBatchSize == null)
+      {
+         if (other.deliveryBatchSize != null)
+            return false;
+      }
+      else if (!deliveryBatchSize.equals(other.deliveryBatchSize))
+         return false;
       return true;
    }
 
@@ -614,6 +674,10 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
              redistributionDelay +
              ", sendToDLAOnNoRoute=" +
              sendToDLAOnNoRoute +
+             ", queueShards=" +
+             queueShards +
+             ", deliveryBatchSize=" +
+             deliveryBatchSize +
              "]";
    }
 }
@@ -13,7 +13,10 @@
 
 package org.hornetq.spi.core.protocol;
 
+import java.util.List;
+
 import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.server.MessageReference;
 import org.hornetq.core.server.ServerMessage;
 import org.hornetq.spi.core.remoting.ReadyListener;
 
@@ -32,6 +35,13 @@ public interface SessionCallback
 
    int sendMessage(ServerMessage message, long consumerID, int deliveryCount);
 
+   /**
+    * Sends the messages of several references to the consumer, with as few writes as the protocol allows.
+    *
+    * @return the total size of what was sent
+    */
+   int sendMessages(List<MessageReference> references, long consumerID);
+
    int sendLargeMessage(ServerMessage message, long consumerID, long bodySize, int deliveryCount);
 
    int sendLargeMessageContinuation(long consumerID, byte[] body, boolean continues, boolean requiresResponse);
@@ -55,6 +55,9 @@ public class ConfigurationImplTest extends UnitTestCase
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_SYNC_TRANSACTIONAL, conf.isJournalSyncTransactional());
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_SYNC_NON_TRANSACTIONAL,
                           conf.isJournalSyncNonTransactional());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_GROUP_COMMIT, conf.isJournalGroupCommit());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_GROUP_COMMIT_WINDOW,
+                          conf.getJournalGroupCommitWindow());
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_FILE_SIZE, conf.getJournalFileSize());
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_MIN_FILES, conf.getJournalMinFiles());
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_MAX_IO_AIO, conf.getJournalMaxIO_AIO());
@@ -82,13 +85,25 @@ public class ConfigurationImplTest extends UnitTestCase
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_ASYNC_CONNECTION_EXECUTION_ENABLED,
                           conf.isAsyncConnectionExecutionEnabled());
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_PAGING_DIR, conf.getPagingDirectory());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_GLOBAL_MAX_SIZE, conf.getGlobalMaxSize());
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_LARGE_MESSAGES_DIR, conf.getLargeMessagesDirectory());
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_COMPACT_PERCENTAGE, conf.getJournalCompactPercentage());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_LOAD_THREADS, conf.getJournalLoadThreads());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_COMPACT_MAX_FILES, conf.getJournalCompactMaxFiles());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_COMPACT_MAX_PAUSE, conf.getJournalCompactMaxPause());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_CHECKSUMS, conf.isJournalChecksums());
+      Assert.assertNull(conf.getJournalWalDirectory());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_WAL_MAX_FILES, conf.getJournalWalMaxFiles());
       Assert.assertEquals(JournalConstants.DEFAULT_JOURNAL_BUFFER_TIMEOUT_AIO, conf.getJournalBufferTimeout_AIO());
       Assert.assertEquals(JournalConstants.DEFAULT_JOURNAL_BUFFER_TIMEOUT_NIO, conf.getJournalBufferTimeout_NIO());
       Assert.assertEquals(JournalConstants.DEFAULT_JOURNAL_BUFFER_SIZE_AIO, conf.getJournalBufferSize_AIO());
       Assert.assertEquals(JournalConstants.DEFAULT_JOURNAL_BUFFER_SIZE_NIO, conf.getJournalBufferSize_NIO());
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_LOG_WRITE_RATE, conf.isLogJournalWriteRate());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_CONCURRENT_BUFFER, conf.isJournalConcurrentBuffer());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_BUFFER_TIMEOUT_ADAPTIVE,
+                          conf.isJournalBufferTimeoutAdaptive());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_BUFFER_TIMEOUT_MIN, conf.getJournalBufferTimeoutMin());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_BUFFER_TIMEOUT_MAX, conf.getJournalBufferTimeoutMax());
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_PERF_BLAST_PAGES, conf.getJournalPerfBlastPages());
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_MESSAGE_COUNTER_ENABLED, conf.isMessageCounterEnabled());
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_MESSAGE_COUNTER_MAX_DAY_HISTORY,
@@ -154,6 +169,14 @@ public class ConfigurationImplTest extends UnitTestCase
          conf.setJournalSyncNonTransactional(b);
          Assert.assertEquals(b, conf.isJournalSyncNonTransactional());
 
+         b = RandomUtil.randomBoolean();
+         conf.setJournalGroupCommit(b);
+         Assert.assertEquals(b, conf.isJournalGroupCommit());
+
+         i = RandomUtil.randomInt();
+         conf.setJournalGroupCommitWindow(i);
+         Assert.assertEquals(i, conf.getJournalGroupCommitWindow());
+
          i = RandomUtil.randomInt();
          conf.setJournalFileSize(i);
          Assert.assertEquals(i, conf.getJournalFileSize());
@@ -238,6 +261,30 @@ public class ConfigurationImplTest extends UnitTestCase
          conf.setJournalCompactPercentage(i);
          Assert.assertEquals(i, conf.getJournalCompactPercentage());
 
+         i = RandomUtil.randomInt();
+         conf.setJournalLoadThreads(i);
+         Assert.assertEquals(i, conf.getJournalLoadThreads());
+
+         i = RandomUtil.randomInt();
+         conf.setJournalCompactMaxFiles(i);
+         Assert.assertEquals(i, conf.getJournalCompactMaxFiles());
+
+         l = RandomUtil.randomLong();
+         conf.setJournalCompactMaxPause(l);
+         Assert.assertEquals(l, conf.getJournalCompactMaxPause());
+
+         b = RandomUtil.randomBoolean();
+         conf.setJournalChecksums(b);
+         Assert.assertEquals(b, conf.isJournalChecksums());
+
+         s = RandomUtil.randomString();
+         conf.setJournalWalDirectory(s);
+         Assert.assertEquals(s, conf.getJournalWalDirectory());
+
+         i = RandomUtil.randomInt();
+         conf.setJournalWalMaxFiles(i);
+         Assert.assertEquals(i, conf.getJournalWalMaxFiles());
+
          i = RandomUtil.randomInt();
          conf.setJournalBufferSize_AIO(i);
          Assert.assertEquals(i, conf.getJournalBufferSize_AIO());
@@ -258,6 +305,22 @@ public class ConfigurationImplTest extends UnitTestCase
          conf.setLogJournalWriteRate(b);
          Assert.assertEquals(b, conf.isLogJournalWriteRate());
 
+         b = RandomUtil.randomBoolean();
+         conf.setJournalConcurrentBuffer(b);
+         Assert.assertEquals(b, conf.isJournalConcurrentBuffer());
+
+         b = RandomUtil.randomBoolean();
+         conf.setJournalBufferTimeoutAdaptive(b);
+         Assert.assertEquals(b, conf.isJournalBufferTimeoutAdaptive());
+
+         i = RandomUtil.randomInt();
+         conf.setJournalBufferTimeoutMin(i);
+         Assert.assertEquals(i, conf.getJournalBufferTimeoutMin());
+
+         i = RandomUtil.randomInt();
+         conf.setJournalBufferTimeoutMax(i);
+         Assert.assertEquals(i, conf.getJournalBufferTimeoutMax());
+
          i = RandomUtil.randomInt();
          conf.setJournalPerfBlastPages(i);
          Assert.assertEquals(i, conf.getJournalPerfBlastPages());
@@ -270,6 +333,10 @@ public class ConfigurationImplTest extends UnitTestCase
          conf.setPagingDirectory(s);
          Assert.assertEquals(s, conf.getPagingDirectory());
 
+         l = RandomUtil.randomLong();
+         conf.setGlobalMaxSize(l);
+         Assert.assertEquals(l, conf.getGlobalMaxSize());
+
          s = RandomUtil.randomString();
          conf.setLargeMessagesDirectory(s);
          Assert.assertEquals(s, conf.getLargeMessagesDirectory());
@@ -367,6 +434,14 @@ public class ConfigurationImplTest extends UnitTestCase
       conf.setJournalSyncNonTransactional(b);
       Assert.assertEquals(b, conf.isJournalSyncNonTransactional());
 
+      b = RandomUtil.randomBoolean();
+      conf.setJournalGroupCommit(b);
+      Assert.assertEquals(b, conf.isJournalGroupCommit());
+
+      i = RandomUtil.randomInt();
+      conf.setJournalGroupCommitWindow(i);
+      Assert.assertEquals(i, conf.getJournalGroupCommitWindow());
+
       i = RandomUtil.randomInt();
       conf.setJournalFileSize(i);
       Assert.assertEquals(i, conf.getJournalFileSize());
@@ -452,6 +527,30 @@ public class ConfigurationImplTest extends UnitTestCase
       conf.setJournalCompactPercentage(i);
       Assert.assertEquals(i, conf.getJournalCompactPercentage());
 
+      i = RandomUtil.randomInt();
+      conf.setJournalLoadThreads(i);
+      Assert.assertEquals(i, conf.getJournalLoadThreads());
+
+      i = RandomUtil.randomInt();
+      conf.setJournalCompactMaxFiles(i);
+      Assert.assertEquals(i, conf.getJournalCompactMaxFiles());
+
+      l = RandomUtil.randomLong();
+      conf.setJournalCompactMaxPause(l);
+      Assert.assertEquals(l, conf.getJournalCompactMaxPause());
+
+      b = RandomUtil.randomBoolean();
+      conf.setJournalChecksums(b);
+      Assert.assertEquals(b, conf.isJournalChecksums());
+
+      s = RandomUtil.randomString();
+      conf.setJournalWalDirectory(s);
+      Assert.assertEquals(s, conf.getJournalWalDirectory());
+
+      i = RandomUtil.randomInt();
+      conf.setJournalWalMaxFiles(i);
+      Assert.assertEquals(i, conf.getJournalWalMaxFiles());
+
       i = RandomUtil.randomInt();
       conf.setJournalBufferSize_AIO(i);
       Assert.assertEquals(i, conf.getJournalBufferSize_AIO());
@@ -472,6 +571,22 @@ public class ConfigurationImplTest extends UnitTestCase
       conf.setLogJournalWriteRate(b);
       Assert.assertEquals(b, conf.isLogJournalWriteRate());
 
+      b = RandomUtil.randomBoolean();
+      conf.setJournalConcurrentBuffer(b);
+      Assert.assertEquals(b, conf.isJournalConcurrentBuffer());
+
+      b = RandomUtil.randomBoolean();
+      conf.setJournalBufferTimeoutAdaptive(b);
+      Assert.assertEquals(b, conf.isJournalBufferTimeoutAdaptive());
+
+      i = RandomUtil.randomInt();
+      conf.setJournalBufferTimeoutMin(i);
+      Assert.assertEquals(i, conf.getJournalBufferTimeoutMin());
+
+      i = RandomUtil.randomInt();
+      conf.setJournalBufferTimeoutMax(i);
+      Assert.assertEquals(i, conf.getJournalBufferTimeoutMax());
+
       i = RandomUtil.randomInt();
       conf.setJournalPerfBlastPages(i);
       Assert.assertEquals(i, conf.getJournalPerfBlastPages());
@@ -484,6 +599,10 @@ public class ConfigurationImplTest extends UnitTestCase
       conf.setPagingDirectory(s);
       Assert.assertEquals(s, conf.getPagingDirectory());
 
+      l = RandomUtil.randomLong();
+      conf.setGlobalMaxSize(l);
+      Assert.assertEquals(l, conf.getGlobalMaxSize());
+
       s = RandomUtil.randomString();
       conf.setLargeMessagesDirectory(s);
       Assert.assertEquals(s, conf.getLargeMessagesDirectory());
@@ -96,12 +96,36 @@ public class DefaultsFileConfigurationTest extends ConfigurationImplTest
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_SYNC_NON_TRANSACTIONAL,
                           conf.isJournalSyncNonTransactional());
 
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_GROUP_COMMIT, conf.isJournalGroupCommit());
+
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_GROUP_COMMIT_WINDOW,
+                          conf.getJournalGroupCommitWindow());
+
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_FILE_SIZE, conf.getJournalFileSize());
 
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_COMPACT_MIN_FILES, conf.getJournalCompactMinFiles());
 
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_COMPACT_PERCENTAGE, conf.getJournalCompactPercentage());
 
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_LOAD_THREADS, conf.getJournalLoadThreads());
+
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_COMPACT_MAX_FILES, conf.getJournalCompactMaxFiles());
+
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_COMPACT_MAX_PAUSE, conf.getJournalCompactMaxPause());
+
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_CHECKSUMS, conf.isJournalChecksums());
+      Assert.assertNull(conf.getJournalWalDirectory());
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_WAL_MAX_FILES, conf.getJournalWalMaxFiles());
+
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_CONCURRENT_BUFFER, conf.isJournalConcurrentBuffer());
+
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_BUFFER_TIMEOUT_ADAPTIVE,
+                          conf.isJournalBufferTimeoutAdaptive());
+
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_BUFFER_TIMEOUT_MIN, conf.getJournalBufferTimeoutMin());
+
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_BUFFER_TIMEOUT_MAX, conf.getJournalBufferTimeoutMax());
+
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_MIN_FILES, conf.getJournalMinFiles());
 
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_JOURNAL_MAX_IO_AIO, conf.getJournalMaxIO_AIO());
@@ -122,6 +146,8 @@ public class DefaultsFileConfigurationTest extends ConfigurationImplTest
 
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_PAGING_DIR, conf.getPagingDirectory());
 
+      Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_GLOBAL_MAX_SIZE, conf.getGlobalMaxSize());
+
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_LARGE_MESSAGES_DIR, conf.getLargeMessagesDirectory());
 
       Assert.assertEquals(HornetQDefaultConfiguration.DEFAULT_WILDCARD_ROUTING_ENABLED, conf.isWildcardRoutingEnabled());
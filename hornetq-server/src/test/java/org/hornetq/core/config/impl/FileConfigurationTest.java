@@ -66,6 +66,7 @@ public class FileConfigurationTest extends ConfigurationImplTest
       Assert.assertEquals(true, conf.isSharedStore());
       Assert.assertEquals(true, conf.isPersistDeliveryCountBeforeDelivery());
       Assert.assertEquals("pagingdir", conf.getPagingDirectory());
+      Assert.assertEquals(104857600, conf.getGlobalMaxSize());
       Assert.assertEquals("somedir", conf.getBindingsDirectory());
       Assert.assertEquals(false, conf.isCreateBindingsDir());
 
@@ -79,10 +80,22 @@ public class FileConfigurationTest extends ConfigurationImplTest
 
       Assert.assertEquals(false, conf.isJournalSyncTransactional());
       Assert.assertEquals(true, conf.isJournalSyncNonTransactional());
+      Assert.assertEquals(true, conf.isJournalGroupCommit());
+      Assert.assertEquals(200000, conf.getJournalGroupCommitWindow());
       Assert.assertEquals(12345678, conf.getJournalFileSize());
       Assert.assertEquals(100, conf.getJournalMinFiles());
       Assert.assertEquals(123, conf.getJournalCompactMinFiles());
       Assert.assertEquals(33, conf.getJournalCompactPercentage());
+      Assert.assertEquals(4, conf.getJournalLoadThreads());
+      Assert.assertEquals(5, conf.getJournalCompactMaxFiles());
+      Assert.assertEquals(20, conf.getJournalCompactMaxPause());
+      Assert.assertEquals(true, conf.isJournalChecksums());
+      Assert.assertEquals("somewaldir", conf.getJournalWalDirectory());
+      Assert.assertEquals(3, conf.getJournalWalMaxFiles());
+      Assert.assertEquals(true, conf.isJournalConcurrentBuffer());
+      Assert.assertEquals(true, conf.isJournalBufferTimeoutAdaptive());
+      Assert.assertEquals(20000, conf.getJournalBufferTimeoutMin());
+      Assert.assertEquals(5000000, conf.getJournalBufferTimeoutMax());
 
       Assert.assertEquals("largemessagesdir", conf.getLargeMessagesDirectory());
       Assert.assertEquals(95, conf.getMemoryWarningThreshold());
@@ -13,6 +13,9 @@
 
 package org.hornetq.core.filter.impl;
 
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.Assert;
 
 import org.hornetq.api.core.HornetQException;
@@ -686,8 +689,233 @@ public class FilterTest extends SilentTestCase
       parse.getNextToken();
    }
 
+   public void testIndexKey() throws Exception
+   {
+      assertIndexKey("color = 'red'", "color", "red");
+      assertIndexKey("'red' = color", "color", "red");
+      assertIndexKey("color IN ('red', 'blue')", "color", "red", "blue");
+      assertIndexKey("color = 'red' AND size > 3", "color", "red");
+      assertIndexKey("size > 3 AND color IN ('red', 'blue')", "color", "red", "blue");
+      assertIndexKey("color IN ('red', 'blue') AND color IN ('blue', 'green')", "color", "blue");
+      assertIndexKey("color = 'red' OR color IN ('blue', 'green')", "color", "red", "blue", "green");
+      assertIndexKey("(color = 'red' OR color = 'blue') AND shape = 'square'", "shape", "square");
+
+      assertNoIndexKey("color = 'red' OR shape = 'square'");
+      assertNoIndexKey("color = 'red' OR size > 3");
+      assertNoIndexKey("NOT color = 'red'");
+      assertNoIndexKey("color <> 'red'");
+      assertNoIndexKey("color NOT IN ('red', 'blue')");
+      assertNoIndexKey("color LIKE 'r%'");
+      assertNoIndexKey("size = 3");
+      assertNoIndexKey("HQUserID = 'ID:abc'");
+
+      // the key doesn't say more than the filter
+      filter = FilterImpl.createFilter("color IN ('red', 'blue') AND size > 3");
+      FilterIndexKey key = ((FilterImpl)filter).getIndexKey();
+
+      Assert.assertFalse(key.mayMatch(message));
+      message.putIntProperty(new SimpleString("color"), 1);
+      Assert.assertFalse(key.mayMatch(message));
+      doPutStringProperty("color", "blue");
+      Assert.assertTrue(key.mayMatch(message));
+      Assert.assertFalse(filter.match(message));
+      message.putIntProperty(new SimpleString("size"), 4);
+      Assert.assertTrue(filter.match(message));
+      doPutStringProperty("color", "green");
+      Assert.assertFalse(key.mayMatch(message));
+   }
+
+   public void testCompiledMatchesAsInterpreted() throws Exception
+   {
+      String[] selectors = new String[] { "a = 1",
+                                         "a <> 1",
+                                         "a > 1",
+                                         "a >= 1.5",
+                                         "a < b",
+                                         "a <= b",
+                                         "1 < a",
+                                         "b = 1.0",
+                                         "a = s",
+                                         "a <> s",
+                                         "s = 'x'",
+                                         "s <> 'x'",
+                                         "'x' = s",
+                                         "s = t",
+                                         "s <> t",
+                                         "t = TRUE",
+                                         "t <> FALSE",
+                                         "t",
+                                         "NOT t",
+                                         "t AND a > 1",
+                                         "t OR a > 1",
+                                         "NOT (a > 1 OR s = 'x')",
+                                         "a = 1 AND NOT (s = 'x' OR t)",
+                                         "(a > 1 AND s = 'x') OR (t AND b < 0.5)",
+                                         "a + b > 2",
+                                         "a - 1 = b",
+                                         "a * 2 < b / 2",
+                                         "a / i > 0",
+                                         "-a < 0",
+                                         "i = by",
+                                         "f > sh",
+                                         "a BETWEEN 1 AND 3",
+                                         "a NOT BETWEEN b AND 3",
+                                         "b BETWEEN -1 AND 1.5",
+                                         "s IN ('x', 'y')",
+                                         "s NOT IN ('x', 'y')",
+                                         "s LIKE 'x%'",
+                                         "s LIKE '_y%'",
+                                         "s LIKE '%y%z'",
+                                         "s NOT LIKE '%z'",
+                                         "s LIKE 'x!_%' ESCAPE '!'",
+                                         "s NOT LIKE '!%%' ESCAPE '!'",
+                                         "s LIKE 'x' ESCAPE 'ab'",
+                                         "s LIKE 'x!' ESCAPE '!'",
+                                         "s IS NULL",
+                                         "a IS NOT NULL",
+                                         "bytes IS NULL",
+                                         "bytes = 'x'",
+                                         "HQPriority > 4",
+                                         "HQPriority",
+                                         "HQDurable = 'DURABLE'",
+                                         "HQSize > 10",
+                                         "HQTimestamp > 0",
+                                         "HQExpiration = 0",
+                                         "HQUserID = 'ID:x'",
+                                         "HQOther = 'x'",
+                                         "TRUE" };
+
+      Object[] values = new Object[] { null,
+                                      -1L,
+                                      0L,
+                                      1L,
+                                      2L,
+                                      3,
+                                      (short)1,
+                                      (byte)2,
+                                      0.5,
+                                      1.0,
+                                      -0.5,
+                                      Double.NaN,
+                                      2.5f,
+                                      true,
+                                      false,
+                                      new SimpleString("x"),
+                                      new SimpleString("xy"),
+                                      new SimpleString("x_y"),
+                                      new SimpleString("y_z"),
+                                      new SimpleString("%z"),
+                                      new SimpleString(""),
+                                      new SimpleString("x\ny"),
+                                      new SimpleString("xy\u2028z"),
+                                      new SimpleString("x\uD83D\uDE00") };
+
+      String[] properties = new String[] { "a", "b", "s", "t", "i", "f", "by", "sh", "HQOther" };
+
+      Random random = new Random(1);
+
+      for (int m = 0; m < 300; m++)
+      {
+         message = new ServerMessageImpl(m, 1000);
+         message.setPriority((byte)random.nextInt(10));
+         message.setDurable(random.nextBoolean());
+
+         for (String property : properties)
+         {
+            message.putObjectProperty(new SimpleString(property), values[random.nextInt(values.length)]);
+         }
+
+         if (random.nextBoolean())
+         {
+            message.putBytesProperty(new SimpleString("bytes"), new byte[1]);
+         }
+
+         for (String selector : selectors)
+         {
+            FilterImpl filterImpl = (FilterImpl)FilterImpl.createFilter(selector);
+
+            Assert.assertEquals(selector + " on " + message.toString(),
+                                filterImpl.interpret(message),
+                                filterImpl.match(message));
+         }
+      }
+   }
+
+   public void testConcurrentMatch() throws Exception
+   {
+      filter = FilterImpl.createFilter("color IN ('red', 'blue') AND weight BETWEEN 10 AND 20 AND NOT name LIKE 'x%'");
+
+      final ServerMessage[] messages = new ServerMessage[100];
+
+      final boolean[] expected = new boolean[messages.length];
+
+      Random random = new Random(2);
+
+      for (int i = 0; i < messages.length; i++)
+      {
+         messages[i] = new ServerMessageImpl(i, 1000);
+         messages[i].putStringProperty(new SimpleString("color"), new SimpleString(random.nextBoolean() ? "red"
+                                                                                                      : "green"));
+         messages[i].putIntProperty(new SimpleString("weight"), random.nextInt(30));
+         messages[i].putStringProperty(new SimpleString("name"), new SimpleString(random.nextBoolean() ? "xa" : "ya"));
+         expected[i] = ((FilterImpl)filter).interpret(messages[i]);
+      }
+
+      final AtomicInteger errors = new AtomicInteger();
+
+      Thread[] threads = new Thread[4];
+
+      for (int t = 0; t < threads.length; t++)
+      {
+         threads[t] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               for (int round = 0; round < 1000; round++)
+               {
+                  for (int i = 0; i < messages.length; i++)
+                  {
+                     if (filter.match(messages[i]) != expected[i])
+                     {
+                        errors.incrementAndGet();
+                     }
+                  }
+               }
+            }
+         };
+         threads[t].start();
+      }
+
+      for (Thread thread : threads)
+      {
+         thread.join();
+      }
+
+      Assert.assertEquals(0, errors.get());
+   }
+
    // Private -----------------------------------------------------------------------------------
 
+   private void assertIndexKey(final String filterString, final String property, final String... values) throws Exception
+   {
+      FilterIndexKey key = ((FilterImpl)FilterImpl.createFilter(filterString)).getIndexKey();
+
+      Assert.assertNotNull(filterString, key);
+      Assert.assertEquals(filterString, new SimpleString(property), key.getProperty());
+      Assert.assertEquals(filterString, values.length, key.getValues().size());
+
+      for (String value : values)
+      {
+         Assert.assertTrue(filterString, key.getValues().contains(new SimpleString(value)));
+      }
+   }
+
+   private void assertNoIndexKey(final String filterString) throws Exception
+   {
+      Assert.assertNull(filterString, ((FilterImpl)FilterImpl.createFilter(filterString)).getIndexKey());
+   }
+
    private void doPutStringProperty(final String key, final String value)
    {
       message.putStringProperty(new SimpleString(key), new SimpleString(value));
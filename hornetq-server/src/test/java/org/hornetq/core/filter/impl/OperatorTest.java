@@ -310,6 +310,8 @@ public class OperatorTest extends TestCase
       OperatorTest.assertSuccess(Operator.GE, 1.0, 1, true);
       OperatorTest.assertSuccess(Operator.GE, 1, 1.0, true);
       OperatorTest.assertSuccess(Operator.GE, 1.0, 1.0, true);
+      OperatorTest.assertSuccess(Operator.GE, -0.5, 0, false);
+      OperatorTest.assertSuccess(Operator.GE, 1.5, 1, true);
 
       // incompatible types
       OperatorTest.assertSuccess(Operator.GE, 2.0, true, false);
@@ -881,6 +881,78 @@ public final class PriorityLinkedListTest extends TestCase
       iter.remove();
    }
 
+   public void testThirtyTwoPriorities()
+   {
+      PriorityLinkedListImpl<Wibble> list = new PriorityLinkedListImpl<Wibble>(32);
+
+      list.addTail(a, 0);
+      list.addTail(b, 31);
+      list.addTail(c, 15);
+      list.addTail(d, 31);
+
+      LinkedListIterator<Wibble> iter = list.iterator();
+
+      assertTrue(iter.hasNext());
+      assertEquals(b, iter.next());
+      assertTrue(iter.hasNext());
+      assertEquals(d, iter.next());
+      assertTrue(iter.hasNext());
+      assertEquals(c, iter.next());
+      assertTrue(iter.hasNext());
+      assertEquals(a, iter.next());
+      assertFalse(iter.hasNext());
+
+      iter.close();
+
+      assertEquals(b, list.poll());
+      assertEquals(d, list.poll());
+      assertEquals(c, list.poll());
+      assertEquals(a, list.poll());
+      assertNull(list.poll());
+      assertTrue(list.isEmpty());
+   }
+
+   public void testTooManyPriorities()
+   {
+      try
+      {
+         new PriorityLinkedListImpl<Wibble>(33);
+         fail("Should throw IllegalArgumentException");
+      }
+      catch (IllegalArgumentException expected)
+      {
+         // OK
+      }
+   }
+
+   public void testPollSkipsEmptiedLevels()
+   {
+      list.addTail(a, 9);
+      list.addTail(b, 4);
+      list.addTail(c, 0);
+
+      LinkedListIterator<Wibble> iter = list.iterator();
+
+      assertTrue(iter.hasNext());
+      assertEquals(a, iter.next());
+      iter.remove();
+
+      assertEquals(b, list.poll());
+
+      // the iterator moves straight to the only level left
+      assertTrue(iter.hasNext());
+      assertEquals(c, iter.next());
+
+      list.addTail(d, 4);
+
+      assertEquals(d, list.poll());
+      assertEquals(c, list.poll());
+      assertNull(list.poll());
+      assertEquals(0, list.size());
+
+      iter.close();
+   }
+
    class Wibble
    {
       String s;
@@ -79,6 +79,7 @@ import org.hornetq.core.journal.impl.JournalImpl;
 import org.hornetq.core.journal.impl.NIOSequentialFileFactory;
 import org.hornetq.core.persistence.impl.journal.JournalStorageManager;
 import org.hornetq.core.persistence.impl.journal.JournalStorageManager.ReferenceDescribe;
+import org.hornetq.core.persistence.impl.journal.JournalStorageManager.ReferencesDescribe;
 import org.hornetq.core.persistence.impl.journal.OperationContextImpl;
 import org.hornetq.core.postoffice.Binding;
 import org.hornetq.core.postoffice.Bindings;
@@ -1535,6 +1536,21 @@ public abstract class UnitTestCase extends CoreUnitTestCase
                count.incrementAndGet();
             }
          }
+         else if (info.getUserRecordType() == JournalStorageManager.ADD_REFS)
+         {
+            for (long queueID : ((ReferencesDescribe)o).refsEncoding.queueIDs)
+            {
+               AtomicInteger count = messageRefCounts.get(queueID);
+               if (count == null)
+               {
+                  messageRefCounts.put(queueID, new AtomicInteger(1));
+               }
+               else
+               {
+                  count.incrementAndGet();
+               }
+            }
+         }
       }
 
       messagesJournal.stop();
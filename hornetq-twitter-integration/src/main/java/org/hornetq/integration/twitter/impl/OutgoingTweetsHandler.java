@@ -149,6 +149,16 @@ public class OutgoingTweetsHandler implements Consumer, ConnectorService
       return filter;
    }
 
+   public void handle(final DeliveryBatch batch) throws Exception
+   {
+      MessageReference ref;
+
+      while ((ref = batch.next()) != null)
+      {
+         batch.done(handle(ref));
+      }
+   }
+
    public HandleStatus handle(final MessageReference ref) throws Exception
    {
       if (filter != null && !filter.match(ref.getMessage()))
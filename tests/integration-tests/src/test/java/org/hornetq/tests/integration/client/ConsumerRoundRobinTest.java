@@ -22,6 +22,7 @@ import org.hornetq.api.core.client.ClientSession;
 import org.hornetq.api.core.client.ClientSessionFactory;
 import org.hornetq.api.core.client.ServerLocator;
 import org.hornetq.core.server.HornetQServer;
+import org.hornetq.core.settings.impl.AddressSettings;
 import org.hornetq.tests.integration.IntegrationTestLogger;
 import org.hornetq.tests.util.ServiceTestBase;
 
@@ -79,4 +80,69 @@ public class ConsumerRoundRobinTest extends ServiceTestBase
          }
    }
 
+   public void testConsumersTakeBatches() throws Exception
+   {
+      testConsumersTakeBatches(false);
+   }
+
+   public void testConsumersTakeBatchesNetty() throws Exception
+   {
+      testConsumersTakeBatches(true);
+   }
+
+   private void testConsumersTakeBatches(final boolean netty) throws Exception
+   {
+      HornetQServer server = createServer(false, netty);
+      server.start();
+
+      AddressSettings settings = new AddressSettings();
+      settings.setDeliveryBatchSize(10);
+      server.getAddressSettingsRepository().addMatch(addressA.toString(), settings);
+
+      ServerLocator locator = createFactory(netty);
+      // a small window, so the consumers run out of credits in the middle of the batches
+      locator.setConsumerWindowSize(1024);
+      ClientSessionFactory cf = createSessionFactory(locator);
+      ClientSession session = addClientSession(cf.createSession(false, true, true));
+      session.createQueue(addressA, queueA, false);
+
+      ClientProducer cp = session.createProducer(addressA);
+      int numMessage = 500;
+      for (int i = 0; i < numMessage; i++)
+      {
+         ClientMessage cm = session.createMessage(false);
+         cm.getBodyBuffer().writeInt(i);
+         cp.send(cm);
+      }
+
+      ClientConsumer[] consumers = new ClientConsumer[2];
+      consumers[0] = session.createConsumer(queueA);
+      consumers[1] = session.createConsumer(queueA);
+      session.start();
+
+      int[] last = new int[] { -1, -1 };
+      int received = 0;
+      long timeout = System.currentTimeMillis() + 10000;
+      while (received < numMessage && System.currentTimeMillis() < timeout)
+      {
+         for (int j = 0; j < consumers.length; j++)
+         {
+            ClientMessage cm = consumers[j].receive(100);
+            while (cm != null)
+            {
+               int i = cm.getBodyBuffer().readInt();
+               // each consumer gets the messages in order
+               Assert.assertTrue(i > last[j]);
+               last[j] = i;
+               cm.acknowledge();
+               received++;
+               cm = consumers[j].receiveImmediate();
+            }
+         }
+      }
+
+      Assert.assertEquals(numMessage, received);
+      Assert.assertNull(consumers[0].receiveImmediate());
+      Assert.assertNull(consumers[1].receiveImmediate());
+   }
 }
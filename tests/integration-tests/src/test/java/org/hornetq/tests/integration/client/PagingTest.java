@@ -3963,6 +3963,89 @@ public class PagingTest extends ServiceTestBase
       session.close();
    }
 
+   public void testGlobalMaxSizePagesLargestAddress() throws Exception
+   {
+      SimpleString SMALL_ADDRESS = new SimpleString("small");
+      SimpleString LARGE_ADDRESS = new SimpleString("large");
+
+      Configuration configuration = createDefaultConfig();
+
+      configuration.setGlobalMaxSize(100 * 1024);
+
+      // no max size on the addresses, only the global one
+      server = createServer(true, configuration, PAGE_SIZE, -1, new HashMap<String, AddressSettings>());
+
+      server.start();
+
+      sf = createSessionFactory(locator);
+
+      ClientSession session = sf.createSession(false, true, false);
+
+      session.createQueue(SMALL_ADDRESS, SMALL_ADDRESS, true);
+
+      session.createQueue(LARGE_ADDRESS, LARGE_ADDRESS, true);
+
+      ClientProducer producerSmall = session.createProducer(SMALL_ADDRESS);
+      ClientProducer producerLarge = session.createProducer(LARGE_ADDRESS);
+
+      int NUMBER_OF_SMALL_MESSAGES = 10;
+
+      int NUMBER_OF_LARGE_MESSAGES = 200;
+
+      for (int i = 0; i < NUMBER_OF_SMALL_MESSAGES; i++)
+      {
+         ClientMessage msg = session.createMessage(true);
+         msg.getBodyBuffer().writeBytes(new byte[MESSAGE_SIZE]);
+         producerSmall.send(msg);
+      }
+
+      for (int i = 0; i < NUMBER_OF_LARGE_MESSAGES; i++)
+      {
+         ClientMessage msg = session.createMessage(true);
+         msg.getBodyBuffer().writeBytes(new byte[MESSAGE_SIZE]);
+         producerLarge.send(msg);
+      }
+
+      session.close();
+
+      PagingManager pagingManager = server.getPostOffice().getPagingManager();
+
+      Assert.assertTrue(pagingManager.getPageStore(LARGE_ADDRESS).isPaging());
+      Assert.assertFalse(pagingManager.getPageStore(SMALL_ADDRESS).isPaging());
+      Assert.assertTrue(pagingManager.getGlobalSize() >= pagingManager.getPageStore(SMALL_ADDRESS).getAddressSize() +
+                        pagingManager.getPageStore(LARGE_ADDRESS).getAddressSize());
+
+      session = sf.createSession(false, true, false);
+
+      session.start();
+
+      ClientConsumer consumerSmall = session.createConsumer(SMALL_ADDRESS);
+      ClientConsumer consumerLarge = session.createConsumer(LARGE_ADDRESS);
+
+      for (int i = 0; i < NUMBER_OF_SMALL_MESSAGES; i++)
+      {
+         ClientMessage msg = consumerSmall.receive(5000);
+         Assert.assertNotNull(msg);
+         msg.acknowledge();
+      }
+
+      Assert.assertNull(consumerSmall.receiveImmediate());
+
+      for (int i = 0; i < NUMBER_OF_LARGE_MESSAGES; i++)
+      {
+         ClientMessage msg = consumerLarge.receive(5000);
+         Assert.assertNotNull(msg);
+         msg.acknowledge();
+         session.commit();
+      }
+
+      Assert.assertNull(consumerLarge.receiveImmediate());
+
+      session.commit();
+
+      session.close();
+   }
+
    public void testPagingDifferentSizes() throws Exception
    {
       SimpleString PAGED_ADDRESS_A = new SimpleString("paged-a");
@@ -3,6 +3,7 @@
  */
 package org.hornetq.tests.integration.cluster.util;
 
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 
 import org.hornetq.api.core.HornetQException;
@@ -232,6 +233,12 @@ public class BackupSyncDelay implements Interceptor
 
       }
 
+      @Override
+      public void sendBatched(List<Packet> packets)
+      {
+         throw new UnsupportedOperationException();
+      }
+
       @Override
       public void sendAndFlush(Packet packet)
       {
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.integration.journal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.nio.ByteBuffer;
+
+import junit.framework.Assert;
+
+import org.hornetq.core.journal.SequentialFile;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.MappedSequentialFile;
+import org.hornetq.core.journal.impl.MappedSequentialFileFactory;
+import org.hornetq.tests.unit.core.journal.impl.SequentialFileFactoryTestBase;
+
+/**
+ * A MappedSequentialFileFactoryTest
+ */
+public class MappedSequentialFileFactoryTest extends SequentialFileFactoryTestBase
+{
+   // the mappings of the process, on Linux
+   private static final String MAPS = "/proc/self/maps";
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      File file = new File(getTestDir());
+
+      deleteDirectory(file);
+
+      file.mkdir();
+   }
+
+   @Override
+   protected SequentialFileFactory createFactory()
+   {
+      return new MappedSequentialFileFactory(getTestDir(), true, null);
+   }
+
+   public void testGrowAndTruncate() throws Exception
+   {
+      SequentialFile file = factory.createSequentialFile("growing.page", 1);
+
+      file.open();
+
+      byte[] bytes = new byte[1000];
+
+      for (int i = 0; i < bytes.length; i++)
+      {
+         bytes[i] = getSamplebyte(i);
+      }
+
+      // past the first mapped region
+      for (int i = 0; i < 2000; i++)
+      {
+         file.writeDirect(ByteBuffer.wrap(bytes), false);
+      }
+
+      Assert.assertEquals(2000 * 1000, file.size());
+
+      file.close();
+
+      // the slack of the last region is not left on the file
+      Assert.assertEquals(2000 * 1000, file.getJavaFile().length());
+
+      file.open();
+
+      ByteBuffer view = ((MappedSequentialFile)file).asReadOnlyBuffer();
+
+      Assert.assertEquals(2000 * 1000, view.limit());
+
+      for (int i = 0; i < view.limit(); i++)
+      {
+         Assert.assertEquals(getSamplebyte(i % 1000), view.get(i));
+      }
+
+      ((MappedSequentialFile)file).releaseReadOnlyBuffer(view);
+
+      file.close();
+   }
+
+   public void testGrowingFileKeepsOneMapping() throws Exception
+   {
+      SequentialFile file = factory.createSequentialFile("remapped.page", 1);
+
+      file.open();
+
+      byte[] bytes = new byte[1000];
+
+      // through several mapped regions
+      for (int i = 0; i < 5000; i++)
+      {
+         file.writeDirect(ByteBuffer.wrap(bytes), false);
+      }
+
+      // the previous regions were released when the file was remapped
+      Assert.assertTrue(countMappings("remapped.page") <= 1);
+
+      file.close();
+
+      Assert.assertEquals(0, countMappings("remapped.page"));
+   }
+
+   public void testViewKeepsItsMapping() throws Exception
+   {
+      SequentialFile file = factory.createSequentialFile("viewed.page", 1);
+
+      file.open();
+
+      byte[] bytes = new byte[1000];
+
+      for (int i = 0; i < bytes.length; i++)
+      {
+         bytes[i] = getSamplebyte(i);
+      }
+
+      file.writeDirect(ByteBuffer.wrap(bytes), false);
+
+      ByteBuffer view = ((MappedSequentialFile)file).asReadOnlyBuffer();
+
+      // remapped, then closed, while the view is used
+      for (int i = 0; i < 2000; i++)
+      {
+         file.writeDirect(ByteBuffer.wrap(bytes), false);
+      }
+
+      file.close();
+
+      Assert.assertEquals(1000, view.limit());
+
+      for (int i = 0; i < view.limit(); i++)
+      {
+         Assert.assertEquals(getSamplebyte(i), view.get(i));
+      }
+
+      if (new File(MAPS).exists())
+      {
+         Assert.assertTrue(isMapped("viewed.page"));
+      }
+
+      ((MappedSequentialFile)file).releaseReadOnlyBuffer(view);
+
+      Assert.assertEquals(0, countMappings("viewed.page"));
+   }
+
+   public void testDeleteClosedFile() throws Exception
+   {
+      SequentialFile file = factory.createSequentialFile("deleted.hq", 1);
+
+      file.open();
+
+      file.fill(0, 100 * 1024, (byte)0);
+
+      file.writeDirect(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), true);
+
+      file.close();
+
+      // the mapping is released by close, not left to the GC
+      Assert.assertFalse(isMapped("deleted.hq"));
+
+      File renamed = new File(getTestDir(), "renamed.hq");
+
+      Assert.assertTrue(file.getJavaFile().renameTo(renamed));
+
+      SequentialFile renamedFile = factory.createSequentialFile("renamed.hq", 1);
+
+      renamedFile.open();
+
+      if (new File(MAPS).exists())
+      {
+         Assert.assertTrue(isMapped("renamed.hq"));
+      }
+
+      renamedFile.delete();
+
+      Assert.assertFalse(renamed.exists());
+
+      Assert.assertFalse(isMapped("renamed.hq"));
+   }
+
+   /**
+    * @return if the file is on the mappings of the process, always false where they can't be listed
+    */
+   private static boolean isMapped(final String fileName) throws Exception
+   {
+      return countMappings(fileName) > 0;
+   }
+
+   /**
+    * @return the number of mappings of the file in the process, always 0 where they can't be listed
+    */
+   private static int countMappings(final String fileName) throws Exception
+   {
+      File maps = new File(MAPS);
+
+      if (!maps.exists())
+      {
+         return 0;
+      }
+
+      BufferedReader reader = new BufferedReader(new FileReader(maps));
+
+      try
+      {
+         int count = 0;
+
+         String line;
+
+         while ((line = reader.readLine()) != null)
+         {
+            if (line.endsWith("/" + fileName) || line.endsWith("/" + fileName + " (deleted)"))
+            {
+               count++;
+            }
+         }
+
+         return count;
+      }
+      finally
+      {
+         reader.close();
+      }
+   }
+
+}
@@ -23,6 +23,7 @@ import junit.framework.Assert;
 import org.hornetq.api.config.HornetQDefaultConfiguration;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.api.core.TransportConfiguration;
+import org.hornetq.api.core.client.ClientConsumer;
 import org.hornetq.api.core.client.ClientMessage;
 import org.hornetq.api.core.client.ClientProducer;
 import org.hornetq.api.core.client.ClientSession;
@@ -270,6 +271,39 @@ public class AddressControlTest extends ManagementTestBase
          Assert.assertEquals("# of pages is 2", 2, addressControl.getNumberOfPages());
    }
 
+   public void testGetAddressSize() throws Exception
+   {
+      SimpleString address = RandomUtil.randomSimpleString();
+      session.createQueue(address, address, false);
+
+      AddressControl addressControl = createManagementControl(address);
+      Assert.assertEquals(0, addressControl.getAddressSize());
+
+      ClientProducer producer = session.createProducer(address);
+      ClientMessage msg = session.createMessage(false);
+      msg.getBodyBuffer().writeBytes(new byte[512]);
+      producer.send(msg);
+
+      Assert.assertTrue(addressControl.getAddressSize() > 512);
+
+      ClientConsumer consumer = session.createConsumer(address);
+      msg = consumer.receive(5000);
+      Assert.assertNotNull(msg);
+      msg.acknowledge();
+      session.commit();
+      consumer.close();
+
+      long timeout = System.currentTimeMillis() + 5000;
+      while (addressControl.getAddressSize() != 0 && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+
+      Assert.assertEquals(0, addressControl.getAddressSize());
+
+      session.deleteQueue(address);
+   }
+
    public void testGetNumberOfBytesPerPage() throws Exception
    {
       SimpleString address = RandomUtil.randomSimpleString();
@@ -124,6 +124,9 @@ public class HornetQServerControlTest extends ManagementTestBase
       Assert.assertEquals(conf.isJournalSyncNonTransactional(), serverControl.isJournalSyncNonTransactional());
       Assert.assertEquals(conf.getJournalFileSize(), serverControl.getJournalFileSize());
       Assert.assertEquals(conf.getJournalMinFiles(), serverControl.getJournalMinFiles());
+      Assert.assertEquals(conf.isJournalBufferTimeoutAdaptive(), serverControl.isJournalBufferTimeoutAdaptive());
+      Assert.assertEquals(conf.isJournalSyncTransactional() && conf.isJournalGroupCommit(),
+                          serverControl.isJournalGroupCommit());
       if (AsynchronousFileImpl.isLoaded())
       {
          Assert.assertEquals(conf.getJournalMaxIO_AIO(), serverControl.getJournalMaxIO());
@@ -133,6 +136,7 @@ public class HornetQServerControlTest extends ManagementTestBase
       Assert.assertEquals(conf.isCreateBindingsDir(), serverControl.isCreateBindingsDir());
       Assert.assertEquals(conf.isCreateJournalDir(), serverControl.isCreateJournalDir());
       Assert.assertEquals(conf.getPagingDirectory(), serverControl.getPagingDirectory());
+      Assert.assertEquals(conf.getGlobalMaxSize(), serverControl.getGlobalMaxSize());
       Assert.assertEquals(conf.getLargeMessagesDirectory(), serverControl.getLargeMessagesDirectory());
       Assert.assertEquals(conf.isWildcardRoutingEnabled(), serverControl.isWildcardRoutingEnabled());
       Assert.assertEquals(conf.getTransactionTimeout(), serverControl.getTransactionTimeout());
@@ -265,6 +265,16 @@ public class HornetQServerControlUsingCoreTest extends HornetQServerControlTest
             return (String)proxy.retrieveAttributeValue("pagingDirectory");
          }
 
+         public long getGlobalMaxSize()
+         {
+            return (Long)proxy.retrieveAttributeValue("globalMaxSize", Long.class);
+         }
+
+         public long getGlobalSize()
+         {
+            return (Long)proxy.retrieveAttributeValue("globalSize", Long.class);
+         }
+
          public int getScheduledThreadPoolMaxSize()
          {
             return (Integer)proxy.retrieveAttributeValue("scheduledThreadPoolMaxSize");
@@ -455,6 +465,41 @@ public class HornetQServerControlUsingCoreTest extends HornetQServerControlTest
             return (Integer)proxy.retrieveAttributeValue("JournalBufferTimeout");
          }
 
+         public boolean isJournalBufferTimeoutAdaptive()
+         {
+            return (Boolean)proxy.retrieveAttributeValue("JournalBufferTimeoutAdaptive");
+         }
+
+         public long getJournalCurrentBufferTimeout()
+         {
+            return (Long)proxy.retrieveAttributeValue("JournalCurrentBufferTimeout");
+         }
+
+         public int getJournalCurrentBatchSize()
+         {
+            return (Integer)proxy.retrieveAttributeValue("JournalCurrentBatchSize");
+         }
+
+         public String getJournalFlushLatencyHistogramAsJSON() throws Exception
+         {
+            return (String)proxy.retrieveAttributeValue("journalFlushLatencyHistogramAsJSON");
+         }
+
+         public boolean isJournalGroupCommit()
+         {
+            return (Boolean)proxy.retrieveAttributeValue("JournalGroupCommit");
+         }
+
+         public double getJournalAverageCommitGroupSize()
+         {
+            return (Double)proxy.retrieveAttributeValue("JournalAverageCommitGroupSize");
+         }
+
+         public int getJournalMaxCommitGroupSize()
+         {
+            return (Integer)proxy.retrieveAttributeValue("JournalMaxCommitGroupSize");
+         }
+
          public int getJournalCompactMinFiles()
          {
             return (Integer)proxy.retrieveAttributeValue("JournalCompactMinFiles");
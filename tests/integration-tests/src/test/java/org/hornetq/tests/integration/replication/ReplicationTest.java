@@ -48,6 +48,7 @@ import org.hornetq.core.journal.EncodingSupport;
 import org.hornetq.core.journal.IOAsyncTask;
 import org.hornetq.core.journal.IOCompletion;
 import org.hornetq.core.journal.Journal;
+import org.hornetq.core.journal.JournalBatch;
 import org.hornetq.core.journal.JournalLoadInformation;
 import org.hornetq.core.journal.LoaderCallback;
 import org.hornetq.core.journal.PreparedTransactionInfo;
@@ -686,6 +687,16 @@ public final class ReplicationTest extends ServiceTestBase
 
       }
 
+      public void appendBatch(final JournalBatch batch, final boolean sync) throws Exception
+      {
+
+      }
+
+      public void appendBatch(final JournalBatch batch, final boolean sync, final IOCompletion callback) throws Exception
+      {
+
+      }
+
       public
                void
                appendUpdateRecord(final long id, final byte recordType, final byte[] record, final boolean sync) throws Exception
@@ -851,6 +862,12 @@ public final class ReplicationTest extends ServiceTestBase
 
       }
 
+      @Override
+      public void appendCommitRecords(long[] txIDs, boolean sync, IOCompletion[] callbacks) throws Exception
+      {
+
+      }
+
       @Override
       public void lineUpContex(IOCompletion callback)
       {
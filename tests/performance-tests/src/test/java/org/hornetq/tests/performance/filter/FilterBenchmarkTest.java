@@ -0,0 +1,189 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.performance.filter;
+
+import java.util.Random;
+
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.filter.impl.FilterImpl;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.core.server.impl.ServerMessageImpl;
+import org.hornetq.tests.performance.util.BenchmarkTestBase;
+import org.hornetq.tests.performance.util.LatencyHistogram;
+
+/**
+ * Compares the compiled filters, {@link FilterImpl#match(ServerMessage)}, with the interpreted ones,
+ * {@link FilterImpl#interpret(ServerMessage)}, on a few typical selectors, with one thread and with several threads
+ * matching the same filter as the consumers of a queue do.
+ * <p>
+ * The messages matched have random color, weight, price, region, urgent and priority values, so every selector
+ * matches some of them and not the others. A latency is the time of a batch of 100 matches, and the rounds are
+ * sized with the system properties:
+ * <ul>
+ * <li>hornetq.perf.filter.threads: numbers of matching threads (default is 1,4)</li>
+ * <li>hornetq.perf.filter.matches: matches on each measured round (default is 2000000)</li>
+ * <li>hornetq.perf.filter.warmup: matches on each warm up round (default is 500000)</li>
+ * </ul>
+ */
+public class FilterBenchmarkTest extends BenchmarkTestBase
+{
+   private static final int[] THREADS = getIntegers("hornetq.perf.filter.threads", "1,4");
+
+   private static final int MATCHES = Integer.getInteger("hornetq.perf.filter.matches", 2000000);
+
+   private static final int WARMUP = Integer.getInteger("hornetq.perf.filter.warmup", 500000);
+
+   // The matches timed together, a single match is too short for the clock
+   private static final int BATCH = 100;
+
+   private static final int MESSAGES = 64;
+
+   private ServerMessage[] messages;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      Random random = new Random(1);
+
+      String[] colors = new String[] { "red", "green", "blue", "yellow" };
+
+      messages = new ServerMessage[MESSAGES];
+
+      for (int i = 0; i < MESSAGES; i++)
+      {
+         ServerMessage message = new ServerMessageImpl(i, 1000);
+         message.setPriority((byte)random.nextInt(10));
+         message.putStringProperty(new SimpleString("color"), new SimpleString(colors[random.nextInt(colors.length)]));
+         message.putIntProperty(new SimpleString("weight"), random.nextInt(100));
+         message.putDoubleProperty(new SimpleString("price"), random.nextDouble() * 100);
+         message.putStringProperty(new SimpleString("region"), new SimpleString("region-" + random.nextInt(20)));
+         message.putBooleanProperty(new SimpleString("urgent"), random.nextBoolean());
+         messages[i] = message;
+      }
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      messages = null;
+
+      super.tearDown();
+   }
+
+   public void testEquality() throws Exception
+   {
+      runAll("color = 'red'");
+   }
+
+   public void testIn() throws Exception
+   {
+      runAll("region IN ('region-1', 'region-2', 'region-3', 'region-4')");
+   }
+
+   public void testNumericRange() throws Exception
+   {
+      runAll("weight BETWEEN 10 AND 50 AND price < 75.5");
+   }
+
+   public void testCompound() throws Exception
+   {
+      runAll("(color = 'red' OR color = 'blue') AND weight > 20 AND NOT urgent AND HQPriority >= 4");
+   }
+
+   public void testLike() throws Exception
+   {
+      runAll("region LIKE 'region-1%'");
+   }
+
+   public void testArithmetic() throws Exception
+   {
+      runAll("price * weight > 1000 + weight");
+   }
+
+   // Private -------------------------------------------------------
+
+   private void runAll(final String selector) throws Exception
+   {
+      FilterImpl filter = (FilterImpl)FilterImpl.createFilter(selector);
+
+      for (int threads : THREADS)
+      {
+         run(filter, threads, true);
+         run(filter, threads, false);
+      }
+   }
+
+   private void run(final FilterImpl filter, final int threads, final boolean compiled) throws Exception
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+
+      long elapsed = measure(new Round()
+      {
+         public long run(final int matches, final LatencyHistogram roundHistogram) throws Exception
+         {
+            return runRound(filter, compiled, threads, Math.max(BATCH, matches / threads), roundHistogram);
+         }
+      }, WARMUP, MATCHES, histogram);
+
+      report((compiled ? "compiled" : "interpreted") + " threads=" + threads + " \"" + filter.getFilterString() + "\"",
+             "matches",
+             BATCH,
+             elapsed,
+             histogram);
+   }
+
+   /**
+    * @return the elapsed time in nanoseconds
+    */
+   private long runRound(final FilterImpl filter,
+                         final boolean compiled,
+                         final int threads,
+                         final int matchesPerThread,
+                         final LatencyHistogram histogram) throws Exception
+   {
+      final int[] matched = new int[threads];
+
+      return runThreads("filter-benchmark", threads, new Worker()
+      {
+         public void run(final int thread, final LatencyHistogram threadHistogram)
+         {
+            int count = 0;
+
+            int next = thread;
+
+            for (int batch = 0; batch < matchesPerThread / BATCH; batch++)
+            {
+               long begin = System.nanoTime();
+
+               for (int j = 0; j < BATCH; j++)
+               {
+                  ServerMessage message = messages[next++ & MESSAGES - 1];
+
+                  if (compiled ? filter.match(message) : filter.interpret(message))
+                  {
+                     count++;
+                  }
+               }
+
+               threadHistogram.record(System.nanoTime() - begin);
+            }
+
+            // so the matches aren't optimised away
+            matched[thread] = count;
+         }
+      }, histogram);
+   }
+}
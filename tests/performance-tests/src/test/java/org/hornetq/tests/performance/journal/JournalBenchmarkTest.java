@@ -0,0 +1,622 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.performance.journal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hornetq.core.asyncio.impl.AsynchronousFileImpl;
+import org.hornetq.core.journal.PreparedTransactionInfo;
+import org.hornetq.core.journal.RecordInfo;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.AIOSequentialFileFactory;
+import org.hornetq.core.journal.impl.JournalCompactionInfo;
+import org.hornetq.core.journal.impl.JournalConstants;
+import org.hornetq.core.journal.impl.JournalImpl;
+import org.hornetq.core.journal.impl.MappedSequentialFileFactory;
+import org.hornetq.core.journal.impl.NIOSequentialFileFactory;
+import org.hornetq.tests.performance.util.BenchmarkTestBase;
+import org.hornetq.tests.performance.util.LatencyHistogram;
+import org.hornetq.tests.unit.core.journal.impl.fakes.FakeSequentialFileFactory;
+import org.hornetq.tests.util.UnitTestCase;
+
+/**
+ * Benchmarks of the storage hot path: appends, updates, deletes and transactional commits on {@link JournalImpl},
+ * the batching of the timed buffers, compaction and load.
+ * <p>
+ * The operations run on a started journal of 10 MiB files, on each file factory, record size and number of writer
+ * threads given by the system properties, every operation timed on its own:
+ * <ul>
+ * <li>hornetq.perf.journal.factories: any of fake, nio, nio-buffered, nio-concurrent, mapped and aio (default is
+ * fake,nio-buffered,aio). aio is skipped when the native library isn't loaded.</li>
+ * <li>hornetq.perf.journal.recordSizes: record sizes in bytes (default is 100,1024)</li>
+ * <li>hornetq.perf.journal.threads: numbers of writer threads (default is 1,8)</li>
+ * <li>hornetq.perf.journal.operations: operations on each measured round (default is 20000)</li>
+ * <li>hornetq.perf.journal.warmup: operations on each warm up round (default is 5000)</li>
+ * <li>hornetq.perf.journal.sync: whether appends wait for the disk (default is true)</li>
+ * </ul>
+ */
+public class JournalBenchmarkTest extends BenchmarkTestBase
+{
+   private static final String[] FACTORIES = System.getProperty("hornetq.perf.journal.factories",
+                                                                "fake,nio-buffered,aio").split(",");
+
+   private static final int[] RECORD_SIZES = getIntegers("hornetq.perf.journal.recordSizes", "100,1024");
+
+   private static final int[] THREADS = getIntegers("hornetq.perf.journal.threads", "1,8");
+
+   private static final int OPERATIONS = Integer.getInteger("hornetq.perf.journal.operations", 20000);
+
+   private static final int WARMUP = Integer.getInteger("hornetq.perf.journal.warmup", 5000);
+
+   private static final boolean SYNC = Boolean.parseBoolean(System.getProperty("hornetq.perf.journal.sync", "true"));
+
+   private static final int FILE_SIZE = 10 * 1024 * 1024;
+
+   private static final byte RECORD_TYPE = 1;
+
+   // Operations ----------------------------------------------------
+
+   private interface Operation
+   {
+      /** Called before the rounds, with the IDs that will be used */
+      void prepare(JournalImpl journal, long firstID, int count, byte[] record) throws Exception;
+
+      void run(JournalImpl journal, long id, byte[] record) throws Exception;
+   }
+
+   private static final Operation ADD = new Operation()
+   {
+      public void prepare(final JournalImpl journal, final long firstID, final int count, final byte[] record)
+      {
+      }
+
+      public void run(final JournalImpl journal, final long id, final byte[] record) throws Exception
+      {
+         journal.appendAddRecord(id, RECORD_TYPE, record, SYNC);
+      }
+   };
+
+   private static final Operation UPDATE = new Operation()
+   {
+      public void prepare(final JournalImpl journal, final long firstID, final int count, final byte[] record) throws Exception
+      {
+         addRecords(journal, firstID, count, record);
+      }
+
+      public void run(final JournalImpl journal, final long id, final byte[] record) throws Exception
+      {
+         journal.appendUpdateRecord(id, RECORD_TYPE, record, SYNC);
+      }
+   };
+
+   private static final Operation DELETE = new Operation()
+   {
+      public void prepare(final JournalImpl journal, final long firstID, final int count, final byte[] record) throws Exception
+      {
+         addRecords(journal, firstID, count, record);
+      }
+
+      public void run(final JournalImpl journal, final long id, final byte[] record) throws Exception
+      {
+         journal.appendDeleteRecord(id, SYNC);
+      }
+   };
+
+   /** A transaction like the one of a message sent to two queues: an add and two updates, and the commit */
+   private static final Operation COMMIT = new Operation()
+   {
+      public void prepare(final JournalImpl journal, final long firstID, final int count, final byte[] record)
+      {
+      }
+
+      public void run(final JournalImpl journal, final long id, final byte[] record) throws Exception
+      {
+         long txID = id;
+         journal.appendAddRecordTransactional(txID, id, RECORD_TYPE, record);
+         journal.appendUpdateRecordTransactional(txID, id, RECORD_TYPE, new byte[16]);
+         journal.appendUpdateRecordTransactional(txID, id, RECORD_TYPE, new byte[16]);
+         journal.appendCommitRecord(txID, SYNC);
+      }
+   };
+
+   // Benchmarks ----------------------------------------------------
+
+   public void testAppendAdd() throws Exception
+   {
+      runAll("add", ADD);
+   }
+
+   public void testAppendUpdate() throws Exception
+   {
+      runAll("update", UPDATE);
+   }
+
+   public void testAppendDelete() throws Exception
+   {
+      runAll("delete", DELETE);
+   }
+
+   public void testTransactionalCommit() throws Exception
+   {
+      runAll("commit", COMMIT);
+   }
+
+   /**
+    * Sync appends without a buffer, with the {@link org.hornetq.core.journal.impl.TimedBuffer} and with the
+    * {@link org.hornetq.core.journal.impl.ConcurrentTimedBuffer}: what the batching of many writers on one sync buys.
+    * Every append syncs, so this round is shorter.
+    */
+   public void testTimedBufferBatching() throws Exception
+   {
+      int operations = Math.max(100, OPERATIONS / 10);
+
+      for (String factory : new String[] { "nio", "nio-buffered", "nio-concurrent" })
+      {
+         for (int threads : THREADS)
+         {
+            runOperation("batching", factory, 100, threads, operations, Math.max(10, WARMUP / 10), ADD);
+         }
+      }
+   }
+
+   /**
+    * A full and an incremental compaction of a journal with a quarter of its records alive, while a writer keeps
+    * appending. Logs the duration of the compaction and the latency of the appends during it.
+    */
+   public void testCompact() throws Exception
+   {
+      for (String factory : FACTORIES)
+      {
+         for (int recordSize : RECORD_SIZES)
+         {
+            runCompact(factory, recordSize, 0);
+            runCompact(factory, recordSize, 4);
+         }
+      }
+   }
+
+   /**
+    * The time to load a journal with one thread and with four.
+    */
+   public void testLoad() throws Exception
+   {
+      for (String factory : FACTORIES)
+      {
+         for (int recordSize : RECORD_SIZES)
+         {
+            runLoad(factory, recordSize, 1);
+            runLoad(factory, recordSize, 4);
+         }
+      }
+   }
+
+   // Private -------------------------------------------------------
+
+   private void runAll(final String name, final Operation operation) throws Exception
+   {
+      for (String factory : FACTORIES)
+      {
+         for (int recordSize : RECORD_SIZES)
+         {
+            for (int threads : THREADS)
+            {
+               runOperation(name, factory, recordSize, threads, OPERATIONS, WARMUP, operation);
+            }
+         }
+      }
+   }
+
+   private void runOperation(final String name,
+                             final String factoryName,
+                             final int recordSize,
+                             final int threads,
+                             final int operations,
+                             final int warmup,
+                             final Operation operation) throws Exception
+   {
+      SequentialFileFactory factory = createFactory(factoryName);
+
+      if (factory == null)
+      {
+         return;
+      }
+
+      final JournalImpl journal = startJournal(factory);
+
+      try
+      {
+         final byte[] record = createRecord(recordSize);
+
+         int warmupPerThread = Math.max(1, warmup / threads);
+
+         int operationsPerThread = Math.max(1, operations / threads);
+
+         operation.prepare(journal, 1, (warmupPerThread + operationsPerThread) * threads, record);
+
+         final AtomicLong nextID = new AtomicLong(1);
+
+         LatencyHistogram histogram = new LatencyHistogram();
+
+         long elapsed = measure(new Round()
+         {
+            public long run(final int roundOperations, final LatencyHistogram roundHistogram) throws Exception
+            {
+               return runRound(journal,
+                               operation,
+                               record,
+                               threads,
+                               nextID.getAndAdd(roundOperations),
+                               roundOperations / threads,
+                               roundHistogram);
+            }
+         }, warmupPerThread * threads, operationsPerThread * threads, histogram);
+
+         report(name + " " + factoryName + " size=" + recordSize + " threads=" + threads + " sync=" + SYNC,
+                "operations",
+                1,
+                elapsed,
+                histogram);
+      }
+      finally
+      {
+         stop(journal, factory);
+      }
+   }
+
+   /**
+    * @return the elapsed time in nanoseconds, until the journal has written everything
+    */
+   private long runRound(final JournalImpl journal,
+                         final Operation operation,
+                         final byte[] record,
+                         final int threads,
+                         final long firstID,
+                         final int operationsPerThread,
+                         final LatencyHistogram histogram) throws Exception
+   {
+      long elapsed = runThreads("journal-benchmark", threads, new Worker()
+      {
+         public void run(final int thread, final LatencyHistogram threadHistogram) throws Exception
+         {
+            long threadFirstID = firstID + (long)thread * operationsPerThread;
+
+            for (long id = threadFirstID; id < threadFirstID + operationsPerThread; id++)
+            {
+               long begin = System.nanoTime();
+
+               operation.run(journal, id, record);
+
+               threadHistogram.record(System.nanoTime() - begin);
+            }
+         }
+      }, histogram);
+
+      long begin = System.nanoTime();
+
+      journal.debugWait();
+
+      return elapsed + System.nanoTime() - begin;
+   }
+
+   private void runCompact(final String factoryName, final int recordSize, final int compactMaxFiles) throws Exception
+   {
+      SequentialFileFactory factory = createFactory(factoryName);
+
+      if (factory == null)
+      {
+         return;
+      }
+
+      final JournalImpl journal = startJournal(factory);
+
+      try
+      {
+         journal.setCompactMaxFiles(compactMaxFiles);
+
+         final byte[] record = createRecord(recordSize);
+
+         int records = Math.max(OPERATIONS, 2 * FILE_SIZE / (recordSize + JournalImpl.SIZE_ADD_RECORD + 1));
+
+         addRecords(journal, 1, records, record);
+
+         for (long id = 1; id <= records; id++)
+         {
+            if (id % 4 != 0)
+            {
+               journal.appendDeleteRecord(id, false);
+            }
+         }
+
+         journal.debugWait();
+
+         final AtomicBoolean compacting = new AtomicBoolean(true);
+
+         final LatencyHistogram histogram = new LatencyHistogram();
+
+         final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+         final long firstID = records + 1;
+
+         Thread writer = new Thread("journal-benchmark-writer")
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  for (long id = firstID; compacting.get(); id++)
+                  {
+                     long begin = System.nanoTime();
+
+                     journal.appendAddRecord(id, RECORD_TYPE, record, SYNC);
+
+                     histogram.record(System.nanoTime() - begin);
+                  }
+               }
+               catch (Throwable e)
+               {
+                  failure.set(e);
+               }
+            }
+         };
+
+         writer.start();
+
+         long begin = System.nanoTime();
+
+         try
+         {
+            journal.testCompact();
+         }
+         finally
+         {
+            compacting.set(false);
+
+            writer.join();
+         }
+
+         long elapsed = System.nanoTime() - begin;
+
+         if (failure.get() != null)
+         {
+            throw new Exception("Benchmark failed", failure.get());
+         }
+
+         JournalCompactionInfo info = journal.getLastCompactionInfo();
+
+         log.info("compact" + (compactMaxFiles == 0 ? "" : "-incremental") +
+                  " " +
+                  factoryName +
+                  " size=" +
+                  recordSize +
+                  ": " +
+                  elapsed /
+                  1000000 +
+                  " ms, " +
+                  info +
+                  ", appends during the compaction: " +
+                  histogram);
+      }
+      finally
+      {
+         stop(journal, factory);
+      }
+   }
+
+   private void runLoad(final String factoryName, final int recordSize, final int loadThreads) throws Exception
+   {
+      SequentialFileFactory factory = createFactory(factoryName);
+
+      if (factory == null)
+      {
+         return;
+      }
+
+      JournalImpl journal = startJournal(factory);
+
+      int records = Math.max(OPERATIONS, 4 * FILE_SIZE / (recordSize + JournalImpl.SIZE_ADD_RECORD + 1));
+
+      try
+      {
+         byte[] record = createRecord(recordSize);
+
+         addRecords(journal, 1, records, record);
+
+         for (long id = 1; id <= records; id += 2)
+         {
+            journal.appendUpdateRecord(id, RECORD_TYPE, record, false);
+         }
+
+         journal.debugWait();
+      }
+      finally
+      {
+         journal.stop();
+      }
+
+      try
+      {
+         LatencyHistogram histogram = new LatencyHistogram();
+
+         // the first load warms up
+         for (int i = 0; i <= 5; i++)
+         {
+            journal = createJournal(factory);
+
+            journal.setLoadThreads(loadThreads);
+
+            journal.start();
+
+            List<RecordInfo> committedRecords = new ArrayList<RecordInfo>(records);
+
+            long begin = System.nanoTime();
+
+            journal.load(committedRecords, new ArrayList<PreparedTransactionInfo>(), null);
+
+            long elapsed = System.nanoTime() - begin;
+
+            journal.stop();
+
+            assertEquals(records + (records + 1) / 2, committedRecords.size());
+
+            if (i > 0)
+            {
+               histogram.record(elapsed);
+            }
+         }
+
+         log.info("load " + factoryName +
+                  " size=" +
+                  recordSize +
+                  " loadThreads=" +
+                  loadThreads +
+                  ": " +
+                  records +
+                  " records, " +
+                  (long)(records * 1000000000.0 / histogram.getMean()) +
+                  " records/s, load time " +
+                  histogram.toPercentileString());
+      }
+      finally
+      {
+         factory.stop();
+      }
+   }
+
+   private static void addRecords(final JournalImpl journal, final long firstID, final int count, final byte[] record) throws Exception
+   {
+      for (long id = firstID; id < firstID + count; id++)
+      {
+         journal.appendAddRecord(id, RECORD_TYPE, record, false);
+      }
+
+      journal.debugWait();
+   }
+
+   private JournalImpl startJournal(final SequentialFileFactory factory) throws Exception
+   {
+      JournalImpl journal = createJournal(factory);
+
+      journal.start();
+
+      journal.load(new ArrayList<RecordInfo>(), new ArrayList<PreparedTransactionInfo>(), null);
+
+      return journal;
+   }
+
+   private JournalImpl createJournal(final SequentialFileFactory factory)
+   {
+      JournalImpl journal = new JournalImpl(FILE_SIZE,
+                                            10,
+                                            0,
+                                            0,
+                                            factory,
+                                            "hornetq-data",
+                                            "hq",
+                                            factory instanceof AIOSequentialFileFactory ? 500 : 1);
+
+      journal.setAutoReclaim(true);
+
+      return journal;
+   }
+
+   private void stop(final JournalImpl journal, final SequentialFileFactory factory) throws Exception
+   {
+      try
+      {
+         journal.stop();
+      }
+      finally
+      {
+         factory.stop();
+      }
+   }
+
+   /**
+    * @return a started factory on an empty directory, or null if it can't be used on this system
+    */
+   private SequentialFileFactory createFactory(final String name)
+   {
+      String dir = getTestDir() + "/journal-benchmark";
+
+      File file = new File(dir);
+
+      deleteDirectory(file);
+
+      file.mkdirs();
+
+      SequentialFileFactory factory;
+
+      if (name.equals("fake"))
+      {
+         factory = new FakeSequentialFileFactory(1, false);
+      }
+      else if (name.equals("nio"))
+      {
+         factory = new NIOSequentialFileFactory(dir, false);
+      }
+      else if (name.equals("nio-buffered"))
+      {
+         factory = new NIOSequentialFileFactory(dir, true);
+      }
+      else if (name.equals("nio-concurrent"))
+      {
+         factory = new NIOSequentialFileFactory(dir,
+                                                true,
+                                                JournalConstants.DEFAULT_JOURNAL_BUFFER_SIZE_NIO,
+                                                JournalConstants.DEFAULT_JOURNAL_BUFFER_TIMEOUT_NIO,
+                                                false,
+                                                true,
+                                                null);
+      }
+      else if (name.equals("mapped"))
+      {
+         factory = new MappedSequentialFileFactory(dir);
+      }
+      else if (name.equals("aio"))
+      {
+         if (!AsynchronousFileImpl.isLoaded())
+         {
+            log.info("Skipping the aio benchmarks, the native library isn't loaded");
+            return null;
+         }
+         factory = new AIOSequentialFileFactory(dir);
+      }
+      else
+      {
+         throw new IllegalArgumentException("Unknown factory " + name);
+      }
+
+      factory.start();
+
+      return factory;
+   }
+
+   private static byte[] createRecord(final int size)
+   {
+      byte[] record = new byte[size];
+
+      for (int i = 0; i < size; i++)
+      {
+         record[i] = UnitTestCase.getSamplebyte(i);
+      }
+
+      return record;
+   }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.performance.journal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hornetq.core.journal.impl.JournalFile;
+import org.hornetq.core.journal.impl.JournalFileImpl;
+import org.hornetq.core.journal.impl.JournalImpl;
+import org.hornetq.core.journal.impl.JournalRecord;
+import org.hornetq.tests.unit.UnitTestLogger;
+import org.hornetq.tests.unit.core.journal.impl.fakes.FakeSequentialFileFactory;
+import org.hornetq.tests.util.UnitTestCase;
+import org.hornetq.utils.ConcurrentLongHashMap;
+
+/**
+ * Measures the retained heap of the journal record index, as it holds one entry per live record.
+ * <p>
+ * It compares the boxed {@code ConcurrentHashMap<Long, JournalRecord>} previously used by
+ * {@link JournalImpl} with the {@link ConcurrentLongHashMap} now in use, on a synthetic journal
+ * spread over 100 files. Use -Dhornetq.perf.journal.records to change the number of records
+ * (default is 10M, what requires a heap of about 2G).
+ */
+public class JournalRecordIndexMemoryTest extends UnitTestCase
+{
+   private static final UnitTestLogger log = UnitTestLogger.LOGGER;
+
+   private static final int NUMBER_OF_RECORDS = Integer.getInteger("hornetq.perf.journal.records", 10000000);
+
+   private static final int NUMBER_OF_FILES = 100;
+
+   private static final int RECORD_SIZE = 1024;
+
+   private JournalFile[] files;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      FakeSequentialFileFactory factory = new FakeSequentialFileFactory();
+
+      files = new JournalFile[NUMBER_OF_FILES];
+
+      for (int i = 0; i < NUMBER_OF_FILES; i++)
+      {
+         files[i] = new JournalFileImpl(factory.createSequentialFile("file-" + i + ".hq", 1), i, JournalImpl.FORMAT_VERSION);
+      }
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      files = null;
+
+      super.tearDown();
+   }
+
+   public void testIndexFootprint() throws Exception
+   {
+      long boxed = measure(new BoxedIndex());
+
+      long primitive = measure(new PrimitiveIndex());
+
+      log.info("Journal index with " + NUMBER_OF_RECORDS +
+               " records: ConcurrentHashMap<Long, JournalRecord> = " +
+               boxed +
+               " bytes (" +
+               boxed /
+               NUMBER_OF_RECORDS +
+               " per record), ConcurrentLongHashMap<JournalRecord> = " +
+               primitive +
+               " bytes (" +
+               primitive /
+               NUMBER_OF_RECORDS +
+               " per record)");
+
+      assertTrue("primitive index should be smaller than the boxed one", primitive < boxed);
+   }
+
+   private long measure(final Index index)
+   {
+      forceGC();
+
+      long before = usedMemory();
+
+      long start = System.currentTimeMillis();
+
+      for (long id = 0; id < NUMBER_OF_RECORDS; id++)
+      {
+         index.put(id, new JournalRecord(files[(int)(id % NUMBER_OF_FILES)], RECORD_SIZE));
+      }
+
+      long loadTime = System.currentTimeMillis() - start;
+
+      forceGC();
+
+      long after = usedMemory();
+
+      // sanity check and keep the index strongly reachable until the measure is taken
+      assertEquals(NUMBER_OF_RECORDS, index.size());
+
+      log.info(index + " loaded " + NUMBER_OF_RECORDS + " records in " + loadTime + " milliseconds");
+
+      return after - before;
+   }
+
+   private static long usedMemory()
+   {
+      Runtime runtime = Runtime.getRuntime();
+      return runtime.totalMemory() - runtime.freeMemory();
+   }
+
+   private interface Index
+   {
+      void put(long id, JournalRecord record);
+
+      int size();
+   }
+
+   private static final class BoxedIndex implements Index
+   {
+      private final ConcurrentMap<Long, JournalRecord> records = new ConcurrentHashMap<Long, JournalRecord>();
+
+      public void put(final long id, final JournalRecord record)
+      {
+         records.put(id, record);
+      }
+
+      public int size()
+      {
+         return records.size();
+      }
+
+      @Override
+      public String toString()
+      {
+         return "ConcurrentHashMap<Long, JournalRecord>";
+      }
+   }
+
+   private static final class PrimitiveIndex implements Index
+   {
+      private final ConcurrentLongHashMap<JournalRecord> records = new ConcurrentLongHashMap<JournalRecord>();
+
+      public void put(final long id, final JournalRecord record)
+      {
+         records.put(id, record);
+      }
+
+      public int size()
+      {
+         return records.size();
+      }
+
+      @Override
+      public String toString()
+      {
+         return "ConcurrentLongHashMap<JournalRecord>";
+      }
+   }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.performance.journal;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.core.journal.EncodingSupport;
+import org.hornetq.core.journal.IOAsyncTask;
+import org.hornetq.core.journal.impl.ConcurrentTimedBuffer;
+import org.hornetq.core.journal.impl.TimedBuffer;
+import org.hornetq.core.journal.impl.TimedBufferObserver;
+import org.hornetq.tests.unit.UnitTestLogger;
+import org.hornetq.tests.util.UnitTestCase;
+
+/**
+ * Measures the append throughput of {@link TimedBuffer} and {@link ConcurrentTimedBuffer} with 1 to 128 writer
+ * threads.
+ * <p>
+ * Every writer takes a shared lock as the journal does with its append lock: around checkSize and addBytes for the
+ * {@link TimedBuffer}, and only around checkSize for the {@link ConcurrentTimedBuffer}, whose records are encoded
+ * once the lock is released. The observer doesn't do any I/O, so this measures the buffer alone. Use
+ * -Dhornetq.perf.timedbuffer.records to change the number of records appended on each round (default is 2M).
+ */
+public class TimedBufferConcurrencyTest extends UnitTestCase
+{
+   private static final UnitTestLogger log = UnitTestLogger.LOGGER;
+
+   private static final int NUMBER_OF_RECORDS = Integer.getInteger("hornetq.perf.timedbuffer.records", 2000000);
+
+   private static final int RECORD_SIZE = 100;
+
+   private static final int BUFFER_SIZE = 490 * 1024;
+
+   // 0.5 ms in nanoseconds
+   private static final int TIMEOUT = 500000;
+
+   private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64, 128 };
+
+   public void testAppendThroughput() throws Exception
+   {
+      // warming up both implementations before taking any measure
+      run(new TimedBuffer(BUFFER_SIZE, TIMEOUT, false), 4, true);
+      run(new ConcurrentTimedBuffer(BUFFER_SIZE, TIMEOUT, false), 4, false);
+
+      for (int threads : THREADS)
+      {
+         long locked = run(new TimedBuffer(BUFFER_SIZE, TIMEOUT, false), threads, true);
+
+         long concurrent = run(new ConcurrentTimedBuffer(BUFFER_SIZE, TIMEOUT, false), threads, false);
+
+         log.info(threads + " writer(s): TimedBuffer = " +
+                  locked +
+                  " records/s, ConcurrentTimedBuffer = " +
+                  concurrent +
+                  " records/s");
+      }
+   }
+
+   /**
+    * @param encodeInLock false to encode the records out of the lock, on the space reserved by checkSize
+    * @return the number of records per second
+    */
+   private long run(final TimedBuffer timedBuffer, final int threads, final boolean encodeInLock) throws Exception
+   {
+      final NullObserver observer = new NullObserver();
+
+      final IOAsyncTask callback = new IOAsyncTask()
+      {
+         public void done()
+         {
+         }
+
+         public void onError(final int errorCode, final String errorMessage)
+         {
+         }
+      };
+
+      final EncodingSupport record = new Record(RECORD_SIZE);
+
+      final int recordsPerThread = NUMBER_OF_RECORDS / threads;
+
+      final CountDownLatch ready = new CountDownLatch(threads);
+
+      final CountDownLatch start = new CountDownLatch(1);
+
+      final Object appendLock = new Object();
+
+      Thread[] writers = new Thread[threads];
+
+      timedBuffer.start();
+
+      try
+      {
+         timedBuffer.setObserver(observer);
+
+         for (int i = 0; i < threads; i++)
+         {
+            writers[i] = new Thread("writer-" + i)
+            {
+               @Override
+               public void run()
+               {
+                  ready.countDown();
+
+                  try
+                  {
+                     start.await();
+                  }
+                  catch (InterruptedException e)
+                  {
+                     return;
+                  }
+
+                  for (int j = 0; j < recordsPerThread; j++)
+                  {
+                     // one sync every 100 records, so the timer has some work to do
+                     boolean sync = j % 100 == 0;
+
+                     if (encodeInLock)
+                     {
+                        synchronized (appendLock)
+                        {
+                           timedBuffer.checkSize(RECORD_SIZE);
+                           timedBuffer.addBytes(record, sync, callback);
+                        }
+                     }
+                     else
+                     {
+                        synchronized (appendLock)
+                        {
+                           timedBuffer.checkSize(RECORD_SIZE);
+                        }
+                        timedBuffer.addBytes(record, sync, callback);
+                     }
+                  }
+               }
+            };
+
+            writers[i].start();
+         }
+
+         ready.await();
+
+         long begin = System.nanoTime();
+
+         start.countDown();
+
+         for (Thread writer : writers)
+         {
+            writer.join();
+         }
+
+         timedBuffer.flush();
+
+         long elapsed = System.nanoTime() - begin;
+
+         assertEquals((long)recordsPerThread * threads * RECORD_SIZE, observer.bytes.get());
+
+         return (long)recordsPerThread * threads * 1000000000L / Math.max(1, elapsed);
+      }
+      finally
+      {
+         timedBuffer.stop();
+      }
+   }
+
+   private static final class Record implements EncodingSupport
+   {
+      private final byte[] body;
+
+      Record(final int size)
+      {
+         body = new byte[size];
+         for (int i = 0; i < size; i++)
+         {
+            body[i] = UnitTestCase.getSamplebyte(i);
+         }
+      }
+
+      public int getEncodeSize()
+      {
+         return body.length;
+      }
+
+      public void encode(final HornetQBuffer buffer)
+      {
+         buffer.writeBytes(body);
+      }
+
+      public void decode(final HornetQBuffer buffer)
+      {
+      }
+   }
+
+   /**
+    * A file that never fills up and doesn't write anything.
+    */
+   private static final class NullObserver implements TimedBufferObserver
+   {
+      final AtomicLong bytes = new AtomicLong(0);
+
+      private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+      public void flushBuffer(final ByteBuffer buffer, final boolean sync, final List<IOAsyncTask> callbacks)
+      {
+         bytes.addAndGet(buffer.limit());
+
+         for (IOAsyncTask callback : callbacks)
+         {
+            callback.done();
+         }
+      }
+
+      public ByteBuffer newBuffer(final int size, final int limit)
+      {
+         // flushes are serialized, so the same buffer can be reused
+         buffer.clear();
+         buffer.limit(limit);
+         return buffer;
+      }
+
+      public int getRemainingBytes()
+      {
+         return Integer.MAX_VALUE;
+      }
+   }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.performance.postoffice;
+
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.filter.Filter;
+import org.hornetq.core.postoffice.Binding;
+import org.hornetq.core.postoffice.BindingType;
+import org.hornetq.core.postoffice.impl.BindingsImpl;
+import org.hornetq.core.server.Bindable;
+import org.hornetq.core.server.RoutingContext;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.core.server.impl.RoutingContextImpl;
+import org.hornetq.core.server.impl.ServerMessageImpl;
+import org.hornetq.tests.performance.util.BenchmarkTestBase;
+import org.hornetq.tests.performance.util.LatencyHistogram;
+
+/**
+ * Measures how fast a {@link BindingsImpl} routes a message to the bindings of an address, each one on a routing name
+ * of its own and without a filter, as the subscriptions of a topic:
+ * <ul>
+ * <li>1 binding: as a queue, the cost of the routing itself with a single binding to hand the message to</li>
+ * <li>10 bindings: as a topic with a few subscribers</li>
+ * <li>1000 bindings: as a topic with many subscribers, where handing the message to every binding dominates</li>
+ * <li>churn: 10 bindings and a temporary one added and removed every 100 messages, so the routing runs right after
+ * the bindings change</li>
+ * </ul>
+ * The same message is routed over and over, and every binding is checked to have got all of them. A latency is the
+ * time of 100 messages, and the rounds are sized with the system property:
+ * <ul>
+ * <li>hornetq.perf.routing.routes: messages times bindings routed on a measured round (default is 20000000)</li>
+ * </ul>
+ */
+public class BindingsImplBenchmarkTest extends BenchmarkTestBase
+{
+   private static final int ROUTES = Integer.getInteger("hornetq.perf.routing.routes", 20000000);
+
+   // The messages timed together, a single one is too short for the clock
+   private static final int BATCH = 100;
+
+   private final RoutingContext context = new RoutingContextImpl(null);
+
+   public void testRouteOneBinding() throws Exception
+   {
+      runBenchmark("route", 1, false);
+   }
+
+   public void testRouteTenBindings() throws Exception
+   {
+      runBenchmark("route", 10, false);
+   }
+
+   public void testRouteThousandBindings() throws Exception
+   {
+      runBenchmark("route", 1000, false);
+   }
+
+   public void testChurnTenBindings() throws Exception
+   {
+      runBenchmark("churn", 10, true);
+   }
+
+   // Private -------------------------------------------------------
+
+   private void runBenchmark(final String name, final int bindings, final boolean churn) throws Exception
+   {
+      int messages = Math.max(BATCH, ROUTES / bindings);
+
+      LatencyHistogram histogram = new LatencyHistogram();
+
+      long elapsed = measure(new Round()
+      {
+         public long run(final int roundMessages, final LatencyHistogram roundHistogram) throws Exception
+         {
+            return BindingsImplBenchmarkTest.this.run(bindings, roundMessages, churn, roundHistogram);
+         }
+      }, Math.max(BATCH, messages / 4), messages, histogram);
+
+      report(name + " bindings=" + bindings, "messages", BATCH, elapsed, histogram);
+   }
+
+   /**
+    * @return the elapsed time in nanoseconds
+    */
+   private long run(final int bindings, final int messages, final boolean churn, final LatencyHistogram histogram) throws Exception
+   {
+      SimpleString address = new SimpleString("address");
+
+      BindingsImpl bindingsImpl = new BindingsImpl(address, null, null);
+
+      BenchmarkBinding[] added = new BenchmarkBinding[bindings];
+
+      for (int i = 0; i < bindings; i++)
+      {
+         added[i] = new BenchmarkBinding(address, new SimpleString("binding" + i), i);
+
+         bindingsImpl.addBinding(added[i]);
+      }
+
+      ServerMessage message = new ServerMessageImpl(1, 100);
+
+      long start = System.nanoTime();
+
+      for (int batch = 0; batch < messages / BATCH; batch++)
+      {
+         long begin = System.nanoTime();
+
+         if (churn)
+         {
+            // a temporary subscription coming and going
+            BenchmarkBinding temporary = new BenchmarkBinding(address, new SimpleString("temporary"), bindings + batch);
+
+            bindingsImpl.addBinding(temporary);
+
+            bindingsImpl.route(message, context);
+
+            bindingsImpl.removeBinding(temporary);
+         }
+
+         for (int i = 0; i < BATCH; i++)
+         {
+            bindingsImpl.route(message, context);
+         }
+
+         histogram.record(System.nanoTime() - begin);
+      }
+
+      long elapsed = System.nanoTime() - start;
+
+      // every binding got every message
+      for (BenchmarkBinding binding : added)
+      {
+         assertEquals(messages / BATCH * (BATCH + (churn ? 1 : 0)), binding.routed);
+      }
+
+      return elapsed;
+   }
+
+   private static final class BenchmarkBinding implements Binding
+   {
+      private final SimpleString address;
+
+      private final SimpleString name;
+
+      private final long id;
+
+      long routed;
+
+      BenchmarkBinding(final SimpleString address, final SimpleString name, final long id)
+      {
+         this.address = address;
+         this.name = name;
+         this.id = id;
+      }
+
+      public SimpleString getAddress()
+      {
+         return address;
+      }
+
+      public Bindable getBindable()
+      {
+         return null;
+      }
+
+      public BindingType getType()
+      {
+         return BindingType.LOCAL_QUEUE;
+      }
+
+      public SimpleString getUniqueName()
+      {
+         return name;
+      }
+
+      public SimpleString getRoutingName()
+      {
+         return name;
+      }
+
+      public SimpleString getClusterName()
+      {
+         return name;
+      }
+
+      public Filter getFilter()
+      {
+         return null;
+      }
+
+      public boolean isHighAcceptPriority(final ServerMessage message)
+      {
+         return true;
+      }
+
+      public boolean isExclusive()
+      {
+         return false;
+      }
+
+      public long getID()
+      {
+         return id;
+      }
+
+      public int getDistance()
+      {
+         return 0;
+      }
+
+      public void route(final ServerMessage message, final RoutingContext context) throws Exception
+      {
+         routed++;
+      }
+
+      public void close() throws Exception
+      {
+      }
+   }
+}
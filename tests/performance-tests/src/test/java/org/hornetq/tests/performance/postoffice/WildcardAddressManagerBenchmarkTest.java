@@ -0,0 +1,333 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.performance.postoffice;
+
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.filter.Filter;
+import org.hornetq.core.postoffice.Binding;
+import org.hornetq.core.postoffice.BindingType;
+import org.hornetq.core.postoffice.Bindings;
+import org.hornetq.core.postoffice.BindingsFactory;
+import org.hornetq.core.postoffice.impl.BindingsImpl;
+import org.hornetq.core.postoffice.impl.WildcardAddressManager;
+import org.hornetq.core.server.Bindable;
+import org.hornetq.core.server.RoutingContext;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.tests.performance.util.BenchmarkTestBase;
+import org.hornetq.tests.performance.util.LatencyHistogram;
+
+/**
+ * Measures how fast a {@link WildcardAddressManager} creates and removes the addresses of a server with many topics and
+ * many wildcard subscriptions, half of them on prices ({@code prices.<sector>.<instrument>}, subscribed to with
+ * {@code prices.<sector>.#}) and half of them on orders ({@code orders.<order>.<region>}, subscribed to with
+ * {@code orders.*.<region>}):
+ * <ul>
+ * <li>create: a binding is added to each address and then removed, once the wildcard subscriptions exist</li>
+ * <li>churn: with all the addresses and subscriptions there, bindings come and go on addresses of their own</li>
+ * </ul>
+ * The churn is what temporary reply queues cost: each one gets a new address, {@code <address>.reply}, which has to
+ * be matched against every wildcard subscription when it is created and dropped again when its binding goes. A latency
+ * is the time of 100 bindings, and the size of the server is set with the system properties:
+ * <ul>
+ * <li>hornetq.perf.wildcard.addresses: number of addresses (default is 50000)</li>
+ * <li>hornetq.perf.wildcard.subscriptions: number of wildcard subscriptions (default is 10000)</li>
+ * <li>hornetq.perf.wildcard.churn: bindings added and removed on the measured churn round (default is 200000)</li>
+ * </ul>
+ */
+public class WildcardAddressManagerBenchmarkTest extends BenchmarkTestBase
+{
+   private static final int ADDRESSES = Integer.getInteger("hornetq.perf.wildcard.addresses", 50000);
+
+   private static final int SUBSCRIPTIONS = Integer.getInteger("hornetq.perf.wildcard.subscriptions", 10000);
+
+   private static final int CHURN = Integer.getInteger("hornetq.perf.wildcard.churn", 200000);
+
+   // The operations timed together, a single one is too short for the clock
+   private static final int BATCH = 100;
+
+   private SimpleString[] addresses;
+
+   private SimpleString[] subscriptions;
+
+   private long nextID;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      int groups = Math.max(1, SUBSCRIPTIONS / 2);
+
+      addresses = new SimpleString[ADDRESSES];
+
+      for (int i = 0; i < ADDRESSES; i++)
+      {
+         addresses[i] = new SimpleString(i % 2 == 0 ? "prices.sector" + i / 2 % groups + ".instrument" + i
+                                                   : "orders.order" + i + ".region" + i / 2 % groups);
+      }
+
+      subscriptions = new SimpleString[SUBSCRIPTIONS];
+
+      for (int i = 0; i < SUBSCRIPTIONS; i++)
+      {
+         subscriptions[i] = new SimpleString(i % 2 == 0 ? "prices.sector" + i / 2 + ".#" : "orders.*.region" + i / 2);
+      }
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      addresses = null;
+
+      subscriptions = null;
+
+      super.tearDown();
+   }
+
+   public void testCreate() throws Exception
+   {
+      // a round times both the additions and the removals, so it warms up by hand
+      runCreate(new LatencyHistogram(), new LatencyHistogram());
+
+      LatencyHistogram added = new LatencyHistogram();
+
+      LatencyHistogram removed = new LatencyHistogram();
+
+      long[] elapsed = runCreate(added, removed);
+
+      report("create add", elapsed[0], added);
+
+      report("create remove", elapsed[1], removed);
+   }
+
+   public void testChurn() throws Exception
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+
+      long elapsed = measure(new Round()
+      {
+         public long run(final int operations, final LatencyHistogram roundHistogram) throws Exception
+         {
+            return runChurn(operations, roundHistogram);
+         }
+      }, Math.max(BATCH, CHURN / 4), CHURN, histogram);
+
+      report("churn", elapsed, histogram);
+   }
+
+   // Private -------------------------------------------------------
+
+   private void report(final String name, final long elapsed, final LatencyHistogram histogram)
+   {
+      report(name + " addresses=" + ADDRESSES + " subscriptions=" + SUBSCRIPTIONS, "bindings", BATCH, elapsed, histogram);
+   }
+
+   /**
+    * @return the elapsed times of the additions and of the removals in nanoseconds
+    */
+   private long[] runCreate(final LatencyHistogram added, final LatencyHistogram removed) throws Exception
+   {
+      WildcardAddressManager manager = createManager();
+
+      SimpleString[] names = new SimpleString[ADDRESSES];
+
+      long start = System.nanoTime();
+
+      for (int batch = 0; batch < ADDRESSES / BATCH; batch++)
+      {
+         long begin = System.nanoTime();
+
+         for (int i = batch * BATCH; i < (batch + 1) * BATCH; i++)
+         {
+            names[i] = addBinding(manager, addresses[i]);
+         }
+
+         added.record(System.nanoTime() - begin);
+      }
+
+      long addElapsed = System.nanoTime() - start;
+
+      // every address got the binding of the subscription matching it
+      assertEquals(2, manager.getBindingsForRoutingAddress(addresses[0]).getBindings().size());
+
+      start = System.nanoTime();
+
+      for (int batch = 0; batch < ADDRESSES / BATCH; batch++)
+      {
+         long begin = System.nanoTime();
+
+         for (int i = batch * BATCH; i < (batch + 1) * BATCH; i++)
+         {
+            manager.removeBinding(names[i]);
+         }
+
+         removed.record(System.nanoTime() - begin);
+      }
+
+      long removeElapsed = System.nanoTime() - start;
+
+      assertEquals(SUBSCRIPTIONS, manager.getBindings().size());
+
+      return new long[] { addElapsed, removeElapsed };
+   }
+
+   /**
+    * @return the elapsed time in nanoseconds
+    */
+   private long runChurn(final int operations, final LatencyHistogram histogram) throws Exception
+   {
+      WildcardAddressManager manager = createManager();
+
+      for (SimpleString address : addresses)
+      {
+         addBinding(manager, address);
+      }
+
+      long start = System.nanoTime();
+
+      int next = 0;
+
+      for (int batch = 0; batch < operations / BATCH; batch++)
+      {
+         long begin = System.nanoTime();
+
+         // a binding on an address of its own, as a temporary reply queue
+         for (int i = 0; i < BATCH / 2; i++)
+         {
+            SimpleString address = addresses[next++ % ADDRESSES].concat(".reply");
+
+            manager.removeBinding(addBinding(manager, address));
+         }
+
+         histogram.record(System.nanoTime() - begin);
+      }
+
+      long elapsed = System.nanoTime() - start;
+
+      assertEquals(ADDRESSES + SUBSCRIPTIONS, manager.getBindings().size());
+
+      return elapsed;
+   }
+
+   private WildcardAddressManager createManager() throws Exception
+   {
+      WildcardAddressManager manager = new WildcardAddressManager(new BindingsFactory()
+      {
+         public Bindings createBindings(final SimpleString address) throws Exception
+         {
+            return new BindingsImpl(address, null, null);
+         }
+      });
+
+      for (SimpleString subscription : subscriptions)
+      {
+         addBinding(manager, subscription);
+      }
+
+      return manager;
+   }
+
+   /**
+    * @return the name of the new binding
+    */
+   private SimpleString addBinding(final WildcardAddressManager manager, final SimpleString address) throws Exception
+   {
+      long id = nextID++;
+
+      SimpleString name = new SimpleString("binding" + id);
+
+      manager.addBinding(new BenchmarkBinding(address, name, id));
+
+      return name;
+   }
+
+   private static final class BenchmarkBinding implements Binding
+   {
+      private final SimpleString address;
+
+      private final SimpleString name;
+
+      private final long id;
+
+      BenchmarkBinding(final SimpleString address, final SimpleString name, final long id)
+      {
+         this.address = address;
+         this.name = name;
+         this.id = id;
+      }
+
+      public SimpleString getAddress()
+      {
+         return address;
+      }
+
+      public Bindable getBindable()
+      {
+         return null;
+      }
+
+      public BindingType getType()
+      {
+         return BindingType.LOCAL_QUEUE;
+      }
+
+      public SimpleString getUniqueName()
+      {
+         return name;
+      }
+
+      public SimpleString getRoutingName()
+      {
+         return name;
+      }
+
+      public SimpleString getClusterName()
+      {
+         return name;
+      }
+
+      public Filter getFilter()
+      {
+         return null;
+      }
+
+      public boolean isHighAcceptPriority(final ServerMessage message)
+      {
+         return false;
+      }
+
+      public boolean isExclusive()
+      {
+         return false;
+      }
+
+      public long getID()
+      {
+         return id;
+      }
+
+      public int getDistance()
+      {
+         return 0;
+      }
+
+      public void route(final ServerMessage message, final RoutingContext context) throws Exception
+      {
+      }
+
+      public void close() throws Exception
+      {
+      }
+   }
+}
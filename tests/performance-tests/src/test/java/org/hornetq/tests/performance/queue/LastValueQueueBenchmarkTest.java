@@ -0,0 +1,259 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.performance.queue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hornetq.api.core.Message;
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.filter.Filter;
+import org.hornetq.core.server.Consumer;
+import org.hornetq.core.server.DeliveryBatch;
+import org.hornetq.core.server.HandleStatus;
+import org.hornetq.core.server.MessageReference;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.core.server.impl.LastValueQueue;
+import org.hornetq.core.server.impl.ServerMessageImpl;
+import org.hornetq.core.settings.HierarchicalRepository;
+import org.hornetq.core.settings.impl.AddressSettings;
+import org.hornetq.core.settings.impl.HierarchicalObjectRepository;
+import org.hornetq.tests.performance.util.BenchmarkTestBase;
+import org.hornetq.tests.performance.util.LatencyHistogram;
+
+/**
+ * Measures the rate at which producers can replace the values of a {@link LastValueQueue}, as a market data feed
+ * updating the prices of thousands of instruments does, with nobody consuming and with a consumer taking the latest
+ * values as fast as it can.
+ * <p>
+ * Each producer cycles through the instruments, so a value is usually replaced before a consumer gets to it and the
+ * queue never holds more than one message per instrument. A latency is the time of 100 updates, and the feed is
+ * shaped by the system properties:
+ * <ul>
+ * <li>hornetq.perf.lvq.threads: numbers of producing threads (default is 1,4)</li>
+ * <li>hornetq.perf.lvq.keys: number of distinct last values (default is 5000)</li>
+ * <li>hornetq.perf.lvq.updates: updates on each measured round (default is 2000000)</li>
+ * <li>hornetq.perf.lvq.warmup: updates on each warm up round (default is 500000)</li>
+ * </ul>
+ */
+public class LastValueQueueBenchmarkTest extends BenchmarkTestBase
+{
+   private static final int[] THREADS = getIntegers("hornetq.perf.lvq.threads", "1,4");
+
+   private static final int KEYS = Integer.getInteger("hornetq.perf.lvq.keys", 5000);
+
+   private static final int UPDATES = Integer.getInteger("hornetq.perf.lvq.updates", 2000000);
+
+   private static final int WARMUP = Integer.getInteger("hornetq.perf.lvq.warmup", 500000);
+
+   // The updates timed together, a single update is too short for the clock
+   private static final int BATCH = 100;
+
+   private static final SimpleString ADDRESS = new SimpleString("LastValueQueueBenchmarkAddress");
+
+   private static final SimpleString QUEUE = new SimpleString("LastValueQueueBenchmarkQueue");
+
+   private ScheduledExecutorService scheduledExecutor;
+
+   private ExecutorService executor;
+
+   private SimpleString[] keys;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+
+      executor = Executors.newSingleThreadExecutor();
+
+      keys = new SimpleString[KEYS];
+
+      for (int i = 0; i < KEYS; i++)
+      {
+         keys[i] = new SimpleString("instrument-" + i);
+      }
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      scheduledExecutor.shutdownNow();
+
+      executor.shutdownNow();
+
+      keys = null;
+
+      super.tearDown();
+   }
+
+   public void testUpdatesWithoutConsumer() throws Exception
+   {
+      for (int threads : THREADS)
+      {
+         run(threads, false);
+      }
+   }
+
+   public void testUpdatesWithConsumer() throws Exception
+   {
+      for (int threads : THREADS)
+      {
+         run(threads, true);
+      }
+   }
+
+   // Private -------------------------------------------------------
+
+   private void run(final int threads, final boolean consume) throws Exception
+   {
+      final AckingConsumer[] consumer = new AckingConsumer[1];
+
+      LatencyHistogram histogram = new LatencyHistogram();
+
+      long elapsed = measure(new Round()
+      {
+         public long run(final int updates, final LatencyHistogram roundHistogram) throws Exception
+         {
+            consumer[0] = consume ? new AckingConsumer() : null;
+
+            return runRound(threads, consumer[0], Math.max(BATCH, updates / threads), roundHistogram);
+         }
+      }, WARMUP, UPDATES, histogram);
+
+      long delivered = consumer[0] == null ? 0 : consumer[0].delivered.get();
+
+      report((consume ? "with consumer" : "without consumer") + " threads=" + threads + " keys=" + KEYS +
+             " delivered=" + delivered, "updates", BATCH, elapsed, histogram);
+   }
+
+   /**
+    * @return the elapsed time in nanoseconds
+    */
+   private long runRound(final int threads,
+                         final AckingConsumer consumer,
+                         final int updatesPerThread,
+                         final LatencyHistogram histogram) throws Exception
+   {
+      final LastValueQueue queue = createQueue();
+
+      if (consumer != null)
+      {
+         queue.addConsumer(consumer);
+      }
+
+      final AtomicLong ids = new AtomicLong();
+
+      long elapsed = runThreads("lvq-benchmark", threads, new Worker()
+      {
+         public void run(final int thread, final LatencyHistogram threadHistogram) throws Exception
+         {
+            int next = thread;
+
+            for (int batch = 0; batch < updatesPerThread / BATCH; batch++)
+            {
+               long firstID = ids.getAndAdd(BATCH);
+
+               long begin = System.nanoTime();
+
+               for (int j = 0; j < BATCH; j++)
+               {
+                  ServerMessage message = new ServerMessageImpl(firstID + j, 100);
+
+                  message.putStringProperty(Message.HDR_LAST_VALUE_NAME, keys[next++ % KEYS]);
+
+                  queue.addTail(message.createReference(queue));
+               }
+
+               threadHistogram.record(System.nanoTime() - begin);
+            }
+         }
+      }, histogram);
+
+      queue.flushExecutor();
+
+      if (consumer == null)
+      {
+         assertTrue(queue.getMessageCount() <= KEYS);
+      }
+      else
+      {
+         queue.removeConsumer(consumer);
+      }
+
+      return elapsed;
+   }
+
+   private LastValueQueue createQueue()
+   {
+      HierarchicalRepository<AddressSettings> repository = new HierarchicalObjectRepository<AddressSettings>();
+
+      repository.setDefault(new AddressSettings());
+
+      return new LastValueQueue(1,
+                                ADDRESS,
+                                QUEUE,
+                                null,
+                                null,
+                                false,
+                                true,
+                                scheduledExecutor,
+                                null,
+                                null,
+                                repository,
+                                executor);
+   }
+
+   /**
+    * Takes the latest values and acknowledges them straight away.
+    */
+   private static final class AckingConsumer implements Consumer
+   {
+      final AtomicLong delivered = new AtomicLong();
+
+      public HandleStatus handle(final MessageReference reference) throws Exception
+      {
+         reference.handled();
+
+         reference.acknowledge();
+
+         delivered.incrementAndGet();
+
+         return HandleStatus.HANDLED;
+      }
+
+      public void handle(final DeliveryBatch batch) throws Exception
+      {
+         MessageReference ref;
+
+         while ((ref = batch.next()) != null)
+         {
+            batch.done(handle(ref));
+         }
+      }
+
+      public Filter getFilter()
+      {
+         return null;
+      }
+
+      public String debug()
+      {
+         return toString();
+      }
+   }
+}
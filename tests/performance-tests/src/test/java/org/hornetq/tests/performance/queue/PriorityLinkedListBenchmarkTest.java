@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.performance.queue;
+
+import java.util.Random;
+
+import org.hornetq.tests.performance.util.BenchmarkTestBase;
+import org.hornetq.tests.performance.util.LatencyHistogram;
+import org.hornetq.utils.LinkedListIterator;
+import org.hornetq.utils.PriorityLinkedListImpl;
+
+/**
+ * Measures the {@link PriorityLinkedListImpl} of the queues on their hot paths, with most of the elements at the
+ * default priority 4 as on most servers:
+ * <ul>
+ * <li>poll: the elements are added and polled in turn, keeping a few of them in the list</li>
+ * <li>iterate: the elements are added and then taken and removed by a long lived iterator, as the consumers of
+ * QueueImpl.deliver() do, the iterator moving up each time a higher priority arrives</li>
+ * </ul>
+ * The list is filled up to its depth before a round starts, and every element added takes one out. A latency is the
+ * time of 1000 elements, and the rounds and the mix of priorities are set with the system properties:
+ * <ul>
+ * <li>hornetq.perf.priority.operations: elements going through the list on each measured round (default is
+ * 5000000)</li>
+ * <li>hornetq.perf.priority.warmup: elements on each warm up round (default is 1000000)</li>
+ * <li>hornetq.perf.priority.other: percentage of the elements with a random priority rather than 4 (default is
+ * 10)</li>
+ * <li>hornetq.perf.priority.depth: elements kept in the list (default is 100)</li>
+ * </ul>
+ */
+public class PriorityLinkedListBenchmarkTest extends BenchmarkTestBase
+{
+   private static final int OPERATIONS = Integer.getInteger("hornetq.perf.priority.operations", 5000000);
+
+   private static final int WARMUP = Integer.getInteger("hornetq.perf.priority.warmup", 1000000);
+
+   private static final int OTHER = Integer.getInteger("hornetq.perf.priority.other", 10);
+
+   private static final int DEPTH = Integer.getInteger("hornetq.perf.priority.depth", 100);
+
+   private static final int PRIORITIES = 10;
+
+   // The operations timed together, a single one is too short for the clock
+   private static final int BATCH = 1000;
+
+   private int[] priorities;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      Random random = new Random(1);
+
+      priorities = new int[4096];
+
+      for (int i = 0; i < priorities.length; i++)
+      {
+         priorities[i] = random.nextInt(100) < OTHER ? random.nextInt(PRIORITIES) : 4;
+      }
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      priorities = null;
+
+      super.tearDown();
+   }
+
+   public void testPoll() throws Exception
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+
+      long elapsed = measure(new Round()
+      {
+         public long run(final int operations, final LatencyHistogram roundHistogram)
+         {
+            return runPoll(operations, roundHistogram);
+         }
+      }, WARMUP, OPERATIONS, histogram);
+
+      report("poll", elapsed, histogram);
+   }
+
+   public void testIterate() throws Exception
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+
+      long elapsed = measure(new Round()
+      {
+         public long run(final int operations, final LatencyHistogram roundHistogram)
+         {
+            return runIterate(operations, roundHistogram);
+         }
+      }, WARMUP, OPERATIONS, histogram);
+
+      report("iterate", elapsed, histogram);
+   }
+
+   // Private -------------------------------------------------------
+
+   private void report(final String name, final long elapsed, final LatencyHistogram histogram)
+   {
+      report(name + " other=" + OTHER + "% depth=" + DEPTH, "elements", BATCH, elapsed, histogram);
+   }
+
+   /**
+    * @return the elapsed time in nanoseconds
+    */
+   private long runPoll(final int operations, final LatencyHistogram histogram)
+   {
+      PriorityLinkedListImpl<Integer> list = new PriorityLinkedListImpl<Integer>(PRIORITIES);
+
+      int next = fill(list);
+
+      long sum = 0;
+
+      long start = System.nanoTime();
+
+      for (int batch = 0; batch < operations / BATCH; batch++)
+      {
+         long begin = System.nanoTime();
+
+         for (int i = 0; i < BATCH; i++)
+         {
+            list.addTail(next, priorities[next++ & priorities.length - 1]);
+
+            sum += list.poll();
+         }
+
+         histogram.record(System.nanoTime() - begin);
+      }
+
+      long elapsed = System.nanoTime() - start;
+
+      // so the polls aren't optimised away
+      assertTrue(sum > 0);
+
+      return elapsed;
+   }
+
+   /**
+    * @return the elapsed time in nanoseconds
+    */
+   private long runIterate(final int operations, final LatencyHistogram histogram)
+   {
+      PriorityLinkedListImpl<Integer> list = new PriorityLinkedListImpl<Integer>(PRIORITIES);
+
+      int next = fill(list);
+
+      LinkedListIterator<Integer> iter = list.iterator();
+
+      long sum = 0;
+
+      long start = System.nanoTime();
+
+      try
+      {
+         for (int batch = 0; batch < operations / BATCH; batch++)
+         {
+            long begin = System.nanoTime();
+
+            for (int i = 0; i < BATCH; i++)
+            {
+               list.addTail(next, priorities[next++ & priorities.length - 1]);
+
+               if (!iter.hasNext())
+               {
+                  fail("The iterator should always find an element");
+               }
+
+               sum += iter.next();
+
+               iter.remove();
+            }
+
+            histogram.record(System.nanoTime() - begin);
+         }
+      }
+      finally
+      {
+         iter.close();
+      }
+
+      long elapsed = System.nanoTime() - start;
+
+      assertTrue(sum > 0);
+
+      return elapsed;
+   }
+
+   /**
+    * @return the next element to add
+    */
+   private int fill(final PriorityLinkedListImpl<Integer> list)
+   {
+      int next = 1;
+
+      for (int i = 0; i < DEPTH; i++)
+      {
+         list.addTail(next, priorities[next++ & priorities.length - 1]);
+      }
+
+      return next;
+   }
+}
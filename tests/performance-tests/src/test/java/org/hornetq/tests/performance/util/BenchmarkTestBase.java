@@ -0,0 +1,181 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.performance.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hornetq.tests.unit.UnitTestLogger;
+import org.hornetq.tests.util.UnitTestCase;
+
+/**
+ * The base of the micro benchmarks.
+ * <p>
+ * A benchmark takes its parameters from system properties, runs a warm up round before each measured one with
+ * {@link #measure(Round, int, int, LatencyHistogram)}, and logs the throughput and the latency percentiles of the
+ * measured round with {@link #report(String, String, int, long, LatencyHistogram)}. The operations are timed in
+ * batches when a single one is too short for the clock.
+ */
+public abstract class BenchmarkTestBase extends UnitTestCase
+{
+   protected static final UnitTestLogger log = UnitTestLogger.LOGGER;
+
+   /**
+    * A round of a benchmark.
+    */
+   protected interface Round
+   {
+      /**
+       * Runs the given number of operations, recording the latency of their batches.
+       * @return the elapsed time in nanoseconds
+       */
+      long run(int operations, LatencyHistogram histogram) throws Exception;
+   }
+
+   /**
+    * The work of one of the threads of {@link BenchmarkTestBase#runThreads(String, int, Worker, LatencyHistogram)}.
+    */
+   protected interface Worker
+   {
+      void run(int thread, LatencyHistogram histogram) throws Exception;
+   }
+
+   /**
+    * @return the comma separated numbers of a system property, such as the numbers of threads to run with
+    */
+   protected static int[] getIntegers(final String property, final String defaultValue)
+   {
+      String[] split = System.getProperty(property, defaultValue).split(",");
+
+      int[] ints = new int[split.length];
+
+      for (int i = 0; i < split.length; i++)
+      {
+         ints[i] = Integer.parseInt(split[i].trim());
+      }
+
+      return ints;
+   }
+
+   /**
+    * Runs a warm up round, whose latencies are dropped, and then the measured round.
+    * @return the elapsed time of the measured round in nanoseconds
+    */
+   protected static long measure(final Round round,
+                                 final int warmup,
+                                 final int operations,
+                                 final LatencyHistogram histogram) throws Exception
+   {
+      round.run(warmup, new LatencyHistogram());
+
+      return round.run(operations, histogram);
+   }
+
+   /**
+    * Logs the throughput and the latency percentiles of a measured round.
+    * @param units what the operations are, such as "messages"
+    * @param batch the operations of each latency recorded on the histogram
+    */
+   protected static void report(final String name,
+                                final String units,
+                                final int batch,
+                                final long elapsed,
+                                final LatencyHistogram histogram)
+   {
+      long operations = histogram.getCount() * batch;
+
+      log.info(name + ": " +
+               (long)(operations * 1000000000.0 / Math.max(1, elapsed)) +
+               " " +
+               units +
+               "/s, " +
+               elapsed /
+               Math.max(1, operations) +
+               " ns each, latency" +
+               (batch == 1 ? "" : " of " + batch + " " + units) +
+               " " +
+               histogram.toPercentileString());
+   }
+
+   /**
+    * Runs a worker on each of the given number of threads, all started together, and adds the latencies they recorded
+    * to the histogram.
+    * @return the elapsed time in nanoseconds, from the start of the threads until the last one is done
+    */
+   protected static long runThreads(final String name,
+                                    final int threads,
+                                    final Worker worker,
+                                    final LatencyHistogram histogram) throws Exception
+   {
+      final CyclicBarrier start = new CyclicBarrier(threads + 1);
+
+      final CountDownLatch done = new CountDownLatch(threads);
+
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+      final LatencyHistogram[] histograms = new LatencyHistogram[threads];
+
+      for (int i = 0; i < threads; i++)
+      {
+         final int thread = i;
+
+         final LatencyHistogram threadHistogram = histograms[i] = new LatencyHistogram();
+
+         Thread t = new Thread(name + "-" + i)
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  start.await();
+
+                  worker.run(thread, threadHistogram);
+               }
+               catch (Throwable e)
+               {
+                  failure.compareAndSet(null, e);
+               }
+               finally
+               {
+                  done.countDown();
+               }
+            }
+         };
+
+         t.start();
+      }
+
+      start.await();
+
+      long begin = System.nanoTime();
+
+      done.await();
+
+      long elapsed = System.nanoTime() - begin;
+
+      if (failure.get() != null)
+      {
+         throw new Exception("Benchmark failed", failure.get());
+      }
+
+      for (LatencyHistogram threadHistogram : histograms)
+      {
+         histogram.add(threadHistogram);
+      }
+
+      return elapsed;
+   }
+}
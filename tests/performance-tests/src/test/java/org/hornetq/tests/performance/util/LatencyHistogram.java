@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.performance.util;
+
+/**
+ * Counts latencies, in nanoseconds, on buckets that are at most ~3% wide, so percentiles can be taken without
+ * keeping every value.
+ * <p>
+ * Values under 64 have a bucket each. Every power of two above that is split in 32 buckets. Recording doesn't
+ * allocate, and isn't thread safe: each thread is supposed to record on its own histogram, and the histograms are
+ * {@link #add(LatencyHistogram) added} once the threads are done.
+ */
+public final class LatencyHistogram
+{
+   private static final int LINEAR_BUCKETS = 64;
+
+   private static final int SUB_BUCKET_BITS = 5;
+
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   private static final int BUCKETS = LINEAR_BUCKETS + (64 - 6) * SUB_BUCKETS;
+
+   private final long[] counts = new long[BUCKETS];
+
+   private long count;
+
+   private long total;
+
+   private long min = Long.MAX_VALUE;
+
+   private long max;
+
+   public void record(final long value)
+   {
+      long v = value < 0 ? 0 : value;
+
+      counts[bucket(v)]++;
+
+      count++;
+
+      total += v;
+
+      if (v < min)
+      {
+         min = v;
+      }
+
+      if (v > max)
+      {
+         max = v;
+      }
+   }
+
+   public void add(final LatencyHistogram other)
+   {
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         counts[i] += other.counts[i];
+      }
+
+      count += other.count;
+
+      total += other.total;
+
+      min = Math.min(min, other.min);
+
+      max = Math.max(max, other.max);
+   }
+
+   public void reset()
+   {
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         counts[i] = 0;
+      }
+
+      count = 0;
+      total = 0;
+      min = Long.MAX_VALUE;
+      max = 0;
+   }
+
+   public long getCount()
+   {
+      return count;
+   }
+
+   public long getMin()
+   {
+      return count == 0 ? 0 : min;
+   }
+
+   public long getMax()
+   {
+      return max;
+   }
+
+   public double getMean()
+   {
+      return count == 0 ? 0 : (double)total / count;
+   }
+
+   /**
+    * @param percentile between 0 and 100
+    * @return the highest value of the bucket holding the percentile, never more than the max recorded value
+    */
+   public long getValueAtPercentile(final double percentile)
+   {
+      if (count == 0)
+      {
+         return 0;
+      }
+
+      long rank = (long)Math.ceil(percentile / 100 * count);
+
+      if (rank < 1)
+      {
+         rank = 1;
+      }
+
+      long seen = 0;
+
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         seen += counts[i];
+
+         if (seen >= rank)
+         {
+            return Math.min(highestValue(i), max);
+         }
+      }
+
+      return max;
+   }
+
+   /**
+    * Formats the usual percentiles in microseconds.
+    */
+   public String toPercentileString()
+   {
+      return "p50=" + micros(getValueAtPercentile(50)) +
+             "us p90=" +
+             micros(getValueAtPercentile(90)) +
+             "us p99=" +
+             micros(getValueAtPercentile(99)) +
+             "us p99.9=" +
+             micros(getValueAtPercentile(99.9)) +
+             "us max=" +
+             micros(max) +
+             "us";
+   }
+
+   @Override
+   public String toString()
+   {
+      return "LatencyHistogram [count=" + count + ", mean=" + micros((long)getMean()) + "us, " + toPercentileString() + "]";
+   }
+
+   // Private -------------------------------------------------------
+
+   private static String micros(final long nanos)
+   {
+      long tenths = nanos / 100;
+
+      return tenths / 10 + "." + tenths % 10;
+   }
+
+   private static int bucket(final long value)
+   {
+      if (value < LINEAR_BUCKETS)
+      {
+         return (int)value;
+      }
+
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+      int shift = exponent - SUB_BUCKET_BITS;
+
+      return LINEAR_BUCKETS + (exponent - 6) * SUB_BUCKETS + (int)((value >>> shift) - SUB_BUCKETS);
+   }
+
+   private static long highestValue(final int bucket)
+   {
+      if (bucket < LINEAR_BUCKETS)
+      {
+         return bucket;
+      }
+
+      int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 6;
+
+      long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+
+      return ((subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+   }
+}
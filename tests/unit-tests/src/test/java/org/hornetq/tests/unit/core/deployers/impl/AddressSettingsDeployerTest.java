@@ -45,6 +45,8 @@ public class AddressSettingsDeployerTest extends UnitTestCase
                                + "      <redelivery-delay-multiplier>2</redelivery-delay-multiplier>\n"
                                + "      <max-redelivery-delay>12000</max-redelivery-delay>\n"
                                + "      <send-to-dla-on-no-route>true</send-to-dla-on-no-route>\n"
+                               + "      <queue-shards>4</queue-shards>\n"
+                               + "      <delivery-batch-size>8</delivery-batch-size>\n"
                                + "   </address-setting>";
 
    private AddressSettingsDeployer addressSettingsDeployer;
@@ -79,6 +81,8 @@ public class AddressSettingsDeployerTest extends UnitTestCase
       Assert.assertEquals(2.0, as.getRedeliveryMultiplier());
       Assert.assertEquals(12000, as.getMaxRedeliveryDelay());
       Assert.assertTrue(as.isSendToDLAOnNoRoute());
+      Assert.assertEquals(4, as.getQueueShards());
+      Assert.assertEquals(8, as.getDeliveryBatchSize());
 
    }
 
@@ -110,6 +114,8 @@ public class AddressSettingsDeployerTest extends UnitTestCase
       Assert.assertTrue(as.isLastValueQueue());
       Assert.assertEquals(38383, as.getRedistributionDelay());
       Assert.assertTrue(as.isSendToDLAOnNoRoute());
+      Assert.assertEquals(4, as.getQueueShards());
+      Assert.assertEquals(8, as.getDeliveryBatchSize());
    }
 
    public void testUndeploy() throws Exception
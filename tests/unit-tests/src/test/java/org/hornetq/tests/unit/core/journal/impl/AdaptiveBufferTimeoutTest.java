@@ -0,0 +1,289 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.journal.impl;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.Assert;
+
+import org.hornetq.api.core.HornetQBuffers;
+import org.hornetq.core.journal.IOAsyncTask;
+import org.hornetq.core.journal.impl.AdaptiveBufferTimeout;
+import org.hornetq.core.journal.impl.ConcurrentTimedBuffer;
+import org.hornetq.core.journal.impl.TimedBuffer;
+import org.hornetq.core.journal.impl.TimedBufferObserver;
+import org.hornetq.tests.util.UnitTestCase;
+
+public class AdaptiveBufferTimeoutTest extends UnitTestCase
+{
+
+   // Constants -----------------------------------------------------
+
+   private static final long ONE_MILLISECOND = 1000000; // in nanoseconds
+
+   private static final long TEN_SECONDS = 10000L * ONE_MILLISECOND;
+
+   private static final int BUFFER_SIZE = 100 * 1024;
+
+   private static final int RECORD_SIZE = 1024;
+
+   private static final IOAsyncTask DUMMY_CALLBACK = new IOAsyncTask()
+   {
+      public void done()
+      {
+      }
+
+      public void onError(final int errorCode, final String errorMessage)
+      {
+      }
+   };
+
+   // Public --------------------------------------------------------
+
+   public void testBounds()
+   {
+      AdaptiveBufferTimeout adaptive = new AdaptiveBufferTimeout(1, 1000, 2000, BUFFER_SIZE);
+
+      Assert.assertEquals(1000, adaptive.getTimeout());
+      Assert.assertEquals(BUFFER_SIZE, adaptive.getBatchSize());
+
+      adaptive = new AdaptiveBufferTimeout(5000, 1000, 2000, BUFFER_SIZE);
+
+      Assert.assertEquals(2000, adaptive.getTimeout());
+
+      try
+      {
+         new AdaptiveBufferTimeout(1000, 2000, 1000, BUFFER_SIZE);
+         Assert.fail("Exception expected");
+      }
+      catch (IllegalArgumentException expected)
+      {
+      }
+   }
+
+   public void testMinimumTimeoutWithoutSyncs() throws Exception
+   {
+      AdaptiveBufferTimeout adaptive = new AdaptiveBufferTimeout(TEN_SECONDS, ONE_MILLISECOND, TEN_SECONDS, BUFFER_SIZE);
+
+      completePeriod(adaptive, 0);
+
+      // nothing would share a flush by waiting longer
+      Assert.assertEquals(ONE_MILLISECOND, adaptive.getTimeout());
+
+      // nothing arrived, so the smallest batch is used
+      Assert.assertEquals(4 * 1024, adaptive.getBatchSize());
+   }
+
+   public void testTimeoutFollowsLatency() throws Exception
+   {
+      AdaptiveBufferTimeout adaptive = new AdaptiveBufferTimeout(ONE_MILLISECOND / 10,
+                                                                 ONE_MILLISECOND / 10,
+                                                                 TEN_SECONDS,
+                                                                 BUFFER_SIZE);
+
+      // a lot more syncs than what a flush of a few milliseconds can take one by one
+      for (int i = 0; i < 100000; i++)
+      {
+         adaptive.syncRequested();
+      }
+
+      adaptive.flushed(BUFFER_SIZE);
+
+      completePeriod(adaptive, 5);
+
+      Assert.assertTrue("average latency: " + adaptive.getAverageLatency(),
+                        adaptive.getAverageLatency() >= 5 * ONE_MILLISECOND);
+
+      Assert.assertEquals(adaptive.getAverageLatency(), adaptive.getTimeout());
+
+      Assert.assertTrue(adaptive.getBatchSize() <= BUFFER_SIZE);
+   }
+
+   public void testHistogram() throws Exception
+   {
+      AdaptiveBufferTimeout adaptive = new AdaptiveBufferTimeout(ONE_MILLISECOND,
+                                                                 ONE_MILLISECOND,
+                                                                 TEN_SECONDS,
+                                                                 BUFFER_SIZE);
+
+      for (int i = 0; i < 3; i++)
+      {
+         IOAsyncTask probe = adaptive.newFlushProbe();
+         Thread.sleep(5);
+         probe.done();
+      }
+
+      long[] histogram = adaptive.getLatencyHistogram();
+
+      Assert.assertEquals(AdaptiveBufferTimeout.HISTOGRAM_BUCKETS, histogram.length);
+
+      long total = 0;
+
+      for (int i = 0; i < histogram.length; i++)
+      {
+         total += histogram[i];
+
+         // at least 5 milliseconds
+         if (AdaptiveBufferTimeout.getBucketUpperBound(i) <= 5000)
+         {
+            Assert.assertEquals(0, histogram[i]);
+         }
+      }
+
+      Assert.assertEquals(3, total);
+   }
+
+   public void testTimedBufferFlushesOnBatchSize() throws Exception
+   {
+      TimedBuffer timedBuffer = new TimedBuffer(BUFFER_SIZE, (int)TEN_SECONDS, false);
+
+      internalTestFlushOnBatchSize(timedBuffer);
+   }
+
+   public void testConcurrentTimedBufferFlushesOnBatchSize() throws Exception
+   {
+      TimedBuffer timedBuffer = new ConcurrentTimedBuffer(BUFFER_SIZE, (int)TEN_SECONDS, false);
+
+      internalTestFlushOnBatchSize(timedBuffer);
+   }
+
+   // Private -------------------------------------------------------
+
+   /**
+    * Waits for a measure period to end with a flush of the given latency, which recalculates the timeout
+    */
+   private void completePeriod(final AdaptiveBufferTimeout adaptive, final long latencyMillis) throws Exception
+   {
+      Thread.sleep(AdaptiveBufferTimeout.RECALCULATE_INTERVAL / ONE_MILLISECOND + 10);
+
+      IOAsyncTask probe = adaptive.newFlushProbe();
+
+      if (latencyMillis > 0)
+      {
+         Thread.sleep(latencyMillis);
+      }
+
+      probe.done();
+   }
+
+   private void internalTestFlushOnBatchSize(final TimedBuffer timedBuffer) throws Exception
+   {
+      // the timeout is too long to be reached by the test, and a batch is 4 records
+      AdaptiveBufferTimeout adaptive = new AdaptiveBufferTimeout(TEN_SECONDS, TEN_SECONDS, TEN_SECONDS, BUFFER_SIZE);
+
+      completePeriod(adaptive, 0);
+
+      Assert.assertEquals(4 * RECORD_SIZE, adaptive.getBatchSize());
+
+      TestObserver observer = new TestObserver();
+
+      timedBuffer.setAdaptiveTimeout(adaptive);
+
+      timedBuffer.start();
+
+      try
+      {
+         timedBuffer.setObserver(observer);
+
+         addRecord(timedBuffer, false);
+
+         timedBuffer.flush();
+
+         Assert.assertEquals(1, observer.flushes.size());
+
+         for (int i = 0; i < 3; i++)
+         {
+            addRecord(timedBuffer, true);
+         }
+
+         Thread.sleep(100);
+
+         Assert.assertEquals(1, observer.flushes.size());
+
+         addRecord(timedBuffer, true);
+
+         waitForFlushes(observer, 2);
+
+         Assert.assertEquals(4 * RECORD_SIZE, observer.flushes.get(1).intValue());
+
+         // the records and the probe
+         Assert.assertEquals(5, observer.callbacks.get(1).intValue());
+      }
+      finally
+      {
+         timedBuffer.stop();
+      }
+
+      long total = 0;
+
+      for (long count : adaptive.getLatencyHistogram())
+      {
+         total += count;
+      }
+
+      // one measure from completePeriod and one for the flush with syncs
+      Assert.assertEquals(2, total);
+   }
+
+   private void addRecord(final TimedBuffer timedBuffer, final boolean sync)
+   {
+      Assert.assertTrue(timedBuffer.checkSize(RECORD_SIZE));
+      timedBuffer.addBytes(HornetQBuffers.wrappedBuffer(new byte[RECORD_SIZE]), sync, DUMMY_CALLBACK);
+   }
+
+   private void waitForFlushes(final TestObserver observer, final int flushes) throws Exception
+   {
+      long timeout = System.currentTimeMillis() + 5000;
+
+      while (observer.flushes.size() < flushes && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+
+      Assert.assertEquals(flushes, observer.flushes.size());
+   }
+
+   // Inner classes -------------------------------------------------
+
+   private static final class TestObserver implements TimedBufferObserver
+   {
+      final List<Integer> flushes = new CopyOnWriteArrayList<Integer>();
+
+      final List<Integer> callbacks = new CopyOnWriteArrayList<Integer>();
+
+      public void flushBuffer(final ByteBuffer buffer, final boolean sync, final List<IOAsyncTask> callbacks)
+      {
+         this.callbacks.add(callbacks.size());
+
+         for (IOAsyncTask callback : callbacks)
+         {
+            callback.done();
+         }
+
+         flushes.add(buffer.limit());
+      }
+
+      public ByteBuffer newBuffer(final int size, final int limit)
+      {
+         return ByteBuffer.allocate(limit);
+      }
+
+      public int getRemainingBytes()
+      {
+         return Integer.MAX_VALUE;
+      }
+   }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.journal.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.api.core.HornetQBuffers;
+import org.hornetq.core.journal.EncodingSupport;
+import org.hornetq.core.journal.IOAsyncTask;
+import org.hornetq.core.journal.impl.ConcurrentTimedBuffer;
+import org.hornetq.core.journal.impl.TimedBufferObserver;
+import org.hornetq.tests.util.UnitTestCase;
+
+public class ConcurrentTimedBufferTest extends UnitTestCase
+{
+
+   // Constants -----------------------------------------------------
+
+   private static final int ONE_SECOND = 1000000000; // in nanoseconds
+
+   // Attributes ----------------------------------------------------
+
+   private final AtomicInteger callbacksDone = new AtomicInteger(0);
+
+   private final IOAsyncTask countingCallback = new IOAsyncTask()
+   {
+      public void done()
+      {
+         callbacksDone.incrementAndGet();
+      }
+
+      public void onError(final int errorCode, final String errorMessage)
+      {
+      }
+   };
+
+   // Public --------------------------------------------------------
+
+   public void testFillBuffer()
+   {
+      TestObserver observer = new TestObserver(1024 * 1024);
+
+      ConcurrentTimedBuffer timedBuffer = new ConcurrentTimedBuffer(100, ONE_SECOND, false);
+
+      timedBuffer.start();
+
+      try
+      {
+         timedBuffer.setObserver(observer);
+
+         int x = 0;
+         for (int i = 0; i < 10; i++)
+         {
+            byte[] bytes = new byte[10];
+            for (int j = 0; j < 10; j++)
+            {
+               bytes[j] = UnitTestCase.getSamplebyte(x++);
+            }
+
+            Assert.assertTrue(timedBuffer.checkSize(10));
+            timedBuffer.addBytes(HornetQBuffers.wrappedBuffer(bytes), false, countingCallback);
+         }
+
+         Assert.assertEquals(0, observer.flushes.size());
+
+         Assert.assertTrue(timedBuffer.checkSize(1));
+
+         Assert.assertEquals(1, observer.flushes.size());
+
+         ByteBuffer flushedBuffer = observer.flushes.get(0);
+
+         Assert.assertEquals(100, flushedBuffer.limit());
+
+         flushedBuffer.rewind();
+
+         for (int i = 0; i < 100; i++)
+         {
+            Assert.assertEquals(UnitTestCase.getSamplebyte(i), flushedBuffer.get());
+         }
+
+         Assert.assertEquals(10, callbacksDone.get());
+      }
+      finally
+      {
+         timedBuffer.stop();
+      }
+   }
+
+   public void testTimingAndFlush() throws Exception
+   {
+      TestObserver observer = new TestObserver(1024 * 1024);
+
+      ConcurrentTimedBuffer timedBuffer = new ConcurrentTimedBuffer(100, ONE_SECOND / 10, false);
+
+      timedBuffer.start();
+
+      try
+      {
+         timedBuffer.setObserver(observer);
+
+         Assert.assertTrue(timedBuffer.checkSize(20));
+         timedBuffer.addBytes(new Record(0, 0, 20), false, countingCallback);
+
+         Thread.sleep(200);
+
+         // no sync was requested
+         Assert.assertEquals(0, observer.flushes.size());
+
+         Assert.assertTrue(timedBuffer.checkSize(20));
+         timedBuffer.addBytes(new Record(0, 1, 20), true, countingCallback);
+
+         long timeout = System.currentTimeMillis() + 5000;
+         while (observer.flushes.isEmpty() && System.currentTimeMillis() < timeout)
+         {
+            Thread.sleep(10);
+         }
+
+         Assert.assertEquals(1, observer.flushes.size());
+         Assert.assertEquals(40, observer.flushes.get(0).limit());
+         Assert.assertTrue(observer.syncs.get(0));
+         Assert.assertEquals(2, callbacksDone.get());
+      }
+      finally
+      {
+         timedBuffer.stop();
+      }
+   }
+
+   public void testCheckSizeOnFileLimit()
+   {
+      TestObserver observer = new TestObserver(250);
+
+      ConcurrentTimedBuffer timedBuffer = new ConcurrentTimedBuffer(100, ONE_SECOND, false);
+
+      timedBuffer.start();
+
+      try
+      {
+         timedBuffer.setObserver(observer);
+
+         // 2 full buffers and one of 50 bytes fit in the file, while the first ones are still being buffered
+         for (int i = 0; i < 5; i++)
+         {
+            Assert.assertTrue(timedBuffer.checkSize(50));
+            timedBuffer.addBytes(new Record(0, i, 50), false, countingCallback);
+         }
+
+         Assert.assertFalse(timedBuffer.checkSize(1));
+
+         timedBuffer.flush();
+
+         Assert.assertEquals(250, observer.position);
+
+         // moving to a new file
+         TestObserver newObserver = new TestObserver(250);
+
+         timedBuffer.setObserver(newObserver);
+
+         Assert.assertTrue(timedBuffer.checkSize(50));
+         timedBuffer.addBytes(new Record(0, 5, 50), false, countingCallback);
+
+         timedBuffer.flush();
+
+         Assert.assertEquals(50, newObserver.position);
+         Assert.assertEquals(6, callbacksDone.get());
+      }
+      finally
+      {
+         timedBuffer.stop();
+      }
+   }
+
+   public void testCheckSizeWithoutAddBytes()
+   {
+      TestObserver observer = new TestObserver(1024 * 1024);
+
+      ConcurrentTimedBuffer timedBuffer = new ConcurrentTimedBuffer(100, ONE_SECOND, false);
+
+      timedBuffer.start();
+
+      try
+      {
+         timedBuffer.setObserver(observer);
+
+         Assert.assertTrue(timedBuffer.checkSize(20));
+         timedBuffer.addBytes(new Record(0, 0, 20), false, countingCallback);
+
+         // the space reserved here is never used
+         Assert.assertTrue(timedBuffer.checkSize(20));
+
+         Assert.assertTrue(timedBuffer.checkSize(20));
+         timedBuffer.addBytes(new Record(0, 1, 20), false, countingCallback);
+
+         timedBuffer.flush();
+
+         Assert.assertEquals(60, observer.position);
+
+         ByteBuffer flushed = observer.flushes.get(0);
+
+         Assert.assertEquals(Record.MARKER, flushed.get(0));
+
+         // a hole, skipped when loading the journal
+         for (int i = 20; i < 40; i++)
+         {
+            Assert.assertEquals(0, flushed.get(i));
+         }
+
+         Assert.assertEquals(Record.MARKER, flushed.get(40));
+         Assert.assertEquals(2, callbacksDone.get());
+      }
+      finally
+      {
+         timedBuffer.stop();
+      }
+   }
+
+   public void testConcurrentWriters() throws Exception
+   {
+      final int threads = 20;
+
+      final int recordsPerThread = 2000;
+
+      final TestObserver observer = new TestObserver(Integer.MAX_VALUE);
+
+      final ConcurrentTimedBuffer timedBuffer = new ConcurrentTimedBuffer(4096, ONE_SECOND / 1000, false);
+
+      timedBuffer.start();
+
+      try
+      {
+         timedBuffer.setObserver(observer);
+
+         final CountDownLatch start = new CountDownLatch(1);
+
+         final List<Throwable> errors = new ArrayList<Throwable>();
+
+         Thread[] writers = new Thread[threads];
+
+         for (int i = 0; i < threads; i++)
+         {
+            final int writerId = i;
+
+            writers[i] = new Thread()
+            {
+               @Override
+               public void run()
+               {
+                  try
+                  {
+                     start.await();
+
+                     for (int seq = 0; seq < recordsPerThread; seq++)
+                     {
+                        Record record = new Record(writerId, seq, Record.HEADER_SIZE + seq % 100);
+                        Assert.assertTrue(timedBuffer.checkSize(record.getEncodeSize()));
+                        timedBuffer.addBytes(record, seq % 10 == 0, countingCallback);
+                     }
+                  }
+                  catch (Throwable e)
+                  {
+                     synchronized (errors)
+                     {
+                        errors.add(e);
+                     }
+                  }
+               }
+            };
+
+            writers[i].start();
+         }
+
+         start.countDown();
+
+         for (Thread writer : writers)
+         {
+            writer.join();
+         }
+
+         Assert.assertTrue(errors.toString(), errors.isEmpty());
+
+         timedBuffer.flush();
+
+         Assert.assertEquals(threads * recordsPerThread, callbacksDone.get());
+
+         // every record is complete, and the records of each writer are in the order they were added
+         int[] nextSequence = new int[threads];
+
+         for (ByteBuffer flushed : observer.flushes)
+         {
+            flushed.rewind();
+
+            while (flushed.hasRemaining())
+            {
+               Assert.assertEquals(Record.MARKER, flushed.get());
+
+               int writerId = flushed.getInt();
+               int seq = flushed.getInt();
+               int size = flushed.getInt();
+
+               Assert.assertEquals(nextSequence[writerId]++, seq);
+
+               for (int i = Record.HEADER_SIZE; i < size; i++)
+               {
+                  Assert.assertEquals((byte)seq, flushed.get());
+               }
+            }
+         }
+
+         for (int i = 0; i < threads; i++)
+         {
+            Assert.assertEquals(recordsPerThread, nextSequence[i]);
+         }
+      }
+      finally
+      {
+         timedBuffer.stop();
+      }
+   }
+
+   // Inner classes -------------------------------------------------
+
+   private static final class Record implements EncodingSupport
+   {
+      static final byte MARKER = 7;
+
+      static final int HEADER_SIZE = 13;
+
+      private final int writerId;
+
+      private final int seq;
+
+      private final int size;
+
+      Record(final int writerId, final int seq, final int size)
+      {
+         this.writerId = writerId;
+         this.seq = seq;
+         this.size = size;
+      }
+
+      public int getEncodeSize()
+      {
+         return size;
+      }
+
+      public void encode(final HornetQBuffer buffer)
+      {
+         buffer.writeByte(MARKER);
+         buffer.writeInt(writerId);
+         buffer.writeInt(seq);
+         buffer.writeInt(size);
+         for (int i = HEADER_SIZE; i < size; i++)
+         {
+            buffer.writeByte((byte)seq);
+         }
+      }
+
+      public void decode(final HornetQBuffer buffer)
+      {
+      }
+   }
+
+   private static final class TestObserver implements TimedBufferObserver
+   {
+      final List<ByteBuffer> flushes = new CopyOnWriteArrayList<ByteBuffer>();
+
+      final List<Boolean> syncs = new CopyOnWriteArrayList<Boolean>();
+
+      final int fileSize;
+
+      int position;
+
+      TestObserver(final int fileSize)
+      {
+         this.fileSize = fileSize;
+      }
+
+      public synchronized void flushBuffer(final ByteBuffer buffer,
+                                           final boolean sync,
+                                           final List<IOAsyncTask> callbacks)
+      {
+         Assert.assertTrue(position + buffer.limit() <= fileSize);
+
+         position += buffer.limit();
+
+         flushes.add(buffer);
+
+         syncs.add(sync);
+
+         for (IOAsyncTask callback : callbacks)
+         {
+            callback.done();
+         }
+      }
+
+      public ByteBuffer newBuffer(final int size, final int limit)
+      {
+         return ByteBuffer.allocate(limit);
+      }
+
+      public synchronized int getRemainingBytes()
+      {
+         return fileSize - position;
+      }
+   }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.journal.impl;
+
+import junit.framework.Assert;
+
+import org.hornetq.core.journal.JournalBatch;
+import org.hornetq.core.journal.RecordInfo;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.JournalFile;
+import org.hornetq.core.journal.impl.JournalImpl;
+import org.hornetq.core.journal.impl.dataformat.ByteArrayEncoding;
+import org.hornetq.tests.unit.core.journal.impl.fakes.FakeSequentialFileFactory;
+
+public class JournalBatchTest extends JournalImplTestBase
+{
+   @Override
+   protected SequentialFileFactory getFileFactory() throws Exception
+   {
+      return new FakeSequentialFileFactory();
+   }
+
+   public void testBatchIsWrittenAtOnce() throws Exception
+   {
+      setupJournal();
+
+      add(1, 2);
+
+      JournalFile file = journal.getCurrentFile();
+
+      long position = file.getFile().position();
+
+      JournalBatch batch = new JournalBatch();
+
+      addRecord(batch, 3);
+      updateRecord(batch, 3);
+      updateRecord(batch, 1);
+      addRecord(batch, 4);
+      deleteRecord(batch, 4);
+      deleteRecord(batch, 2);
+
+      journal.appendBatch(batch, true);
+
+      Assert.assertSame(file, journal.getCurrentFile());
+      Assert.assertEquals(position + 4 * (JournalImpl.SIZE_ADD_RECORD + 1 + recordLength) + 2 *
+                          (JournalImpl.SIZE_DELETE_RECORD + 1), file.getFile().position());
+
+      // the batch is accounted as the single records would be
+      update(3);
+      delete(1);
+
+      reloadJournal();
+   }
+
+   public void testTransactionalBatch() throws Exception
+   {
+      setupJournal();
+
+      add(1, 2, 3);
+
+      JournalBatch batch = new JournalBatch(10);
+
+      TransactionHolder tx = getTransaction(10);
+
+      byte[] record = generateRecord(recordLength);
+      batch.addRecord(4, (byte)0, new ByteArrayEncoding(record));
+      tx.records.add(new RecordInfo(4, (byte)0, record, false, (short)0));
+
+      record = generateRecord(recordLength);
+      batch.updateRecord(1, (byte)0, new ByteArrayEncoding(record));
+      tx.records.add(new RecordInfo(1, (byte)0, record, true, (short)0));
+
+      batch.deleteRecord(2);
+      tx.deletes.add(new RecordInfo(2, (byte)0, null, true, (short)0));
+
+      journal.appendBatch(batch, true);
+
+      addTx(10, 5);
+
+      commit(10);
+
+      addTx(20, 6);
+
+      journal.appendBatch(new JournalBatch(20).deleteRecord(3), false);
+
+      rollback(20);
+
+      reloadJournal();
+   }
+
+   public void testMissingRecordFailsTheBatch() throws Exception
+   {
+      setupJournal();
+
+      add(1, 2);
+
+      long position = journal.getCurrentFile().getFile().position();
+
+      try
+      {
+         journal.appendBatch(new JournalBatch().addRecord(3, (byte)0, new ByteArrayEncoding(generateRecord(10)))
+                                               .deleteRecord(2)
+                                               .updateRecord(4, (byte)0, new ByteArrayEncoding(generateRecord(10))),
+                             true);
+         Assert.fail("Exception expected");
+      }
+      catch (IllegalStateException expected)
+      {
+      }
+
+      try
+      {
+         journal.appendBatch(new JournalBatch().deleteRecord(1).deleteRecord(1), true);
+         Assert.fail("Exception expected");
+      }
+      catch (IllegalStateException expected)
+      {
+      }
+
+      // nothing was written, and the records are still there
+      Assert.assertEquals(position, journal.getCurrentFile().getFile().position());
+
+      update(1);
+      delete(2);
+
+      reloadJournal();
+   }
+
+   public void testBatchMovesToNextFile() throws Exception
+   {
+      setupJournal();
+
+      for (long i = 1; i <= 8; i++)
+      {
+         add(i);
+      }
+
+      JournalFile file = journal.getCurrentFile();
+
+      JournalBatch batch = new JournalBatch();
+
+      for (long i = 9; i <= 12; i++)
+      {
+         addRecord(batch, i);
+      }
+
+      journal.appendBatch(batch, true);
+
+      // the records aren't split between the files
+      Assert.assertNotSame(file, journal.getCurrentFile());
+      Assert.assertEquals(JournalImpl.SIZE_HEADER + 4 * (JournalImpl.SIZE_ADD_RECORD + 1 + recordLength),
+                          journal.getCurrentFile().getFile().position());
+
+      reloadJournal();
+   }
+
+   public void testBatchLargerThanFile() throws Exception
+   {
+      setupJournal();
+
+      add(1);
+
+      JournalBatch batch = new JournalBatch();
+
+      for (long i = 2; i <= 30; i++)
+      {
+         addRecord(batch, i);
+         updateRecord(batch, 1);
+      }
+
+      for (long i = 2; i <= 30; i += 3)
+      {
+         deleteRecord(batch, i);
+      }
+
+      journal.appendBatch(batch, true);
+
+      Assert.assertTrue(journal.getDataFilesCount() > 1);
+
+      reloadJournal();
+   }
+
+   public void testEmptyBatch() throws Exception
+   {
+      setupJournal();
+
+      add(1);
+
+      long position = journal.getCurrentFile().getFile().position();
+
+      journal.appendBatch(new JournalBatch(), true);
+      journal.appendBatch(new JournalBatch(10), true);
+
+      Assert.assertEquals(position, journal.getCurrentFile().getFile().position());
+
+      reloadJournal();
+   }
+
+   // Private -------------------------------------------------------
+
+   private void setupJournal() throws Exception
+   {
+      setup(10, 10 * 1024, true);
+      createJournal();
+      startJournal();
+      load();
+   }
+
+   private void reloadJournal() throws Exception
+   {
+      stopJournal();
+      createJournal();
+      startJournal();
+      loadAndCheck();
+   }
+
+   private void addRecord(final JournalBatch batch, final long id)
+   {
+      byte[] record = generateRecord(recordLength);
+
+      batch.addRecord(id, (byte)0, new ByteArrayEncoding(record));
+
+      records.add(new RecordInfo(id, (byte)0, record, false, (short)0));
+   }
+
+   private void updateRecord(final JournalBatch batch, final long id)
+   {
+      byte[] record = generateRecord(recordLength);
+
+      batch.updateRecord(id, (byte)0, new ByteArrayEncoding(record));
+
+      records.add(new RecordInfo(id, (byte)0, record, true, (short)0));
+   }
+
+   private void deleteRecord(final JournalBatch batch, final long id)
+   {
+      batch.deleteRecord(id);
+
+      removeRecordsForID(id);
+   }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.journal.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import junit.framework.Assert;
+
+import org.hornetq.core.journal.RecordInfo;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.JournalFile;
+import org.hornetq.core.journal.impl.JournalImpl;
+import org.hornetq.tests.unit.core.journal.impl.fakes.FakeSequentialFileFactory;
+import org.hornetq.tests.unit.core.journal.impl.fakes.FakeSequentialFileFactory.FakeSequentialFile;
+import org.hornetq.tests.unit.core.journal.impl.fakes.SimpleEncoding;
+
+public class JournalChecksumTest extends JournalImplTestBase
+{
+   // read and write the files through buffers that aren't on the heap
+   private volatile boolean directBuffers;
+
+   @Override
+   protected SequentialFileFactory getFileFactory() throws Exception
+   {
+      return new FakeSequentialFileFactory()
+      {
+         @Override
+         public ByteBuffer newBuffer(final int size)
+         {
+            return directBuffers ? ByteBuffer.allocateDirect(size) : super.newBuffer(size);
+         }
+      };
+   }
+
+   public void testLoadRecordsWithChecksums() throws Exception
+   {
+      setupJournal(true);
+
+      add(1, 2, 3, 4);
+      update(1, 2);
+      delete(3);
+
+      addTx(10, 5, 6);
+      updateTx(10, 4);
+      deleteTx(10, 1);
+      commit(10);
+
+      addTx(20, 7);
+      rollback(20);
+
+      addTx(30, 8, 9);
+      prepare(30, new SimpleEncoding(10, (byte)1));
+
+      Assert.assertEquals(JournalImpl.CHECKSUM_FORMAT_VERSION, journal.getCurrentFile().getJournalVersion());
+
+      reloadJournal(true);
+   }
+
+   public void testLoadRecordsWithChecksumsOnDirectBuffers() throws Exception
+   {
+      directBuffers = true;
+
+      testLoadRecordsWithChecksums();
+   }
+
+   public void testDamagedLastRecordIsTruncated() throws Exception
+   {
+      setupJournal(true);
+
+      add(1, 2, 3);
+
+      int position = (int)journal.getCurrentFile().getFile().position();
+
+      add(4);
+
+      damage(journal.getCurrentFile(), position + 100);
+
+      forget(4);
+
+      reloadJournal(true);
+
+      // the next record takes the place of the damaged one
+      add(5);
+
+      Assert.assertEquals(position + getRecordSize(), journal.getCurrentFile().getFile().position());
+
+      reloadJournal(true);
+   }
+
+   public void testDamagedLastRecordIsTruncatedOnDirectBuffers() throws Exception
+   {
+      directBuffers = true;
+
+      testDamagedLastRecordIsTruncated();
+   }
+
+   public void testDamagedRecordEndsItsFile() throws Exception
+   {
+      setupJournal(true);
+
+      add(1, 2);
+
+      int position = (int)journal.getCurrentFile().getFile().position();
+
+      add(3, 4, 5);
+
+      JournalFile damagedFile = journal.getCurrentFile();
+
+      journal.forceMoveNextFile();
+
+      add(6, 7);
+
+      damage(damagedFile, position + getRecordSize() - 10);
+
+      forget(3, 4, 5);
+
+      reloadJournal(true);
+   }
+
+   public void testMixedFileVersions() throws Exception
+   {
+      setupJournal(false);
+
+      add(1, 2, 3);
+
+      JournalFile oldFile = journal.getCurrentFile();
+
+      Assert.assertEquals(JournalImpl.FORMAT_VERSION, oldFile.getJournalVersion());
+
+      reloadJournal(true);
+
+      journal.forceMoveNextFile();
+
+      add(4, 5);
+      update(1);
+      delete(2);
+
+      Assert.assertEquals(JournalImpl.CHECKSUM_FORMAT_VERSION, journal.getCurrentFile().getJournalVersion());
+
+      reloadJournal(false);
+
+      // the files keep the version they were created with
+      Assert.assertEquals(JournalImpl.FORMAT_VERSION, journal.getDataFiles()[0].getJournalVersion());
+      Assert.assertEquals(JournalImpl.CHECKSUM_FORMAT_VERSION, journal.getCurrentFile().getJournalVersion());
+   }
+
+   public void testCompactWithChecksums() throws Exception
+   {
+      setupJournal(true);
+
+      for (long i = 1; i <= 40; i++)
+      {
+         add(i);
+      }
+
+      addTx(100, 41, 42);
+      commit(100);
+
+      for (long i = 1; i <= 40; i += 2)
+      {
+         delete(i);
+      }
+
+      journal.testCompact();
+
+      for (JournalFile file : journal.getDataFiles())
+      {
+         Assert.assertEquals(JournalImpl.CHECKSUM_FORMAT_VERSION, file.getJournalVersion());
+      }
+
+      reloadJournal(true);
+   }
+
+   // Private -------------------------------------------------------
+
+   private void setupJournal(final boolean checksums) throws Exception
+   {
+      setup(10, 10 * 1024, true);
+      createJournal();
+      ((JournalImpl)journal).setChecksums(checksums);
+      startJournal();
+      load();
+   }
+
+   private void reloadJournal(final boolean checksums) throws Exception
+   {
+      stopJournal();
+      createJournal();
+      ((JournalImpl)journal).setChecksums(checksums);
+      startJournal();
+      loadAndCheck();
+   }
+
+   private int getRecordSize()
+   {
+      return JournalImpl.SIZE_ADD_RECORD + 1 + recordLength + 4;
+   }
+
+   private void damage(final JournalFile file, final int position)
+   {
+      ByteBuffer data = ((FakeSequentialFile)file.getFile()).getData();
+
+      data.put(position, (byte)(data.get(position) + 1));
+   }
+
+   /**
+    * The records are lost with the damaged record.
+    */
+   private void forget(final long... ids)
+   {
+      for (long id : ids)
+      {
+         Iterator<RecordInfo> iterator = records.iterator();
+
+         while (iterator.hasNext())
+         {
+            if (iterator.next().id == id)
+            {
+               iterator.remove();
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.journal.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.hornetq.core.journal.IOCompletion;
+import org.hornetq.core.journal.RecordInfo;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.JournalFile;
+import org.hornetq.core.persistence.impl.journal.JournalGroupCommit;
+import org.hornetq.tests.unit.core.journal.impl.fakes.FakeSequentialFileFactory;
+
+public class JournalGroupCommitTest extends JournalImplTestBase
+{
+   @Override
+   protected SequentialFileFactory getFileFactory() throws Exception
+   {
+      return new FakeSequentialFileFactory(1, true);
+   }
+
+   public void testCommitRecordsAreWrittenAtOnce() throws Exception
+   {
+      setupJournal();
+
+      addTx(1, 1);
+      addTx(2, 2, 3);
+      addTx(3, 4);
+      addTx(4, 5);
+
+      JournalFile file = journal.getCurrentFile();
+
+      long position = file.getFile().position();
+
+      commit(1);
+
+      long commitSize = file.getFile().position() - position;
+
+      CountDownLatch latch = new CountDownLatch(3);
+
+      AtomicInteger lineUps = new AtomicInteger();
+
+      IOCompletion[] callbacks = new IOCompletion[3];
+
+      for (int i = 0; i < callbacks.length; i++)
+      {
+         callbacks[i] = new CountingCompletion(latch, lineUps);
+      }
+
+      journal.appendCommitRecords(new long[] { 2, 3, 4 }, true, callbacks);
+
+      committed(2, 3, 4);
+
+      Assert.assertSame(file, journal.getCurrentFile());
+      Assert.assertEquals(position + 4 * commitSize, file.getFile().position());
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+      Assert.assertEquals(3, lineUps.get());
+
+      reloadJournal();
+   }
+
+   public void testMissingTransactionWritesNothing() throws Exception
+   {
+      setupJournal();
+
+      addTx(1, 1);
+
+      long position = journal.getCurrentFile().getFile().position();
+
+      AtomicInteger lineUps = new AtomicInteger();
+
+      CountDownLatch latch = new CountDownLatch(2);
+
+      IOCompletion[] callbacks = { new CountingCompletion(latch, lineUps), new CountingCompletion(latch, lineUps) };
+
+      try
+      {
+         journal.appendCommitRecords(new long[] { 1, 2 }, true, callbacks);
+         Assert.fail("Exception expected");
+      }
+      catch (IllegalStateException expected)
+      {
+      }
+
+      Assert.assertEquals(position, journal.getCurrentFile().getFile().position());
+
+      // nothing is left lined up on the callbacks
+      Assert.assertEquals(0, lineUps.get());
+
+      // the transaction is still there
+      commit(1);
+
+      reloadJournal();
+   }
+
+   public void testGroupCommitFromConcurrentThreads() throws Exception
+   {
+      setupJournal();
+
+      final int threadCount = 10;
+
+      final int commitsPerThread = 50;
+
+      final JournalGroupCommit groupCommit = new JournalGroupCommit(TimeUnit.MILLISECONDS.toNanos(1));
+
+      final CountDownLatch completed = new CountDownLatch(threadCount * commitsPerThread);
+
+      final AtomicInteger lineUps = new AtomicInteger();
+
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+      final byte[][] data = new byte[threadCount * commitsPerThread][];
+
+      for (int i = 0; i < data.length; i++)
+      {
+         data[i] = generateRecord(100);
+
+         records.add(new RecordInfo(i + 1, (byte)0, data[i], false, (short)0));
+      }
+
+      Thread[] threads = new Thread[threadCount];
+
+      for (int t = 0; t < threadCount; t++)
+      {
+         final int first = t * commitsPerThread;
+
+         threads[t] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  for (int i = first; i < first + commitsPerThread; i++)
+                  {
+                     long id = i + 1;
+
+                     journal.appendAddRecordTransactional(id, id, (byte)0, data[i]);
+
+                     groupCommit.commit(journal, id, new CountingCompletion(completed, lineUps));
+                  }
+               }
+               catch (Throwable e)
+               {
+                  failure.set(e);
+               }
+            }
+         };
+
+         threads[t].start();
+      }
+
+      for (Thread thread : threads)
+      {
+         thread.join();
+      }
+
+      Assert.assertNull(failure.get());
+      Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+      Assert.assertEquals(threadCount * commitsPerThread, lineUps.get());
+      Assert.assertEquals(threadCount * commitsPerThread, groupCommit.getCommitCount());
+      Assert.assertTrue(groupCommit.getGroupCount() <= groupCommit.getCommitCount());
+      Assert.assertTrue(groupCommit.getMaxGroupSize() >= 1);
+
+      reloadJournal();
+   }
+
+   public void testUnknownTransactionOnlyFailsItsCommit() throws Exception
+   {
+      setupJournal();
+
+      addTx(1, 1);
+
+      JournalGroupCommit groupCommit = new JournalGroupCommit(0);
+
+      AtomicInteger lineUps = new AtomicInteger();
+
+      try
+      {
+         groupCommit.commit(journal, 2, new CountingCompletion(new CountDownLatch(1), lineUps));
+         Assert.fail("Exception expected");
+      }
+      catch (IllegalStateException expected)
+      {
+      }
+
+      // the context of a failed commit isn't left lined up
+      Assert.assertEquals(0, lineUps.get());
+
+      CountDownLatch latch = new CountDownLatch(1);
+
+      groupCommit.commit(journal, 1, new CountingCompletion(latch, lineUps));
+
+      committed(1);
+
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+      Assert.assertEquals(1, lineUps.get());
+      Assert.assertEquals(2, groupCommit.getGroupCount());
+
+      reloadJournal();
+   }
+
+   // Private -------------------------------------------------------
+
+   private void setupJournal() throws Exception
+   {
+      setup(10, 10 * 1024, true);
+      createJournal();
+      startJournal();
+      load();
+   }
+
+   private void reloadJournal() throws Exception
+   {
+      stopJournal();
+      createJournal();
+      startJournal();
+      loadAndCheck();
+   }
+
+   /**
+    * Moves the records of transactions committed without {@link #commit(long)} to the expected records.
+    */
+   private void committed(final long... txIDs)
+   {
+      for (long txID : txIDs)
+      {
+         TransactionHolder tx = transactions.remove(txID);
+
+         records.addAll(tx.records);
+
+         for (RecordInfo info : tx.deletes)
+         {
+            removeRecordsForID(info.id);
+         }
+      }
+   }
+
+   private static final class CountingCompletion implements IOCompletion
+   {
+      private final CountDownLatch latch;
+
+      private final AtomicInteger lineUps;
+
+      CountingCompletion(final CountDownLatch latch, final AtomicInteger lineUps)
+      {
+         this.latch = latch;
+         this.lineUps = lineUps;
+      }
+
+      public void storeLineUp()
+      {
+         lineUps.incrementAndGet();
+      }
+
+      public void done()
+      {
+         latch.countDown();
+      }
+
+      public void onError(final int errorCode, final String errorMessage)
+      {
+      }
+   }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.journal.impl;
+
+import junit.framework.Assert;
+
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.JournalCompactionInfo;
+import org.hornetq.core.journal.impl.JournalFile;
+import org.hornetq.core.journal.impl.JournalImpl;
+import org.hornetq.tests.unit.core.journal.impl.fakes.FakeSequentialFileFactory;
+import org.hornetq.tests.unit.core.journal.impl.fakes.SimpleEncoding;
+
+public class JournalIncrementalCompactTest extends JournalImplTestBase
+{
+   private static final int MAX_FILES = 4;
+
+   @Override
+   protected SequentialFileFactory getFileFactory() throws Exception
+   {
+      return new FakeSequentialFileFactory();
+   }
+
+   public void testCompactKeepsLiveRecords() throws Exception
+   {
+      setupJournal();
+
+      for (long i = 1; i <= 100; i++)
+      {
+         add(i);
+      }
+
+      for (long i = 1; i <= 100; i += 4)
+      {
+         update(i);
+      }
+
+      // only every 5th record of the first half is left
+      for (long i = 1; i <= 50; i++)
+      {
+         if (i % 5 != 0)
+         {
+            delete(i);
+         }
+      }
+
+      int dataFiles = journal.getDataFilesCount();
+
+      journal.testCompact();
+
+      JournalCompactionInfo info = getJournal().getLastCompactionInfo();
+
+      Assert.assertNotNull(info);
+      Assert.assertTrue(info.isIncremental());
+      Assert.assertTrue(info.getFilesProcessed() <= MAX_FILES);
+      Assert.assertTrue(info.getFilesWritten() < info.getFilesProcessed());
+      Assert.assertEquals((info.getFilesProcessed() - info.getFilesWritten()) * (long)fileSize,
+                         info.getBytesReclaimed());
+      Assert.assertTrue(info.getMaxPause() <= info.getTotalPause());
+      Assert.assertEquals(dataFiles - info.getFilesProcessed() + info.getFilesWritten(), journal.getDataFilesCount());
+
+      checkDataFilesOrder();
+
+      // the relocated records keep working
+      for (long i = 5; i <= 50; i += 5)
+      {
+         update(i);
+      }
+
+      delete(10, 20, 30);
+
+      stopJournal();
+      createJournal();
+      startJournal();
+      loadAndCheck();
+   }
+
+   public void testCompactTransactions() throws Exception
+   {
+      setupJournal();
+
+      for (long i = 1; i <= 20; i++)
+      {
+         add(i);
+      }
+
+      addTx(100, 101, 102, 103);
+      updateTx(100, 1, 2);
+      deleteTx(100, 3);
+      commit(100);
+
+      addTx(200, 201, 202);
+      rollback(200);
+
+      for (long i = 21; i <= 60; i++)
+      {
+         add(i);
+      }
+
+      for (long i = 4; i <= 60; i++)
+      {
+         if (i % 6 != 0)
+         {
+            delete(i);
+         }
+      }
+
+      journal.testCompact();
+
+      Assert.assertNotNull(getJournal().getLastCompactionInfo());
+
+      checkDataFilesOrder();
+
+      stopJournal();
+      createJournal();
+      startJournal();
+      loadAndCheck();
+   }
+
+   public void testPreparedTransactionIsNotCompacted() throws Exception
+   {
+      setupJournal();
+
+      addTx(100, 101, 102);
+      prepare(100, new SimpleEncoding(10, (byte)0));
+
+      for (long i = 1; i <= 40; i++)
+      {
+         add(i);
+      }
+
+      for (long i = 1; i <= 40; i++)
+      {
+         delete(i);
+      }
+
+      JournalFile firstFile = journal.getDataFiles()[0];
+
+      journal.testCompact();
+
+      Assert.assertNotNull(getJournal().getLastCompactionInfo());
+
+      // the file holding the prepared transaction is kept as is
+      Assert.assertSame(firstFile, journal.getDataFiles()[0]);
+
+      commit(100);
+
+      stopJournal();
+      createJournal();
+      startJournal();
+      loadAndCheck();
+   }
+
+   public void testDeleteWhileCompacting() throws Exception
+   {
+      setupJournal();
+
+      for (long i = 1; i <= 60; i++)
+      {
+         add(i);
+      }
+
+      for (long i = 1; i <= 60; i++)
+      {
+         if (i % 4 != 0)
+         {
+            delete(i);
+         }
+      }
+
+      // holds the compactor after the files were written
+      startCompact();
+
+      delete(4, 8);
+      update(12, 16);
+      add(61);
+
+      finishCompact();
+
+      Assert.assertNotNull(getJournal().getLastCompactionInfo());
+
+      checkDataFilesOrder();
+
+      delete(12);
+
+      stopJournal();
+      createJournal();
+      startJournal();
+      loadAndCheck();
+   }
+
+   public void testCompactedFilesAreReclaimed() throws Exception
+   {
+      setupJournal();
+
+      for (long i = 1; i <= 60; i++)
+      {
+         add(i);
+      }
+
+      for (long i = 1; i <= 60; i++)
+      {
+         if (i % 4 != 0)
+         {
+            delete(i);
+         }
+      }
+
+      startCompact();
+
+      // copied by the compactor, and deleted before the records are relocated
+      delete(4, 8);
+
+      finishCompact();
+
+      Assert.assertNotNull(getJournal().getLastCompactionInfo());
+
+      for (long i = 12; i <= 60; i += 4)
+      {
+         delete(i);
+      }
+
+      journal.forceMoveNextFile();
+
+      checkAndReclaimFiles();
+
+      Assert.assertEquals(0, journal.getDataFilesCount());
+
+      stopJournal();
+      createJournal();
+      startJournal();
+      loadAndCheck();
+   }
+
+   public void testLiveSizeAfterCompact() throws Exception
+   {
+      setupJournal();
+
+      for (long i = 1; i <= 100; i++)
+      {
+         add(i);
+      }
+
+      for (long i = 1; i <= 100; i += 4)
+      {
+         update(i);
+      }
+
+      for (long i = 1; i <= 50; i++)
+      {
+         if (i % 5 != 0)
+         {
+            delete(i);
+         }
+      }
+
+      long liveSize = getLiveSize();
+
+      journal.testCompact();
+
+      Assert.assertNotNull(getJournal().getLastCompactionInfo());
+
+      // the relocated records are accounted on the files holding their copies
+      Assert.assertEquals(liveSize, getLiveSize());
+
+      for (long i = 5; i <= 100; i++)
+      {
+         if (i > 50 || i % 5 == 0)
+         {
+            delete(i);
+         }
+      }
+
+      Assert.assertEquals(0, getLiveSize());
+   }
+
+   public void testLiveSizeWithDeleteWhileCompacting() throws Exception
+   {
+      setupJournal();
+
+      for (long i = 1; i <= 60; i++)
+      {
+         add(i);
+      }
+
+      for (long i = 1; i <= 60; i++)
+      {
+         if (i % 4 != 0)
+         {
+            delete(i);
+         }
+      }
+
+      startCompact();
+
+      // copied by the compactor, and deleted before the records are relocated
+      delete(4, 8);
+      update(12);
+
+      long liveSize = getLiveSize();
+
+      finishCompact();
+
+      Assert.assertNotNull(getJournal().getLastCompactionInfo());
+
+      Assert.assertEquals(liveSize, getLiveSize());
+
+      for (long i = 12; i <= 60; i += 4)
+      {
+         delete(i);
+      }
+
+      Assert.assertEquals(0, getLiveSize());
+   }
+
+   // Private -------------------------------------------------------
+
+   /**
+    * @return the live size of the data files and of the current file
+    */
+   private long getLiveSize()
+   {
+      long liveSize = journal.getCurrentFile().getLiveSize();
+
+      for (JournalFile file : journal.getDataFiles())
+      {
+         liveSize += file.getLiveSize();
+      }
+
+      return liveSize;
+   }
+
+   private void setupJournal() throws Exception
+   {
+      setup(10, 10 * 1024, true);
+      createJournal();
+      getJournal().setCompactMaxFiles(MAX_FILES);
+      startJournal();
+      load();
+   }
+
+   private JournalImpl getJournal()
+   {
+      return (JournalImpl)journal;
+   }
+
+   private void checkDataFilesOrder()
+   {
+      long previous = -1;
+
+      for (JournalFile file : journal.getDataFiles())
+      {
+         Assert.assertTrue(file.getFileID() > previous);
+         previous = file.getFileID();
+      }
+
+      Assert.assertTrue(journal.getCurrentFile().getFileID() > previous);
+   }
+}
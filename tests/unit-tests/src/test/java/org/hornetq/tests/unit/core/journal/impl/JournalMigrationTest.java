@@ -0,0 +1,247 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.journal.impl;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Assert;
+
+import org.hornetq.core.journal.SequentialFile;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.JournalFile;
+import org.hornetq.core.journal.impl.JournalImpl;
+import org.hornetq.tests.unit.core.journal.impl.fakes.FakeSequentialFileFactory;
+import org.hornetq.tests.unit.core.journal.impl.fakes.FakeSequentialFileFactory.FakeSequentialFile;
+
+public class JournalMigrationTest extends JournalImplTestBase
+{
+   private FakeSequentialFileFactory dataFactory;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      dataFactory = new FakeSequentialFileFactory();
+   }
+
+   @Override
+   protected SequentialFileFactory getFileFactory() throws Exception
+   {
+      return new FakeSequentialFileFactory();
+   }
+
+   public void testClosedFilesAreMoved() throws Exception
+   {
+      setupJournal(1);
+
+      addRecords(1, 40);
+
+      int closedFiles = journal.getDataFilesCount();
+
+      Assert.assertTrue(closedFiles > 2);
+
+      Assert.assertEquals(closedFiles - 1, getJournal().migrateFiles());
+
+      journal.debugWait();
+
+      Assert.assertEquals(closedFiles - 1, getJournal().getMigratedFiles());
+      Assert.assertEquals(closedFiles - 1, dataFactory.listFiles(fileExtension).size());
+
+      JournalFile[] dataFiles = journal.getDataFiles();
+
+      for (int i = 0; i < dataFiles.length; i++)
+      {
+         Assert.assertEquals(i < dataFiles.length - 1, dataFiles[i].isMigrated());
+      }
+
+      // nothing else to move until a new file is closed
+      Assert.assertEquals(0, getJournal().migrateFiles());
+
+      update(1, 2);
+      delete(3, 40);
+
+      reloadJournal(1);
+
+      dataFiles = journal.getDataFiles();
+
+      for (int i = 0; i < closedFiles - 1; i++)
+      {
+         Assert.assertTrue(dataFiles[i].isMigrated());
+      }
+
+      Assert.assertFalse(journal.getCurrentFile().isMigrated());
+   }
+
+   public void testMovedFilesAreReclaimed() throws Exception
+   {
+      setupJournal(0);
+
+      addRecords(1, 40);
+
+      int moved = getJournal().migrateFiles();
+
+      Assert.assertTrue(moved > 0);
+
+      for (long i = 1; i <= 40; i++)
+      {
+         delete(i);
+      }
+
+      journal.forceMoveNextFile();
+
+      checkAndReclaimFiles();
+
+      Assert.assertEquals(0, dataFactory.listFiles(fileExtension).size());
+
+      // the files left on the WAL directory are the current, opened and free ones
+      Assert.assertEquals(journal.getDataFilesCount() + journal.getFreeFilesCount() +
+                                   journal.getOpenedFilesCount() +
+                                   1,
+                          fileFactory.listFiles(fileExtension).size());
+
+      reloadJournal(0);
+   }
+
+   public void testWalFilesAreReused() throws Exception
+   {
+      setupJournal(0);
+
+      addRecords(1, 30);
+
+      int walFiles = fileFactory.listFiles(fileExtension).size();
+
+      getJournal().migrateFiles();
+
+      journal.debugWait();
+
+      // the moved files became free files, so the next records don't create new files on the WAL directory
+      addRecords(31, 50);
+
+      Assert.assertTrue(getJournal().migrateFiles() > 0);
+
+      journal.debugWait();
+
+      Assert.assertTrue(fileFactory.listFiles(fileExtension).size() <= walFiles);
+
+      reloadJournal(0);
+   }
+
+   public void testInterruptedMoveIsCleanedOnLoad() throws Exception
+   {
+      setupJournal(0);
+
+      addRecords(1, 30);
+
+      journal.forceMoveNextFile();
+
+      JournalFile[] dataFiles = journal.getDataFiles();
+
+      Assert.assertFalse(dataFiles[0].isMigrated());
+
+      stopJournal();
+
+      String walFileName = dataFiles[0].getFile().getFileName();
+
+      // the copy was renamed, but the WAL file wasn't removed yet
+      copy(dataFiles[0].getFile(), walFileName);
+
+      // the copy wasn't renamed yet
+      copy(dataFiles[1].getFile(), dataFiles[1].getFile().getFileName() + ".tmp");
+
+      createJournal();
+      getJournal().setMigration(dataFactory, 0);
+      startJournal();
+      loadAndCheck();
+
+      Assert.assertTrue(journal.getDataFiles()[0].isMigrated());
+      Assert.assertFalse(journal.getDataFiles()[1].isMigrated());
+      Assert.assertFalse(fileFactory.listFiles(fileExtension).contains(walFileName));
+      Assert.assertEquals(0, dataFactory.listFiles("tmp").size());
+
+      reloadJournal(0);
+   }
+
+   public void testCompactMovedFiles() throws Exception
+   {
+      setupJournal(0);
+
+      addRecords(1, 40);
+
+      addTx(100, 41, 42);
+      commit(100);
+
+      getJournal().migrateFiles();
+
+      for (long i = 1; i <= 40; i += 2)
+      {
+         delete(i);
+      }
+
+      journal.testCompact();
+
+      reloadJournal(0);
+
+      // the compacted files are moved again
+      getJournal().migrateFiles();
+
+      reloadJournal(0);
+   }
+
+   // Private -------------------------------------------------------
+
+   private void setupJournal(final int walMaxFiles) throws Exception
+   {
+      setup(10, 10 * 1024, true);
+      createJournal();
+      getJournal().setMigration(dataFactory, walMaxFiles);
+      startJournal();
+      load();
+   }
+
+   private void reloadJournal(final int walMaxFiles) throws Exception
+   {
+      stopJournal();
+      createJournal();
+      getJournal().setMigration(dataFactory, walMaxFiles);
+      startJournal();
+      loadAndCheck();
+   }
+
+   private JournalImpl getJournal()
+   {
+      return (JournalImpl)journal;
+   }
+
+   private void addRecords(final long first, final long last) throws Exception
+   {
+      for (long i = first; i <= last; i++)
+      {
+         add(i);
+      }
+   }
+
+   private void copy(final SequentialFile file, final String name) throws Exception
+   {
+      ByteBuffer data = ((FakeSequentialFile)file).getData();
+
+      SequentialFile copy = dataFactory.createSequentialFile(name, 1);
+
+      copy.open();
+
+      copy.writeDirect(ByteBuffer.wrap(data.array().clone()), true);
+
+      copy.close();
+   }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.journal.impl;
+
+import java.util.ArrayList;
+
+import junit.framework.Assert;
+
+import org.hornetq.core.journal.JournalLoadInformation;
+import org.hornetq.core.journal.PreparedTransactionInfo;
+import org.hornetq.core.journal.RecordInfo;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.JournalImpl;
+import org.hornetq.tests.unit.core.journal.impl.fakes.FakeSequentialFileFactory;
+import org.hornetq.tests.unit.core.journal.impl.fakes.SimpleEncoding;
+
+/**
+ * Loads the same journal with one and with several reader threads, the result must be the same.
+ */
+public class JournalParallelLoadTest extends JournalImplTestBase
+{
+   @Override
+   protected SequentialFileFactory getFileFactory() throws Exception
+   {
+      return new FakeSequentialFileFactory();
+   }
+
+   public void testParallelLoadMatchesSerialLoad() throws Exception
+   {
+      setup(10, 10 * 1024, true);
+      createJournal();
+      startJournal();
+      load();
+
+      // spreading adds, updates, deletes and transactions over a few dozen files
+      for (long i = 1; i <= 200; i++)
+      {
+         add(i);
+      }
+
+      for (long i = 1; i <= 200; i += 3)
+      {
+         update(i);
+      }
+
+      for (long i = 2; i <= 200; i += 5)
+      {
+         delete(i);
+      }
+
+      addTx(1000, 1001, 1002, 1003);
+      updateTx(1000, 1);
+      deleteTx(1000, 4);
+      commit(1000);
+
+      addTx(2000, 2001, 2002);
+      rollback(2000);
+
+      addTx(3000, 3001, 3002);
+      deleteTx(3000, 7);
+      prepare(3000, new SimpleEncoding(10, (byte)0));
+
+      Assert.assertTrue(journal.getDataFilesCount() > 10);
+
+      stopJournal(false);
+
+      for (int threads : new int[] { 1, 2, 4, 16 })
+      {
+         ((JournalImpl)journal).setLoadThreads(threads);
+         startJournal();
+         loadAndCheck();
+         stopJournal(false);
+      }
+   }
+
+   public void testLoadStatistics() throws Exception
+   {
+      setup(10, 10 * 1024, true);
+      createJournal();
+      startJournal();
+      load();
+
+      for (long i = 1; i <= 100; i++)
+      {
+         add(i);
+      }
+
+      stopJournal(false);
+
+      ((JournalImpl)journal).setLoadThreads(3);
+
+      startJournal();
+
+      JournalLoadInformation info = journal.load(new ArrayList<RecordInfo>(),
+                                                 new ArrayList<PreparedTransactionInfo>(),
+                                                 null);
+
+      Assert.assertEquals(100, info.getNumberOfRecords());
+      Assert.assertEquals(100, info.getMaxID());
+      // the records decoded, not the size of the files holding them
+      Assert.assertTrue(info.getBytesLoaded() >= 100L * recordLength);
+      Assert.assertTrue(info.getBytesLoaded() < (journal.getDataFilesCount() + 1) * (long)fileSize);
+      Assert.assertTrue(info.getLoadTime() >= 0);
+
+      // the statistics are not part of the comparison used by replication
+      Assert.assertEquals(new JournalLoadInformation(100, 100), info);
+
+      stopJournal(false);
+   }
+
+   public void testInvalidLoadThreads() throws Exception
+   {
+      setup(10, 10 * 1024, true);
+      createJournal();
+
+      try
+      {
+         ((JournalImpl)journal).setLoadThreads(0);
+         Assert.fail("Should throw exception");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // OK
+      }
+   }
+
+   public void testParallelLoadAfterRestart() throws Exception
+   {
+      setup(10, 10 * 1024, true);
+      createJournal();
+      ((JournalImpl)journal).setLoadThreads(4);
+      startJournal();
+      load();
+
+      for (long i = 1; i <= 100; i++)
+      {
+         add(i);
+      }
+
+      stopJournal(false);
+      startJournal();
+      loadAndCheck();
+
+      // appending after a parallel load must still work
+      for (long i = 101; i <= 200; i++)
+      {
+         add(i);
+      }
+
+      for (long i = 1; i <= 200; i += 2)
+      {
+         delete(i);
+      }
+
+      stopJournal(false);
+      startJournal();
+      loadAndCheck();
+      stopJournal(false);
+   }
+}
@@ -757,6 +757,11 @@ public class ReclaimerTest extends UnitTestCase
          return null;
       }
 
+      public boolean isMigrated()
+      {
+         return false;
+      }
+
       public long getOffset()
       {
          return 0;
@@ -594,7 +594,15 @@ public class FakeSequentialFileFactory implements SequentialFileFactory
 
       public SequentialFile cloneFile()
       {
-         return null; // To change body of implemented methods use File | Settings | File Templates.
+         // reads the same bytes from its own position, and it isn't listed by the factory
+         FakeSequentialFile clone = new FakeSequentialFile(fileName);
+
+         if (data != null)
+         {
+            clone.data = ByteBuffer.wrap(data.array());
+         }
+
+         return clone;
       }
 
       /* (non-Javadoc)
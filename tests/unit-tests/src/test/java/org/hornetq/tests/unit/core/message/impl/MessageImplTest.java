@@ -17,11 +17,16 @@ import java.util.Set;
 
 import junit.framework.Assert;
 
+import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.api.core.HornetQBuffers;
 import org.hornetq.api.core.Message;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.client.impl.ClientMessageImpl;
+import org.hornetq.core.protocol.core.impl.PacketImpl;
+import org.hornetq.core.protocol.core.impl.wireformat.SessionReceiveMessage;
 import org.hornetq.tests.util.RandomUtil;
 import org.hornetq.tests.util.UnitTestCase;
+import org.hornetq.utils.DataConstants;
 
 /**
  *
@@ -221,6 +226,38 @@ public class MessageImplTest extends UnitTestCase
       }
    }
 
+   public void testSharedEncodedBuffer()
+   {
+      ClientMessageImpl message = new ClientMessageImpl((byte)0, true, 0, System.currentTimeMillis(), (byte)4, 100);
+      message.getBodyBuffer().writeString("body");
+      message.putStringProperty("prop", "first");
+
+      HornetQBuffer first = new SessionReceiveMessage(1, message, 1).encode(null);
+      HornetQBuffer second = new SessionReceiveMessage(2, message, 3).encode(null);
+
+      Assert.assertEquals(message.getEndOfMessagePosition() + 12, first.readableBytes());
+
+      // a change after sending doesn't affect what was sent
+      message.putStringProperty("prop", "second");
+      HornetQBuffer third = new SessionReceiveMessage(3, message, 1).encode(null);
+
+      SessionReceiveMessage received = receive(first);
+      Assert.assertEquals(1, received.getConsumerID());
+      Assert.assertEquals(1, received.getDeliveryCount());
+      Assert.assertEquals("first", received.getMessage().getStringProperty("prop"));
+      Assert.assertEquals("body", received.getMessage().getBodyBuffer().readString());
+
+      received = receive(second);
+      Assert.assertEquals(2, received.getConsumerID());
+      Assert.assertEquals(3, received.getDeliveryCount());
+      Assert.assertEquals("first", received.getMessage().getStringProperty("prop"));
+      Assert.assertEquals("body", received.getMessage().getBodyBuffer().readString());
+
+      received = receive(third);
+      Assert.assertEquals("second", received.getMessage().getStringProperty("prop"));
+      Assert.assertEquals("body", received.getMessage().getBodyBuffer().readString());
+   }
+
    // Protected -------------------------------------------------------------------------------
 
    protected void assertMessagesEquivalent(final Message msg1, final Message msg2)
@@ -259,4 +296,17 @@ public class MessageImplTest extends UnitTestCase
 
    // Private ----------------------------------------------------------------------------------
 
+   private SessionReceiveMessage receive(final HornetQBuffer sent)
+   {
+      HornetQBuffer buffer = HornetQBuffers.dynamicBuffer(sent.readableBytes());
+      buffer.writeBytes(sent, 0, sent.readableBytes());
+
+      Assert.assertEquals(buffer.writerIndex() - DataConstants.SIZE_INT, buffer.readInt());
+      Assert.assertEquals(PacketImpl.SESS_RECEIVE_MSG, buffer.readByte());
+
+      SessionReceiveMessage packet = new SessionReceiveMessage(new ClientMessageImpl());
+      packet.decode(buffer);
+      return packet;
+   }
+
 }
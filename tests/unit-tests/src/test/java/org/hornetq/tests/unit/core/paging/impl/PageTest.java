@@ -23,6 +23,7 @@ import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.journal.SequentialFile;
 import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.MappedSequentialFileFactory;
 import org.hornetq.core.journal.impl.NIOSequentialFileFactory;
 import org.hornetq.core.paging.PagedMessage;
 import org.hornetq.core.paging.impl.Page;
@@ -62,6 +63,18 @@ public class PageTest extends UnitTestCase
       testDamagedPage(new NIOSequentialFileFactory(getTestDir()), 1000);
    }
 
+   public void testPageWithMapped() throws Exception
+   {
+      recreateDirectory(getTestDir());
+      testAdd(new MappedSequentialFileFactory(getTestDir()), 1000);
+   }
+
+   public void testDamagedDataWithMapped() throws Exception
+   {
+      recreateDirectory(getTestDir());
+      testDamagedPage(new MappedSequentialFileFactory(getTestDir()), 1000);
+   }
+
    public void testPageFakeWithoutCallbacks() throws Exception
    {
       testAdd(new FakeSequentialFileFactory(1, false), 10);
@@ -16,7 +16,9 @@ package org.hornetq.tests.unit.core.paging.impl;
 import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 
@@ -106,6 +108,69 @@ public class PagingManagerImplTest extends UnitTestCase
       Assert.assertFalse(store.page(msg, new RoutingContextImpl(null), lock));
    }
 
+   public void testGlobalMaxSizePagesLargestAddressFirst() throws Exception
+   {
+      HierarchicalRepository<AddressSettings> addressSettings = new HierarchicalObjectRepository<AddressSettings>();
+      AddressSettings settings = new AddressSettings();
+      settings.setAddressFullMessagePolicy(AddressFullMessagePolicy.PAGE);
+      addressSettings.setDefault(settings);
+
+      ExecutorService executor = Executors.newCachedThreadPool();
+
+      PagingStoreFactoryNIO storeFactory = new PagingStoreFactoryNIO(getPageDir(),
+                                                                     100, null,
+                                new OrderedExecutorFactory(executor),
+                                true);
+
+      storeFactory.setPostOffice(new FakePostOffice());
+
+      PagingManagerImpl managerImpl = new PagingManagerImpl(storeFactory,
+                                                            new NullStorageManager(),
+                                                            addressSettings,
+                                                            1000);
+
+      managerImpl.start();
+
+      PagingStore storeA = managerImpl.getPageStore(new SimpleString("a"));
+      PagingStore storeB = managerImpl.getPageStore(new SimpleString("b"));
+      PagingStore storeC = managerImpl.getPageStore(new SimpleString("c"));
+
+      storeA.addSize(300);
+      storeB.addSize(500);
+
+      Assert.assertEquals(800, managerImpl.getGlobalSize());
+      Assert.assertFalse(storeA.isPaging());
+      Assert.assertFalse(storeB.isPaging());
+
+      // over the limit: the largest address pages, even if it's not the one which grew
+      storeC.addSize(300);
+
+      Assert.assertEquals(1100, managerImpl.getGlobalSize());
+      Assert.assertFalse(storeA.isPaging());
+      Assert.assertTrue(storeB.isPaging());
+      Assert.assertFalse(storeC.isPaging());
+
+      storeA.addSize(100);
+
+      Assert.assertTrue(storeA.isPaging());
+      Assert.assertFalse(storeC.isPaging());
+
+      storeC.addSize(-300);
+      storeA.addSize(-400);
+
+      Assert.assertEquals(500, managerImpl.getGlobalSize());
+
+      // back under the limit
+      storeC.addSize(100);
+
+      Assert.assertFalse(storeC.isPaging());
+
+      managerImpl.stop();
+
+      executor.shutdown();
+      Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+   }
+
    @Override
    protected void setUp() throws Exception
    {
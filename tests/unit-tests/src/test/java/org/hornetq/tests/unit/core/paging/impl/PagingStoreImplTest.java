@@ -42,6 +42,7 @@ import org.hornetq.core.journal.Journal;
 import org.hornetq.core.journal.JournalLoadInformation;
 import org.hornetq.core.journal.SequentialFile;
 import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.AdaptiveBufferTimeout;
 import org.hornetq.core.journal.impl.NIOSequentialFileFactory;
 import org.hornetq.core.message.impl.MessageInternal;
 import org.hornetq.core.paging.PageTransactionInfo;
@@ -59,6 +60,7 @@ import org.hornetq.core.persistence.QueueBindingInfo;
 import org.hornetq.core.persistence.StorageManager;
 import org.hornetq.core.persistence.config.PersistedAddressSetting;
 import org.hornetq.core.persistence.config.PersistedRoles;
+import org.hornetq.core.persistence.impl.journal.JournalGroupCommit;
 import org.hornetq.core.persistence.impl.nullpm.NullStorageManager;
 import org.hornetq.core.postoffice.Binding;
 import org.hornetq.core.postoffice.PostOffice;
@@ -913,6 +915,29 @@ public class PagingStoreImplTest extends UnitTestCase
       {
       }
 
+      @Override
+      public void storeDuplicateIDSegment(final long recordID, final SimpleString address, final int ringSize)
+         throws Exception
+      {
+      }
+
+      @Override
+      public void storeDuplicateIDDelta(final long segmentRecordID,
+                                        final long sequence,
+                                        final byte[] duplID) throws Exception
+      {
+      }
+
+      @Override
+      public void storeDuplicateIDSegmentTransactional(final long txID,
+                                                       final long recordID,
+                                                       final SimpleString address,
+                                                       final int ringSize,
+                                                       final long[] sequences,
+                                                       final byte[][] duplIDs) throws Exception
+      {
+      }
+
       @Override
       public void deleteDuplicateIDTransactional(final long txID, final long recordID) throws Exception
       {
@@ -1152,6 +1177,22 @@ public class PagingStoreImplTest extends UnitTestCase
       {
       }
 
+      @Override
+      public void storeReferences(final ServerMessage message,
+                                  final boolean storeMessage,
+                                  final long[] queueIDs,
+                                  final boolean last) throws Exception
+      {
+      }
+
+      @Override
+      public void storeReferencesTransactional(final long txID,
+                                               final ServerMessage message,
+                                               final boolean storeMessage,
+                                               final long[] queueIDs) throws Exception
+      {
+      }
+
       @Override
       public List<PersistedAddressSetting> recoverAddressSettings() throws Exception
       {
@@ -1288,6 +1329,18 @@ public class PagingStoreImplTest extends UnitTestCase
          return null;
       }
 
+      @Override
+      public AdaptiveBufferTimeout getAdaptiveBufferTimeout()
+      {
+         return null;
+      }
+
+      @Override
+      public JournalGroupCommit getGroupCommit()
+      {
+         return null;
+      }
+
       @Override
       public OperationContext newSingleThreadContext()
       {
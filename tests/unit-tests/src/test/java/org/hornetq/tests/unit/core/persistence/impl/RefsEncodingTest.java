@@ -0,0 +1,88 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.persistence.impl;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.api.core.HornetQBuffers;
+import org.hornetq.core.persistence.impl.journal.JournalStorageManager.RefsEncoding;
+import org.hornetq.tests.util.UnitTestCase;
+
+/**
+ * A RefsEncodingTest
+ */
+public class RefsEncodingTest extends UnitTestCase
+{
+
+   public void testCloseQueueIDsAsBitmap() throws Exception
+   {
+      long[] queueIDs = new long[500];
+
+      for (int i = 0; i < queueIDs.length; i++)
+      {
+         queueIDs[i] = 1000 + i * 3;
+      }
+
+      RefsEncoding encoding = assertRoundTrip(queueIDs);
+
+      // 1500 bits for 500 queues
+      Assert.assertTrue(encoding.getEncodeSize() < queueIDs.length * 8 / 2);
+   }
+
+   public void testDistantQueueIDsAsList() throws Exception
+   {
+      long[] queueIDs = new long[] { 5, 100000, 7, 2000000000000L, 42, 64, 63, 128 };
+
+      RefsEncoding encoding = assertRoundTrip(queueIDs);
+
+      Assert.assertEquals(1 + 4 + queueIDs.length * 8, encoding.getEncodeSize());
+   }
+
+   public void testWordBoundaries() throws Exception
+   {
+      assertRoundTrip(new long[] { 0, 63, 64, 127, 128, 129, 191, 192 });
+   }
+
+   private RefsEncoding assertRoundTrip(final long[] queueIDs)
+   {
+      RefsEncoding encoding = new RefsEncoding(queueIDs);
+
+      HornetQBuffer buffer = HornetQBuffers.fixedBuffer(encoding.getEncodeSize());
+
+      encoding.encode(buffer);
+
+      Assert.assertEquals(encoding.getEncodeSize(), buffer.writerIndex());
+
+      RefsEncoding decoded = new RefsEncoding();
+
+      decoded.decode(buffer);
+
+      Assert.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+
+      long[] expected = queueIDs.clone();
+
+      long[] actual = decoded.queueIDs.clone();
+
+      Arrays.sort(expected);
+
+      Arrays.sort(actual);
+
+      Assert.assertTrue(Arrays.equals(expected, actual));
+
+      return encoding;
+   }
+}
@@ -595,6 +595,11 @@ public class BindingsImplTest extends UnitTestCase
          return null;
       }
 
+      public HornetQBuffer getSharedEncodedBuffer()
+      {
+         return null;
+      }
+
       public int getEncodeSize()
       {
 
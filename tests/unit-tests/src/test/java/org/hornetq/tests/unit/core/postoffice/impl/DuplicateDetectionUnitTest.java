@@ -14,11 +14,14 @@
 package org.hornetq.tests.unit.core.postoffice.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
@@ -185,4 +188,178 @@ public class DuplicateDetectionUnitTest extends ServiceTestBase
       }
 
    }
+
+   public void testReloadSegmentedCache() throws Exception
+   {
+      JournalStorageManager journal = null;
+
+      try
+      {
+         clearData();
+
+         SimpleString ADDRESS = new SimpleString("address");
+
+         Configuration configuration = createDefaultConfig();
+
+         PostOffice postOffice = new FakePostOffice();
+
+         ScheduledExecutorService scheduledThreadPool = Executors.newScheduledThreadPool(HornetQDefaultConfiguration.DEFAULT_SCHEDULED_THREAD_POOL_MAX_SIZE);
+
+         HashMap<SimpleString, List<Pair<byte[], Long>>> mapDups = new HashMap<SimpleString, List<Pair<byte[], Long>>>();
+
+         journal = loadJournal(configuration, postOffice, scheduledThreadPool, mapDups);
+
+         // three segments, the last one being shorter
+         DuplicateIDCacheImpl cacheID = new DuplicateIDCacheImpl(ADDRESS, 2500, journal, true);
+
+         List<byte[]> added = new ArrayList<byte[]>();
+
+         for (int i = 0; i < 6000; i++)
+         {
+            byte[] id = RandomUtil.randomBytes();
+
+            added.add(id);
+
+            cacheID.addToCache(id, null);
+         }
+
+         byte[] deleted = added.get(5000);
+
+         cacheID.deleteFromCache(deleted);
+
+         Assert.assertFalse(cacheID.contains(deleted));
+         Assert.assertTrue(cacheID.contains(added.get(3500)));
+         Assert.assertFalse(cacheID.contains(added.get(3499)));
+
+         journal.stop();
+
+         mapDups.clear();
+
+         journal = loadJournal(configuration, postOffice, scheduledThreadPool, mapDups);
+
+         List<Pair<byte[], Long>> values = mapDups.get(ADDRESS);
+
+         Assert.assertEquals(2499, values.size());
+
+         // oldest first
+         Assert.assertTrue(Arrays.equals(added.get(3500), values.get(0).getA()));
+         Assert.assertTrue(Arrays.equals(added.get(5999), values.get(2498).getA()));
+
+         cacheID = new DuplicateIDCacheImpl(ADDRESS, 2500, journal, true);
+         cacheID.load(values);
+
+         for (int i = 3500; i < 6000; i++)
+         {
+            Assert.assertEquals(i != 5000, cacheID.contains(added.get(i)));
+         }
+
+         for (int i = 0; i < 10; i++)
+         {
+            cacheID.addToCache(RandomUtil.randomBytes(), null);
+         }
+
+         journal.stop();
+
+         mapDups.clear();
+
+         journal = loadJournal(configuration, postOffice, scheduledThreadPool, mapDups);
+
+         values = mapDups.get(ADDRESS);
+
+         Assert.assertEquals(2500, values.size());
+
+         Assert.assertTrue(Arrays.equals(added.get(3509), values.get(0).getA()));
+      }
+      finally
+      {
+         if (journal != null)
+         {
+            try
+            {
+               journal.stop();
+            }
+            catch (Throwable ignored)
+            {
+            }
+         }
+      }
+   }
+
+   public void testContainsWhileAdding() throws Exception
+   {
+      final DuplicateIDCacheImpl cacheID = new DuplicateIDCacheImpl(new SimpleString("address"), 1000, null, false);
+
+      final AtomicInteger added = new AtomicInteger(0);
+
+      final AtomicBoolean missed = new AtomicBoolean(false);
+
+      Thread[] readers = new Thread[4];
+
+      for (int i = 0; i < readers.length; i++)
+      {
+         readers[i] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               while (added.get() < 100000)
+               {
+                  int last = added.get();
+
+                  for (int id = Math.max(0, last - 500); id < last; id += 7)
+                  {
+                     // a miss only counts if not enough ids were added since to push the id out of the ring
+                     if (!cacheID.contains(toBytes(id)) && added.get() < id + 1000)
+                     {
+                        missed.set(true);
+                     }
+                  }
+               }
+            }
+         };
+
+         readers[i].start();
+      }
+
+      for (int id = 0; id < 100000; id++)
+      {
+         cacheID.addToCache(toBytes(id), null);
+
+         added.set(id + 1);
+      }
+
+      for (Thread reader : readers)
+      {
+         reader.join();
+      }
+
+      Assert.assertFalse(missed.get());
+
+      Assert.assertTrue(cacheID.contains(toBytes(99999)));
+      Assert.assertFalse(cacheID.contains(toBytes(98999)));
+   }
+
+   private static byte[] toBytes(final int id)
+   {
+      return new byte[]{(byte)(id >>> 24), (byte)(id >>> 16), (byte)(id >>> 8), (byte)id};
+   }
+
+   private JournalStorageManager loadJournal(final Configuration configuration,
+                                             final PostOffice postOffice,
+                                             final ScheduledExecutorService scheduledThreadPool,
+                                             final HashMap<SimpleString, List<Pair<byte[], Long>>> mapDups) throws Exception
+   {
+      JournalStorageManager journal = new JournalStorageManager(configuration, factory, null);
+      journal.start();
+      journal.loadBindingJournal(new ArrayList<QueueBindingInfo>(), new ArrayList<GroupingInfo>());
+
+      journal.loadMessageJournal(postOffice,
+                                 new FakePagingManager(),
+                                 new ResourceManagerImpl(0, 0, scheduledThreadPool),
+                                 new HashMap<Long, Queue>(),
+                                 null,
+                                 mapDups,
+                                 null);
+      return journal;
+   }
 }
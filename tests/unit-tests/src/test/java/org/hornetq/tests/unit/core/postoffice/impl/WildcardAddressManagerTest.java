@@ -0,0 +1,265 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.postoffice.impl;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.filter.Filter;
+import org.hornetq.core.postoffice.Binding;
+import org.hornetq.core.postoffice.BindingType;
+import org.hornetq.core.postoffice.Bindings;
+import org.hornetq.core.postoffice.BindingsFactory;
+import org.hornetq.core.postoffice.impl.BindingsImpl;
+import org.hornetq.core.postoffice.impl.WildcardAddressManager;
+import org.hornetq.core.server.Bindable;
+import org.hornetq.core.server.RoutingContext;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.tests.util.UnitTestCase;
+
+/**
+ * A WildcardAddressManagerTest
+ */
+public class WildcardAddressManagerTest extends UnitTestCase
+{
+   private WildcardAddressManager manager;
+
+   private long nextID;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      manager = new WildcardAddressManager(new BindingsFactory()
+      {
+         public Bindings createBindings(final SimpleString address) throws Exception
+         {
+            return new BindingsImpl(address, null, null);
+         }
+      });
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      manager = null;
+
+      super.tearDown();
+   }
+
+   public void testWildCardBindingsAreAddedToMatchingAddresses() throws Exception
+   {
+      addBinding("a.b", "q1");
+      addBinding("a.c", "q2");
+      addBinding("x.b", "q3");
+
+      addBinding("a.*", "w1");
+
+      assertBindings("a.b", "q1", "w1");
+      assertBindings("a.c", "q2", "w1");
+      assertBindings("x.b", "q3");
+
+      addBinding("#.b", "w2");
+
+      assertBindings("a.b", "q1", "w1", "w2");
+      assertBindings("a.c", "q2", "w1");
+      assertBindings("x.b", "q3", "w2");
+   }
+
+   public void testAddressesGetTheExistingWildCardBindings() throws Exception
+   {
+      addBinding("a.*", "w1");
+      addBinding("a.#", "w2");
+      addBinding("*.b.*", "w3");
+
+      addBinding("a", "q1");
+      addBinding("a.b.c", "q2");
+      addBinding("a.b", "q3");
+      addBinding("a.b", "q4");
+
+      assertBindings("a", "q1", "w2");
+      assertBindings("a.b.c", "q2", "w2", "w3");
+      assertBindings("a.b", "q3", "q4", "w1", "w2");
+   }
+
+   public void testRoutingToAddressWithoutBindings() throws Exception
+   {
+      Assert.assertNull(manager.getBindingsForRoutingAddress(new SimpleString("a.b")));
+
+      addBinding("a.*", "w1");
+
+      assertBindings("a.b", "w1");
+      Assert.assertNull(manager.getBindingsForRoutingAddress(new SimpleString("x.b")));
+      Assert.assertNull(manager.getBindingsForRoutingAddress(new SimpleString("a.b.c")));
+
+      // the address now has a binding of its own as well
+      addBinding("a.b", "q1");
+
+      assertBindings("a.b", "q1", "w1");
+
+      manager.removeBinding(new SimpleString("w1"));
+
+      assertBindings("a.b", "q1");
+   }
+
+   public void testRemoveBindings() throws Exception
+   {
+      addBinding("a.b", "q1");
+      addBinding("a.b", "q2");
+      addBinding("a.c", "q3");
+      addBinding("a.*", "w1");
+      addBinding("a.*", "w2");
+
+      manager.removeBinding(new SimpleString("w1"));
+
+      assertBindings("a.b", "q1", "q2", "w2");
+      assertBindings("a.c", "q3", "w2");
+
+      // the wildcard bindings stay while the address has a binding of its own
+      manager.removeBinding(new SimpleString("q1"));
+
+      assertBindings("a.b", "q2", "w2");
+
+      manager.removeBinding(new SimpleString("q2"));
+      manager.removeBinding(new SimpleString("w2"));
+
+      Assert.assertNull(manager.getBindingsForRoutingAddress(new SimpleString("a.b")));
+      assertBindings("a.c", "q3");
+
+      manager.removeBinding(new SimpleString("q3"));
+
+      Assert.assertNull(manager.getBindingsForRoutingAddress(new SimpleString("a.c")));
+      Assert.assertTrue(manager.getBindings().isEmpty());
+
+      // nothing is left behind
+      addBinding("a.*", "w3");
+      addBinding("a.b", "q4");
+
+      assertBindings("a.b", "q4", "w3");
+   }
+
+   // Private -------------------------------------------------------
+
+   private void addBinding(final String address, final String name) throws Exception
+   {
+      manager.addBinding(new FakeBinding(new SimpleString(address), new SimpleString(name), nextID++));
+   }
+
+   private void assertBindings(final String address, final String... names) throws Exception
+   {
+      Bindings bindings = manager.getBindingsForRoutingAddress(new SimpleString(address));
+
+      Assert.assertNotNull(bindings);
+
+      Set<String> expected = new HashSet<String>();
+
+      for (String name : names)
+      {
+         expected.add(name);
+      }
+
+      Set<String> actual = new HashSet<String>();
+
+      for (Binding binding : bindings.getBindings())
+      {
+         actual.add(binding.getUniqueName().toString());
+      }
+
+      Assert.assertEquals(expected, actual);
+      Assert.assertEquals(names.length, bindings.getBindings().size());
+   }
+
+   private static final class FakeBinding implements Binding
+   {
+      private final SimpleString address;
+
+      private final SimpleString name;
+
+      private final long id;
+
+      FakeBinding(final SimpleString address, final SimpleString name, final long id)
+      {
+         this.address = address;
+         this.name = name;
+         this.id = id;
+      }
+
+      public SimpleString getAddress()
+      {
+         return address;
+      }
+
+      public Bindable getBindable()
+      {
+         return null;
+      }
+
+      public BindingType getType()
+      {
+         return BindingType.LOCAL_QUEUE;
+      }
+
+      public SimpleString getUniqueName()
+      {
+         return name;
+      }
+
+      public SimpleString getRoutingName()
+      {
+         return name;
+      }
+
+      public SimpleString getClusterName()
+      {
+         return name;
+      }
+
+      public Filter getFilter()
+      {
+         return null;
+      }
+
+      public boolean isHighAcceptPriority(final ServerMessage message)
+      {
+         return false;
+      }
+
+      public boolean isExclusive()
+      {
+         return false;
+      }
+
+      public long getID()
+      {
+         return id;
+      }
+
+      public int getDistance()
+      {
+         return 0;
+      }
+
+      public void route(final ServerMessage message, final RoutingContext context) throws Exception
+      {
+      }
+
+      public void close() throws Exception
+      {
+      }
+   }
+}
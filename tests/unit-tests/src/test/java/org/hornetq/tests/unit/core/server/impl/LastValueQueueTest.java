@@ -0,0 +1,491 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.server.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.hornetq.api.core.Message;
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.filter.Filter;
+import org.hornetq.core.server.Consumer;
+import org.hornetq.core.server.DeliveryBatch;
+import org.hornetq.core.server.HandleStatus;
+import org.hornetq.core.server.MessageReference;
+import org.hornetq.core.server.impl.LastValueQueue;
+import org.hornetq.core.settings.HierarchicalRepository;
+import org.hornetq.core.settings.impl.AddressSettings;
+import org.hornetq.core.settings.impl.HierarchicalObjectRepository;
+import org.hornetq.tests.util.UnitTestCase;
+import org.hornetq.utils.LinkedListIterator;
+
+/**
+ * A LastValueQueueTest
+ */
+public class LastValueQueueTest extends UnitTestCase
+{
+   private static final SimpleString queue1 = new SimpleString("queue1");
+
+   private static final SimpleString address1 = new SimpleString("address1");
+
+   private ScheduledExecutorService scheduledExecutor;
+
+   private ExecutorService executor;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+      executor = Executors.newSingleThreadExecutor();
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      scheduledExecutor.shutdownNow();
+      executor.shutdownNow();
+      super.tearDown();
+   }
+
+   public void testLastValueReplacesThePreviousOnes() throws Exception
+   {
+      LastValueQueue queue = createQueue();
+
+      final int numMessages = 100;
+
+      for (int i = 0; i < numMessages; i++)
+      {
+         queue.addTail(generateReference(queue, i, "key"));
+      }
+
+      queue.addTail(generateReference(queue, numMessages, null));
+
+      queue.flushExecutor();
+
+      Assert.assertEquals(2, queue.getMessageCount());
+
+      LastValueConsumer consumer = new LastValueConsumer();
+
+      queue.addConsumer(consumer);
+
+      queue.deliverNow();
+
+      Assert.assertEquals(2, consumer.getReferences().size());
+      Assert.assertEquals(numMessages - 1, consumer.getReferences().get(0).getMessage().getMessageID());
+      Assert.assertEquals(numMessages, consumer.getReferences().get(1).getMessage().getMessageID());
+
+      acknowledgeAll(queue, consumer);
+
+      Assert.assertEquals(0, queue.getMessageCount());
+      Assert.assertEquals(0, queue.getDeliveringCount());
+   }
+
+   public void testValueAfterDeliveryIsQueuedAgain() throws Exception
+   {
+      LastValueQueue queue = createQueue();
+
+      LastValueConsumer consumer = new LastValueConsumer();
+
+      queue.addConsumer(consumer);
+
+      queue.addTail(generateReference(queue, 1, "key"));
+
+      queue.deliverNow();
+
+      Assert.assertEquals(1, consumer.getReferences().size());
+
+      queue.removeConsumer(consumer);
+
+      // the first value is being delivered, the new ones must not replace it
+      queue.addTail(generateReference(queue, 2, "key"));
+      queue.addTail(generateReference(queue, 3, "key"));
+
+      queue.flushExecutor();
+
+      queue.addConsumer(consumer);
+
+      queue.deliverNow();
+
+      Assert.assertEquals(2, consumer.getReferences().size());
+      Assert.assertEquals(1, consumer.getReferences().get(0).getMessage().getMessageID());
+      Assert.assertEquals(3, consumer.getReferences().get(1).getMessage().getMessageID());
+
+      acknowledgeAll(queue, consumer);
+
+      Assert.assertEquals(0, queue.getMessageCount());
+      Assert.assertEquals(0, queue.getDeliveringCount());
+   }
+
+   public void testReturnedValue() throws Exception
+   {
+      LastValueQueue queue = createQueue();
+
+      LastValueConsumer consumer = new LastValueConsumer();
+
+      queue.addConsumer(consumer);
+
+      queue.addTail(generateReference(queue, 1, "key1"));
+      queue.addTail(generateReference(queue, 2, "key2"));
+
+      queue.deliverNow();
+
+      List<MessageReference> delivered = consumer.getReferences();
+
+      Assert.assertEquals(2, delivered.size());
+
+      consumer.clearReferences();
+
+      queue.removeConsumer(consumer);
+
+      queue.addTail(generateReference(queue, 3, "key1"));
+
+      queue.flushExecutor();
+
+      // as on a rollback: the value of key1 is older than the one in the queue and is dropped, the one of key2 is
+      // queued again and can still be replaced
+      queue.addHead(delivered);
+
+      queue.addTail(generateReference(queue, 4, "key2"));
+
+      queue.flushExecutor();
+
+      queue.addConsumer(consumer);
+
+      queue.deliverNow();
+
+      Assert.assertEquals(2, consumer.getReferences().size());
+      Assert.assertEquals(4, consumer.getReferences().get(0).getMessage().getMessageID());
+      Assert.assertEquals(3, consumer.getReferences().get(1).getMessage().getMessageID());
+   }
+
+   public void testBrowserSeesTheLastValue() throws Exception
+   {
+      LastValueQueue queue = createQueue();
+
+      queue.addTail(generateReference(queue, 1, "key"));
+
+      queue.flushExecutor();
+
+      queue.addTail(generateReference(queue, 2, "key"));
+
+      LinkedListIterator<MessageReference> iterator = queue.iterator();
+
+      try
+      {
+         Assert.assertTrue(iterator.hasNext());
+         Assert.assertEquals(2, iterator.next().getMessage().getMessageID());
+         Assert.assertFalse(iterator.hasNext());
+      }
+      finally
+      {
+         iterator.close();
+      }
+   }
+
+   public void testConcurrentUpdates() throws Exception
+   {
+      final LastValueQueue queue = createQueue();
+
+      LastValueConsumer consumer = new LastValueConsumer();
+
+      queue.addConsumer(consumer);
+
+      final int numProducers = 4;
+
+      final int numKeys = 50;
+
+      final int numValues = 200;
+
+      final CyclicBarrier start = new CyclicBarrier(numProducers);
+
+      final CountDownLatch done = new CountDownLatch(numProducers);
+
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+      for (int i = 0; i < numProducers; i++)
+      {
+         final int producer = i;
+
+         Thread thread = new Thread("lvq-producer-" + i)
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  start.await();
+
+                  // each producer owns its keys, so the last value of a key is the last one it sends
+                  for (int value = 0; value < numValues; value++)
+                  {
+                     for (int key = producer; key < numKeys; key += numProducers)
+                     {
+                        queue.addTail(generateReference(queue, key * numValues + value, "key" + key));
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  failure.compareAndSet(null, e);
+               }
+               finally
+               {
+                  done.countDown();
+               }
+            }
+         };
+
+         thread.start();
+      }
+
+      Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+
+      Assert.assertNull(failure.get());
+
+      queue.deliverNow();
+
+      long[] lastValues = new long[numKeys];
+
+      for (int i = 0; i < numKeys; i++)
+      {
+         lastValues[i] = -1;
+      }
+
+      for (MessageReference ref : consumer.getReferences())
+      {
+         long id = ref.getMessage().getMessageID();
+
+         int key = (int)(id / numValues);
+
+         // a key never gets an older value, nor the same one twice
+         Assert.assertTrue(id > lastValues[key]);
+
+         lastValues[key] = id;
+      }
+
+      for (int i = 0; i < numKeys; i++)
+      {
+         Assert.assertEquals(i * numValues + numValues - 1, lastValues[i]);
+      }
+
+      acknowledgeAll(queue, consumer);
+
+      Assert.assertEquals(0, queue.getMessageCount());
+      Assert.assertEquals(0, queue.getDeliveringCount());
+   }
+
+   public void testConcurrentUpdatesWhileDelivering() throws Exception
+   {
+      final LastValueQueue queue = createQueue();
+
+      LastValueConsumer consumer = new LastValueConsumer();
+
+      queue.addConsumer(consumer);
+
+      final int numProducers = 4;
+
+      final int numKeys = 8;
+
+      final int numValues = 2000;
+
+      final CyclicBarrier start = new CyclicBarrier(numProducers + 1);
+
+      final CountDownLatch done = new CountDownLatch(numProducers);
+
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+      for (int i = 0; i < numProducers; i++)
+      {
+         final int producer = i;
+
+         Thread thread = new Thread("lvq-producer-" + i)
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  start.await();
+
+                  // a few keys per producer, so the holders are often sealed while a new value is offered
+                  for (int value = 0; value < numValues; value++)
+                  {
+                     for (int key = producer; key < numKeys; key += numProducers)
+                     {
+                        queue.addTail(generateReference(queue, key * numValues + value, "key" + key));
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  failure.compareAndSet(null, e);
+               }
+               finally
+               {
+                  done.countDown();
+               }
+            }
+         };
+
+         thread.start();
+      }
+
+      start.await();
+
+      // delivers as the values come, each delivery seals a holder
+      while (done.getCount() > 0)
+      {
+         queue.deliverNow();
+      }
+
+      Assert.assertNull(failure.get());
+
+      queue.flushExecutor();
+
+      queue.deliverNow();
+
+      long[] lastValues = new long[numKeys];
+
+      for (int i = 0; i < numKeys; i++)
+      {
+         lastValues[i] = -1;
+      }
+
+      for (MessageReference ref : consumer.getReferences())
+      {
+         long id = ref.getMessage().getMessageID();
+
+         int key = (int)(id / numValues);
+
+         // a key never gets an older value, nor the same one twice
+         Assert.assertTrue(id > lastValues[key]);
+
+         lastValues[key] = id;
+      }
+
+      // the newest value of each key is the last one delivered
+      for (int i = 0; i < numKeys; i++)
+      {
+         Assert.assertEquals(i * numValues + numValues - 1, lastValues[i]);
+      }
+
+      acknowledgeAll(queue, consumer);
+
+      Assert.assertEquals(0, queue.getMessageCount());
+      Assert.assertEquals(0, queue.getDeliveringCount());
+   }
+
+   // Private -------------------------------------------------------
+
+   private LastValueQueue createQueue()
+   {
+      HierarchicalRepository<AddressSettings> repository = new HierarchicalObjectRepository<AddressSettings>();
+
+      repository.setDefault(new AddressSettings());
+
+      return new LastValueQueue(1,
+                                LastValueQueueTest.address1,
+                                LastValueQueueTest.queue1,
+                                null,
+                                null,
+                                false,
+                                true,
+                                scheduledExecutor,
+                                null,
+                                null,
+                                repository,
+                                executor);
+   }
+
+   private MessageReference generateReference(final LastValueQueue queue, final long id, final String key)
+   {
+      MessageReference ref = generateReference(queue, id);
+
+      if (key != null)
+      {
+         ref.getMessage().putStringProperty(Message.HDR_LAST_VALUE_NAME, new SimpleString(key));
+      }
+
+      return ref;
+   }
+
+   private void acknowledgeAll(final LastValueQueue queue, final LastValueConsumer consumer) throws Exception
+   {
+      List<MessageReference> refs = consumer.getReferences();
+
+      consumer.clearReferences();
+
+      for (MessageReference ref : refs)
+      {
+         queue.acknowledge(ref);
+      }
+   }
+
+   /**
+    * Marks the references as handled, as the server consumers do.
+    */
+   private static final class LastValueConsumer implements Consumer
+   {
+      private final List<MessageReference> references = new ArrayList<MessageReference>();
+
+      public synchronized HandleStatus handle(final MessageReference reference)
+      {
+         reference.handled();
+
+         references.add(reference);
+
+         return HandleStatus.HANDLED;
+      }
+
+      public void handle(final DeliveryBatch batch) throws Exception
+      {
+         MessageReference ref;
+
+         while ((ref = batch.next()) != null)
+         {
+            batch.done(handle(ref));
+         }
+      }
+
+      public Filter getFilter()
+      {
+         return null;
+      }
+
+      public String debug()
+      {
+         return toString();
+      }
+
+      synchronized List<MessageReference> getReferences()
+      {
+         return new ArrayList<MessageReference>(references);
+      }
+
+      synchronized void clearReferences()
+      {
+         references.clear();
+      }
+   }
+}
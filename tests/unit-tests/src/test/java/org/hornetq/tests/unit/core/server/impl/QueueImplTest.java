@@ -13,30 +13,44 @@
 
 package org.hornetq.tests.unit.core.server.impl;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
+import org.hornetq.api.core.Message;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.filter.Filter;
 import org.hornetq.core.filter.impl.FilterImpl;
+import org.hornetq.core.paging.cursor.PageSubscription;
 import org.hornetq.core.server.Consumer;
 import org.hornetq.core.server.HandleStatus;
 import org.hornetq.core.server.MessageReference;
 import org.hornetq.core.server.ServerMessage;
 import org.hornetq.core.server.impl.QueueImpl;
+import org.hornetq.core.settings.HierarchicalRepository;
+import org.hornetq.core.settings.impl.AddressSettings;
+import org.hornetq.core.settings.impl.HierarchicalObjectRepository;
 import org.hornetq.tests.unit.core.server.impl.fakes.FakeConsumer;
 import org.hornetq.tests.unit.core.server.impl.fakes.FakeFilter;
 import org.hornetq.tests.unit.core.server.impl.fakes.FakePostOffice;
 import org.hornetq.tests.util.UnitTestCase;
 import org.hornetq.utils.FutureLatch;
+import org.hornetq.utils.LinkedListIterator;
 
 /**
  * A QueueTest
@@ -1138,8 +1152,505 @@ public class QueueImplTest extends UnitTestCase
       Assert.assertEquals(20, queue.getDeliveringCount());
    }
 
+   public void testConsumersIndexedByFilterDirect() throws Exception
+   {
+      testConsumersIndexedByFilter(true);
+   }
+
+   public void testConsumersIndexedByFilterQueueing() throws Exception
+   {
+      testConsumersIndexedByFilter(false);
+   }
+
+   public void testConsumersIndexedByFilterRoundRobin() throws Exception
+   {
+      QueueImpl queue = new QueueImpl(1,
+                                      QueueImplTest.address1,
+                                      QueueImplTest.queue1,
+                                      null,
+                                      false,
+                                      true,
+                                      scheduledExecutor,
+                                      new FakePostOffice(),
+                                      null,
+                                      null,
+                                      executor);
+
+      FakeConsumer red1 = new FakeConsumer(FilterImpl.createFilter("color = 'red'"));
+      FakeConsumer blue = new FakeConsumer(FilterImpl.createFilter("color = 'blue'"));
+      FakeConsumer red2 = new FakeConsumer(FilterImpl.createFilter("color IN ('red', 'green')"));
+      FakeConsumer all = new FakeConsumer();
+
+      queue.addConsumer(red1);
+      queue.addConsumer(blue);
+      queue.addConsumer(red2);
+      queue.addConsumer(all);
+
+      for (int i = 0; i < 9; i++)
+      {
+         queue.addTail(generateReference(queue, i, "red"), true);
+      }
+
+      // the red references go round the consumers that can take them
+      Assert.assertEquals(3, red1.getReferences().size());
+      Assert.assertEquals(0, blue.getReferences().size());
+      Assert.assertEquals(3, red2.getReferences().size());
+      Assert.assertEquals(3, all.getReferences().size());
+
+      red1.setStatusImmediate(HandleStatus.BUSY);
+
+      for (int i = 10; i < 14; i++)
+      {
+         queue.addTail(generateReference(queue, i, "red"), true);
+      }
+
+      Assert.assertEquals(3, red1.getReferences().size());
+      Assert.assertEquals(5, red2.getReferences().size());
+      Assert.assertEquals(5, all.getReferences().size());
+
+      queue.removeConsumer(red2);
+
+      queue.addTail(generateReference(queue, 20, "green"), true);
+      queue.addTail(generateReference(queue, 21, "blue"), true);
+
+      Assert.assertEquals(1, blue.getReferences().size());
+      Assert.assertEquals(6, all.getReferences().size());
+      Assert.assertEquals(0, queue.getMessageCount() - queue.getDeliveringCount());
+   }
+
    // Private ------------------------------------------------------------------------------
 
+   private void testConsumersIndexedByFilter(final boolean direct) throws Exception
+   {
+      QueueImpl queue = new QueueImpl(1,
+                                      QueueImplTest.address1,
+                                      QueueImplTest.queue1,
+                                      null,
+                                      false,
+                                      true,
+                                      scheduledExecutor,
+                                      new FakePostOffice(),
+                                      null,
+                                      null,
+                                      executor);
+
+      String[] filters = new String[] { "color = 'red'",
+                                       "color IN ('blue', 'green')",
+                                       "color = 'green' AND size > 5",
+                                       "color = 'red' OR color = 'yellow'",
+                                       "color LIKE 'b%'",
+                                       "size > 5" };
+
+      List<FakeConsumer> consumers = new ArrayList<FakeConsumer>();
+
+      for (String filter : filters)
+      {
+         consumers.add(new FakeConsumer(FilterImpl.createFilter(filter)));
+      }
+
+      if (direct)
+      {
+         for (FakeConsumer consumer : consumers)
+         {
+            queue.addConsumer(consumer);
+         }
+      }
+
+      String[] colors = new String[] { "red", "blue", "green", "yellow", "white", null };
+
+      int numMessages = 0;
+
+      for (String color : colors)
+      {
+         for (int size = 0; size < 10; size++)
+         {
+            MessageReference ref = generateReference(queue, numMessages++, color);
+
+            ref.getMessage().putIntProperty(new SimpleString("size"), size);
+
+            queue.addTail(ref, direct);
+         }
+      }
+
+      if (!direct)
+      {
+         for (FakeConsumer consumer : consumers)
+         {
+            queue.addConsumer(consumer);
+         }
+
+         queue.deliverNow();
+      }
+
+      awaitExecution();
+
+      int delivered = 0;
+
+      for (FakeConsumer consumer : consumers)
+      {
+         for (MessageReference ref : consumer.getReferences())
+         {
+            Assert.assertTrue(consumer.getFilter().match(ref.getMessage()));
+         }
+
+         delivered += consumer.getReferences().size();
+      }
+
+      // all but the white and the no color ones up to size 5 have a consumer
+      Assert.assertEquals(numMessages - 12, delivered);
+      Assert.assertEquals(numMessages - 12, queue.getDeliveringCount());
+      Assert.assertEquals(numMessages, queue.getMessageCount());
+   }
+
+   public void testDeliveryBatch() throws Exception
+   {
+      QueueImpl queue = createBatchQueue(4);
+
+      final int numMessages = 10;
+
+      List<MessageReference> refs = new ArrayList<MessageReference>();
+
+      for (int i = 0; i < numMessages; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+
+         refs.add(ref);
+
+         queue.addTail(ref);
+      }
+
+      FakeConsumer consumer1 = new FakeConsumer();
+
+      FakeConsumer consumer2 = new FakeConsumer();
+
+      // the messages are all on the list before the consumers are there
+      queue.flushExecutor();
+
+      // so the first consumer doesn't take everything before the second one is added
+      queue.pause();
+
+      queue.addConsumer(consumer1);
+
+      queue.addConsumer(consumer2);
+
+      queue.resume();
+
+      queue.deliverNow();
+
+      // the consumers take up to 4 messages in a row
+      List<MessageReference> refs1 = new ArrayList<MessageReference>(refs.subList(0, 4));
+      refs1.addAll(refs.subList(8, 10));
+
+      assertRefListsIdenticalRefs(refs1, consumer1.getReferences());
+      assertRefListsIdenticalRefs(refs.subList(4, 8), consumer2.getReferences());
+      Assert.assertEquals(numMessages, queue.getDeliveringCount());
+   }
+
+   public void testDeliveryBatchBusyConsumer() throws Exception
+   {
+      QueueImpl queue = createBatchQueue(10);
+
+      final int numMessages = 10;
+
+      List<MessageReference> refs = new ArrayList<MessageReference>();
+
+      for (int i = 0; i < numMessages; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+
+         refs.add(ref);
+
+         queue.addTail(ref);
+      }
+
+      FakeConsumer consumer = new FakeConsumer();
+
+      consumer.setStatusDelayed(HandleStatus.BUSY, 3);
+
+      queue.flushExecutor();
+
+      queue.addConsumer(consumer);
+
+      queue.deliverNow();
+
+      assertRefListsIdenticalRefs(refs.subList(0, 3), consumer.getReferences());
+      Assert.assertEquals(3, queue.getDeliveringCount());
+
+      consumer.setStatusImmediate(HandleStatus.HANDLED);
+
+      queue.deliverNow();
+
+      assertRefListsIdenticalRefs(refs, consumer.getReferences());
+      Assert.assertEquals(numMessages, queue.getDeliveringCount());
+   }
+
+   public void testDeliveryBatchFilterAndGroups() throws Exception
+   {
+      QueueImpl queue = createBatchQueue(10);
+
+      FakeConsumer red = new FakeConsumer(FilterImpl.createFilter("color = 'red'"));
+
+      FakeConsumer any = new FakeConsumer();
+
+      queue.addConsumer(red);
+
+      queue.addConsumer(any);
+
+      // so the messages are delivered in batches rather than directly
+      queue.pause();
+
+      final int numMessages = 12;
+
+      for (int i = 0; i < numMessages; i++)
+      {
+         MessageReference ref = generateReference(queue, i, i % 2 == 0 ? "red" : "green");
+
+         if (i % 6 == 0)
+         {
+            ref.getMessage().putStringProperty(Message.HDR_GROUP_ID, new SimpleString("group"));
+         }
+
+         queue.addTail(ref);
+      }
+
+      queue.resume();
+
+      queue.deliverNow();
+
+      Assert.assertEquals(numMessages, red.getReferences().size() + any.getReferences().size());
+
+      for (MessageReference ref : red.getReferences())
+      {
+         Assert.assertEquals(new SimpleString("red"), ref.getMessage().getSimpleStringProperty(new SimpleString("color")));
+      }
+
+      // the grouped messages are red, so the group belongs to the red consumer
+      for (MessageReference ref : any.getReferences())
+      {
+         Assert.assertNull(ref.getMessage().getSimpleStringProperty(Message.HDR_GROUP_ID));
+      }
+   }
+
+   public void testExpireReferences() throws Exception
+   {
+      QueueImpl queue = createBatchQueue(1);
+
+      long now = System.currentTimeMillis();
+
+      for (int i = 0; i < 9; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+
+         if (i % 3 == 1)
+         {
+            ref.getMessage().setExpiration(now - 1000);
+         }
+         else if (i % 3 == 2)
+         {
+            ref.getMessage().setExpiration(now + 100000);
+         }
+
+         queue.addTail(ref);
+      }
+
+      queue.flushExecutor();
+
+      Assert.assertEquals(9, queue.getMessageCount());
+
+      queue.expireReferences();
+
+      Assert.assertEquals(6, queue.getMessageCount());
+
+      MessageReference ref = generateReference(queue, 9);
+
+      ref.getMessage().setExpiration(System.currentTimeMillis() + 200);
+
+      queue.addTail(ref);
+
+      queue.flushExecutor();
+
+      queue.expireReferences();
+
+      Assert.assertEquals(7, queue.getMessageCount());
+
+      Thread.sleep(300);
+
+      queue.expireReferences();
+
+      Assert.assertEquals(6, queue.getMessageCount());
+
+      Set<Long> ids = new HashSet<Long>();
+
+      LinkedListIterator<MessageReference> iterator = queue.iterator();
+
+      while (iterator.hasNext())
+      {
+         ids.add(iterator.next().getMessage().getMessageID());
+      }
+
+      iterator.close();
+
+      Assert.assertEquals(new HashSet<Long>(Arrays.asList(0L, 2L, 3L, 5L, 6L, 8L)), ids);
+   }
+
+   public void testExpireReferencesSkipsQueueWithNothingToExpire() throws Exception
+   {
+      CountingExecutor countingExecutor = new CountingExecutor(executor);
+
+      QueueImpl queue = new QueueImpl(1,
+                                      QueueImplTest.address1,
+                                      QueueImplTest.queue1,
+                                      null,
+                                      createPageSubscription(false, countingExecutor),
+                                      false,
+                                      true,
+                                      scheduledExecutor,
+                                      null,
+                                      null,
+                                      null,
+                                      countingExecutor);
+
+      for (int i = 0; i < 10; i++)
+      {
+         queue.addTail(generateReference(queue, i));
+      }
+
+      queue.flushExecutor();
+
+      int executions = countingExecutor.getCount();
+
+      // the queue has a page subscription, but it isn't paging
+      queue.expireReferences();
+
+      Assert.assertEquals(executions, countingExecutor.getCount());
+   }
+
+   public void testExpireReferencesForgetsRemovedReferences() throws Exception
+   {
+      CountingExecutor countingExecutor = new CountingExecutor(executor);
+
+      QueueImpl queue = new QueueImpl(1,
+                                      QueueImplTest.address1,
+                                      QueueImplTest.queue1,
+                                      null,
+                                      createPageSubscription(false, countingExecutor),
+                                      false,
+                                      true,
+                                      scheduledExecutor,
+                                      null,
+                                      null,
+                                      null,
+                                      countingExecutor);
+
+      long expiration = System.currentTimeMillis() + 100;
+
+      for (int i = 0; i < 10; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+
+         ref.getMessage().setExpiration(expiration);
+
+         queue.addTail(ref);
+      }
+
+      queue.flushExecutor();
+
+      for (int i = 0; i < 9; i++)
+      {
+         Assert.assertNotNull(queue.removeReferenceWithID(i));
+      }
+
+      Thread.sleep(200);
+
+      queue.expireReferences();
+
+      queue.flushExecutor();
+
+      Assert.assertEquals(0, queue.getMessageCount());
+
+      int executions = countingExecutor.getCount();
+
+      // the removed references are not in the expiration index any more, so there is nothing left to expire
+      queue.expireReferences();
+
+      Assert.assertEquals(executions, countingExecutor.getCount());
+   }
+
+   public void testExpireReferencesOnPagingQueue() throws Exception
+   {
+      CountingExecutor countingExecutor = new CountingExecutor(executor);
+
+      QueueImpl queue = new QueueImpl(1,
+                                      QueueImplTest.address1,
+                                      QueueImplTest.queue1,
+                                      null,
+                                      createPageSubscription(true, countingExecutor),
+                                      false,
+                                      true,
+                                      scheduledExecutor,
+                                      null,
+                                      null,
+                                      null,
+                                      countingExecutor);
+
+      queue.addTail(generateReference(queue, 1));
+
+      queue.flushExecutor();
+
+      int executions = countingExecutor.getCount();
+
+      // the messages on the pages may have expired
+      queue.expireReferences();
+
+      Assert.assertEquals(executions + 1, countingExecutor.getCount());
+   }
+
+   private QueueImpl createBatchQueue(final int deliveryBatchSize)
+   {
+      AddressSettings settings = new AddressSettings();
+
+      settings.setDeliveryBatchSize(deliveryBatchSize);
+
+      HierarchicalRepository<AddressSettings> repository = new HierarchicalObjectRepository<AddressSettings>();
+
+      repository.setDefault(settings);
+
+      return new QueueImpl(1,
+                           QueueImplTest.address1,
+                           QueueImplTest.queue1,
+                           null,
+                           false,
+                           true,
+                           scheduledExecutor,
+                           null,
+                           null,
+                           repository,
+                           executor);
+   }
+
+   /**
+    * @return a page subscription without any paged message, which reports the given paging state
+    */
+   private PageSubscription createPageSubscription(final boolean paging, final Executor pageExecutor)
+   {
+      return (PageSubscription)Proxy.newProxyInstance(QueueImplTest.class.getClassLoader(),
+                                                      new Class[] { PageSubscription.class },
+                                                      new PageSubscriptionHandler(paging, pageExecutor));
+   }
+
+   private MessageReference generateReference(final QueueImpl queue, final long id, final String color)
+   {
+      MessageReference ref = generateReference(queue, id);
+
+      if (color != null)
+      {
+         ref.getMessage().putStringProperty(new SimpleString("color"), new SimpleString(color));
+      }
+
+      return ref;
+   }
+
+
    private void testConsumerWithFilters(final boolean direct) throws Exception
    {
       QueueImpl queue = new QueueImpl(1,
@@ -1501,4 +2012,93 @@ public class QueueImplTest extends UnitTestCase
       }
    }
 
+   /**
+    * Returns false, 0 or null on every call.
+    */
+   private static class DefaultsHandler implements InvocationHandler
+   {
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable
+      {
+         Class<?> type = method.getReturnType();
+
+         if (type == boolean.class)
+         {
+            return false;
+         }
+         else if (type == int.class)
+         {
+            return 0;
+         }
+         else if (type == long.class)
+         {
+            return 0L;
+         }
+
+         return null;
+      }
+   }
+
+   private static final class PageSubscriptionHandler extends DefaultsHandler
+   {
+      private final boolean paging;
+
+      private final Executor executor;
+
+      private final Object emptyIterator = Proxy.newProxyInstance(QueueImplTest.class.getClassLoader(),
+                                                                  new Class[] { LinkedListIterator.class },
+                                                                  new DefaultsHandler());
+
+      PageSubscriptionHandler(final boolean paging, final Executor executor)
+      {
+         this.paging = paging;
+
+         this.executor = executor;
+      }
+
+      @Override
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable
+      {
+         if (method.getName().equals("isPaging"))
+         {
+            return paging;
+         }
+         else if (method.getName().equals("getExecutor"))
+         {
+            return executor;
+         }
+         else if (method.getName().equals("iterator"))
+         {
+            return emptyIterator;
+         }
+
+         return super.invoke(proxy, method, args);
+      }
+   }
+
+   /**
+    * Counts the tasks given to the queue.
+    */
+   private static final class CountingExecutor implements Executor
+   {
+      private final Executor delegate;
+
+      private final AtomicInteger count = new AtomicInteger(0);
+
+      CountingExecutor(final Executor delegate)
+      {
+         this.delegate = delegate;
+      }
+
+      public void execute(final Runnable command)
+      {
+         count.incrementAndGet();
+
+         delegate.execute(command);
+      }
+
+      int getCount()
+      {
+         return count.get();
+      }
+   }
 }
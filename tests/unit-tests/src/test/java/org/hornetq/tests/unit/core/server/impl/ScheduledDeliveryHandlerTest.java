@@ -0,0 +1,257 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.server.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import junit.framework.Assert;
+
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.server.MessageReference;
+import org.hornetq.core.server.impl.QueueImpl;
+import org.hornetq.core.server.impl.ScheduledDeliveryHandlerImpl;
+import org.hornetq.tests.unit.core.server.impl.fakes.FakeFilter;
+import org.hornetq.tests.util.UnitTestCase;
+import org.hornetq.utils.LinkedListIterator;
+
+public class ScheduledDeliveryHandlerTest extends UnitTestCase
+{
+   private ScheduledExecutorService scheduledExecutor;
+
+   private ExecutorService executor;
+
+   private QueueImpl queue;
+
+   private ScheduledDeliveryHandlerImpl handler;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+      executor = Executors.newSingleThreadExecutor();
+      queue = new QueueImpl(1,
+                            new SimpleString("address1"),
+                            new SimpleString("queue1"),
+                            null,
+                            false,
+                            true,
+                            scheduledExecutor,
+                            null,
+                            null,
+                            null,
+                            executor);
+      handler = new ScheduledDeliveryHandlerImpl(scheduledExecutor);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      scheduledExecutor.shutdownNow();
+      executor.shutdownNow();
+      super.tearDown();
+   }
+
+   public void testSameTimeKeepsTheOrder() throws Exception
+   {
+      long time = System.currentTimeMillis() + 200;
+
+      List<MessageReference> tail = new ArrayList<MessageReference>();
+      List<MessageReference> head = new ArrayList<MessageReference>();
+
+      for (int i = 0; i < 10; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+         ref.setScheduledDeliveryTime(time);
+         tail.add(ref);
+         Assert.assertTrue(handler.checkAndSchedule(ref, true));
+
+         ref = generateReference(queue, 100 + i);
+         ref.setScheduledDeliveryTime(time);
+         head.add(ref);
+         Assert.assertTrue(handler.checkAndSchedule(ref, false));
+      }
+
+      Assert.assertEquals(20, handler.getScheduledCount());
+
+      waitForDelivery();
+
+      // the references that went back to the head come first, the latest first, as a plain addHead would put them
+      List<MessageReference> expected = new ArrayList<MessageReference>();
+
+      for (int i = head.size() - 1; i >= 0; i--)
+      {
+         expected.add(head.get(i));
+      }
+
+      expected.addAll(tail);
+
+      assertRefListsIdenticalRefs(expected, getQueuedReferences());
+
+      Assert.assertEquals(0, tail.get(0).getScheduledDeliveryTime());
+   }
+
+   public void testDeliveredAtTheirTime() throws Exception
+   {
+      long now = System.currentTimeMillis();
+
+      MessageReference late = schedule(1, now + 2000);
+      MessageReference middle = schedule(2, now + 700);
+      MessageReference early = schedule(3, now + 100);
+      MessageReference past = schedule(4, now - 1000);
+
+      Thread.sleep(50);
+
+      assertRefListsIdenticalRefs(list(past), getQueuedReferences());
+
+      waitForDelivery();
+
+      Assert.assertTrue(System.currentTimeMillis() >= now + 2000);
+
+      // each one went to the head when it was due
+      assertRefListsIdenticalRefs(list(late, middle, early, past), getQueuedReferences());
+   }
+
+   public void testRemoveAndCancel() throws Exception
+   {
+      long now = System.currentTimeMillis();
+
+      List<MessageReference> refs = new ArrayList<MessageReference>();
+
+      // spread over every level of the wheel, and beyond
+      for (int i = 0; i < 1000; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+         ref.setScheduledDeliveryTime(now + 60000 + (1L << i % 40));
+         if (i % 2 == 1)
+         {
+            ref.getMessage().putStringProperty("odd", "true");
+         }
+         Assert.assertTrue(handler.checkAndSchedule(ref, true));
+         refs.add(ref);
+      }
+
+      Assert.assertEquals(1000, handler.getScheduledCount());
+
+      Assert.assertSame(refs.get(10), handler.removeReferenceWithID(10));
+      Assert.assertNull(handler.removeReferenceWithID(10));
+      Assert.assertNull(handler.removeReferenceWithID(5000));
+
+      Assert.assertEquals(999, handler.getScheduledCount());
+
+      refs.remove(10);
+
+      List<MessageReference> odd = new ArrayList<MessageReference>();
+      List<MessageReference> even = new ArrayList<MessageReference>();
+
+      // the references scheduled on the tail are listed the latest first
+      for (int i = refs.size() - 1; i >= 0; i--)
+      {
+         (refs.get(i).getMessage().getMessageID() % 2 == 1 ? odd : even).add(refs.get(i));
+      }
+
+      assertRefListsIdenticalRefs(odd, handler.cancel(new FakeFilter("odd", "true")));
+
+      Assert.assertEquals(even.size(), handler.getScheduledCount());
+
+      assertRefListsIdenticalRefs(even, handler.getScheduledReferences());
+
+      assertRefListsIdenticalRefs(even, handler.cancel(null));
+
+      Assert.assertEquals(0, handler.getScheduledCount());
+      Assert.assertTrue(handler.getScheduledReferences().isEmpty());
+   }
+
+   public void testSameMessageTwice() throws Exception
+   {
+      long now = System.currentTimeMillis();
+
+      MessageReference ref1 = schedule(1, now + 60000);
+      MessageReference ref2 = generateReference(queue, 1);
+      ref2.setScheduledDeliveryTime(now + 30000);
+      handler.checkAndSchedule(ref2, true);
+
+      Assert.assertSame(ref1, handler.removeReferenceWithID(1));
+      Assert.assertSame(ref2, handler.removeReferenceWithID(1));
+      Assert.assertNull(handler.removeReferenceWithID(1));
+   }
+
+   public void testNotScheduled() throws Exception
+   {
+      MessageReference ref = generateReference(queue, 1);
+
+      Assert.assertFalse(handler.checkAndSchedule(ref, true));
+
+      Assert.assertEquals(0, handler.getScheduledCount());
+   }
+
+   // Private -------------------------------------------------------
+
+   private MessageReference schedule(final long id, final long time)
+   {
+      MessageReference ref = generateReference(queue, id);
+      ref.setScheduledDeliveryTime(time);
+      Assert.assertTrue(handler.checkAndSchedule(ref, true));
+      return ref;
+   }
+
+   private void waitForDelivery() throws Exception
+   {
+      long timeout = System.currentTimeMillis() + 10000;
+
+      while (handler.getScheduledCount() > 0 && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+
+      Assert.assertEquals(0, handler.getScheduledCount());
+   }
+
+   private List<MessageReference> getQueuedReferences()
+   {
+      List<MessageReference> refs = new ArrayList<MessageReference>();
+
+      LinkedListIterator<MessageReference> iterator = queue.iterator();
+
+      try
+      {
+         while (iterator.hasNext())
+         {
+            refs.add(iterator.next());
+         }
+      }
+      finally
+      {
+         iterator.close();
+      }
+
+      return refs;
+   }
+
+   private static List<MessageReference> list(final MessageReference... refs)
+   {
+      List<MessageReference> list = new ArrayList<MessageReference>();
+
+      for (MessageReference ref : refs)
+      {
+         list.add(ref);
+      }
+
+      return list;
+   }
+}
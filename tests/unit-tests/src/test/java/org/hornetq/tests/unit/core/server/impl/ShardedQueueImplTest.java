@@ -0,0 +1,299 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.server.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import junit.framework.Assert;
+
+import org.hornetq.api.core.Message;
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.server.HandleStatus;
+import org.hornetq.core.server.MessageReference;
+import org.hornetq.core.server.impl.ShardedQueueImpl;
+import org.hornetq.tests.unit.core.server.impl.fakes.FakeConsumer;
+import org.hornetq.tests.util.UnitTestCase;
+import org.hornetq.utils.LinkedListIterator;
+
+/**
+ * A ShardedQueueImplTest
+ */
+public class ShardedQueueImplTest extends UnitTestCase
+{
+   private static final SimpleString queue1 = new SimpleString("queue1");
+
+   private static final SimpleString address1 = new SimpleString("address1");
+
+   private static final int SHARDS = 3;
+
+   private ScheduledExecutorService scheduledExecutor;
+
+   private ExecutorService executor;
+
+   private ExecutorService[] shardExecutors;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+      executor = Executors.newSingleThreadExecutor();
+      shardExecutors = new ExecutorService[SHARDS];
+      for (int i = 0; i < SHARDS; i++)
+      {
+         shardExecutors[i] = Executors.newSingleThreadExecutor();
+      }
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      scheduledExecutor.shutdownNow();
+      executor.shutdownNow();
+      for (ExecutorService shardExecutor : shardExecutors)
+      {
+         shardExecutor.shutdownNow();
+      }
+      super.tearDown();
+   }
+
+   public void testDeliverThroughShards() throws Exception
+   {
+      ShardedQueueImpl queue = createQueue();
+
+      Assert.assertEquals(SHARDS, queue.getShardCount());
+
+      final int numMessages = 30;
+
+      List<MessageReference> refs = new ArrayList<MessageReference>();
+
+      for (int i = 0; i < numMessages; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+
+         refs.add(ref);
+
+         queue.addTail(ref);
+      }
+
+      Assert.assertEquals(numMessages, queue.getMessageCount());
+      Assert.assertEquals(0, queue.getDeliveringCount());
+
+      FakeConsumer consumer = new FakeConsumer();
+
+      queue.addConsumer(consumer);
+
+      Assert.assertEquals(1, queue.getConsumerCount());
+
+      queue.deliverNow();
+
+      Assert.assertEquals(numMessages, consumer.getReferences().size());
+      Assert.assertEquals(new HashSet<MessageReference>(refs),
+                          new HashSet<MessageReference>(consumer.getReferences()));
+      Assert.assertEquals(numMessages, queue.getMessageCount());
+      Assert.assertEquals(numMessages, queue.getDeliveringCount());
+
+      for (MessageReference ref : consumer.getReferences())
+      {
+         Assert.assertSame(queue, ref.getQueue());
+         queue.acknowledge(ref);
+      }
+
+      Assert.assertEquals(0, queue.getMessageCount());
+      Assert.assertEquals(0, queue.getDeliveringCount());
+      Assert.assertEquals(numMessages, queue.getMessagesAdded());
+   }
+
+   public void testGroupsStayInOrder() throws Exception
+   {
+      ShardedQueueImpl queue = createQueue();
+
+      FakeConsumer consumer = new FakeConsumer();
+
+      queue.addConsumer(consumer);
+
+      final int numGroups = 5;
+
+      final int numMessages = 100;
+
+      for (int i = 0; i < numMessages; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+
+         ref.getMessage().putStringProperty(Message.HDR_GROUP_ID, new SimpleString("group" + i % numGroups));
+
+         queue.addTail(ref);
+      }
+
+      queue.deliverNow();
+
+      Assert.assertEquals(numMessages, consumer.getReferences().size());
+
+      long[] lastIDs = new long[numGroups];
+
+      for (int i = 0; i < numGroups; i++)
+      {
+         lastIDs[i] = -1;
+      }
+
+      for (MessageReference ref : consumer.getReferences())
+      {
+         int group = (int)(ref.getMessage().getMessageID() % numGroups);
+
+         Assert.assertTrue(ref.getMessage().getMessageID() > lastIDs[group]);
+
+         lastIDs[group] = ref.getMessage().getMessageID();
+      }
+   }
+
+   public void testIteratorAndReferences() throws Exception
+   {
+      ShardedQueueImpl queue = createQueue();
+
+      final int numMessages = 10;
+
+      for (int i = 0; i < numMessages; i++)
+      {
+         queue.addTail(generateReference(queue, i));
+      }
+
+      // the shards move the new messages to their lists on their executors
+      queue.flushExecutor();
+
+      Set<Long> ids = new HashSet<Long>();
+
+      LinkedListIterator<MessageReference> iterator = queue.iterator();
+
+      try
+      {
+         while (iterator.hasNext())
+         {
+            ids.add(iterator.next().getMessage().getMessageID());
+         }
+      }
+      finally
+      {
+         iterator.close();
+      }
+
+      Assert.assertEquals(numMessages, ids.size());
+
+      Assert.assertEquals(5, queue.getReference(5).getMessage().getMessageID());
+
+      MessageReference removed = queue.removeReferenceWithID(7);
+
+      Assert.assertNotNull(removed);
+      Assert.assertEquals(7, removed.getMessage().getMessageID());
+      Assert.assertNull(queue.getReference(7));
+      Assert.assertNull(queue.removeReferenceWithID(7));
+      Assert.assertEquals(numMessages - 1, queue.getMessageCount());
+   }
+
+   public void testPauseAndResume() throws Exception
+   {
+      ShardedQueueImpl queue = createQueue();
+
+      FakeConsumer consumer = new FakeConsumer();
+
+      queue.addConsumer(consumer);
+
+      queue.pause();
+
+      Assert.assertTrue(queue.isPaused());
+
+      final int numMessages = 10;
+
+      for (int i = 0; i < numMessages; i++)
+      {
+         queue.addTail(generateReference(queue, i));
+      }
+
+      queue.deliverNow();
+
+      Assert.assertTrue(consumer.getReferences().isEmpty());
+      Assert.assertEquals(numMessages, queue.getMessageCount());
+
+      queue.resume();
+
+      queue.deliverNow();
+
+      Assert.assertFalse(queue.isPaused());
+      Assert.assertEquals(numMessages, consumer.getReferences().size());
+   }
+
+   public void testBusyConsumerAndRemoveConsumer() throws Exception
+   {
+      ShardedQueueImpl queue = createQueue();
+
+      FakeConsumer busy = new FakeConsumer();
+
+      busy.setStatusImmediate(HandleStatus.BUSY);
+
+      queue.addConsumer(busy);
+
+      final int numMessages = 10;
+
+      for (int i = 0; i < numMessages; i++)
+      {
+         queue.addTail(generateReference(queue, i));
+      }
+
+      queue.deliverNow();
+
+      Assert.assertTrue(busy.getReferences().isEmpty());
+
+      queue.removeConsumer(busy);
+
+      Assert.assertEquals(0, queue.getConsumerCount());
+
+      FakeConsumer consumer = new FakeConsumer();
+
+      queue.addConsumer(consumer);
+
+      queue.deliverNow();
+
+      Assert.assertEquals(numMessages, consumer.getReferences().size());
+      Assert.assertTrue(busy.getReferences().isEmpty());
+   }
+
+   // Private -------------------------------------------------------
+
+   private ShardedQueueImpl createQueue()
+   {
+      Executor[] executors = new Executor[SHARDS];
+
+      System.arraycopy(shardExecutors, 0, executors, 0, SHARDS);
+
+      return new ShardedQueueImpl(1,
+                                  ShardedQueueImplTest.address1,
+                                  ShardedQueueImplTest.queue1,
+                                  null,
+                                  null,
+                                  false,
+                                  true,
+                                  scheduledExecutor,
+                                  null,
+                                  null,
+                                  null,
+                                  executor,
+                                  executors);
+   }
+}
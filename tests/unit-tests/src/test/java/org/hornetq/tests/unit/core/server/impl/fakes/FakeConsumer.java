@@ -18,6 +18,7 @@ import java.util.List;
 
 import org.hornetq.core.filter.Filter;
 import org.hornetq.core.server.Consumer;
+import org.hornetq.core.server.DeliveryBatch;
 import org.hornetq.core.server.HandleStatus;
 import org.hornetq.core.server.MessageReference;
 
@@ -105,6 +106,16 @@ public class FakeConsumer implements Consumer
       references.clear();
    }
 
+   public void handle(final DeliveryBatch batch) throws Exception
+   {
+      MessageReference ref;
+
+      while ((ref = batch.next()) != null)
+      {
+         batch.done(handle(ref));
+      }
+   }
+
    public synchronized HandleStatus handle(final MessageReference reference)
    {
       if (statusToReturn == HandleStatus.BUSY)
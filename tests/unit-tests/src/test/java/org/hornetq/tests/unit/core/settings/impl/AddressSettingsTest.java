@@ -38,6 +38,8 @@ public class AddressSettingsTest extends UnitTestCase
       Assert.assertEquals(AddressSettings.DEFAULT_REDELIVER_DELAY, addressSettings.getRedeliveryDelay());
       Assert.assertEquals(AddressSettings.DEFAULT_REDELIVER_MULTIPLIER,
                           addressSettings.getRedeliveryMultiplier());
+      Assert.assertEquals(AddressSettings.DEFAULT_QUEUE_SHARDS, addressSettings.getQueueShards());
+      Assert.assertEquals(AddressSettings.DEFAULT_DELIVERY_BATCH_SIZE, addressSettings.getDeliveryBatchSize());
 
    }
 
@@ -55,6 +57,8 @@ public class AddressSettingsTest extends UnitTestCase
       addressSettingsToMerge.setMessageCounterHistoryDayLimit(1002);
       addressSettingsToMerge.setRedeliveryDelay(1003);
       addressSettingsToMerge.setPageSizeBytes(1004);
+      addressSettingsToMerge.setQueueShards(4);
+      addressSettingsToMerge.setDeliveryBatchSize(8);
       addressSettings.merge(addressSettingsToMerge);
       Assert.assertEquals(addressSettings.getDeadLetterAddress(), DLQ);
       Assert.assertEquals(addressSettings.getExpiryAddress(), exp);
@@ -63,6 +67,8 @@ public class AddressSettingsTest extends UnitTestCase
       Assert.assertEquals(addressSettings.getMessageCounterHistoryDayLimit(), 1002);
       Assert.assertEquals(addressSettings.getRedeliveryDelay(), 1003);
       Assert.assertEquals(addressSettings.getPageSizeBytes(), 1004);
+      Assert.assertEquals(addressSettings.getQueueShards(), 4);
+      Assert.assertEquals(addressSettings.getDeliveryBatchSize(), 8);
       Assert.assertEquals(AddressFullMessagePolicy.DROP, addressSettings.getAddressFullMessagePolicy());
    }
 
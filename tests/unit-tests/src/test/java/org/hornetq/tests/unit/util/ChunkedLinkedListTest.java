@@ -0,0 +1,213 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.util;
+
+import org.hornetq.utils.ChunkedLinkedListImpl;
+import org.hornetq.utils.LinkedList;
+import org.hornetq.utils.LinkedListIterator;
+
+/**
+ * Runs the tests of {@link LinkedListTest} on a {@link ChunkedLinkedListImpl}, plus the ones about its chunks.
+ */
+public class ChunkedLinkedListTest extends LinkedListTest
+{
+   private static final int CHUNK = ChunkedLinkedListImpl.CHUNK_SIZE;
+
+   public void testEmptyChunksAreDropped()
+   {
+      ChunkedLinkedListImpl<Integer> list = new ChunkedLinkedListImpl<Integer>();
+
+      for (int i = 0; i < CHUNK * 4; i++)
+      {
+         list.addTail(i);
+      }
+
+      assertEquals(4, list.numChunks());
+
+      for (int i = 0; i < CHUNK * 2; i++)
+      {
+         assertEquals(i, list.poll().intValue());
+      }
+
+      assertEquals(2, list.numChunks());
+
+      LinkedListIterator<Integer> iter = list.iterator();
+
+      for (int i = CHUNK * 2; i < CHUNK * 4; i++)
+      {
+         assertEquals(i, iter.next().intValue());
+
+         iter.remove();
+      }
+
+      assertFalse(iter.hasNext());
+      assertEquals(0, list.size());
+      assertEquals(0, list.numChunks());
+
+      list.addTail(1000);
+
+      assertTrue(iter.hasNext());
+      assertEquals(1000, iter.next().intValue());
+
+      iter.close();
+   }
+
+   public void testAddHeadAcrossChunks()
+   {
+      ChunkedLinkedListImpl<Integer> list = new ChunkedLinkedListImpl<Integer>();
+
+      for (int i = CHUNK * 3 - 1; i >= 0; i--)
+      {
+         list.addHead(i);
+      }
+
+      for (int i = CHUNK * 3; i < CHUNK * 5; i++)
+      {
+         list.addTail(i);
+      }
+
+      LinkedListIterator<Integer> iter = list.iterator();
+
+      for (int i = 0; i < CHUNK * 5; i++)
+      {
+         assertTrue(iter.hasNext());
+         assertEquals(i, iter.next().intValue());
+      }
+
+      assertFalse(iter.hasNext());
+
+      iter.close();
+   }
+
+   public void testCompactKeepsIteratorsInPlace()
+   {
+      ChunkedLinkedListImpl<Integer> list = new ChunkedLinkedListImpl<Integer>();
+
+      for (int i = 0; i < CHUNK * 3; i++)
+      {
+         list.addTail(i);
+      }
+
+      LinkedListIterator<Integer> remover = list.iterator();
+
+      LinkedListIterator<Integer> browser = list.iterator();
+
+      // the browser stops in the middle of the first chunk, on an element which stays
+      for (int i = 0; i <= CHUNK / 2; i++)
+      {
+         assertEquals(i, browser.next().intValue());
+      }
+
+      // leaves one element out of eight in the first two chunks
+      for (int i = 0; i < CHUNK * 2; i++)
+      {
+         assertEquals(i, remover.next().intValue());
+
+         if (i % 8 != 0)
+         {
+            remover.remove();
+         }
+      }
+
+      assertEquals(CHUNK + CHUNK * 2 / 8, list.size());
+      assertEquals(3, list.numChunks());
+
+      // the element the browser is on is still there
+      browser.repeat();
+      assertEquals(CHUNK / 2, browser.next().intValue());
+
+      for (int i = CHUNK / 2 + 8; i < CHUNK * 2; i += 8)
+      {
+         assertEquals(i, browser.next().intValue());
+      }
+
+      for (int i = CHUNK * 2; i < CHUNK * 3; i++)
+      {
+         assertEquals(i, browser.next().intValue());
+      }
+
+      assertFalse(browser.hasNext());
+
+      LinkedListIterator<Integer> iter = list.iterator();
+
+      for (int i = 0; i < CHUNK * 2; i += 8)
+      {
+         assertEquals(i, iter.next().intValue());
+      }
+
+      remover.close();
+      browser.close();
+      iter.close();
+   }
+
+   public void testIteratorOnRemovedElement()
+   {
+      ChunkedLinkedListImpl<Integer> list = new ChunkedLinkedListImpl<Integer>();
+
+      for (int i = 0; i < CHUNK * 2; i++)
+      {
+         list.addTail(i);
+      }
+
+      LinkedListIterator<Integer> browser = list.iterator();
+
+      for (int i = 0; i <= 5; i++)
+      {
+         browser.next();
+      }
+
+      LinkedListIterator<Integer> remover = list.iterator();
+
+      // removes everything but the first element of the first chunk, including the one the browser is on
+      remover.next();
+
+      for (int i = 1; i < CHUNK; i++)
+      {
+         assertEquals(i, remover.next().intValue());
+
+         remover.remove();
+      }
+
+      // the browser was moved onto the first element left after the one it was on
+      browser.repeat();
+      assertEquals(CHUNK, browser.next().intValue());
+
+      try
+      {
+         remover.remove();
+         fail("Should throw NoSuchElementException");
+      }
+      catch (java.util.NoSuchElementException expected)
+      {
+         // OK
+      }
+
+      assertEquals(CHUNK + 1, list.size());
+
+      remover.close();
+      browser.close();
+   }
+
+   @Override
+   protected <E> LinkedList<E> createList()
+   {
+      return new ChunkedLinkedListImpl<E>();
+   }
+
+   @Override
+   protected int numIters(final LinkedList<?> list)
+   {
+      return ((ChunkedLinkedListImpl<?>)list).numIters();
+   }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hornetq.tests.util.UnitTestCase;
+import org.hornetq.utils.ConcurrentLongHashMap;
+
+/**
+ * A ConcurrentLongHashMapTest
+ */
+public class ConcurrentLongHashMapTest extends UnitTestCase
+{
+
+   public void testPutGetRemove()
+   {
+      ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<String>();
+
+      assertTrue(map.isEmpty());
+      assertNull(map.put(1, "one"));
+      assertNull(map.put(-1, "minusOne"));
+      assertNull(map.put(Long.MAX_VALUE, "max"));
+      assertEquals("one", map.put(1, "uno"));
+      assertEquals("uno", map.putIfAbsent(1, "one"));
+      assertEquals(3, map.size());
+
+      assertEquals("uno", map.get(1));
+      assertEquals("minusOne", map.get(-1));
+      assertEquals("max", map.get(Long.MAX_VALUE));
+      assertNull(map.get(2));
+
+      assertEquals("uno", map.remove(1));
+      assertNull(map.remove(1));
+      assertFalse(map.containsKey(1));
+      assertEquals(2, map.size());
+
+      map.clear();
+      assertTrue(map.isEmpty());
+      assertNull(map.get(-1));
+   }
+
+   public void testNullValue()
+   {
+      ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<String>();
+      try
+      {
+         map.put(1, null);
+         fail("null values are not supported");
+      }
+      catch (NullPointerException expected)
+      {
+      }
+   }
+
+   public void testCompareWithHashMap()
+   {
+      ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<Long>(4);
+      Map<Long, Long> reference = new HashMap<Long, Long>();
+
+      java.util.Random random = new java.util.Random(1);
+
+      for (int i = 0; i < 200000; i++)
+      {
+         long key = random.nextInt(5000);
+         switch (random.nextInt(3))
+         {
+            case 0:
+               assertEquals(reference.put(key, (long)i), map.put(key, (long)i));
+               break;
+            case 1:
+               assertEquals(reference.remove(key), map.remove(key));
+               break;
+            default:
+               assertEquals(reference.get(key), map.get(key));
+         }
+      }
+
+      assertEquals(reference.size(), map.size());
+
+      long[] keys = map.keys();
+      assertEquals(reference.size(), keys.length);
+      Arrays.sort(keys);
+      for (long key : keys)
+      {
+         assertEquals(reference.get(key), map.get(key));
+      }
+
+      assertEquals(reference.size(), map.values().size());
+   }
+
+   public void testForEach()
+   {
+      ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<Long>();
+      for (long i = 0; i < 1000; i++)
+      {
+         map.put(i, i * 2);
+      }
+
+      final AtomicInteger errors = new AtomicInteger(0);
+      final AtomicInteger count = new AtomicInteger(0);
+
+      map.forEach(new ConcurrentLongHashMap.EntryProcessor<Long>()
+      {
+         public void accept(final long key, final Long value)
+         {
+            count.incrementAndGet();
+            if (value.longValue() != key * 2)
+            {
+               errors.incrementAndGet();
+            }
+         }
+      });
+
+      assertEquals(1000, count.get());
+      assertEquals(0, errors.get());
+   }
+
+   public void testConcurrentPutAndRemove() throws Exception
+   {
+      final ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<Long>();
+
+      final int THREADS = 10;
+      final int ELEMENTS = 10000;
+
+      final CountDownLatch start = new CountDownLatch(1);
+      final AtomicInteger errors = new AtomicInteger(0);
+
+      Thread[] threads = new Thread[THREADS];
+
+      for (int t = 0; t < THREADS; t++)
+      {
+         final long base = t * ELEMENTS;
+         threads[t] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  start.await();
+                  for (long i = base; i < base + ELEMENTS; i++)
+                  {
+                     map.put(i, i);
+                  }
+                  for (long i = base; i < base + ELEMENTS; i += 2)
+                  {
+                     if (map.remove(i) == null)
+                     {
+                        errors.incrementAndGet();
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  e.printStackTrace();
+                  errors.incrementAndGet();
+               }
+            }
+         };
+         threads[t].start();
+      }
+
+      start.countDown();
+
+      for (Thread t : threads)
+      {
+         t.join();
+      }
+
+      assertEquals(0, errors.get());
+      assertEquals(THREADS * ELEMENTS / 2, map.size());
+
+      for (long i = 1; i < THREADS * ELEMENTS; i += 2)
+      {
+         assertEquals(Long.valueOf(i), map.get(i));
+      }
+   }
+
+   public void testLockFreeReadsDuringWrites() throws Exception
+   {
+      // a single segment, so every write shifts or grows the table the readers are on
+      final ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<Long>(1);
+
+      final int STABLE = 1000;
+      final int READERS = 4;
+
+      for (long i = 0; i < STABLE; i++)
+      {
+         map.put(i, i);
+      }
+
+      final AtomicInteger errors = new AtomicInteger(0);
+      final CountDownLatch done = new CountDownLatch(1);
+
+      Thread[] readers = new Thread[READERS];
+
+      for (int t = 0; t < READERS; t++)
+      {
+         readers[t] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               while (done.getCount() > 0)
+               {
+                  for (long i = 0; i < STABLE; i++)
+                  {
+                     if (!Long.valueOf(i).equals(map.get(i)))
+                     {
+                        errors.incrementAndGet();
+                     }
+                  }
+               }
+            }
+         };
+         readers[t].start();
+      }
+
+      for (int round = 0; round < 50; round++)
+      {
+         for (long i = STABLE; i < STABLE * 10; i++)
+         {
+            map.put(i, i);
+         }
+         for (long i = STABLE; i < STABLE * 10; i++)
+         {
+            map.remove(i);
+         }
+      }
+
+      done.countDown();
+
+      for (Thread t : readers)
+      {
+         t.join();
+      }
+
+      assertEquals(0, errors.get());
+      assertEquals(STABLE, map.size());
+   }
+}
@@ -150,6 +150,20 @@ public final class FakePagingManager implements PagingManager
    {
    }
 
+   public void addSize(final int size)
+   {
+   }
+
+   public long getGlobalSize()
+   {
+      return 0;
+   }
+
+   public long getGlobalMaxSize()
+   {
+      return -1;
+   }
+
    /*
     * (non-Javadoc)
     * @see org.hornetq.core.settings.HierarchicalRepositoryChangeListener#onChange()